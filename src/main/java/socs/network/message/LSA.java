@@ -1,7 +1,10 @@
 package socs.network.message;
 
 import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.zip.CRC32;
 
 public class LSA implements Serializable {
 
@@ -9,9 +12,81 @@ public class LSA implements Serializable {
   public String linkStateID;
   public int lsaSeqNumber = Integer.MIN_VALUE;
   public boolean hasQuitNetwork = false;
+  //seconds since the LSA was originated; aged by every router holding it and purged once it reaches MaxAge
+  public int lsaAge = 0;
+  //the area in which this LSA is flooded; 0 is the backbone
+  public int areaId = 0;
+  //whether this is a summary LSA, originated by an area border router into one of its areas: each link then names a
+  //destination outside that area (linkID) and the cost of the border router to it (tosMetrics), and the
+  //linkStateID is summaryID(border router, area)
+  public boolean isSummary = false;
+  //CRC32 of the contents (the links, the area and the flags) but not of the sequence number or the age; set by the router
+  //that originates the LSA, so that receivers can tell a re-origination with unchanged contents from a real change
+  public int checksum = 0;
 
   public LinkedList<LinkDescription> links = new LinkedList<LinkDescription>();
 
+  private static final char SUMMARY_ID_SEPARATOR = '#';
+
+  /**
+   * @return the linkStateID of the summary LSA that the given area border router originates into the given area.
+   */
+  public static String summaryID(String originator, int areaId) {
+    return originator + SUMMARY_ID_SEPARATOR + areaId;
+  }
+
+  /**
+   * @return the simulated IP of the router that originated this LSA.
+   */
+  public String getOriginator() {
+    return isSummary ? linkStateID.substring(0, linkStateID.lastIndexOf(SUMMARY_ID_SEPARATOR)) : linkStateID;
+  }
+
+  /**
+   * Recomputes the checksum; to be called by the originating router whenever it changes the contents of the LSA.
+   */
+  public void updateChecksum() {
+    CRC32 crc = new CRC32();
+    Charset utf8 = Charset.forName("UTF-8");
+    crc.update(linkStateID.getBytes(utf8));
+    crc.update(hasQuitNetwork ? 1 : 0);
+    crc.update(isSummary ? 1 : 0);
+    updateInt(crc, areaId);
+    for (LinkDescription ld : links) {
+      crc.update(ld.linkID.getBytes(utf8));
+      updateInt(crc, ld.portNum);
+      updateInt(crc, ld.tosMetrics);
+    }
+    checksum = (int) crc.getValue();
+  }
+
+  /**
+   * @param other another instance of this LSA.
+   * @return true if both instances have the same contents, whatever their sequence numbers and ages. Instances with
+   * different checksums are told apart right away; equal checksums are confirmed by comparing the links.
+   */
+  public boolean hasSameContents(LSA other) {
+    if (checksum != other.checksum || hasQuitNetwork != other.hasQuitNetwork || isSummary != other.isSummary ||
+        areaId != other.areaId || !linkStateID.equals(other.linkStateID) || links.size() != other.links.size()) {
+      return false;
+    }
+    Iterator<LinkDescription> otherLinks = other.links.iterator();
+    for (LinkDescription ld : links) {
+      LinkDescription otherLd = otherLinks.next();
+      if (!ld.linkID.equals(otherLd.linkID) || ld.portNum != otherLd.portNum || ld.tosMetrics != otherLd.tosMetrics) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void updateInt(CRC32 crc, int value) {
+    crc.update(value >>> 24);
+    crc.update(value >>> 16);
+    crc.update(value >>> 8);
+    crc.update(value);
+  }
+
   @Override
   public String toString() {
     StringBuffer sb = new StringBuffer();
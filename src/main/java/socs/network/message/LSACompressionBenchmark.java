@@ -0,0 +1,116 @@
+package socs.network.message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * Measures the CPU cost and the bytes saved by {@link LSACompressor} on the full-LSD LSUPDATE of synthetic networks.
+ * Every router of a network of N routers gets links to 4 others chosen at random (from a fixed seed), with random
+ * metrics; router IDs are dotted quads like the simulated IPs.
+ * <p/>
+ * Usage: LSACompressionBenchmark [no of routers ...] (default: 1000 10000)
+ */
+public final class LSACompressionBenchmark {
+    private static final int LINKS_PER_ROUTER = 4;
+    private static final long MEASURED_NANOS = 2000000000L;
+
+    private LSACompressionBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        int[] networkSizes = args.length == 0 ? new int[]{1000, 10000} : new int[args.length];
+        for (int argIndex = 0; argIndex < args.length; argIndex++) {
+            networkSizes[argIndex] = Integer.parseInt(args[argIndex]);
+        }
+
+        System.out.println(String.format("%10s %14s %14s %14s %8s %14s %14s", "routers", "serialized(B)",
+                "encoded(B)", "compressed(B)", "ratio", "compress(ms)", "decompress(ms)"));
+        for (int noOfRouters : networkSizes) {
+            Vector<LSA> lsaArray = createLSAs(noOfRouters);
+            int encodedSize = LSACompressor.uncompressedSizeOf(lsaArray);
+            byte[] compressedLSAs = LSACompressor.compress(lsaArray);
+            if (LSACompressor.decompress(compressedLSAs).size() != noOfRouters) {
+                throw new IllegalStateException("The LSAs did not survive compression.");
+            }
+
+            // warm up, then time as many rounds as fit in the measuring period.
+            timeCompression(lsaArray, MEASURED_NANOS / 4);
+            double compressMillis = timeCompression(lsaArray, MEASURED_NANOS);
+            timeDecompression(compressedLSAs, MEASURED_NANOS / 4);
+            double decompressMillis = timeDecompression(compressedLSAs, MEASURED_NANOS);
+
+            System.out.println(String.format("%10d %14d %14d %14d %7.1fx %14.2f %14.2f", noOfRouters,
+                    serializedSizeOf(lsaArray), encodedSize, compressedLSAs.length,
+                    (double) encodedSize / compressedLSAs.length, compressMillis, decompressMillis));
+        }
+    }
+
+    private static Vector<LSA> createLSAs(int noOfRouters) {
+        Random random = new Random(noOfRouters);
+        Vector<LSA> lsaArray = new Vector<>(noOfRouters);
+        for (int routerIndex = 0; routerIndex < noOfRouters; routerIndex++) {
+            LSA lsa = new LSA();
+            lsa.linkStateID = routerId(routerIndex);
+            lsa.lsaSeqNumber = random.nextInt(1000);
+            lsa.lsaAge = random.nextInt(3600);
+            for (int linkIndex = 0; linkIndex < LINKS_PER_ROUTER; linkIndex++) {
+                LinkDescription linkDesc = new LinkDescription();
+                linkDesc.linkID = routerId(random.nextInt(noOfRouters));
+                linkDesc.portNum = linkIndex;
+                linkDesc.tosMetrics = 1 + random.nextInt(100);
+                lsa.links.add(linkDesc);
+            }
+            lsaArray.add(lsa);
+        }
+        return lsaArray;
+    }
+
+    private static String routerId(int routerIndex) {
+        return "10." + (routerIndex >> 16 & 0xFF) + "." + (routerIndex >> 8 & 0xFF) + "." + (routerIndex & 0xFF);
+    }
+
+    private static int serializedSizeOf(Vector<LSA> lsaArray) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectStream = new ObjectOutputStream(byteStream)) {
+            objectStream.writeObject(lsaArray);
+        }
+        return byteStream.size();
+    }
+
+    /**
+     * @return the average time of one compression in milliseconds.
+     */
+    private static double timeCompression(Vector<LSA> lsaArray, long periodNanos) {
+        long startNanos = System.nanoTime();
+        long noOfRounds = 0;
+        long checksum = 0;
+        do {
+            checksum += LSACompressor.compress(lsaArray).length;
+            noOfRounds++;
+        } while (System.nanoTime() - startNanos < periodNanos);
+        if (checksum == 0) {
+            throw new IllegalStateException();
+        }
+        return (System.nanoTime() - startNanos) / 1e6 / noOfRounds;
+    }
+
+    /**
+     * @return the average time of one decompression in milliseconds.
+     */
+    private static double timeDecompression(byte[] compressedLSAs, long periodNanos) throws IOException {
+        long startNanos = System.nanoTime();
+        long noOfRounds = 0;
+        long checksum = 0;
+        do {
+            checksum += LSACompressor.decompress(compressedLSAs).size();
+            noOfRounds++;
+        } while (System.nanoTime() - startNanos < periodNanos);
+        if (checksum == 0) {
+            throw new IllegalStateException();
+        }
+        return (System.nanoTime() - startNanos) / 1e6 / noOfRounds;
+    }
+}
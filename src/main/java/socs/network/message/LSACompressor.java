@@ -0,0 +1,186 @@
+package socs.network.message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses the LSAs of an LSUPDATE. A full-LSD update names every router many times (once as the owner of its LSA
+ * and once per link towards it), so the router IDs are first replaced by indices into a string table that lists
+ * every distinct ID once, and the result is then Deflate-compressed:
+ * <pre>
+ * no-of-strings(varint), strings(UTF), no-of-LSAs(varint),
+ *   per LSA: ID-index(varint), seq-number(4), age(4), checksum(4), area(varint), quit-flag(1), summary-flag(1),
+ *     no-of-links(varint),
+ *     per link: ID-index(varint), port(varint), metric(varint)
+ * </pre>
+ */
+public final class LSACompressor {
+    // upper bound of the no of strings, LSAs or links of an LSA in a compressed array, to reject corrupt input early.
+    private static final int MAX_ENTRIES = 1 << 24;
+    // the largest ratio of inflated to compressed bytes Deflate achieves; every entry takes at least an inflated byte,
+    // so no count read from the input may exceed its length times this ratio.
+    private static final int MAX_DEFLATE_RATIO = 1032;
+
+    private LSACompressor() {
+    }
+
+    /**
+     * @param lsaArray the LSAs to be compressed.
+     * @return the no of bytes the LSAs occupy uncompressed, as encoded by {@link MessageCodec}.
+     */
+    public static int uncompressedSizeOf(List<LSA> lsaArray) {
+        int size = 4;
+        for (LSA lsa : lsaArray) {
+            size += MessageCodec.sizeOf(lsa);
+        }
+        return size;
+    }
+
+    /**
+     * @param lsaArray the LSAs to be compressed.
+     * @return the compressed LSAs.
+     */
+    public static byte[] compress(List<LSA> lsaArray) {
+        Map<String, Integer> stringIndices = new HashMap<>();
+        List<String> strings = new ArrayList<>();
+        for (LSA lsa : lsaArray) {
+            indexOf(lsa.linkStateID, stringIndices, strings);
+            for (LinkDescription linkDesc : lsa.links) {
+                indexOf(linkDesc.linkID, stringIndices, strings);
+            }
+        }
+
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(uncompressedSizeOf(lsaArray) / 4);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(compressedBytes, deflater))) {
+            writeVarint(output, strings.size());
+            for (String string : strings) {
+                output.writeUTF(string);
+            }
+            writeVarint(output, lsaArray.size());
+            for (LSA lsa : lsaArray) {
+                writeVarint(output, stringIndices.get(lsa.linkStateID));
+                output.writeInt(lsa.lsaSeqNumber);
+                output.writeInt(lsa.lsaAge);
+                output.writeInt(lsa.checksum);
+                writeVarint(output, lsa.areaId);
+                output.writeBoolean(lsa.hasQuitNetwork);
+                output.writeBoolean(lsa.isSummary);
+                writeVarint(output, lsa.links.size());
+                for (LinkDescription linkDesc : lsa.links) {
+                    writeVarint(output, stringIndices.get(linkDesc.linkID));
+                    writeVarint(output, linkDesc.portNum);
+                    writeVarint(output, linkDesc.tosMetrics);
+                }
+            }
+        } catch (IOException e) {
+            // cannot happen when writing to memory.
+            throw new IllegalStateException(e);
+        } finally {
+            deflater.end();
+        }
+        return compressedBytes.toByteArray();
+    }
+
+    /**
+     * @param compressedLSAs the output of {@link #compress(List)}.
+     * @return the LSAs.
+     * @throws IOException if the bytes are not a valid compressed LSA array.
+     */
+    public static Vector<LSA> decompress(byte[] compressedLSAs) throws IOException {
+        int maxEntries = (int) Math.min(MAX_ENTRIES, (long) compressedLSAs.length * MAX_DEFLATE_RATIO);
+        Inflater inflater = new Inflater();
+        try (DataInputStream input = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(compressedLSAs), inflater))) {
+            // grown as the strings are read, so that corrupt input fails before it allocates the table it claims.
+            int noOfStrings = readCount(input, maxEntries);
+            List<String> strings = new ArrayList<>(Math.min(noOfStrings, 1024));
+            for (int stringIndex = 0; stringIndex < noOfStrings; stringIndex++) {
+                strings.add(input.readUTF());
+            }
+            int noOfLSAs = readCount(input, maxEntries);
+            Vector<LSA> lsaArray = new Vector<>(Math.min(noOfLSAs, 1024));
+            for (int lsaIndex = 0; lsaIndex < noOfLSAs; lsaIndex++) {
+                LSA lsa = new LSA();
+                lsa.linkStateID = readString(input, strings);
+                lsa.lsaSeqNumber = input.readInt();
+                lsa.lsaAge = input.readInt();
+                lsa.checksum = input.readInt();
+                lsa.areaId = readVarint(input);
+                lsa.hasQuitNetwork = input.readBoolean();
+                lsa.isSummary = input.readBoolean();
+                int noOfLinks = readCount(input, maxEntries);
+                for (int linkIndex = 0; linkIndex < noOfLinks; linkIndex++) {
+                    LinkDescription linkDesc = new LinkDescription();
+                    linkDesc.linkID = readString(input, strings);
+                    linkDesc.portNum = readVarint(input);
+                    linkDesc.tosMetrics = readVarint(input);
+                    lsa.links.add(linkDesc);
+                }
+                lsaArray.add(lsa);
+            }
+            return lsaArray;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void indexOf(String string, Map<String, Integer> stringIndices, List<String> strings) {
+        if (!stringIndices.containsKey(string)) {
+            stringIndices.put(string, strings.size());
+            strings.add(string);
+        }
+    }
+
+    private static String readString(DataInputStream input, List<String> strings) throws IOException {
+        int stringIndex = readVarint(input);
+        if (stringIndex < 0 || stringIndex >= strings.size()) {
+            throw new IOException("String index " + stringIndex + " is out of the string table.");
+        }
+        return strings.get(stringIndex);
+    }
+
+    private static int readCount(DataInputStream input, int maxEntries) throws IOException {
+        int count = readVarint(input);
+        if (count < 0 || count > maxEntries) {
+            throw new IOException("Invalid no of entries: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Writes an int 7 bits at a time, least significant first; the high bit of a byte is set if more bytes follow.
+     * Negative values take 5 bytes.
+     */
+    private static void writeVarint(DataOutputStream output, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+
+    private static int readVarint(DataInputStream input) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int nextByte = input.readUnsignedByte();
+            value |= (nextByte & 0x7F) << shift;
+            if ((nextByte & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint.");
+    }
+}
@@ -0,0 +1,231 @@
+package socs.network.message;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Compact binary encoding of the protocol messages. Used wherever messages are stored or moved as raw bytes instead
+ * of through Java serialization (e.g. the persisted LinkStateDatabase and the datagram control transport).
+ * <p/>
+ * Strings are written as an unsigned-short length followed by their UTF-8 bytes.
+ */
+public final class MessageCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    // flags marking the optional fields present in an encoded SOSPFPacket.
+    private static final int ROUTER_ID_PRESENT = 1;
+    private static final int NEIGHBOR_ID_PRESENT = 2;
+    private static final int LSA_ARRAY_PRESENT = 4;
+    private static final int LSD_SUMMARY_PRESENT = 8;
+    private static final int COMPRESSED_LSAS_PRESENT = 16;
+    private static final int ACCEPTS_COMPRESSION = 32;
+    // flags of an encoded LSA.
+    private static final int LSA_HAS_QUIT_NETWORK = 1;
+    private static final int LSA_IS_SUMMARY = 2;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * @param lsa the LSA to be encoded.
+     * @return the no of bytes the LSA occupies when encoded.
+     */
+    public static int sizeOf(LSA lsa) {
+        // seq-number(4) + age(4) + checksum(4) + area(4) + flags(1) + no-of-links(4)
+        int size = sizeOf(lsa.linkStateID) + 21;
+        for (LinkDescription linkDesc : lsa.links) {
+            // port(4) + metric(4)
+            size += sizeOf(linkDesc.linkID) + 8;
+        }
+        return size;
+    }
+
+    public static void writeLSA(ByteBuffer buffer, LSA lsa) {
+        writeString(buffer, lsa.linkStateID);
+        buffer.putInt(lsa.lsaSeqNumber);
+        buffer.putInt(lsa.lsaAge);
+        buffer.putInt(lsa.checksum);
+        buffer.putInt(lsa.areaId);
+        buffer.put((byte) ((lsa.hasQuitNetwork ? LSA_HAS_QUIT_NETWORK : 0) | (lsa.isSummary ? LSA_IS_SUMMARY : 0)));
+        buffer.putInt(lsa.links.size());
+        for (LinkDescription linkDesc : lsa.links) {
+            writeString(buffer, linkDesc.linkID);
+            buffer.putInt(linkDesc.portNum);
+            buffer.putInt(linkDesc.tosMetrics);
+        }
+    }
+
+    /**
+     * @param buffer the buffer positioned at the start of an encoded LSA.
+     * @return the decoded LSA.
+     * @throws BufferUnderflowException if the buffer does not hold a complete LSA.
+     */
+    public static LSA readLSA(ByteBuffer buffer) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = readString(buffer);
+        lsa.lsaSeqNumber = buffer.getInt();
+        lsa.lsaAge = buffer.getInt();
+        lsa.checksum = buffer.getInt();
+        lsa.areaId = buffer.getInt();
+        int flags = buffer.get();
+        lsa.hasQuitNetwork = (flags & LSA_HAS_QUIT_NETWORK) != 0;
+        lsa.isSummary = (flags & LSA_IS_SUMMARY) != 0;
+        int noOfLinks = buffer.getInt();
+        if (noOfLinks < 0 || noOfLinks > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        for (int linkIndex = 0; linkIndex < noOfLinks; linkIndex++) {
+            LinkDescription linkDesc = new LinkDescription();
+            linkDesc.linkID = readString(buffer);
+            linkDesc.portNum = buffer.getInt();
+            linkDesc.tosMetrics = buffer.getInt();
+            lsa.links.add(linkDesc);
+        }
+        return lsa;
+    }
+
+    /**
+     * @param packet the packet to be encoded.
+     * @return the no of bytes the packet occupies when encoded.
+     */
+    public static int sizeOf(SOSPFPacket packet) {
+        // field-presence flags(1) + time-to-live(8) + process-port(2) + type(2) + hello-stage(2) + area(4)
+        int size = 19 + sizeOf(packet.srcProcessIP) + sizeOf(packet.srcIP) + sizeOf(packet.dstIP);
+        size += packet.routerID == null ? 0 : sizeOf(packet.routerID);
+        size += packet.neighborID == null ? 0 : sizeOf(packet.neighborID);
+        if (packet.lsaArray != null) {
+            size += 4;
+            for (LSA lsa : packet.lsaArray) {
+                size += sizeOf(lsa);
+            }
+        }
+        if (packet.lsdSummary != null) {
+            size += 4;
+            for (String linkStateID : packet.lsdSummary.keySet()) {
+                size += sizeOf(linkStateID) + 4;
+            }
+        }
+        size += packet.compressedLSAs == null ? 0 : 4 + packet.compressedLSAs.length;
+        return size;
+    }
+
+    /**
+     * Encodes a packet. The optional fields (routerID, neighborID, lsaArray, lsdSummary and compressedLSAs) are only
+     * written if they are set, as flagged in the first byte along with acceptsCompression.
+     */
+    public static void writePacket(ByteBuffer buffer, SOSPFPacket packet) {
+        int presentFields = (packet.routerID == null ? 0 : ROUTER_ID_PRESENT) |
+                (packet.neighborID == null ? 0 : NEIGHBOR_ID_PRESENT) |
+                (packet.lsaArray == null ? 0 : LSA_ARRAY_PRESENT) |
+                (packet.lsdSummary == null ? 0 : LSD_SUMMARY_PRESENT) |
+                (packet.compressedLSAs == null ? 0 : COMPRESSED_LSAS_PRESENT) |
+                (packet.acceptsCompression ? ACCEPTS_COMPRESSION : 0);
+        buffer.put((byte) presentFields);
+        buffer.putLong(packet.timeToLive);
+        writeString(buffer, packet.srcProcessIP);
+        buffer.putShort(packet.srcProcessPort);
+        writeString(buffer, packet.srcIP);
+        writeString(buffer, packet.dstIP);
+        buffer.putShort(packet.sospfType);
+        buffer.putShort(packet.helloStage);
+        buffer.putInt(packet.areaId);
+        if (packet.routerID != null) {
+            writeString(buffer, packet.routerID);
+        }
+        if (packet.neighborID != null) {
+            writeString(buffer, packet.neighborID);
+        }
+        if (packet.lsaArray != null) {
+            buffer.putInt(packet.lsaArray.size());
+            for (LSA lsa : packet.lsaArray) {
+                writeLSA(buffer, lsa);
+            }
+        }
+        if (packet.lsdSummary != null) {
+            buffer.putInt(packet.lsdSummary.size());
+            for (Map.Entry<String, Integer> summaryEntry : packet.lsdSummary.entrySet()) {
+                writeString(buffer, summaryEntry.getKey());
+                buffer.putInt(summaryEntry.getValue());
+            }
+        }
+        if (packet.compressedLSAs != null) {
+            buffer.putInt(packet.compressedLSAs.length);
+            buffer.put(packet.compressedLSAs);
+        }
+    }
+
+    /**
+     * @param buffer the buffer positioned at the start of an encoded packet.
+     * @return the decoded packet.
+     * @throws BufferUnderflowException if the buffer does not hold a complete packet.
+     */
+    public static SOSPFPacket readPacket(ByteBuffer buffer) {
+        SOSPFPacket packet = new SOSPFPacket();
+        int presentFields = buffer.get();
+        packet.timeToLive = buffer.getLong();
+        packet.srcProcessIP = readString(buffer);
+        packet.srcProcessPort = buffer.getShort();
+        packet.srcIP = readString(buffer);
+        packet.dstIP = readString(buffer);
+        packet.sospfType = buffer.getShort();
+        packet.helloStage = buffer.getShort();
+        packet.areaId = buffer.getInt();
+        if ((presentFields & ROUTER_ID_PRESENT) != 0) {
+            packet.routerID = readString(buffer);
+        }
+        if ((presentFields & NEIGHBOR_ID_PRESENT) != 0) {
+            packet.neighborID = readString(buffer);
+        }
+        if ((presentFields & LSA_ARRAY_PRESENT) != 0) {
+            int noOfLSAs = readCount(buffer);
+            packet.lsaArray = new Vector<>(noOfLSAs);
+            for (int lsaIndex = 0; lsaIndex < noOfLSAs; lsaIndex++) {
+                packet.lsaArray.add(readLSA(buffer));
+            }
+        }
+        if ((presentFields & LSD_SUMMARY_PRESENT) != 0) {
+            int noOfEntries = readCount(buffer);
+            packet.lsdSummary = new HashMap<>();
+            for (int entryIndex = 0; entryIndex < noOfEntries; entryIndex++) {
+                packet.lsdSummary.put(readString(buffer), buffer.getInt());
+            }
+        }
+        if ((presentFields & COMPRESSED_LSAS_PRESENT) != 0) {
+            packet.compressedLSAs = new byte[readCount(buffer)];
+            buffer.get(packet.compressedLSAs);
+        }
+        packet.acceptsCompression = (presentFields & ACCEPTS_COMPRESSION) != 0;
+        return packet;
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return count;
+    }
+
+    public static int sizeOf(String string) {
+        return 2 + string.getBytes(UTF8).length;
+    }
+
+    public static void writeString(ByteBuffer buffer, String string) {
+        byte[] bytes = string.getBytes(UTF8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    public static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+}
@@ -1,6 +1,7 @@
 package socs.network.message;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.Vector;
 
 public class SOSPFPacket implements Serializable {
@@ -25,4 +26,21 @@ public class SOSPFPacket implements Serializable {
     //used by LSAUPDATE
     public Vector<LSA> lsaArray = null;
 
+    //used by HELLO to tell the neighbor the sequence number of every LSA the sender already holds (linkStateID =>
+    //lsaSeqNumber), so that the LSUPDATE following the HELLO only carries the LSAs that are missing or newer
+    public HashMap<String, Integer> lsdSummary = null;
+
+    //used by HELLO over the datagram transport, where the messages of an exchange do not share a connection: tells
+    //the receiver whether this is the first HELLO of an exchange, the reply to it or the final confirmation
+    public short helloStage = 0;
+
+    //used by HELLO to tell the neighbor that the sender accepts compressed LSUPDATEs
+    public boolean acceptsCompression = false;
+
+    //used by LSUPDATE instead of lsaArray when the LSAs were compressed (see LSACompressor)
+    public byte[] compressedLSAs = null;
+
+    //the area of the sender, so that the receiver knows which LSAs may be flooded over the link between them
+    public int areaId = 0;
+
 }
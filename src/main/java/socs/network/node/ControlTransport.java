@@ -0,0 +1,46 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+
+/**
+ * The transport over which a router sends its control messages (HELLO, LSUPDATE, EXIT, DISCONNECT and the HELLO
+ * keepalives) to its neighbours. ATTACH is always a TCP request/response to the RouterServer of the other router.
+ * <p/>
+ * Messages are sent asynchronously; {@link #drain(long)} waits for the ones still in flight.
+ */
+interface ControlTransport {
+
+    /**
+     * @return true if the transport is ready to send and receive; false if it could not be started.
+     */
+    boolean start();
+
+    void stop();
+
+    /**
+     * Sends a one-way message to the given router.
+     *
+     * @param destination the router to send the message to.
+     * @param packet      the message; encoded before this returns, so the caller may modify it afterwards.
+     * @param packetType  the name of the message type, for logging.
+     */
+    void send(RouterDescription destination, SOSPFPacket packet, String packetType);
+
+    /**
+     * Runs the initiating side of a HELLO exchange over the given link: sends the HELLO, hands the reply to
+     * {@link Router#helloReplyReceived(Link, SOSPFPacket)} and, if the router accepts it, confirms with a second HELLO.
+     * Blocks until the exchange completes or fails.
+     *
+     * @param link  the link to the neighbour to exchange HELLOs with.
+     * @param hello the HELLO to send.
+     * @return the simulated IP of the router that replied; null if the exchange failed.
+     */
+    String exchangeHello(Link link, SOSPFPacket hello);
+
+    /**
+     * Waits until every message sent so far has been delivered (or given up on), or the timeout passes.
+     *
+     * @param timeoutMillis the maximum time to wait.
+     */
+    void drain(long timeoutMillis);
+}
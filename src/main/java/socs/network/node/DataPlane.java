@@ -0,0 +1,540 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The data plane of a router. Data packets are forwarded hop-by-hop using the forwarding table computed by the
+ * control plane, over a UDP DatagramChannel of their own (bound at the process port of the router plus a fixed
+ * offset) so that they never compete with the SOSPF messages on the TCP server.
+ * <p/>
+ * A single receiver thread forwards packets in place: the TTL and hop count are updated in the receive buffer and the
+ * very same buffer is sent to the next hop, so forwarding does not copy or allocate the payload. The next hop of a
+ * packet is picked by hashing its flow, i.e. all packets of a flow follow the same equal-cost path.
+ * <p/>
+ * Every router also acts as a traffic generator and a traffic sink. The sink keeps per-flow statistics (rate,
+ * latency, lost packets) for the packets addressed to it. Latencies are measured with System.nanoTime() stamps
+ * carried in the packets and are therefore only meaningful between routers running on the same host, which is how
+ * the simulator is normally run.
+ * <p/>
+ * Echo requests are answered with echo replies by their destination and with TTL-exceeded messages by the router at
+ * which their TTL runs out. Both carry the send time of the request back to its source, so round trip times are
+ * measured on a single clock (see {@link EchoProber}).
+ */
+class DataPlane {
+    private final Log log = LogFactory.getLog(DataPlane.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final short PACKET_MAGIC = 0x5344; // "SD"
+    static final byte TYPE_DATA = 1;
+    static final byte TYPE_ECHO_REQUEST = 2;
+    static final byte TYPE_ECHO_REPLY = 3;
+    static final byte TYPE_TTL_EXCEEDED = 4;
+    // magic(2) + type(1) + ttl(1) + hop-count(1) + src-length(1) + dst-length(1) + reserved(1) + flow-id(4) +
+    // sequence(4) + sent-time(8), followed by the source and destination IPs and the payload.
+    private static final int FIXED_HEADER_SIZE = 24;
+    private static final int TYPE_OFFSET = 2;
+    private static final int TTL_OFFSET = 3;
+    private static final int HOP_COUNT_OFFSET = 4;
+    // replies carry the no of hops their request took in the reserved byte.
+    private static final int REQUEST_HOPS_OFFSET = 7;
+    private static final int FLOW_ID_OFFSET = 8;
+    private static final int SEQUENCE_OFFSET = 12;
+    private static final int SENT_TIME_OFFSET = 16;
+    static final int MAX_PACKET_SIZE = 1472;
+    private static final int MAX_IP_LENGTH = 64;
+
+    private final Router myRouter;
+    private final int portOffset;
+    private final int defaultTtl;
+    private final byte[] myId;
+    // the data plane addresses of the TWO_WAY neighbors keyed by their simulated IPs.
+    private final ConcurrentHashMap<String, InetSocketAddress> neighbors = new ConcurrentHashMap<>();
+
+    private DatagramChannel channel;
+    private volatile boolean running = false;
+    private final AtomicInteger nextFlowId = new AtomicInteger(1);
+
+    // counters of the packets handled by this router.
+    private final AtomicLong originated = new AtomicLong();
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong droppedNoRoute = new AtomicLong();
+    private final AtomicLong droppedTtlExpired = new AtomicLong();
+    private final AtomicLong droppedSendError = new AtomicLong();
+    private final AtomicLong droppedMalformed = new AtomicLong();
+    // flows generated by this router and flows received by it, keyed by "<source IP>#<flow ID>".
+    private final ConcurrentHashMap<String, SourceFlow> sourceFlows = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, SinkFlow> sinkFlows = new ConcurrentHashMap<>();
+    // echo replies and TTL-exceeded messages are handed to the probe session with the matching flow ID.
+    private final ConcurrentHashMap<Integer, BlockingQueue<ProbeReply>> probeSessions = new ConcurrentHashMap<>();
+    // buffer in which the forwarder thread builds echo replies and TTL-exceeded messages.
+    private final ByteBuffer responseBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+    /**
+     * @param router     the router whose forwarding table is used.
+     * @param portOffset offset added to the process port numbers of the routers to get their data plane ports.
+     * @param defaultTtl the TTL with which packets are originated.
+     */
+    DataPlane(Router router, int portOffset, int defaultTtl) {
+        this.myRouter = router;
+        this.portOffset = portOffset;
+        this.defaultTtl = defaultTtl;
+        this.myId = router.getRd().simulatedIPAddress.getBytes(ASCII);
+    }
+
+    /**
+     * Binds the data plane channel and starts the receiver thread.
+     *
+     * @return true if the data plane was started; false if it could not be started.
+     */
+    boolean start() {
+        int dataPort = myRouter.getRd().processPortNumber + portOffset;
+        if (dataPort <= 0 || dataPort > 65535 || myId.length > MAX_IP_LENGTH) {
+            log.error("Cannot start the data plane on UDP PORT [" + dataPort + "] for the simulated IP [" +
+                    myRouter.getRd().simulatedIPAddress + "].");
+            return false;
+        }
+
+        try {
+            channel = DatagramChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.socket().setReceiveBufferSize(1024 * 1024);
+            channel.bind(new InetSocketAddress(dataPort));
+        } catch (IOException e) {
+            log.error("Unable to bind the data plane channel on UDP PORT [" + dataPort + "].", e);
+            return false;
+        }
+
+        running = true;
+        Thread receiverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receivePackets();
+            }
+        }, "data-plane-forwarder");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        return true;
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error("Error occurred when attempted to close the data plane channel.", e);
+        }
+    }
+
+    /**
+     * Makes the neighbor on the given link available as a next hop. Invoked once the neighbor reaches TWO_WAY.
+     *
+     * @param link the link to the neighbor.
+     */
+    void addNeighbor(Link link) {
+        RouterDescription neighbor = link.getDestinationRouterDesc();
+        neighbors.put(neighbor.simulatedIPAddress,
+                new InetSocketAddress(neighbor.processIPAddress, neighbor.processPortNumber + portOffset));
+    }
+
+    void removeNeighbor(String neighborSimIP) {
+        neighbors.remove(neighborSimIP);
+    }
+
+    /**
+     * Starts a traffic generator that sends data packets to the given destination at a constant rate on a thread of
+     * its own. The generator stops on its own after the given duration.
+     *
+     * @param destinationIP   the simulated IP of the router to send the traffic to.
+     * @param packetsPerSec   the rate at which packets are sent.
+     * @param durationSeconds how long the traffic is sent for.
+     * @param payloadSize     the no of payload bytes carried by each packet.
+     * @return the ID of the generated flow.
+     */
+    int startTraffic(final String destinationIP, final int packetsPerSec, final int durationSeconds,
+                     final int payloadSize) {
+        final int flowId = nextFlowId.getAndIncrement();
+        final SourceFlow flow = new SourceFlow(destinationIP);
+        sourceFlows.put(myRouter.getRd().simulatedIPAddress + "#" + flowId, flow);
+
+        Thread generatorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                generateTraffic(flow, flowId, packetsPerSec, durationSeconds, payloadSize);
+            }
+        }, "traffic-generator-" + flowId);
+        generatorThread.setDaemon(true);
+        generatorThread.start();
+        return flowId;
+    }
+
+    private void generateTraffic(SourceFlow flow, int flowId, int packetsPerSec, int durationSeconds,
+                                 int payloadSize) {
+        byte[] destinationId = flow.destinationIP.getBytes(ASCII);
+        int headerSize = FIXED_HEADER_SIZE + myId.length + destinationId.length;
+        int packetSize = Math.min(MAX_PACKET_SIZE, headerSize + Math.max(0, payloadSize));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(packetSize);
+        int flowHash = ForwardingTable.flowHash(myRouter.getRd().simulatedIPAddress, flow.destinationIP, flowId);
+
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / Math.max(1, packetsPerSec);
+        long noOfPackets = (long) packetsPerSec * durationSeconds;
+        flow.startNanos = System.nanoTime();
+
+        for (long seq = 0; seq < noOfPackets && running; seq++) {
+            // pace the packets against the start time so that a late packet does not delay the following ones.
+            long waitNanos = flow.startNanos + seq * intervalNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                LockSupport.parkNanos(waitNanos);
+            }
+
+            writeHeader(buffer, TYPE_DATA, defaultTtl, destinationId, flowId, (int) seq, System.nanoTime());
+            buffer.position(packetSize);
+            buffer.flip();
+
+            originated.incrementAndGet();
+            flow.packetsSent++;
+            if (!forward(buffer, flow.destinationIP, flowHash)) {
+                flow.packetsDropped++;
+            }
+        }
+        flow.endNanos = System.nanoTime();
+        flow.isRunning = false;
+    }
+
+    private void writeHeader(ByteBuffer buffer, byte type, int ttl, byte[] destinationId, int flowId, int seq,
+                             long sentNanos) {
+        buffer.clear();
+        buffer.putShort(PACKET_MAGIC);
+        buffer.put(type);
+        buffer.put((byte) ttl);
+        buffer.put((byte) 0);
+        buffer.put((byte) myId.length);
+        buffer.put((byte) destinationId.length);
+        buffer.put((byte) 0);
+        buffer.putInt(flowId);
+        buffer.putInt(seq);
+        buffer.putLong(sentNanos);
+        buffer.put(myId);
+        buffer.put(destinationId);
+    }
+
+    /**
+     * Opens a probe session to which the echo replies and TTL-exceeded messages of the probes sent with the returned
+     * flow ID are delivered.
+     *
+     * @param replyQueue the queue the replies are added to.
+     * @return the flow ID to send the probes of the session with.
+     */
+    int openProbeSession(BlockingQueue<ProbeReply> replyQueue) {
+        int flowId = nextFlowId.getAndIncrement();
+        probeSessions.put(flowId, replyQueue);
+        return flowId;
+    }
+
+    void closeProbeSession(int flowId) {
+        probeSessions.remove(flowId);
+    }
+
+    /**
+     * Sends an echo request to the given destination.
+     *
+     * @param destinationIP the simulated IP of the router to probe.
+     * @param flowId        the flow ID of the probe session.
+     * @param seq           the sequence number of the probe within the session.
+     * @param ttl           the TTL of the probe; the default TTL if zero.
+     * @return true if the probe was handed to the first hop; false if there is no route to the destination.
+     */
+    boolean sendProbe(String destinationIP, int flowId, int seq, int ttl) {
+        byte[] destinationId = destinationIP.getBytes(ASCII);
+        if (destinationId.length == 0 || destinationId.length > MAX_IP_LENGTH) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_HEADER_SIZE + myId.length + destinationId.length);
+        writeHeader(buffer, TYPE_ECHO_REQUEST, ttl > 0 ? Math.min(255, ttl) : defaultTtl, destinationId, flowId,
+                seq, System.nanoTime());
+        buffer.flip();
+        originated.incrementAndGet();
+        return forward(buffer, destinationIP,
+                ForwardingTable.flowHash(myRouter.getRd().simulatedIPAddress, destinationIP, flowId));
+    }
+
+    private void receivePackets() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+        byte[] idBytes = new byte[MAX_IP_LENGTH];
+
+        while (running) {
+            buffer.clear();
+            try {
+                if (channel.receive(buffer) == null) {
+                    continue;
+                }
+            } catch (IOException e) {
+                if (running) {
+                    log.error("An IO error occurred whilst receiving data packets.", e);
+                }
+                return;
+            }
+            long receivedNanos = System.nanoTime();
+            buffer.flip();
+
+            if (buffer.remaining() < FIXED_HEADER_SIZE || buffer.getShort(0) != PACKET_MAGIC) {
+                droppedMalformed.incrementAndGet();
+                continue;
+            }
+            int sourceLength = buffer.get(5);
+            int destinationLength = buffer.get(6);
+            if (sourceLength <= 0 || destinationLength <= 0 ||
+                    buffer.remaining() < FIXED_HEADER_SIZE + sourceLength + destinationLength) {
+                droppedMalformed.incrementAndGet();
+                continue;
+            }
+
+            buffer.position(FIXED_HEADER_SIZE);
+            buffer.get(idBytes, 0, sourceLength);
+            String sourceIP = new String(idBytes, 0, sourceLength, ASCII);
+            buffer.get(idBytes, 0, destinationLength);
+            String destinationIP = new String(idBytes, 0, destinationLength, ASCII);
+            buffer.position(0);
+
+            byte type = buffer.get(TYPE_OFFSET);
+            int hopCount = (buffer.get(HOP_COUNT_OFFSET) & 0xFF) + 1;
+            buffer.put(HOP_COUNT_OFFSET, (byte) hopCount);
+            if (destinationIP.equals(myRouter.getRd().simulatedIPAddress)) {
+                switch (type) {
+                    case TYPE_DATA:
+                        deliver(buffer, sourceIP, hopCount, receivedNanos);
+                        break;
+                    case TYPE_ECHO_REQUEST:
+                        delivered.incrementAndGet();
+                        respond(TYPE_ECHO_REPLY, buffer, sourceIP, hopCount);
+                        break;
+                    case TYPE_ECHO_REPLY:
+                    case TYPE_TTL_EXCEEDED:
+                        delivered.incrementAndGet();
+                        probeReplyReceived(buffer, type, sourceIP, receivedNanos);
+                        break;
+                    default:
+                        droppedMalformed.incrementAndGet();
+                }
+                continue;
+            }
+
+            int ttl = (buffer.get(TTL_OFFSET) & 0xFF) - 1;
+            if (ttl <= 0) {
+                droppedTtlExpired.incrementAndGet();
+                if (type == TYPE_ECHO_REQUEST) {
+                    respond(TYPE_TTL_EXCEEDED, buffer, sourceIP, hopCount);
+                }
+                continue;
+            }
+            buffer.put(TTL_OFFSET, (byte) ttl);
+            if (forward(buffer, destinationIP,
+                    ForwardingTable.flowHash(sourceIP, destinationIP, buffer.getInt(FLOW_ID_OFFSET)))) {
+                forwarded.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends the packet in the buffer to the next hop towards its destination, as given by the current forwarding
+     * table of the router.
+     *
+     * @return true if the packet was handed to the next hop; false if it was dropped.
+     */
+    private boolean forward(ByteBuffer packet, String destinationIP, int flowHash) {
+        String nextHop = myRouter.lsd.forwardingTable.lookup(destinationIP, flowHash);
+        InetSocketAddress nextHopAddress = nextHop == null ? null : neighbors.get(nextHop);
+        if (nextHopAddress == null) {
+            droppedNoRoute.incrementAndGet();
+            return false;
+        }
+
+        try {
+            channel.send(packet, nextHopAddress);
+            return true;
+        } catch (ClosedChannelException e) {
+            droppedSendError.incrementAndGet();
+            return false;
+        } catch (IOException e) {
+            droppedSendError.incrementAndGet();
+            if (myRouter.printFlag) {
+                log.error("Unable to forward a data packet to [" + nextHop + "].", e);
+            }
+            return false;
+        }
+    }
+
+    private void deliver(ByteBuffer packet, String sourceIP, int hopCount, long receivedNanos) {
+        delivered.incrementAndGet();
+        String flowKey = sourceIP + "#" + packet.getInt(FLOW_ID_OFFSET);
+        SinkFlow flow = sinkFlows.get(flowKey);
+        if (flow == null) {
+            flow = new SinkFlow();
+            sinkFlows.put(flowKey, flow);
+        }
+        flow.packetReceived(packet.getInt(SEQUENCE_OFFSET), receivedNanos - packet.getLong(SENT_TIME_OFFSET),
+                hopCount, packet.remaining(), receivedNanos);
+    }
+
+    /**
+     * Answers an echo request with an echo reply or a TTL-exceeded message sent back to the source of the request.
+     * The reply carries the flow ID, sequence number and send time of the request.
+     */
+    private void respond(byte type, ByteBuffer request, String sourceIP, int requestHops) {
+        byte[] sourceId = sourceIP.getBytes(ASCII);
+        writeHeader(responseBuffer, type, defaultTtl, sourceId, request.getInt(FLOW_ID_OFFSET),
+                request.getInt(SEQUENCE_OFFSET), request.getLong(SENT_TIME_OFFSET));
+        responseBuffer.put(REQUEST_HOPS_OFFSET, (byte) requestHops);
+        responseBuffer.flip();
+        originated.incrementAndGet();
+        forward(responseBuffer, sourceIP, ForwardingTable.flowHash(myRouter.getRd().simulatedIPAddress, sourceIP,
+                request.getInt(FLOW_ID_OFFSET)));
+    }
+
+    private void probeReplyReceived(ByteBuffer reply, byte type, String responderIP, long receivedNanos) {
+        BlockingQueue<ProbeReply> replyQueue = probeSessions.get(reply.getInt(FLOW_ID_OFFSET));
+        if (replyQueue != null) {
+            replyQueue.offer(new ProbeReply(type, responderIP, reply.getInt(SEQUENCE_OFFSET),
+                    receivedNanos - reply.getLong(SENT_TIME_OFFSET), reply.get(REQUEST_HOPS_OFFSET) & 0xFF));
+        }
+    }
+
+    /**
+     * @return a report of the packet counters of this router and the statistics of every generated/received flow.
+     */
+    String getStatistics() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("originated: ").append(originated.get()).append(", forwarded: ").append(forwarded.get()).
+                append(", delivered: ").append(delivered.get()).append("\n");
+        sb.append("dropped - no route: ").append(droppedNoRoute.get()).append(", TTL expired: ").
+                append(droppedTtlExpired.get()).append(", send error: ").append(droppedSendError.get()).
+                append(", malformed: ").append(droppedMalformed.get()).append("\n");
+
+        for (Map.Entry<String, SourceFlow> flowEntry : sourceFlows.entrySet()) {
+            SourceFlow flow = flowEntry.getValue();
+            long endNanos = flow.isRunning ? System.nanoTime() : flow.endNanos;
+            sb.append("[TX ").append(flowEntry.getKey()).append(" -> ").append(flow.destinationIP).append("] ").
+                    append(flow.isRunning ? "running" : "done").append(", sent: ").append(flow.packetsSent).
+                    append(", dropped locally: ").append(flow.packetsDropped).append(", rate: ").
+                    append(ratePerSecond(flow.packetsSent, endNanos - flow.startNanos)).append(" pkt/s\n");
+        }
+        for (Map.Entry<String, SinkFlow> flowEntry : sinkFlows.entrySet()) {
+            sb.append("[RX ").append(flowEntry.getKey()).append("] ").append(flowEntry.getValue()).append("\n");
+        }
+        return sb.toString();
+    }
+
+    void resetStatistics() {
+        originated.set(0);
+        forwarded.set(0);
+        delivered.set(0);
+        droppedNoRoute.set(0);
+        droppedTtlExpired.set(0);
+        droppedSendError.set(0);
+        droppedMalformed.set(0);
+        for (Map.Entry<String, SourceFlow> flowEntry : sourceFlows.entrySet()) {
+            if (!flowEntry.getValue().isRunning) {
+                sourceFlows.remove(flowEntry.getKey());
+            }
+        }
+        sinkFlows.clear();
+    }
+
+    private static long ratePerSecond(long count, long elapsedNanos) {
+        return elapsedNanos <= 0 ? 0 : count * TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * An echo reply or TTL-exceeded message received for a probe sent by this router.
+     */
+    static class ProbeReply {
+        final byte type;
+        final String responderIP;
+        final int seq;
+        final long rttNanos;
+        // no of hops the probe took to reach the responder.
+        final int hops;
+
+        private ProbeReply(byte type, String responderIP, int seq, long rttNanos, int hops) {
+            this.type = type;
+            this.responderIP = responderIP;
+            this.seq = seq;
+            this.rttNanos = rttNanos;
+            this.hops = hops;
+        }
+    }
+
+    /**
+     * Sender side state of a flow generated by this router. Only written by the generator thread.
+     */
+    private static class SourceFlow {
+        private final String destinationIP;
+        private volatile long startNanos;
+        private volatile long endNanos;
+        private volatile long packetsSent = 0;
+        private volatile long packetsDropped = 0;
+        private volatile boolean isRunning = true;
+
+        private SourceFlow(String destinationIP) {
+            this.destinationIP = destinationIP;
+        }
+    }
+
+    /**
+     * Receiver side statistics of a flow addressed to this router. Written by the forwarder thread only.
+     */
+    private static class SinkFlow {
+        private long packetsReceived = 0;
+        private long bytesReceived = 0;
+        private long latencySumNanos = 0;
+        private long hopSum = 0;
+        private int highestSeq = -1;
+        private long firstNanos;
+        private long lastNanos;
+
+        private synchronized void packetReceived(int seq, long latencyNanos, int hopCount, int size,
+                                                 long receivedNanos) {
+            if (packetsReceived == 0) {
+                firstNanos = receivedNanos;
+            }
+            packetsReceived++;
+            bytesReceived += size;
+            latencySumNanos += latencyNanos;
+            hopSum += hopCount;
+            highestSeq = Math.max(highestSeq, seq);
+            lastNanos = receivedNanos;
+        }
+
+        @Override
+        public synchronized String toString() {
+            if (packetsReceived == 0) {
+                return "no packets";
+            }
+            long averageLatencyNanos = latencySumNanos / packetsReceived;
+            double averageHops = (double) hopSum / packetsReceived;
+            return "received: " + packetsReceived + " (" + bytesReceived + " bytes), rate: " +
+                    ratePerSecond(packetsReceived - 1, lastNanos - firstNanos) + " pkt/s, lost: " +
+                    Math.max(0, highestSeq + 1 - packetsReceived) + ", avg latency: " +
+                    averageLatencyNanos / 1000 + " us, avg hops: " + String.format("%.1f", averageHops) +
+                    ", avg per-hop latency: " + (long) (averageLatencyNanos / averageHops / 1000) + " us";
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ping and traceroute over the data plane. Probes are echo requests that are forwarded along the current forwarding
+ * tables of the routers, so the measured round trip times reflect the routes actually in use. Round trip times are
+ * measured with System.nanoTime() on this router only: the send time travels in the probe and comes back in the reply.
+ */
+class EchoProber {
+    private final DataPlane dataPlane;
+    private final long timeoutNanos;
+
+    /**
+     * @param dataPlane     the data plane through which the probes are sent.
+     * @param timeoutMillis the time to wait for the reply of a single probe.
+     */
+    EchoProber(DataPlane dataPlane, int timeoutMillis) {
+        this.dataPlane = dataPlane;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Sends the given no of echo requests to the destination, one after the other, printing the round trip time of
+     * each and a summary of all of them.
+     *
+     * @param destinationIP  the simulated IP of the router to ping.
+     * @param count          the no of echo requests to send.
+     * @param intervalMillis the minimum time between two echo requests.
+     */
+    void ping(String destinationIP, int count, long intervalMillis) {
+        BlockingQueue<DataPlane.ProbeReply> replyQueue = new LinkedBlockingQueue<>();
+        int flowId = dataPlane.openProbeSession(replyQueue);
+        List<Long> rtts = new ArrayList<>();
+
+        System.out.println("PING " + destinationIP + ":");
+        try {
+            for (int seq = 0; seq < count; seq++) {
+                long sentNanos = System.nanoTime();
+                if (!dataPlane.sendProbe(destinationIP, flowId, seq, 0)) {
+                    System.out.println("seq=" + seq + ": no route to " + destinationIP);
+                } else {
+                    DataPlane.ProbeReply reply = awaitReply(replyQueue, seq, sentNanos);
+                    if (reply == null) {
+                        System.out.println("seq=" + seq + ": request timed out");
+                    } else if (reply.type == DataPlane.TYPE_TTL_EXCEEDED) {
+                        System.out.println("seq=" + seq + ": TTL exceeded at " + reply.responderIP);
+                    } else {
+                        rtts.add(reply.rttNanos);
+                        System.out.println("reply from " + reply.responderIP + ": seq=" + seq + " hops=" +
+                                reply.hops + " time=" + toMillis(reply.rttNanos) + " ms");
+                    }
+                }
+
+                long waitNanos = sentNanos + TimeUnit.MILLISECONDS.toNanos(intervalMillis) - System.nanoTime();
+                if (seq < count - 1 && waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dataPlane.closeProbeSession(flowId);
+        }
+
+        System.out.println("--- " + destinationIP + " ping statistics ---");
+        System.out.println(count + " probes transmitted, " + rtts.size() + " received, " +
+                (count == 0 ? 0 : (count - rtts.size()) * 100 / count) + "% loss");
+        if (!rtts.isEmpty()) {
+            System.out.println("rtt " + summarize(rtts));
+        }
+    }
+
+    /**
+     * Discovers the hops on the path to the destination by sending probes with increasing TTLs. Each hop is probed
+     * the given no of times and its round trip times are printed. Stops once the destination replies or after the
+     * maximum no of hops.
+     *
+     * @param destinationIP the simulated IP of the router to trace the route to.
+     * @param maxHops       the maximum TTL to probe with.
+     * @param probesPerHop  the no of probes sent per TTL.
+     */
+    void traceroute(String destinationIP, int maxHops, int probesPerHop) {
+        BlockingQueue<DataPlane.ProbeReply> replyQueue = new LinkedBlockingQueue<>();
+        int flowId = dataPlane.openProbeSession(replyQueue);
+        int seq = 0;
+
+        System.out.println("TRACEROUTE to " + destinationIP + ", " + maxHops + " hops max:");
+        try {
+            for (int ttl = 1; ttl <= maxHops; ttl++) {
+                StringBuilder hopLine = new StringBuilder();
+                String responderIP = null;
+                boolean reachedDestination = false;
+                List<Long> rtts = new ArrayList<>();
+
+                for (int probe = 0; probe < probesPerHop; probe++, seq++) {
+                    long sentNanos = System.nanoTime();
+                    if (!dataPlane.sendProbe(destinationIP, flowId, seq, ttl)) {
+                        System.out.println(ttl + "  no route to " + destinationIP);
+                        return;
+                    }
+                    DataPlane.ProbeReply reply = awaitReply(replyQueue, seq, sentNanos);
+                    if (reply == null) {
+                        hopLine.append("  *");
+                        continue;
+                    }
+                    if (responderIP == null || !responderIP.equals(reply.responderIP)) {
+                        responderIP = reply.responderIP;
+                        hopLine.append("  ").append(responderIP);
+                    }
+                    hopLine.append("  ").append(toMillis(reply.rttNanos)).append(" ms");
+                    rtts.add(reply.rttNanos);
+                    reachedDestination |= reply.type == DataPlane.TYPE_ECHO_REPLY;
+                }
+
+                System.out.println(ttl + hopLine.toString() + (rtts.size() > 1 ? "  (" + summarize(rtts) + ")" : ""));
+                if (reachedDestination) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            dataPlane.closeProbeSession(flowId);
+        }
+    }
+
+    /**
+     * Waits for the reply to the probe with the given sequence number, discarding late replies to earlier probes.
+     *
+     * @return the reply; null if it did not arrive within the timeout.
+     */
+    private DataPlane.ProbeReply awaitReply(BlockingQueue<DataPlane.ProbeReply> replyQueue, int seq, long sentNanos)
+            throws InterruptedException {
+        long remainingNanos = timeoutNanos;
+        while (remainingNanos > 0) {
+            DataPlane.ProbeReply reply = replyQueue.poll(remainingNanos, TimeUnit.NANOSECONDS);
+            if (reply == null || reply.seq == seq) {
+                return reply;
+            }
+            remainingNanos = sentNanos + timeoutNanos - System.nanoTime();
+        }
+        return null;
+    }
+
+    /**
+     * @param rtts the round trip times in nanoseconds; must not be empty.
+     * @return the min/avg/p99 of the round trip times in milliseconds.
+     */
+    static String summarize(List<Long> rtts) {
+        List<Long> sortedRtts = new ArrayList<>(rtts);
+        Collections.sort(sortedRtts);
+        long sum = 0;
+        for (long rtt : sortedRtts) {
+            sum += rtt;
+        }
+        int p99Index = Math.max(0, (int) Math.ceil(sortedRtts.size() * 0.99) - 1);
+        return "min/avg/p99 = " + toMillis(sortedRtts.get(0)) + "/" + toMillis(sum / sortedRtts.size()) + "/" +
+                toMillis(sortedRtts.get(p99Index)) + " ms";
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.3f", nanos / 1e6);
+    }
+}
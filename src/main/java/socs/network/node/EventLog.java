@@ -0,0 +1,277 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.util.RouterConstants;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Prints the protocol events of a router (HELLOs, state changes, LSUPDATEs, liveness sessions, LSA aging) off the
+ * threads that process the control messages. An event is a type and up to two arguments plus a number, copied into
+ * one of a fixed ring of pre-allocated records; a single writer thread formats the events and prints them in batches
+ * to System.out. Nothing is formatted or concatenated on the logging thread, and the only lock taken on a batch is
+ * that of System.out.
+ * <p/>
+ * The ring is a bounded multi-producer/single-consumer queue: a producer claims the next position with a CAS on the
+ * tail and publishes the record by advancing the sequence of its slot; the writer consumes the slots in order once
+ * they are published and hands them back by advancing their sequence by a lap. An event logged while the ring is full
+ * is dropped and counted instead of blocking the protocol, and the no of events dropped is printed where the gap is.
+ * While idle, the writer parks for exponentially longer periods up to {@link RouterConstants#EVENT_LOG_MAX_PARK_NANOS}.
+ */
+class EventLog {
+    private static final Log log = LogFactory.getLog(EventLog.class);
+
+    private final Event[] events;
+    // sequence of every slot: equal to the position when free to be claimed, the position plus one when published.
+    private final AtomicLongArray sequences;
+    private final int mask;
+    // next position to be claimed by a producer.
+    private final AtomicLong tail = new AtomicLong();
+    // next position to be consumed; only accessed by the writer thread.
+    private long head = 0;
+    private final AtomicLong noOfDropped = new AtomicLong();
+    // the no of dropped events already reported by the writer.
+    private long noOfDroppedReported = 0;
+    private final StringBuilder batch = new StringBuilder();
+    private volatile boolean running = false;
+    private Thread writerThread;
+
+    /**
+     * @param capacity the no of events the ring holds; rounded up to a power of two.
+     */
+    EventLog(int capacity) {
+        int ringSize = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        this.events = new Event[ringSize];
+        this.sequences = new AtomicLongArray(ringSize);
+        this.mask = ringSize - 1;
+        for (int slot = 0; slot < ringSize; slot++) {
+            events[slot] = new Event();
+            sequences.set(slot, slot);
+        }
+    }
+
+    /**
+     * Starts the writer thread.
+     *
+     * @param routerId the simulated IP of the router; used to name the thread.
+     */
+    synchronized void start(String routerId) {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEvents();
+            }
+        }, "event-log-" + routerId);
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Stops the writer thread once it has printed the events logged so far.
+     */
+    synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(RouterConstants.EVENT_LOG_STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (noOfDropped.get() > 0) {
+            log.warn(noOfDropped.get() + " events were dropped because the event log was full.");
+        }
+    }
+
+    void log(EventType type) {
+        log(type, null, null, 0);
+    }
+
+    void log(EventType type, Object argument) {
+        log(type, argument, null, 0);
+    }
+
+    void log(EventType type, Object argument, Object otherArgument) {
+        log(type, argument, otherArgument, 0);
+    }
+
+    /**
+     * Queues an event for the writer thread; drops it if the ring is full.
+     *
+     * @param type          the type of the event, which gives its format.
+     * @param argument      the value of the first %s of the format; formatted by the writer thread.
+     * @param otherArgument the value of the second %s of the format.
+     * @param number        the value of the %d of the format.
+     */
+    void log(EventType type, Object argument, Object otherArgument, long number) {
+        long position;
+        while (true) {
+            position = tail.get();
+            long lag = sequences.get((int) position & mask) - position;
+            if (lag == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (lag < 0) {
+                // the slot still holds the event of the previous lap: the ring is full.
+                noOfDropped.incrementAndGet();
+                return;
+            }
+        }
+
+        int slot = (int) position & mask;
+        Event event = events[slot];
+        event.type = type;
+        event.argument = argument;
+        event.otherArgument = otherArgument;
+        event.number = number;
+        sequences.lazySet(slot, position + 1);
+    }
+
+    /**
+     * @return the no of events dropped because the ring was full.
+     */
+    long getNoOfDropped() {
+        return noOfDropped.get();
+    }
+
+    /**
+     * Body of the writer thread: prints the published events in batches until stopped, then prints what is left.
+     */
+    private void writeEvents() {
+        long parkNanos = RouterConstants.EVENT_LOG_MIN_PARK_NANOS;
+        while (running) {
+            if (writeBatch()) {
+                parkNanos = RouterConstants.EVENT_LOG_MIN_PARK_NANOS;
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, RouterConstants.EVENT_LOG_MAX_PARK_NANOS);
+            }
+        }
+        while (writeBatch()) {
+            // drain the events logged before the log was stopped.
+        }
+    }
+
+    /**
+     * @return true if any event was printed.
+     */
+    private boolean writeBatch() {
+        batch.setLength(0);
+        long noOfDroppedNow = noOfDropped.get();
+        if (noOfDroppedNow != noOfDroppedReported) {
+            batch.append("[EVENTLOG] dropped ").append(noOfDroppedNow - noOfDroppedReported).append(" events;\n");
+            noOfDroppedReported = noOfDroppedNow;
+        }
+
+        int noOfWritten = 0;
+        while (noOfWritten < events.length) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            Event event = events[slot];
+            event.formatTo(batch);
+            batch.append('\n');
+            event.clear();
+            sequences.lazySet(slot, head + events.length);
+            head++;
+            noOfWritten++;
+        }
+
+        if (batch.length() == 0) {
+            return false;
+        }
+        System.out.print(batch);
+        System.out.flush();
+        return true;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * A slot of the ring. Written by the producer that claimed it and read by the writer once published.
+     */
+    private static final class Event {
+        private EventType type;
+        private Object argument;
+        private Object otherArgument;
+        private long number;
+
+        private void formatTo(StringBuilder builder) {
+            String format = type.format;
+            boolean isFirstArgument = true;
+            int start = 0;
+            int placeholder;
+            while ((placeholder = format.indexOf('%', start)) != -1 && placeholder + 1 < format.length()) {
+                builder.append(format, start, placeholder);
+                if (format.charAt(placeholder + 1) == 'd') {
+                    builder.append(number);
+                } else {
+                    builder.append(isFirstArgument ? argument : otherArgument);
+                    isFirstArgument = false;
+                }
+                start = placeholder + 2;
+            }
+            builder.append(format, start, format.length());
+        }
+
+        private void clear() {
+            type = null;
+            argument = null;
+            otherArgument = null;
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The events printed by a router. A %s in the format is replaced by an argument, a %d by the number.
+     */
+    enum EventType {
+        HELLO_RECEIVED("received HELLO from %s;"),
+        HELLO_KEEPALIVE_RECEIVED("received HELLO keepalive from %s;"),
+        HELLO_KEEPALIVE_IGNORED("[WARN] Ignoring HELLO keepalive from %s which is not attached."),
+        HELLO_WRONG_DESTINATION("[WARN] The destination IP %s of incoming HELLO packet does not match mine."),
+        HELLO_NOT_ATTACHED("\n[ERROR] This router has not been properly attached to [%s]"),
+        HELLO_SOURCE_MISMATCH("[WARN] HELLO EXCHANGE failed with router: %s. " +
+                "The Source IP of incoming message was: %s"),
+        HELLO_EXCHANGE_COMPLETED("[HELLO EXCHANGE] completed for router with IP: %s"),
+        HELLO_EXCHANGE_FAILED("[WARN] HELLO to router connected to link-port [%d] / IP [%s] failed. " +
+                "Run [connect] to re-connect device."),
+        STATE_INIT("set %s state to INIT;"),
+        STATE_TWO_WAY("set %s state to TWO_WAY;"),
+        ATTACH_RECEIVED("received an ATTACH request from %s;"),
+        ATTACH_LINK_EXISTS("\n[WARN] This Router already has a link to router [%s] on port [%d]\n"),
+        ATTACH_PORTS_FULL("\n[WARN] This Router has already reached its maximum link-limit: %d\n" +
+                "Cannot add any more links.\n"),
+        MESSAGE_SENT("A [%s] message sent to router with IP: %s"),
+        LSUPDATE_SENDING("[LSUPDATE] Sending LSUPDATE to all connected routers."),
+        LSUPDATE_RECEIVED("[LSUPDATE] received lsupdate from: %s"),
+        LSD_UPDATED("updated local LinkStateDatabase;"),
+        SPF_SKIPPED("[LSUPDATE] contents unchanged; skipped SPF;"),
+        LSUPDATE_EXPIRED("terminating LSUPDATE broadcast [TTL Expired]"),
+        LSUPDATE_OWN("terminating LSUPDATE broadcast [This update packet was initiated by me]"),
+        NODE_REMOVED("removed node: %s and updated local LinkStateDatabase;"),
+        NEIGHBOR_DEAD("[DEAD] %s Tearing down the adjacency."),
+        LIVENESS_SESSION_UP("[LIVENESS] session to %s is UP;"),
+        SUMMARY_ORIGINATED("[SUMMARY] Originated new summary LSAs for the other areas;"),
+        LSAS_EVICTED("[UNREACHABLE] evicted the LSAs of %s from the local LinkStateDatabase;"),
+        LSAS_PURGED("[MAXAGE] purged the LSAs of %s from the local LinkStateDatabase;"),
+        LSA_REFRESHED("[LSREFRESH] Re-originating the LSA of this router with sequence number %d."),
+        SUMMARY_LSAS_REFRESHED("[LSREFRESH] Re-originating the summary LSAs of this router.");
+
+        private final String format;
+
+        EventType(String format) {
+            this.format = format;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A control transport that makes the links of a router imperfect: it sits in front of the transport that actually
+ * sends the messages and delays, drops, duplicates and reorders them, and limits the bandwidth of every link, as set
+ * in the {@link LinkFaults} of the link. Faults are applied by the sending router to its own messages, so the two
+ * directions of a link are set up at its two ends.
+ * <p/>
+ * A one-way message is handed to the wrapped transport once its delay has passed: the delay is drawn from the delay
+ * distribution of the link plus jitter, after the time it takes to transmit the message at the bandwidth of the link
+ * (messages queue behind each other for that). A reordered message is held back for an extra delay, so that the
+ * messages sent after it overtake it, and a duplicate gets a delay of its own. A HELLO exchange is delayed by a round
+ * trip before it runs, and fails if the HELLO is dropped. Dropped messages never reach the wrapped transport, so they
+ * are not retransmitted by it either.
+ * <p/>
+ * Every link draws from a random generator of its own, seeded from the configured seed and the IDs of both ends, so a
+ * run with the same seed and the same order of messages on every link sees the same faults.
+ */
+class FaultInjectingTransport implements ControlTransport {
+    private final Log log = LogFactory.getLog(FaultInjectingTransport.class);
+
+    private final Router myRouter;
+    private final ControlTransport transport;
+    private final LinkFaults defaultFaults;
+    // faults of the links that differ from the default ones, keyed by the simulated IP of the neighbor.
+    private final Map<String, LinkFaults> faultsByNeighbor;
+    private final long seed;
+    // sends the delayed messages, in the order of their delivery times.
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "fault-injection");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    // the random generator and transmit queue of every link in use, keyed by the simulated IP of the neighbor.
+    private final Map<String, LinkState> linkStates = new HashMap<>();
+    // no of messages waiting for their delay to pass; guarded by this.
+    private int noOfDelayed = 0;
+    private long noOfDropped = 0;
+    private long noOfDuplicated = 0;
+    private long noOfReordered = 0;
+
+    /**
+     * @param router           the router sending the messages.
+     * @param transport        the transport that sends the messages once they are due.
+     * @param defaultFaults    the faults of the links not listed in faultsByNeighbor.
+     * @param faultsByNeighbor the faults of specific links, keyed by the simulated IP of the neighbor.
+     * @param seed             the seed of the random generators of the links.
+     */
+    FaultInjectingTransport(Router router, ControlTransport transport, LinkFaults defaultFaults,
+                            Map<String, LinkFaults> faultsByNeighbor, long seed) {
+        this.myRouter = router;
+        this.transport = transport;
+        this.defaultFaults = defaultFaults;
+        this.faultsByNeighbor = faultsByNeighbor;
+        this.seed = seed;
+    }
+
+    /**
+     * @param otherTransport a transport to be used instead of the one wrapped by this one (e.g. as a fallback).
+     * @return a transport that injects the same faults in front of the given one.
+     */
+    FaultInjectingTransport wrap(ControlTransport otherTransport) {
+        return new FaultInjectingTransport(myRouter, otherTransport, defaultFaults, faultsByNeighbor, seed);
+    }
+
+    @Override
+    public boolean start() {
+        if (!transport.start()) {
+            scheduler.shutdownNow();
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        scheduler.shutdownNow();
+        transport.stop();
+        synchronized (this) {
+            log.info("Fault injection stopped: " + noOfDropped + " messages dropped, " + noOfDuplicated +
+                    " duplicated and " + noOfReordered + " reordered.");
+        }
+    }
+
+    @Override
+    public void send(final RouterDescription destination, SOSPFPacket packet, final String packetType) {
+        // encode right away (the caller goes on to modify the packet), and decode a copy for every delivery.
+        final byte[] encodedPacket = new byte[MessageCodec.sizeOf(packet)];
+        MessageCodec.writePacket(ByteBuffer.wrap(encodedPacket), packet);
+
+        long[] delaysNanos;
+        synchronized (this) {
+            LinkState linkState = getLinkState(destination.simulatedIPAddress);
+            LinkFaults faults = linkState.faults;
+            Random random = linkState.random;
+            if (random.nextDouble() < faults.dropProbability) {
+                noOfDropped++;
+                return;
+            }
+            long departureNanos = linkState.transmit(encodedPacket.length);
+            boolean isDuplicated = random.nextDouble() < faults.duplicateProbability;
+            delaysNanos = new long[isDuplicated ? 2 : 1];
+            for (int copy = 0; copy < delaysNanos.length; copy++) {
+                delaysNanos[copy] = departureNanos - System.nanoTime() + faults.sampleDelayNanos(random);
+                if (random.nextDouble() < faults.reorderProbability) {
+                    delaysNanos[copy] += (long) (faults.reorderDelayMillis * 1e6);
+                    noOfReordered++;
+                }
+            }
+            noOfDuplicated += delaysNanos.length - 1;
+            noOfDelayed += delaysNanos.length;
+        }
+
+        for (long delayNanos : delaysNanos) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            transport.send(destination, MessageCodec.readPacket(ByteBuffer.wrap(encodedPacket)),
+                                    packetType);
+                        } finally {
+                            delivered();
+                        }
+                    }
+                }, Math.max(0, delayNanos), TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                // stopped in the meantime; the message is lost like any other at shutdown.
+                delivered();
+            }
+        }
+    }
+
+    @Override
+    public String exchangeHello(Link link, SOSPFPacket hello) {
+        long roundTripNanos;
+        synchronized (this) {
+            LinkState linkState = getLinkState(link.getDestinationRouterDesc().simulatedIPAddress);
+            if (linkState.random.nextDouble() < linkState.faults.dropProbability) {
+                noOfDropped++;
+                return null;
+            }
+            roundTripNanos = linkState.faults.sampleDelayNanos(linkState.random) +
+                    linkState.faults.sampleDelayNanos(linkState.random);
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(roundTripNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return transport.exchangeHello(link, hello);
+    }
+
+    @Override
+    public void drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            try {
+                while (noOfDelayed > 0 && System.currentTimeMillis() < deadline) {
+                    wait(Math.max(1, deadline - System.currentTimeMillis()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        transport.drain(Math.max(0, deadline - System.currentTimeMillis()));
+    }
+
+    private synchronized void delivered() {
+        noOfDelayed--;
+        notifyAll();
+    }
+
+    private LinkState getLinkState(String neighborSimIP) {
+        LinkState linkState = linkStates.get(neighborSimIP);
+        if (linkState == null) {
+            LinkFaults faults = faultsByNeighbor.containsKey(neighborSimIP) ? faultsByNeighbor.get(neighborSimIP) :
+                    defaultFaults;
+            String linkName = myRouter.getRd().simulatedIPAddress + "->" + neighborSimIP;
+            linkState = new LinkState(faults, new Random(seed * 31 + linkName.hashCode()));
+            linkStates.put(neighborSimIP, linkState);
+        }
+        return linkState;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The random generator of a link and the time until which it is busy transmitting.
+     */
+    private static final class LinkState {
+        private final LinkFaults faults;
+        private final Random random;
+        private long busyUntilNanos = Long.MIN_VALUE;
+
+        private LinkState(LinkFaults faults, Random random) {
+            this.faults = faults;
+            this.random = random;
+        }
+
+        /**
+         * Queues a message for transmission behind the ones before it.
+         *
+         * @return the time at which the last byte of the message leaves the link.
+         */
+        private long transmit(int noOfBytes) {
+            long now = System.nanoTime();
+            if (faults.bandwidthBytesPerSecond <= 0) {
+                return now;
+            }
+            long startNanos = busyUntilNanos == Long.MIN_VALUE ? now : Math.max(now, busyUntilNanos);
+            busyUntilNanos = startNanos + noOfBytes * 1000000000L / faults.bandwidthBytesPerSecond;
+            return busyUntilNanos;
+        }
+    }
+
+    /**
+     * The faults of a link, parsed from space separated settings, each of which overrides the one it is based on:
+     * <pre>
+     * delay=fixed:&lt;ms&gt; | uniform:&lt;min ms&gt;:&lt;max ms&gt; | normal:&lt;mean ms&gt;:&lt;std dev ms&gt; |
+     *       exponential:&lt;mean ms&gt;
+     * jitter=&lt;ms, added uniformly in +/- jitter&gt;   drop=&lt;probability&gt;   duplicate=&lt;probability&gt;
+     * reorder=&lt;probability&gt;   reorderDelay=&lt;ms a reordered message is held back&gt;
+     * bandwidth=&lt;bytes per second, 0 for unlimited&gt;
+     * </pre>
+     */
+    static final class LinkFaults {
+        static final LinkFaults NONE = new LinkFaults();
+
+        private String delayDistribution = "fixed";
+        private double delayParameter1 = 0;
+        private double delayParameter2 = 0;
+        private double jitterMillis = 0;
+        private double dropProbability = 0;
+        private double duplicateProbability = 0;
+        private double reorderProbability = 0;
+        private double reorderDelayMillis = 10;
+        private long bandwidthBytesPerSecond = 0;
+
+        /**
+         * @param settings the settings, e.g. "delay=normal:10:2 drop=0.01".
+         * @return the faults of this link with the given settings applied.
+         * @throws IllegalArgumentException if a setting is invalid.
+         */
+        LinkFaults with(String settings) {
+            LinkFaults faults = copy();
+            for (String setting : settings.trim().split("\\s+")) {
+                if (setting.isEmpty()) {
+                    continue;
+                }
+                String[] keyAndValue = setting.split("=", 2);
+                if (keyAndValue.length != 2) {
+                    throw new IllegalArgumentException("Expected <key>=<value> instead of [" + setting + "].");
+                }
+                String value = keyAndValue[1];
+                try {
+                    switch (keyAndValue[0]) {
+                        case "delay":
+                            faults.setDelay(value);
+                            break;
+                        case "jitter":
+                            faults.jitterMillis = nonNegative(Double.parseDouble(value), setting);
+                            break;
+                        case "drop":
+                            faults.dropProbability = probability(value, setting);
+                            break;
+                        case "duplicate":
+                            faults.duplicateProbability = probability(value, setting);
+                            break;
+                        case "reorder":
+                            faults.reorderProbability = probability(value, setting);
+                            break;
+                        case "reorderDelay":
+                            faults.reorderDelayMillis = nonNegative(Double.parseDouble(value), setting);
+                            break;
+                        case "bandwidth":
+                            faults.bandwidthBytesPerSecond = (long) nonNegative(Long.parseLong(value), setting);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("Unknown fault [" + setting + "].");
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number in [" + setting + "].");
+                }
+            }
+            return faults;
+        }
+
+        private void setDelay(String value) {
+            String[] parameters = value.split(":");
+            int noOfParameters = parameters[0].equals("fixed") || parameters[0].equals("exponential") ? 1 :
+                    parameters[0].equals("uniform") || parameters[0].equals("normal") ? 2 : -1;
+            if (noOfParameters == -1 || parameters.length != noOfParameters + 1) {
+                throw new IllegalArgumentException("Invalid delay distribution [" + value + "].");
+            }
+            delayDistribution = parameters[0];
+            delayParameter1 = nonNegative(Double.parseDouble(parameters[1]), value);
+            delayParameter2 = noOfParameters == 2 ? nonNegative(Double.parseDouble(parameters[2]), value) : 0;
+        }
+
+        /**
+         * @return a delay drawn from the distribution of the link, plus jitter; never negative.
+         */
+        long sampleDelayNanos(Random random) {
+            double delayMillis;
+            switch (delayDistribution) {
+                case "uniform":
+                    delayMillis = delayParameter1 + random.nextDouble() * (delayParameter2 - delayParameter1);
+                    break;
+                case "normal":
+                    delayMillis = delayParameter1 + random.nextGaussian() * delayParameter2;
+                    break;
+                case "exponential":
+                    delayMillis = -delayParameter1 * Math.log(1 - random.nextDouble());
+                    break;
+                default:
+                    delayMillis = delayParameter1;
+                    break;
+            }
+            if (jitterMillis > 0) {
+                delayMillis += (random.nextDouble() * 2 - 1) * jitterMillis;
+            }
+            return (long) (Math.max(0, delayMillis) * 1e6);
+        }
+
+        private LinkFaults copy() {
+            LinkFaults faults = new LinkFaults();
+            faults.delayDistribution = delayDistribution;
+            faults.delayParameter1 = delayParameter1;
+            faults.delayParameter2 = delayParameter2;
+            faults.jitterMillis = jitterMillis;
+            faults.dropProbability = dropProbability;
+            faults.duplicateProbability = duplicateProbability;
+            faults.reorderProbability = reorderProbability;
+            faults.reorderDelayMillis = reorderDelayMillis;
+            faults.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+            return faults;
+        }
+
+        private static double probability(String value, String setting) {
+            double probability = Double.parseDouble(value);
+            if (probability < 0 || probability > 1) {
+                throw new IllegalArgumentException("Probability out of [0, 1] in [" + setting + "].");
+            }
+            return probability;
+        }
+
+        private static double nonNegative(double value, String setting) {
+            if (value < 0) {
+                throw new IllegalArgumentException("Negative value in [" + setting + "].");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package socs.network.node;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The forwarding information base (FIB) of a router, derived from the routing table after every SPF run. Holds all
+ * the equal-cost next hops towards each destination (up to the configured fan-out) and spreads flows across them by
+ * hashing, so that every packet of a flow takes the same path while different flows are load-balanced.
+ * <p/>
+ * For each destination a loop-free alternate (LFA) next hop is kept as well, if one exists. When a local link fails
+ * the table can be repaired at once by switching the affected destinations to their alternates, long before the
+ * network has re-converged.
+ * <p/>
+ * Instances are immutable; a new table is published after each SPF run (or local repair) so lookups never need to
+ * lock.
+ */
+class ForwardingTable {
+    static final ForwardingTable EMPTY = new ForwardingTable(new HashMap<String, String[]>(),
+            new HashMap<String, Integer>(), new HashMap<String, String>());
+
+    // destination => equal-cost next hops (simulated IPs of neighbors)
+    private final Map<String, String[]> nextHops;
+    // destination => cost of the shortest path(s)
+    private final Map<String, Integer> costs;
+    // destination => loop-free alternate next hop
+    private final Map<String, String> backups;
+
+    ForwardingTable(Map<String, String[]> nextHops, Map<String, Integer> costs, Map<String, String> backups) {
+        this.nextHops = nextHops;
+        this.costs = costs;
+        this.backups = backups;
+    }
+
+    /**
+     * @param destinationIP the simulated IP of the destination.
+     * @return all equal-cost next hops to the destination; an empty array if it is unreachable or the router itself.
+     */
+    String[] getNextHops(String destinationIP) {
+        String[] hops = nextHops.get(destinationIP);
+        return hops == null ? new String[0] : hops.clone();
+    }
+
+    /**
+     * Selects the next hop of a flow towards the given destination.
+     *
+     * @param destinationIP the simulated IP of the destination.
+     * @param flowHash      the hash of the flow, e.g. from {@link #flowHash(String, String, int)}.
+     * @return the simulated IP of the neighbor to forward to; null if there is no route.
+     */
+    String lookup(String destinationIP, int flowHash) {
+        String[] hops = nextHops.get(destinationIP);
+        if (hops == null || hops.length == 0) {
+            return null;
+        }
+        return hops[(flowHash & Integer.MAX_VALUE) % hops.length];
+    }
+
+    /**
+     * @param destinationIP the simulated IP of the destination.
+     * @return the cost of the shortest path(s) to the destination; -1 if it is unreachable.
+     */
+    int getCost(String destinationIP) {
+        Integer cost = costs.get(destinationIP);
+        return cost == null ? -1 : cost;
+    }
+
+    Map<String, String[]> getAllNextHops() {
+        return Collections.unmodifiableMap(nextHops);
+    }
+
+    /**
+     * @param destinationIP the simulated IP of the destination.
+     * @return the loop-free alternate next hop to the destination; null if there is none.
+     */
+    String getBackup(String destinationIP) {
+        return backups.get(destinationIP);
+    }
+
+    /**
+     * Creates the table to be used right after the link to the given neighbor failed. The neighbor is removed from
+     * the next hops of every destination; destinations left without a next hop switch to their loop-free alternate.
+     *
+     * @param failedNeighborIP the simulated IP of the neighbor that can no longer be reached directly.
+     * @return the repaired table; this table itself if no destination was routed via the neighbor.
+     */
+    ForwardingTable withoutNextHop(String failedNeighborIP) {
+        Map<String, String[]> repairedNextHops = new HashMap<>(nextHops);
+        Map<String, Integer> repairedCosts = new HashMap<>(costs);
+        boolean isAffected = false;
+
+        for (Map.Entry<String, String[]> hopEntry : nextHops.entrySet()) {
+            String[] hops = hopEntry.getValue();
+            int noOfRemainingHops = 0;
+            for (String hop : hops) {
+                if (!hop.equals(failedNeighborIP)) {
+                    noOfRemainingHops++;
+                }
+            }
+            if (noOfRemainingHops == hops.length) {
+                continue;
+            }
+
+            isAffected = true;
+            String destinationIP = hopEntry.getKey();
+            String backup = backups.get(destinationIP);
+            if (noOfRemainingHops > 0) {
+                String[] remainingHops = new String[noOfRemainingHops];
+                int hopIndex = 0;
+                for (String hop : hops) {
+                    if (!hop.equals(failedNeighborIP)) {
+                        remainingHops[hopIndex++] = hop;
+                    }
+                }
+                repairedNextHops.put(destinationIP, remainingHops);
+            } else if (backup != null && !backup.equals(failedNeighborIP)) {
+                // the cost of the alternate path is not known until SPF runs again.
+                repairedNextHops.put(destinationIP, new String[]{backup});
+            } else {
+                repairedNextHops.remove(destinationIP);
+                repairedCosts.remove(destinationIP);
+            }
+        }
+
+        if (!isAffected) {
+            return this;
+        }
+        Map<String, String> remainingBackups = new HashMap<>(backups);
+        Iterator<Map.Entry<String, String>> backupIterator = remainingBackups.entrySet().iterator();
+        while (backupIterator.hasNext()) {
+            if (backupIterator.next().getValue().equals(failedNeighborIP)) {
+                backupIterator.remove();
+            }
+        }
+        return new ForwardingTable(repairedNextHops, repairedCosts, remainingBackups);
+    }
+
+    /**
+     * Hashes the identifiers of a flow into a well-mixed integer suitable for picking one of the ECMP next hops.
+     *
+     * @param sourceIP      the simulated IP of the flow's source.
+     * @param destinationIP the simulated IP of the flow's destination.
+     * @param flowId        the identifier of the flow between the two routers.
+     * @return the hash of the flow.
+     */
+    static int flowHash(String sourceIP, String destinationIP, int flowId) {
+        int hash = sourceIP.hashCode();
+        hash = 31 * hash + destinationIP.hashCode();
+        hash = 31 * hash + flowId;
+        // finalizer of MurmurHash3 to spread the bits of similar flows.
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,189 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Yen's algorithm for the k shortest loop-free paths between two routers of a topology snapshot. The (i + 1)th path
+ * is searched among the deviations of the ith one: for every node of the ith path, the spur path from that node to
+ * the destination is computed with the nodes before it and the links already taken from the same root path removed.
+ * This costs up to k * (path length) SPF runs, each of them stopping as soon as the destination is settled.
+ * <p/>
+ * Paths of equal cost are ordered by their no of hops and then by the indices of their routers, so the result for k
+ * is always a prefix of the result for any larger k. An instance must only be used by a single thread.
+ */
+class KShortestPaths {
+    private static final Comparator<Candidate> CANDIDATE_ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate c1, Candidate c2) {
+            if (c1.cost != c2.cost) {
+                return c1.cost < c2.cost ? -1 : 1;
+            }
+            if (c1.nodes.length != c2.nodes.length) {
+                return c1.nodes.length - c2.nodes.length;
+            }
+            for (int position = 0; position < c1.nodes.length; position++) {
+                if (c1.nodes[position] != c2.nodes[position]) {
+                    return c1.nodes[position] - c2.nodes[position];
+                }
+            }
+            return 0;
+        }
+    };
+
+    private final TopologyGraph graph;
+    private final TopologyGraph.ShortestPaths spf;
+    private final boolean[] excludedNodes;
+    private final boolean[] excludedEdges;
+
+    KShortestPaths(TopologyGraph graph) {
+        this.graph = graph;
+        this.spf = new TopologyGraph.ShortestPaths(graph);
+        this.excludedNodes = new boolean[graph.getNoOfNodes()];
+        this.excludedEdges = new boolean[graph.getNoOfEdges()];
+    }
+
+    /**
+     * @param sourceIP      the simulated IP of the router the paths start at.
+     * @param destinationIP the simulated IP of the router the paths end at.
+     * @param k             the maximum no of paths to return.
+     * @return up to k loop-free paths in non-decreasing order of cost; empty if the routers are not connected.
+     * @throws IllegalArgumentException if either router is not in the topology.
+     */
+    List<RoutePath> find(String sourceIP, String destinationIP, int k) {
+        int source = graph.indexOf(sourceIP);
+        int destination = graph.indexOf(destinationIP);
+        if (source == -1 || destination == -1) {
+            throw new IllegalArgumentException("No router with IP [" + (source == -1 ? sourceIP : destinationIP) +
+                    "] exists in network");
+        }
+
+        List<Candidate> paths = new ArrayList<>();
+        Candidate shortestPath = spurPath(source, destination, null, 0);
+        if (shortestPath == null || k <= 0) {
+            return toRoutePaths(paths);
+        }
+        paths.add(shortestPath);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>(16, CANDIDATE_ORDER);
+        Set<List<Integer>> knownPaths = new HashSet<>();
+        knownPaths.add(shortestPath.nodeList());
+        while (paths.size() < k) {
+            Candidate previousPath = paths.get(paths.size() - 1);
+            for (int spurIndex = 0; spurIndex < previousPath.nodes.length - 1; spurIndex++) {
+                int spurNode = previousPath.nodes[spurIndex];
+                // the links leaving the spur node along every known path with the same root are not to be reused.
+                for (Candidate path : paths) {
+                    if (path.nodes.length > spurIndex + 1 && path.hasRoot(previousPath, spurIndex)) {
+                        int edge = graph.edgeBetween(spurNode, path.nodes[spurIndex + 1]);
+                        excludedEdges[edge] = true;
+                    }
+                }
+                // neither are the routers of the root path, which keeps the combined path loop-free.
+                for (int position = 0; position < spurIndex; position++) {
+                    excludedNodes[previousPath.nodes[position]] = true;
+                }
+
+                Candidate candidate = spurPath(spurNode, destination, previousPath, spurIndex);
+                if (candidate != null && knownPaths.add(candidate.nodeList())) {
+                    candidates.add(candidate);
+                }
+
+                Arrays.fill(excludedEdges, false);
+                Arrays.fill(excludedNodes, false);
+            }
+
+            if (candidates.isEmpty()) {
+                break;
+            }
+            paths.add(candidates.poll());
+        }
+        return toRoutePaths(paths);
+    }
+
+    /**
+     * Runs SPF from the spur node with the current exclusions and prefixes the resulting path with the first
+     * spurIndex nodes of the root path.
+     *
+     * @return the combined path; null if the destination cannot be reached.
+     */
+    private Candidate spurPath(int spurNode, int destination, Candidate rootPath, int spurIndex) {
+        spf.run(spurNode, destination, excludedNodes, excludedEdges);
+        if (spf.settleRank[destination] == -1) {
+            return null;
+        }
+        int spurLength = 0;
+        for (int node = destination; node != spurNode; node = spf.predecessor[node]) {
+            spurLength++;
+        }
+
+        int[] nodes = new int[spurIndex + spurLength + 1];
+        int[] weights = new int[spurIndex + spurLength];
+        long cost = spf.distance[destination];
+        for (int position = 0; position < spurIndex; position++) {
+            nodes[position] = rootPath.nodes[position];
+            weights[position] = rootPath.weights[position];
+            cost += weights[position];
+        }
+        int position = nodes.length - 1;
+        for (int node = destination; node != spurNode; node = spf.predecessor[node], position--) {
+            nodes[position] = node;
+            weights[position - 1] = spf.distance[node] - spf.distance[spf.predecessor[node]];
+        }
+        nodes[spurIndex] = spurNode;
+        return new Candidate(nodes, weights, cost);
+    }
+
+    private List<RoutePath> toRoutePaths(List<Candidate> paths) {
+        List<RoutePath> routePaths = new ArrayList<>(paths.size());
+        for (Candidate path : paths) {
+            List<String> routerIds = new ArrayList<>(path.nodes.length);
+            for (int node : path.nodes) {
+                routerIds.add(graph.getNodeId(node));
+            }
+            routePaths.add(new RoutePath(routerIds, path.weights));
+        }
+        return routePaths;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * A path in terms of node indices along with the weights of its links.
+     */
+    private static final class Candidate {
+        private final int[] nodes;
+        private final int[] weights;
+        private final long cost;
+
+        private Candidate(int[] nodes, int[] weights, long cost) {
+            this.nodes = nodes;
+            this.weights = weights;
+            this.cost = cost;
+        }
+
+        /**
+         * @return true if the first (rootLength + 1) nodes of this path and the other path are the same.
+         */
+        private boolean hasRoot(Candidate other, int rootLength) {
+            for (int position = 0; position <= rootLength; position++) {
+                if (nodes[position] != other.nodes[position]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private List<Integer> nodeList() {
+            List<Integer> nodeList = new ArrayList<>(nodes.length);
+            for (int node : nodes) {
+                nodeList.add(node);
+            }
+            return nodeList;
+        }
+    }
+}
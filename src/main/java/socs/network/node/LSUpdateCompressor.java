@@ -0,0 +1,51 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LSACompressor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Compresses the LSAs of the LSUPDATEs sent to the neighbors that agreed to it in the HELLO exchange. LSAs smaller
+ * than the threshold are sent as they are, since Deflate does not pay off for a handful of LSAs.
+ * <p/>
+ * A flood sends the same LSA array to every neighbor, scoped to the area of the link to it. The compressed LSAs of
+ * every area are therefore kept for the last array of a flood, and returned again as long as the same array is passed
+ * in, so that a flood is compressed once per area rather than once per neighbor.
+ */
+class LSUpdateCompressor {
+    private final int thresholdBytes;
+    // the LSA array of the last flood and its compressed LSAs by area (null if sent uncompressed); guarded by this.
+    private Vector<LSA> lastLSAArray;
+    private final Map<Integer, byte[]> lastCompressedLSAs = new HashMap<>();
+
+    /**
+     * @param thresholdBytes the encoded size of the LSAs from which on they are compressed.
+     */
+    LSUpdateCompressor(int thresholdBytes) {
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    /**
+     * @param lsaArray   the LSAs of an LSUPDATE, as flooded to every neighbor.
+     * @param areaId     the area of the link over which the LSUPDATE is to be sent.
+     * @param scopedLSAs the LSAs of lsaArray that belong to that area.
+     * @return the compressed scoped LSAs; null if they are to be sent uncompressed.
+     */
+    synchronized byte[] compress(Vector<LSA> lsaArray, int areaId, Vector<LSA> scopedLSAs) {
+        if (lsaArray == null) {
+            return null;
+        }
+        if (lsaArray != lastLSAArray) {
+            lastLSAArray = lsaArray;
+            lastCompressedLSAs.clear();
+        }
+        if (!lastCompressedLSAs.containsKey(areaId)) {
+            lastCompressedLSAs.put(areaId, LSACompressor.uncompressedSizeOf(scopedLSAs) < thresholdBytes ? null :
+                    LSACompressor.compress(scopedLSAs));
+        }
+        return lastCompressedLSAs.get(areaId);
+    }
+}
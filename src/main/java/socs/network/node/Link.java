@@ -1,10 +1,21 @@
 package socs.network.node;
 
+import socs.network.util.HierarchicalTimerWheel;
+import socs.network.util.RouterConstants;
+
+import java.util.Map;
+
 public class Link {
     private RouterDescription thisRouterDesc;
     private RouterDescription destinationRouterDesc;
     private short linkWeight;
     private int lastLSASeqNum;
+    // the dead-interval timer of the neighbor on this link; re-armed on every HELLO received from it.
+    private HierarchicalTimerWheel.Timeout deadTimer;
+    // LSD summary received from the neighbor in the last HELLO exchange; consumed by the next LSUPDATE sent to it.
+    private Map<String, Integer> neighborLSDSummary;
+    // whether both ends of this link compress large LSUPDATEs; agreed on in the HELLO exchange.
+    private volatile boolean isCompressionNegotiated = false;
 
     public Link(RouterDescription thisRouterDesc, RouterDescription destinationRouterDesc) {
         this.thisRouterDesc = thisRouterDesc;
@@ -43,4 +54,48 @@ public class Link {
         this.linkWeight = linkWeight;
     }
 
+    /**
+     * @return the area this link belongs to: the area of the routers at both ends, or the backbone for a link between
+     * a backbone router and an area border router. Links between two different non-backbone areas belong to no area
+     * and no LSAs are flooded over them.
+     */
+    int getAreaId() {
+        int thisAreaId = thisRouterDesc.areaId;
+        int destinationAreaId = destinationRouterDesc.areaId;
+        if (thisAreaId == destinationAreaId) {
+            return thisAreaId;
+        }
+        return thisAreaId == RouterConstants.BACKBONE_AREA || destinationAreaId == RouterConstants.BACKBONE_AREA ?
+                RouterConstants.BACKBONE_AREA : RouterConstants.NO_AREA;
+    }
+
+    HierarchicalTimerWheel.Timeout getDeadTimer() {
+        return deadTimer;
+    }
+
+    void setDeadTimer(HierarchicalTimerWheel.Timeout deadTimer) {
+        this.deadTimer = deadTimer;
+    }
+
+    boolean isCompressionNegotiated() {
+        return isCompressionNegotiated;
+    }
+
+    void setCompressionNegotiated(boolean isCompressionNegotiated) {
+        this.isCompressionNegotiated = isCompressionNegotiated;
+    }
+
+    synchronized void setNeighborLSDSummary(Map<String, Integer> neighborLSDSummary) {
+        this.neighborLSDSummary = neighborLSDSummary;
+    }
+
+    /**
+     * @return the LSD summary received in the last HELLO exchange (or null if none is pending); it is handed out only
+     * once so that only the first LSUPDATE after a HELLO exchange is trimmed to what the neighbor is missing.
+     */
+    synchronized Map<String, Integer> takeNeighborLSDSummary() {
+        Map<String, Integer> summary = neighborLSDSummary;
+        neighborLSDSummary = null;
+        return summary;
+    }
 }
@@ -2,10 +2,19 @@ package socs.network.node;
 
 import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
+import socs.network.util.RouterConstants;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
-import java.util.Vector;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class LinkStateDatabase {
     //linkID => LSAInstance
@@ -15,11 +24,38 @@ public class LinkStateDatabase {
     private int[][] topologyArray;
     // an index map to get the index of a node in the topology array above
     private Map<String, Integer> graphIndex;
-    // shortest path array constructed from Dijkstra's algorithm
-    private String[][] shortestDistanceArray;
-
-    private static final String DISTANCE_TO_SELF = "" + 0;
-    private static final String MAX_DISTANCE = "" + Short.MAX_VALUE;
+    // the ID of the node at each index of the topology array (reverse of graphIndex)
+    private String[] nodeIds;
+    // shortest distance to each node and all of its equal-cost predecessors, as computed by Dijkstra's algorithm
+    private int[] distanceArray;
+    private int[][] predecessorArray;
+    // forwarding table derived from the last SPF run; replaced as a whole after every run.
+    volatile ForwardingTable forwardingTable = ForwardingTable.EMPTY;
+    // maximum no of equal-cost next hops kept per destination.
+    int maxEcmpPaths = RouterConstants.DEFAULT_ECMP_MAX_PATHS;
+    // age (in seconds) at which an LSA is flushed from the database.
+    int maxAgeSeconds = RouterConstants.DEFAULT_LSA_MAX_AGE_SECONDS;
+    // LSAs whose originators were found unreachable by the last SPF run => the time (nanos) they became unreachable.
+    private final Map<String, Long> unreachableSince = new HashMap<>();
+    // journal to which every change of the store is recorded for warm restarts; null if persistence is disabled.
+    LsdPersistence persistence = null;
+    // incremented whenever the topology is recomputed or the forwarding table repaired; identifies the state that
+    // query results were computed on.
+    private final AtomicLong version = new AtomicLong();
+    // no of SPF runs so far, reported by the STATS query and the scale tests.
+    final AtomicLong noOfSpfRuns = new AtomicLong();
+    // whether this router is an area border router i.e. a router outside the backbone with a link to it; kept up to
+    // date by the router as links are attached and removed.
+    volatile boolean isAreaBorderRouter = false;
+    // invoked after an SPF run in which this router originated new instances of its summary LSAs, which then have to
+    // be flooded; null if nobody needs to know.
+    Runnable summaryListener = null;
+    // destinations in other areas => the area border router through which they are reached, as of the last SPF run.
+    private Map<String, String> interAreaBorderRouters = Collections.emptyMap();
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+    // upper bound on the no of equal-cost paths listed for a single destination.
+    private static final int MAX_LISTED_PATHS = 64;
 
     LinkStateDatabase(RouterDescription routerDescription) {
         rd = routerDescription;
@@ -32,36 +68,162 @@ public class LinkStateDatabase {
      * output the shortest path from this router to the destination with the given IP address
      */
     String getShortestPath(String destinationIP) {
+        // a destination in another area is reached through its area border router, which knows the rest of the way.
+        String borderRouterIP = interAreaBorderRouters.get(destinationIP);
         String routeString = destinationIP;
-        String thisRouter = rd.simulatedIPAddress;
+        if (borderRouterIP != null) {
+            int indexOfBorderRouter = graphIndex.get(borderRouterIP);
+            routeString = borderRouterIP + " ->(" +
+                    (forwardingTable.getCost(destinationIP) - distanceArray[indexOfBorderRouter]) + ") " + routeString;
+            destinationIP = borderRouterIP;
+        } else if (!graphIndex.containsKey(destinationIP)) {
+            return "No router with IP [" + destinationIP + "] exists in network";
+        }
+
+        // links may weigh 0, so this router is told by its index rather than by its distance.
+        int myIndex = graphIndex.get(rd.simulatedIPAddress);
+        int indexOfDestination = graphIndex.get(destinationIP);
+        if (indexOfDestination == myIndex) {
+            return destinationIP + " ->(0) It's the node itself";
+        } else if (distanceArray[indexOfDestination] == UNREACHABLE) {
+            return destinationIP + " ->(NULL) A path does not exist";
+        }
 
+        // follow the first predecessor of every node back to this router.
+        int nodeIndex = indexOfDestination;
+        while (nodeIndex != myIndex) {
+            int predecessorIndex = predecessorArray[nodeIndex][0];
+            routeString = nodeIds[predecessorIndex] + " ->(" +
+                    (distanceArray[nodeIndex] - distanceArray[predecessorIndex]) + ") " + routeString;
+            nodeIndex = predecessorIndex;
+        }
+        return routeString;
+    }
+
+    /**
+     * output every equal-cost shortest path from this router to the destination with the given IP address, one path
+     * per line followed by its total cost. At most MAX_LISTED_PATHS paths are listed.
+     */
+    String getEqualCostPaths(String destinationIP) {
+        String borderRouterIP = interAreaBorderRouters.get(destinationIP);
+        if (borderRouterIP != null) {
+            return getInterAreaPaths(destinationIP, borderRouterIP);
+        }
         if (!graphIndex.containsKey(destinationIP)) {
             return "No router with IP [" + destinationIP + "] exists in network";
         }
-
+        int myIndex = graphIndex.get(rd.simulatedIPAddress);
         int indexOfDestination = graphIndex.get(destinationIP);
-        String predecessor = shortestDistanceArray[indexOfDestination][2];
-        int totalCost = Integer.parseInt(shortestDistanceArray[indexOfDestination][1]);
+        int distance = distanceArray[indexOfDestination];
+        if (indexOfDestination == myIndex || distance == UNREACHABLE) {
+            return getShortestPath(destinationIP);
+        }
 
-        if (predecessor != null) {
-            while (!shortestDistanceArray[indexOfDestination][2].equals(thisRouter)) {
-                indexOfDestination = graphIndex.get(predecessor);
-                String newPredecessor = shortestDistanceArray[indexOfDestination][2];
-                int newCost = Integer.parseInt(shortestDistanceArray[indexOfDestination][1]);
+        List<String> paths = new ArrayList<>();
+        collectPaths(myIndex, indexOfDestination, destinationIP, paths);
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            sb.append(path).append("  [COST ").append(distance).append("]\n");
+        }
+        appendForwardingSummary(sb, destinationIP, paths.size());
+        return sb.toString();
+    }
 
-                routeString = predecessor + " ->(" + (totalCost - newCost) + ") " + routeString;
-                predecessor = newPredecessor;
-                totalCost = newCost;
-            }
-            routeString = thisRouter + " ->(" + totalCost + ") " + routeString;
-        } else {
-            if (totalCost == 0) {
-                routeString += " ->(0) It's the node itself";
-            } else {
-                routeString += " ->(NULL) A path does not exist";
+    /**
+     * output the equal-cost paths to a destination in another area: the paths to the area border router through
+     * which it is reached, followed by the cost the border router advertised for the rest of the way.
+     */
+    private String getInterAreaPaths(String destinationIP, String borderRouterIP) {
+        int indexOfBorderRouter = graphIndex.get(borderRouterIP);
+        int distance = forwardingTable.getCost(destinationIP);
+        String pathSuffix = " ->(" + (distance - distanceArray[indexOfBorderRouter]) + ") " + destinationIP;
+
+        List<String> paths = new ArrayList<>();
+        collectPaths(graphIndex.get(rd.simulatedIPAddress), indexOfBorderRouter, borderRouterIP, paths);
+        StringBuilder sb = new StringBuilder();
+        for (String path : paths) {
+            sb.append(path).append(pathSuffix).append("  [COST ").append(distance).append(", inter-area via ").
+                    append(borderRouterIP).append("]\n");
+        }
+        appendForwardingSummary(sb, destinationIP, paths.size());
+        return sb.toString();
+    }
+
+    private void appendForwardingSummary(StringBuilder sb, String destinationIP, int noOfPaths) {
+        if (noOfPaths == MAX_LISTED_PATHS) {
+            sb.append("(listing stopped after ").append(MAX_LISTED_PATHS).append(" paths)\n");
+        }
+        sb.append(noOfPaths).append(" equal-cost path(s); next hops used for forwarding: ").
+                append(Arrays.toString(forwardingTable.getNextHops(destinationIP)));
+        String backup = forwardingTable.getBackup(destinationIP);
+        sb.append("; loop-free alternate: ").append(backup == null ? "none" : backup);
+    }
+
+    /**
+     * Walks the predecessor DAG back from the given node to this router (at myIndex), adding each complete path to
+     * the list.
+     */
+    private void collectPaths(int myIndex, int nodeIndex, String pathSuffix, List<String> paths) {
+        if (paths.size() == MAX_LISTED_PATHS) {
+            return;
+        }
+        if (nodeIndex == myIndex) {
+            paths.add(pathSuffix);
+            return;
+        }
+        for (int predecessorIndex : predecessorArray[nodeIndex]) {
+            collectPaths(myIndex, predecessorIndex, nodeIds[predecessorIndex] + " ->(" +
+                    (distanceArray[nodeIndex] - distanceArray[predecessorIndex]) + ") " + pathSuffix, paths);
+        }
+    }
+
+    /**
+     * Re-populates the database with the LSAs persisted before the last shutdown/crash of this router and runs SPF
+     * over them. LSAs that reached MaxAge in the meantime, or that belong to routers that quit, are dropped. The own
+     * LSA is not restored since the links of this router have to be re-attached; only its sequence number is carried
+     * over so that the LSAs originated after the restart supersede the ones the neighbours still hold.
+     *
+     * @param persistedLSAs the LSAs loaded from the snapshot and the journal.
+     * @return the no of LSAs of other routers that were restored.
+     */
+    int restore(Map<String, LSA> persistedLSAs) {
+        int noOfRestoredLSAs = 0;
+        for (LSA lsa : persistedLSAs.values()) {
+            if (lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+                LSA myLSA = _store.get(rd.simulatedIPAddress);
+                myLSA.lsaSeqNumber = Math.max(myLSA.lsaSeqNumber, lsa.lsaSeqNumber + 1);
+            } else if (!lsa.hasQuitNetwork && isBelowMaxAge(lsa)) {
+                _store.put(lsa.linkStateID, lsa);
+                noOfRestoredLSAs++;
             }
         }
-        return routeString;
+        updateTopologyAndRoutingTable();
+        return noOfRestoredLSAs;
+    }
+
+    /**
+     * @return a compact snapshot of the current topology that can be analysed without holding on to the database.
+     */
+    TopologyGraph buildTopologyGraph() {
+        return TopologyGraph.fromLSAs(_store.values());
+    }
+
+    /**
+     * @return a version of the routing state that changes with every change of the LSD or the forwarding table.
+     */
+    long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * @return a summary of the database i.e. the sequence number of every LSA keyed by its link-state ID.
+     */
+    HashMap<String, Integer> getSummary() {
+        HashMap<String, Integer> summary = new HashMap<>();
+        for (LSA lsa : _store.values()) {
+            summary.put(lsa.linkStateID, lsa.lsaSeqNumber);
+        }
+        return summary;
     }
 
     //initialize the linkstate database by adding an entry about the router itself
@@ -69,15 +231,150 @@ public class LinkStateDatabase {
         LSA lsa = new LSA();
         lsa.linkStateID = rd.simulatedIPAddress;
         lsa.lsaSeqNumber = Integer.MIN_VALUE;
+        lsa.areaId = rd.areaId;
         LinkDescription ld = new LinkDescription();
         ld.linkID = rd.simulatedIPAddress;
         ld.portNum = -1;
         ld.tosMetrics = 0;
         lsa.links.add(ld);
+        lsa.updateChecksum();
         return lsa;
     }
 
 
+    /**
+     * Ages every LSA in the database by the given no of seconds and purges the LSAs of other routers that reached
+     * MaxAge. Purged LSAs are removed from the topology incrementally and the routing table is recomputed only if
+     * something was purged. The LSA of this router is aged but never purged; it is refreshed by the router instead.
+     *
+     * @param elapsedSeconds the no of seconds since the last aging round.
+     * @return the IDs of the LSAs that were purged.
+     */
+    List<String> ageLSAs(int elapsedSeconds) {
+        List<String> purgedLSAs = new LinkedList<>();
+        Iterator<LSA> lsaIterator = _store.values().iterator();
+        while (lsaIterator.hasNext()) {
+            LSA lsa = lsaIterator.next();
+            lsa.lsaAge = (int) Math.min((long) lsa.lsaAge + elapsedSeconds, Integer.MAX_VALUE);
+            if (lsa.lsaAge >= maxAgeSeconds && !lsa.linkStateID.equals(rd.simulatedIPAddress)) {
+                lsaIterator.remove();
+                purgedLSAs.add(lsa.linkStateID);
+            }
+        }
+
+        if (purgedLSAs.isEmpty()) {
+            return purgedLSAs;
+        }
+        if (topologyArray != null) {
+            for (String purgedLSA : purgedLSAs) {
+                removeFromTopology(purgedLSA);
+            }
+            runDijkstraAlgo();
+        } else {
+            version.incrementAndGet();
+        }
+        if (persistence != null) {
+            persistence.sync(_store);
+        }
+        return purgedLSAs;
+    }
+
+    /**
+     * Evicts the LSAs of routers that have been unreachable from this router for longer than the given grace period.
+     * The topology is rebuilt afterwards so that the SPF input only covers the reachable part of the network.
+     *
+     * @param gracePeriodNanos the time an LSA of an unreachable router is kept.
+     * @return the IDs of the LSAs that were evicted.
+     */
+    List<String> evictUnreachableLSAs(long gracePeriodNanos) {
+        List<String> evictedLSAs = new LinkedList<>();
+        long now = System.nanoTime();
+        for (Map.Entry<String, Long> unreachableEntry : unreachableSince.entrySet()) {
+            if (now - unreachableEntry.getValue() >= gracePeriodNanos) {
+                evictedLSAs.add(unreachableEntry.getKey());
+            }
+        }
+
+        if (!evictedLSAs.isEmpty()) {
+            for (String evictedLSA : evictedLSAs) {
+                _store.remove(evictedLSA);
+                unreachableSince.remove(evictedLSA);
+            }
+            updateTopologyAndRoutingTable();
+        }
+        return evictedLSAs;
+    }
+
+    /**
+     * Sweep run after every SPF computation. Marks the LSAs whose originators could not be reached and clears the
+     * mark of those that are reachable again.
+     */
+    private void markUnreachableLSAs() {
+        Iterator<String> markedIterator = unreachableSince.keySet().iterator();
+        while (markedIterator.hasNext()) {
+            if (!_store.containsKey(markedIterator.next())) {
+                markedIterator.remove();
+            }
+        }
+
+        long now = System.nanoTime();
+        for (LSA lsa : _store.values()) {
+            // a summary LSA is as reachable as the area border router that originated it.
+            String lsaId = lsa.linkStateID;
+            String originatorId = lsa.getOriginator();
+            Integer routerIndex = graphIndex.get(originatorId);
+            boolean isUnreachable = routerIndex == null || distanceArray[routerIndex] == UNREACHABLE;
+
+            if (!isUnreachable) {
+                unreachableSince.remove(lsaId);
+            } else if (!unreachableSince.containsKey(lsaId) && !originatorId.equals(rd.simulatedIPAddress)) {
+                unreachableSince.put(lsaId, now);
+            }
+        }
+    }
+
+    /**
+     * @param lsa an LSA received from a neighbour.
+     * @return true if the LSA is young enough to be installed in the database.
+     */
+    boolean isBelowMaxAge(LSA lsa) {
+        return lsa.lsaAge < maxAgeSeconds;
+    }
+
+    /**
+     * Removes the edges contributed by an LSA that is no longer in the store from the topology array, leaving the
+     * edges that other LSAs still advertise towards the router. This gives the same topology as a full rebuild
+     * without re-indexing the whole database.
+     *
+     * @param routerId the ID of the router whose LSA was removed from the store.
+     */
+    private void removeFromTopology(String routerId) {
+        Integer routerIndex = graphIndex.get(routerId);
+        if (routerIndex == null) {
+            return;
+        }
+
+        for (int a = 0; a < topologyArray.length; a++) {
+            if (a != routerIndex) {
+                topologyArray[routerIndex][a] = -1;
+                topologyArray[a][routerIndex] = -1;
+            }
+        }
+
+        for (LSA lsa : _store.values()) {
+            if (lsa.isSummary) {
+                continue;
+            }
+            for (LinkDescription linkDesc : lsa.links) {
+                Integer linkRouterIndex = graphIndex.get(lsa.linkStateID);
+                if (linkDesc.linkID.equals(routerId) && linkRouterIndex != null) {
+                    topologyArray[routerIndex][linkRouterIndex] = linkDesc.tosMetrics;
+                    topologyArray[linkRouterIndex][routerIndex] = linkDesc.tosMetrics;
+                }
+            }
+        }
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder();
         for (LSA lsa : _store.values()) {
@@ -97,8 +394,12 @@ public class LinkStateDatabase {
         int indexCount = 0;
 
         // create a map of IPs of all nodes in the LinkStateDatabase and
-        // their index in the topology array we are about to construct
+        // their index in the topology array we are about to construct. summary LSAs describe no links of the
+        // topology; they are only used to route to the destinations in other areas.
         for (LSA lsa : _store.values()) {
+            if (lsa.isSummary) {
+                continue;
+            }
             String routerIP = lsa.linkStateID;
             if (graphIndex.get(routerIP) == null) {
                 graphIndex.put(routerIP, indexCount++);
@@ -114,6 +415,10 @@ public class LinkStateDatabase {
 
         // a 2d array that constructs the existing topology with the weights
         this.topologyArray = new int[indexCount][indexCount];
+        this.nodeIds = new String[indexCount];
+        for (Map.Entry<String, Integer> indexEntry : graphIndex.entrySet()) {
+            nodeIds[indexEntry.getValue()] = indexEntry.getKey();
+        }
 
         // initilize all weights to -1 first (Hence -1 denotes no direct path exists between two nodes)
         for (int a = 0; a < topologyArray.length; a++) {
@@ -133,6 +438,13 @@ public class LinkStateDatabase {
             if (router_sLSA != null) {
                 for (LinkDescription linkDesc : router_sLSA.links) {
                     String linkID = linkDesc.linkID;
+                    // skip links that are not advertised back by the router at the other end (two-way check).
+                    // a crashed router keeps advertising its links until its LSA is removed, whereas its
+                    // neighbours drop the link once its dead-interval expires.
+                    LSA linkRouterLSA = _store.get(linkID);
+                    if (linkRouterLSA != null && !hasLinkTo(linkRouterLSA, routerId)) {
+                        continue;
+                    }
                     int linkRouterIndex = graphIndex.get(linkID);
                     // set the weight from a node to another and vice versa.
                     topologyArray[routerIndex][linkRouterIndex] = linkDesc.tosMetrics;
@@ -142,65 +454,400 @@ public class LinkStateDatabase {
 
         }
         runDijkstraAlgo();
+
+        if (persistence != null) {
+            persistence.sync(_store);
+        }
     }
 
-    private void runDijkstraAlgo() {
-        shortestDistanceArray = new String[topologyArray.length][3];
-        Vector<Integer> unvisitedVector = new Vector<>();
-        Vector<Integer> visitedVector = new Vector<>();
+    /**
+     * Records that LSAs were replaced by newer instances with the same contents (e.g. refreshes). The topology and
+     * the routing table stay as they are, so SPF is not run; the new sequence numbers are persisted and the version
+     * is bumped since the LSD summary changed.
+     */
+    void lsasRefreshed() {
+        version.incrementAndGet();
 
-        // initial setting up of the ShortestPath array
-        for (String node : graphIndex.keySet()) {
-            int nodeIndex = graphIndex.get(node);
-            shortestDistanceArray[nodeIndex][0] = node;
+        if (persistence != null) {
+            persistence.sync(_store);
+        }
+    }
 
-            if (node.equals(rd.simulatedIPAddress)) {
-                shortestDistanceArray[nodeIndex][1] = DISTANCE_TO_SELF;
-            } else {
-                shortestDistanceArray[nodeIndex][1] = MAX_DISTANCE;
+    private boolean hasLinkTo(LSA lsa, String routerId) {
+        for (LinkDescription linkDesc : lsa.links) {
+            if (linkDesc.linkID.equals(routerId)) {
+                return true;
             }
-            unvisitedVector.add(nodeIndex);
         }
+        return false;
+    }
+
+    /**
+     * Runs Dijkstra's algorithm from this router over the topology array. Keeps every equal-cost predecessor of a
+     * node (instead of only the first one found) so that all equal-cost paths, and hence all equal-cost next hops,
+     * are known. A new forwarding table is published at the end and the version is bumped, which invalidates the
+     * path and query caches built over the previous LSD.
+     */
+    private void runDijkstraAlgo() {
+        noOfSpfRuns.incrementAndGet();
+        int noOfNodes = topologyArray.length;
+        distanceArray = new int[noOfNodes];
+        Arrays.fill(distanceArray, UNREACHABLE);
+        List<List<Integer>> predecessors = new ArrayList<>(noOfNodes);
+        for (int a = 0; a < noOfNodes; a++) {
+            predecessors.add(new ArrayList<Integer>(2));
+        }
+        boolean[] visited = new boolean[noOfNodes];
+        // the nodes in the order they were settled i.e. in non-decreasing order of their distance.
+        int[] visitOrder = new int[noOfNodes];
+        int noOfVisited = 0;
 
         int myIndex = graphIndex.get(rd.simulatedIPAddress);
-        int[] myArray = topologyArray[myIndex];
-        int currentIndex = myIndex;
-        int[] currentArray = myArray;
-
-        while (unvisitedVector.size() > 0) {
-            for (int a = 0; a < currentArray.length; a++) {
-                if (a != currentIndex && currentArray[a] != -1 && unvisitedVector.contains(a)) {
-                    int weight = currentArray[a];
-                    int currentDistance = Integer.parseInt(shortestDistanceArray[a][1]);
-                    int newDistance = Integer.parseInt(shortestDistanceArray[currentIndex][1]) + weight;
-
-                    if (newDistance < currentDistance) {
-                        shortestDistanceArray[a][1] = "" + newDistance;
-                        shortestDistanceArray[a][2] = shortestDistanceArray[currentIndex][0];
+        distanceArray[myIndex] = 0;
+
+        while (true) {
+            int currentIndex = -1;
+            for (int b = 0; b < noOfNodes; b++) {
+                if (!visited[b] && distanceArray[b] != UNREACHABLE &&
+                        (currentIndex == -1 || distanceArray[b] < distanceArray[currentIndex])) {
+                    currentIndex = b;
+                }
+            }
+            if (currentIndex == -1) {
+                break;
+            }
+            visited[currentIndex] = true;
+            visitOrder[noOfVisited++] = currentIndex;
+
+            int[] currentArray = topologyArray[currentIndex];
+            for (int a = 0; a < noOfNodes; a++) {
+                if (a != currentIndex && currentArray[a] != -1 && !visited[a]) {
+                    int newDistance = distanceArray[currentIndex] + currentArray[a];
+                    if (newDistance < distanceArray[a]) {
+                        distanceArray[a] = newDistance;
+                        predecessors.get(a).clear();
+                        predecessors.get(a).add(currentIndex);
+                    } else if (newDistance == distanceArray[a]) {
+                        predecessors.get(a).add(currentIndex);
                     }
                 }
             }
+        }
 
-            int indexOfClosestVertex = -1;
-            int shortestDistance = Short.MAX_VALUE;
+        predecessorArray = new int[noOfNodes][];
+        for (int a = 0; a < noOfNodes; a++) {
+            List<Integer> nodePredecessors = predecessors.get(a);
+            predecessorArray[a] = new int[nodePredecessors.size()];
+            for (int p = 0; p < nodePredecessors.size(); p++) {
+                predecessorArray[a][p] = nodePredecessors.get(p);
+            }
+        }
 
-            for (int b = 0; b < shortestDistanceArray.length; b++) {
-                if (b != currentIndex && !visitedVector.contains(b)) {
-                    if (Integer.parseInt(shortestDistanceArray[b][1]) < shortestDistance) {
-                        shortestDistance = Integer.parseInt(shortestDistanceArray[b][1]);
-                        indexOfClosestVertex = b;
-                    }
+        buildForwardingTable(myIndex, visitOrder, noOfVisited);
+        version.incrementAndGet();
+        markUnreachableLSAs();
+        if (originateSummaryLSAs() && summaryListener != null) {
+            summaryListener.run();
+        }
+    }
+
+    /**
+     * Derives the equal-cost next hops of every reachable destination from the predecessors found by SPF and
+     * publishes them as the new forwarding table. The next hops of a node are the union of those of its
+     * predecessors (or the node itself if its predecessor is this router), capped at the configured fan-out.
+     */
+    private void buildForwardingTable(int myIndex, int[] visitOrder, int noOfVisited) {
+        String[][] nextHopsByIndex = new String[topologyArray.length][];
+        Map<String, String[]> nextHops = new HashMap<>();
+        Map<String, Integer> costs = new HashMap<>();
+
+        for (int v = 0; v < noOfVisited; v++) {
+            int nodeIndex = visitOrder[v];
+            if (nodeIndex == myIndex) {
+                continue;
+            }
+            TreeSet<String> nodeNextHops = new TreeSet<>();
+            for (int predecessorIndex : predecessorArray[nodeIndex]) {
+                if (predecessorIndex == myIndex) {
+                    nodeNextHops.add(nodeIds[nodeIndex]);
+                } else {
+                    Collections.addAll(nodeNextHops, nextHopsByIndex[predecessorIndex]);
                 }
             }
+            while (nodeNextHops.size() > maxEcmpPaths) {
+                nodeNextHops.pollLast();
+            }
 
-            if (indexOfClosestVertex == -1) {
-                break;
+            nextHopsByIndex[nodeIndex] = nodeNextHops.toArray(new String[nodeNextHops.size()]);
+            nextHops.put(nodeIds[nodeIndex], nextHopsByIndex[nodeIndex]);
+            costs.put(nodeIds[nodeIndex], distanceArray[nodeIndex]);
+        }
+        Map<String, String> backups = computeLoopFreeAlternates(myIndex, nextHopsByIndex);
+        interAreaBorderRouters = addInterAreaRoutes(myIndex, nextHopsByIndex, nextHops, costs, backups);
+        forwardingTable = new ForwardingTable(nextHops, costs, backups);
+    }
+
+    /**
+     * Adds the routes to the destinations in other areas to the given forwarding table entries. A destination that is
+     * listed in the summary LSA of an area border router is reached through the border router, at the cost of the
+     * path to it plus the cost it advertised; the cheapest border routers are used, with their next hops and
+     * loop-free alternate. Destinations reachable within the area always keep their intra-area route.
+     *
+     * @return the border router of every destination in another area.
+     */
+    private Map<String, String> addInterAreaRoutes(int myIndex, String[][] nextHopsByIndex,
+                                                   Map<String, String[]> nextHops, Map<String, Integer> costs,
+                                                   Map<String, String> backups) {
+        Map<String, String> borderRouters = new HashMap<>();
+        for (LSA lsa : _store.values()) {
+            if (!isUsableSummary(lsa)) {
+                continue;
+            }
+            String borderRouterIP = lsa.getOriginator();
+            Integer borderRouterIndex = graphIndex.get(borderRouterIP);
+            if (borderRouterIndex == null || borderRouterIndex == myIndex ||
+                    distanceArray[borderRouterIndex] == UNREACHABLE) {
+                continue;
+            }
+
+            for (LinkDescription linkDesc : lsa.links) {
+                String destinationIP = linkDesc.linkID;
+                Integer destinationIndex = graphIndex.get(destinationIP);
+                if (destinationIndex != null && distanceArray[destinationIndex] != UNREACHABLE) {
+                    continue;
+                }
+                long cost = (long) distanceArray[borderRouterIndex] + linkDesc.tosMetrics;
+                Integer currentCost = costs.get(destinationIP);
+                if (cost >= UNREACHABLE || (currentCost != null && cost > currentCost)) {
+                    continue;
+                }
+
+                TreeSet<String> destinationNextHops = new TreeSet<>();
+                Collections.addAll(destinationNextHops, nextHopsByIndex[borderRouterIndex]);
+                if (currentCost != null && cost == currentCost) {
+                    Collections.addAll(destinationNextHops, nextHops.get(destinationIP));
+                } else {
+                    costs.put(destinationIP, (int) cost);
+                    borderRouters.put(destinationIP, borderRouterIP);
+                }
+                while (destinationNextHops.size() > maxEcmpPaths) {
+                    destinationNextHops.pollLast();
+                }
+                nextHops.put(destinationIP, destinationNextHops.toArray(new String[destinationNextHops.size()]));
+            }
+        }
+
+        for (Map.Entry<String, String> borderRouterEntry : borderRouters.entrySet()) {
+            String backup = backups.get(borderRouterEntry.getValue());
+            if (backup != null && !Arrays.asList(nextHops.get(borderRouterEntry.getKey())).contains(backup)) {
+                backups.put(borderRouterEntry.getKey(), backup);
+            }
+        }
+        return borderRouters;
+    }
+
+    /**
+     * @return true if the given LSA is a summary LSA whose destinations this router should route to: summaries of
+     * other routers that have not been withdrawn, and for an area border router only those of the backbone, since
+     * the summaries in its own area describe what it advertised there itself.
+     */
+    private boolean isUsableSummary(LSA lsa) {
+        return lsa.isSummary && !lsa.hasQuitNetwork && !lsa.getOriginator().equals(rd.simulatedIPAddress) &&
+                (!isAreaBorderRouter || lsa.areaId == RouterConstants.BACKBONE_AREA);
+    }
+
+    /**
+     * Originates new instances of the summary LSAs of this router after an SPF run, if their contents changed. An
+     * area border router summarises the destinations of its own area into the backbone, and those of the backbone
+     * and of the other areas into its own area. A router that stops being an area border router withdraws all
+     * destinations from the summary LSAs it originated before; these then age out.
+     *
+     * @return true if a new instance of a summary LSA was originated.
+     */
+    private boolean originateSummaryLSAs() {
+        int myAreaId = rd.areaId;
+        if (myAreaId == RouterConstants.BACKBONE_AREA) {
+            return false;
+        }
+
+        // kept sorted so that instances with the same destinations have the same contents.
+        Map<String, Integer> backboneDestinations = new TreeMap<>();
+        Map<String, Integer> areaDestinations = new TreeMap<>();
+        if (isAreaBorderRouter) {
+            for (int nodeIndex = 0; nodeIndex < nodeIds.length; nodeIndex++) {
+                String nodeId = nodeIds[nodeIndex];
+                if (distanceArray[nodeIndex] == UNREACHABLE || nodeId.equals(rd.simulatedIPAddress)) {
+                    continue;
+                }
+                LSA routerLSA = _store.get(nodeId);
+                if (routerLSA != null && routerLSA.areaId == myAreaId) {
+                    backboneDestinations.put(nodeId, distanceArray[nodeIndex]);
+                } else {
+                    areaDestinations.put(nodeId, distanceArray[nodeIndex]);
+                }
             }
+            for (String destinationIP : interAreaBorderRouters.keySet()) {
+                LSA routerLSA = _store.get(destinationIP);
+                if (routerLSA == null || routerLSA.areaId != myAreaId) {
+                    areaDestinations.put(destinationIP, forwardingTable.getCost(destinationIP));
+                }
+            }
+        }
 
-            visitedVector.add(currentIndex);
-            unvisitedVector.remove(new Integer(currentIndex));
-            currentIndex = graphIndex.get(shortestDistanceArray[indexOfClosestVertex][0]);
-            currentArray = topologyArray[currentIndex];
+        boolean isOriginated = originateSummaryLSA(RouterConstants.BACKBONE_AREA, backboneDestinations);
+        isOriginated |= originateSummaryLSA(myAreaId, areaDestinations);
+        return isOriginated;
+    }
+
+    private boolean originateSummaryLSA(int areaId, Map<String, Integer> destinations) {
+        String summaryID = LSA.summaryID(rd.simulatedIPAddress, areaId);
+        LSA oldLSA = _store.get(summaryID);
+        if (oldLSA == null && destinations.isEmpty()) {
+            return false;
+        }
+
+        LSA lsa = new LSA();
+        lsa.linkStateID = summaryID;
+        lsa.areaId = areaId;
+        lsa.isSummary = true;
+        for (Map.Entry<String, Integer> destinationEntry : destinations.entrySet()) {
+            LinkDescription linkDesc = new LinkDescription();
+            linkDesc.linkID = destinationEntry.getKey();
+            linkDesc.portNum = 0;
+            linkDesc.tosMetrics = destinationEntry.getValue();
+            lsa.links.add(linkDesc);
+        }
+        lsa.updateChecksum();
+        if (oldLSA != null && oldLSA.hasSameContents(lsa)) {
+            return false;
+        }
+        lsa.lsaSeqNumber = oldLSA == null ? Integer.MIN_VALUE : oldLSA.lsaSeqNumber + 1;
+        _store.put(summaryID, lsa);
+        return true;
+    }
+
+    /**
+     * Re-originates the summary LSAs of this router that are older than the refresh interval and still list
+     * destinations; withdrawn ones are left to age out.
+     *
+     * @param refreshSeconds the age at which an LSA is re-originated.
+     * @return true if any summary LSA was re-originated.
+     */
+    boolean refreshSummaryLSAs(int refreshSeconds) {
+        boolean isRefreshed = false;
+        for (LSA lsa : _store.values()) {
+            if (lsa.isSummary && lsa.lsaAge >= refreshSeconds && !lsa.links.isEmpty() &&
+                    lsa.getOriginator().equals(rd.simulatedIPAddress)) {
+                lsa.lsaSeqNumber++;
+                lsa.lsaAge = 0;
+                isRefreshed = true;
+            }
+        }
+        return isRefreshed;
+    }
+
+    /**
+     * Computes a loop-free alternate (LFA) next hop for every reachable destination D by running SPF rooted at each
+     * neighbour N of this router S. N is a loop-free alternate for D if it is not a primary next hop and
+     * dist(N, D) < dist(N, S) + dist(S, D), i.e. N's own shortest path to D does not lead back through S, so S can
+     * hand traffic to N as soon as its primary link fails. Of all candidates the one with the cheapest path via the
+     * neighbour is picked.
+     *
+     * @return the alternate next hop keyed by destination; destinations without an alternate are left out.
+     */
+    private Map<String, String> computeLoopFreeAlternates(int myIndex, String[][] nextHopsByIndex) {
+        Map<String, String> backups = new HashMap<>();
+        int noOfNodes = topologyArray.length;
+        List<Integer> neighbours = new ArrayList<>();
+        for (int a = 0; a < noOfNodes; a++) {
+            if (a != myIndex && topologyArray[myIndex][a] != -1) {
+                neighbours.add(a);
+            }
+        }
+        if (neighbours.size() < 2) {
+            // a router with a single neighbour has nowhere else to send the traffic.
+            return backups;
+        }
+
+        int[][] neighbourDistances = new int[neighbours.size()][];
+        for (int n = 0; n < neighbours.size(); n++) {
+            neighbourDistances[n] = computeDistancesFrom(neighbours.get(n));
+        }
+
+        for (int destinationIndex = 0; destinationIndex < noOfNodes; destinationIndex++) {
+            String[] primaryHops = nextHopsByIndex[destinationIndex];
+            if (primaryHops == null) {
+                continue;
+            }
+            int bestNeighbour = -1;
+            long bestCost = Long.MAX_VALUE;
+            for (int n = 0; n < neighbours.size(); n++) {
+                int neighbourIndex = neighbours.get(n);
+                int neighbourToDestination = neighbourDistances[n][destinationIndex];
+                if (neighbourToDestination == UNREACHABLE ||
+                        Arrays.asList(primaryHops).contains(nodeIds[neighbourIndex])) {
+                    continue;
+                }
+                long viaMe = (long) neighbourDistances[n][myIndex] + distanceArray[destinationIndex];
+                long viaNeighbour = (long) topologyArray[myIndex][neighbourIndex] + neighbourToDestination;
+                if (neighbourToDestination < viaMe && viaNeighbour < bestCost) {
+                    bestNeighbour = neighbourIndex;
+                    bestCost = viaNeighbour;
+                }
+            }
+            if (bestNeighbour != -1) {
+                backups.put(nodeIds[destinationIndex], nodeIds[bestNeighbour]);
+            }
+        }
+        return backups;
+    }
+
+    /**
+     * Plain Dijkstra over the topology array rooted at the given node; only the distances are kept. The topology is
+     * symmetric so this also gives the distance from every node to the root (a reverse SPF).
+     */
+    private int[] computeDistancesFrom(int rootIndex) {
+        int noOfNodes = topologyArray.length;
+        int[] distances = new int[noOfNodes];
+        Arrays.fill(distances, UNREACHABLE);
+        boolean[] visited = new boolean[noOfNodes];
+        distances[rootIndex] = 0;
+
+        while (true) {
+            int currentIndex = -1;
+            for (int b = 0; b < noOfNodes; b++) {
+                if (!visited[b] && distances[b] != UNREACHABLE &&
+                        (currentIndex == -1 || distances[b] < distances[currentIndex])) {
+                    currentIndex = b;
+                }
+            }
+            if (currentIndex == -1) {
+                return distances;
+            }
+            visited[currentIndex] = true;
+
+            int[] currentArray = topologyArray[currentIndex];
+            for (int a = 0; a < noOfNodes; a++) {
+                if (a != currentIndex && currentArray[a] != -1 && !visited[a] &&
+                        distances[currentIndex] + currentArray[a] < distances[a]) {
+                    distances[a] = distances[currentIndex] + currentArray[a];
+                }
+            }
+        }
+    }
+
+    /**
+     * Local repair after the link to a neighbour failed: publishes a forwarding table in which the destinations
+     * routed via the neighbour use their remaining equal-cost next hops or their loop-free alternate. Only the
+     * immutable forwarding table is swapped, so this is cheap enough to run before the topology is recomputed.
+     *
+     * @param neighbourIP the simulated IP of the neighbour that can no longer be reached.
+     */
+    void repairLocalFailure(String neighbourIP) {
+        ForwardingTable repairedTable = forwardingTable.withoutNextHop(neighbourIP);
+        if (repairedTable != forwardingTable) {
+            forwardingTable = repairedTable;
+            version.incrementAndGet();
         }
     }
 
@@ -208,28 +855,36 @@ public class LinkStateDatabase {
         System.out.println("==================================================");
         System.out.println("                    TOPOLOGY                      ");
         System.out.println("==================================================");
-        // print the topology
+        // print the topology, one row per node labelled with its ID.
         for (int a = 0; a < topologyArray.length; a++) {
-            for (String keyString : graphIndex.keySet()) {
-                if (graphIndex.get(keyString) == a) {
-                    System.out.print(keyString + "    | ");
-                }
-            }
-
+            StringBuilder row = new StringBuilder(nodeIds[a]).append("    | ");
             for (int b = 0; b < topologyArray.length; b++) {
-                System.out.print(topologyArray[a][b] + " | ");
+                row.append(topologyArray[a][b]).append(" | ");
             }
-            System.out.println();
+            System.out.println(row);
         }
 
         System.out.println("==================================================");
         System.out.println("                    ROUTING TABLE                 ");
         System.out.println("==================================================");
-        // print the routing table
-        for (String[] aShortestDistanceArray : shortestDistanceArray) {
+        // print the routing table: destination | distance | equal-cost predecessors | equal-cost next hops | LFA
+        for (int a = 0; a < distanceArray.length; a++) {
+            StringBuilder predecessors = new StringBuilder();
+            for (int predecessorIndex : predecessorArray[a]) {
+                predecessors.append(predecessors.length() == 0 ? "" : ",").append(nodeIds[predecessorIndex]);
+            }
             System.out.println(
-                    aShortestDistanceArray[0] + " | " +
-                            aShortestDistanceArray[1] + " | " + aShortestDistanceArray[2]);
+                    nodeIds[a] + " | " + (distanceArray[a] == UNREACHABLE ? "-" : "" + distanceArray[a]) + " | " +
+                            (predecessors.length() == 0 ? "null" : predecessors) + " | " +
+                            Arrays.toString(forwardingTable.getNextHops(nodeIds[a])) + " | " +
+                            forwardingTable.getBackup(nodeIds[a]));
+        }
+        // routes to other areas list their area border router in place of the predecessors.
+        for (Map.Entry<String, String> borderRouterEntry : interAreaBorderRouters.entrySet()) {
+            String destinationIP = borderRouterEntry.getKey();
+            System.out.println(destinationIP + " | " + forwardingTable.getCost(destinationIP) + " | via " +
+                    borderRouterEntry.getValue() + " | " + Arrays.toString(forwardingTable.getNextHops(destinationIP)) +
+                    " | " + forwardingTable.getBackup(destinationIP));
         }
     }
 }
@@ -0,0 +1,260 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.util.HierarchicalTimerWheel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * BFD style fast liveness detection between the two ends of a link. Each router binds a dedicated UDP
+ * DatagramChannel on the same port number as its TCP server and exchanges small fixed-size probes with every TWO_WAY
+ * neighbor at the configured transmit interval. If no probe is received from a neighbor within
+ * (detect-multiplier x interval) the adjacency is torn down immediately, without waiting for the HELLO dead-interval.
+ * <p/>
+ * A session only starts detecting once the first probe of the neighbor has been received, so that neighbors which
+ * do not run fast liveness detection are never torn down by it.
+ */
+class LivenessDetector {
+    private final Log log = LogFactory.getLog(LivenessDetector.class);
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int PROBE_MAGIC = 0x42464431; // "BFD1"
+    private static final byte PROBE_VERSION = 1;
+    private static final byte STATE_DOWN = 0;
+    private static final byte STATE_UP = 1;
+    // magic(4) + version(1) + state(1) + detect-multiplier(1) + id-length(1) + tx-interval(4) + sequence(4) + id(16)
+    static final int PROBE_SIZE = 32;
+    private static final int MAX_ID_LENGTH = 16;
+
+    private final Router myRouter;
+    private final HierarchicalTimerWheel timerWheel;
+    private final int txIntervalMillis;
+    private final int detectMultiplier;
+    private final byte[] myId;
+    // one session per neighbor, keyed by the simulated IP of the neighbor.
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private DatagramChannel channel;
+    private final ByteBuffer txBuffer = ByteBuffer.allocateDirect(PROBE_SIZE);
+    private int txSequence = 0;
+    private volatile boolean running = false;
+
+    /**
+     * @param router           the router whose adjacencies are monitored.
+     * @param timerWheel       the timer wheel of the router that drives the transmit and detect timers.
+     * @param txIntervalMillis interval between two probes sent to a neighbor.
+     * @param detectMultiplier no of consecutive probes that may be missed before a neighbor is declared down.
+     */
+    LivenessDetector(Router router, HierarchicalTimerWheel timerWheel, int txIntervalMillis, int detectMultiplier) {
+        this.myRouter = router;
+        this.timerWheel = timerWheel;
+        this.txIntervalMillis = txIntervalMillis;
+        this.detectMultiplier = detectMultiplier;
+        this.myId = router.getRd().simulatedIPAddress.getBytes(ASCII);
+    }
+
+    /**
+     * Binds the UDP channel, starts the receiver thread and schedules the first round of probes.
+     *
+     * @return true if the detector was started; false if it could not be started.
+     */
+    boolean start() {
+        if (myId.length > MAX_ID_LENGTH) {
+            log.error("Simulated IP [" + myRouter.getRd().simulatedIPAddress + "] is longer than " + MAX_ID_LENGTH +
+                    " characters and cannot be carried in a liveness probe. Fast liveness detection is disabled.");
+            return false;
+        }
+
+        try {
+            channel = DatagramChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.bind(new InetSocketAddress(myRouter.getRd().processPortNumber));
+        } catch (IOException e) {
+            log.error("Unable to bind the liveness probe channel on UDP PORT [" +
+                    myRouter.getRd().processPortNumber + "].", e);
+            return false;
+        }
+
+        running = true;
+        Thread receiverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveProbes();
+            }
+        }, "liveness-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        scheduleTransmit();
+        return true;
+    }
+
+    void stop() {
+        running = false;
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error("Error occurred when attempted to close the liveness probe channel.", e);
+        }
+    }
+
+    /**
+     * Starts probing the neighbor on the given link. Invoked once the neighbor reaches TWO_WAY.
+     *
+     * @param link the link to the neighbor.
+     */
+    void addSession(Link link) {
+        RouterDescription neighbor = link.getDestinationRouterDesc();
+        Session session = new Session(neighbor.simulatedIPAddress,
+                new InetSocketAddress(neighbor.processIPAddress, neighbor.processPortNumber));
+        Session oldSession = sessions.put(neighbor.simulatedIPAddress, session);
+        if (oldSession != null) {
+            oldSession.cancelDetectTimer();
+        }
+    }
+
+    /**
+     * Stops probing the neighbor with the given simulated IP. Invoked when the adjacency is removed.
+     *
+     * @param neighborSimIP the simulated IP of the neighbor.
+     */
+    void removeSession(String neighborSimIP) {
+        Session session = sessions.remove(neighborSimIP);
+        if (session != null) {
+            session.cancelDetectTimer();
+        }
+    }
+
+    private void scheduleTransmit() {
+        timerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (running) {
+                    transmitProbes();
+                    scheduleTransmit();
+                }
+            }
+        }, txIntervalMillis);
+    }
+
+    private synchronized void transmitProbes() {
+        txSequence++;
+        for (Session session : sessions.values()) {
+            txBuffer.clear();
+            txBuffer.putInt(PROBE_MAGIC);
+            txBuffer.put(PROBE_VERSION);
+            txBuffer.put(session.isUp ? STATE_UP : STATE_DOWN);
+            txBuffer.put((byte) detectMultiplier);
+            txBuffer.put((byte) myId.length);
+            txBuffer.putInt(txIntervalMillis);
+            txBuffer.putInt(txSequence);
+            txBuffer.put(myId);
+            txBuffer.position(PROBE_SIZE);
+            txBuffer.flip();
+
+            try {
+                channel.send(txBuffer, session.remoteAddress);
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                if (myRouter.printFlag) {
+                    log.error("Unable to send liveness probe to [" + session.neighborSimIP + "].", e);
+                }
+            }
+        }
+    }
+
+    private void receiveProbes() {
+        ByteBuffer rxBuffer = ByteBuffer.allocateDirect(PROBE_SIZE);
+        byte[] idBytes = new byte[MAX_ID_LENGTH];
+
+        while (running) {
+            rxBuffer.clear();
+            SocketAddress sender;
+            try {
+                sender = channel.receive(rxBuffer);
+            } catch (IOException e) {
+                if (running) {
+                    log.error("An IO error occurred whilst receiving liveness probes.", e);
+                }
+                return;
+            }
+            if (sender == null || rxBuffer.position() != PROBE_SIZE) {
+                continue;
+            }
+
+            rxBuffer.flip();
+            if (rxBuffer.getInt() != PROBE_MAGIC || rxBuffer.get() != PROBE_VERSION) {
+                continue;
+            }
+            rxBuffer.get(); // state of the remote end; not needed since the session comes up on the first probe.
+            int remoteMultiplier = rxBuffer.get();
+            int idLength = rxBuffer.get();
+            int remoteInterval = rxBuffer.getInt();
+            rxBuffer.getInt(); // sequence number; only useful for debugging captures.
+            if (idLength <= 0 || idLength > MAX_ID_LENGTH || remoteMultiplier <= 0 || remoteInterval <= 0) {
+                continue;
+            }
+            rxBuffer.get(idBytes, 0, idLength);
+
+            Session session = sessions.get(new String(idBytes, 0, idLength, ASCII));
+            if (session != null) {
+                session.probeReceived(remoteMultiplier * (long) Math.max(remoteInterval, txIntervalMillis));
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * State of the liveness session with a single neighbor.
+     */
+    private class Session {
+        private final String neighborSimIP;
+        private final InetSocketAddress remoteAddress;
+        private volatile boolean isUp = false;
+        private HierarchicalTimerWheel.Timeout detectTimer;
+
+        private Session(String neighborSimIP, InetSocketAddress remoteAddress) {
+            this.neighborSimIP = neighborSimIP;
+            this.remoteAddress = remoteAddress;
+        }
+
+        private synchronized void probeReceived(long detectTimeMillis) {
+            if (!isUp) {
+                isUp = true;
+                if (myRouter.printFlag) {
+                    myRouter.eventLog.log(EventLog.EventType.LIVENESS_SESSION_UP, neighborSimIP);
+                }
+            }
+            timerWheel.cancel(detectTimer);
+            detectTimer = timerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    detectTimeExpired();
+                }
+            }, detectTimeMillis);
+        }
+
+        private void detectTimeExpired() {
+            // the session might have been replaced or removed while the expiry was being dispatched.
+            if (sessions.remove(neighborSimIP, this)) {
+                myRouter.processNeighborDead(neighborSimIP, "No liveness probe received from " + neighborSimIP +
+                        " within the detection time.");
+            }
+        }
+
+        private synchronized void cancelDetectTimer() {
+            timerWheel.cancel(detectTimer);
+            detectTimer = null;
+        }
+    }
+}
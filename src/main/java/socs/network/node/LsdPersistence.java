@@ -0,0 +1,269 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.LSA;
+import socs.network.message.MessageCodec;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists the LinkStateDatabase of a router so that it can warm-restart from it. The state is kept in two files in
+ * the configured state directory:
+ * <ul>
+ * <li>a compact binary snapshot of all LSAs, rewritten on startup, on quit and whenever the journal fills up.</li>
+ * <li>an append-only journal of the LSAs installed/removed since the snapshot, written through a memory-mapped
+ * buffer so that recording a change is a plain memory copy.</li>
+ * </ul>
+ * The journal lives in the page cache and therefore survives a crash of the router process; the snapshot is forced
+ * to disk when written.
+ */
+class LsdPersistence {
+    private final Log log = LogFactory.getLog(LsdPersistence.class);
+
+    private static final int SNAPSHOT_MAGIC = 0x4C534453; // "LSDS"
+    private static final int JOURNAL_MAGIC = 0x4C53444A; // "LSDJ"
+    private static final short FORMAT_VERSION = 3;
+    // magic(4) + version(2) + saved-time(8) + no-of-LSAs(4)
+    private static final int SNAPSHOT_HEADER_SIZE = 18;
+    // magic(4) + version(2) + reserved(2)
+    private static final int JOURNAL_HEADER_SIZE = 8;
+    // length(4) + type(1) + time(8); a record with length zero marks the end of the journal.
+    private static final int RECORD_HEADER_SIZE = 13;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+
+    private final Path snapshotPath;
+    private final Path journalPath;
+    private final int journalCapacity;
+
+    private FileChannel journalChannel;
+    private MappedByteBuffer journal;
+    // sequence numbers of the LSAs as they were last written to the snapshot/journal.
+    private final Map<String, Integer> persistedSeqNumbers = new HashMap<>();
+
+    /**
+     * @param stateDirectory  the directory in which the state files of the router are kept.
+     * @param routerId        the simulated IP of the router; used to name the state files.
+     * @param journalCapacity the size of the memory-mapped journal in bytes.
+     */
+    LsdPersistence(String stateDirectory, String routerId, int journalCapacity) {
+        String fileName = routerId.replaceAll("[^A-Za-z0-9._-]", "_");
+        this.snapshotPath = Paths.get(stateDirectory, fileName + ".lsd");
+        this.journalPath = Paths.get(stateDirectory, fileName + ".journal");
+        this.journalCapacity = journalCapacity;
+    }
+
+    /**
+     * Reads the snapshot and replays the journal on top of it. The age of every LSA is advanced by the time that has
+     * passed since it was written.
+     *
+     * @return the persisted LSAs keyed by their link-state ID; empty if nothing was persisted before.
+     * @throws IOException if the state files exist but cannot be read.
+     */
+    synchronized Map<String, LSA> load() throws IOException {
+        Map<String, LSA> lsaMap = new HashMap<>();
+        long now = System.currentTimeMillis();
+
+        if (Files.exists(snapshotPath)) {
+            try (FileChannel snapshotChannel = FileChannel.open(snapshotPath, StandardOpenOption.READ)) {
+                MappedByteBuffer snapshot = snapshotChannel.map(FileChannel.MapMode.READ_ONLY, 0,
+                        snapshotChannel.size());
+                if (snapshot.remaining() >= SNAPSHOT_HEADER_SIZE && snapshot.getInt() == SNAPSHOT_MAGIC &&
+                        snapshot.getShort() == FORMAT_VERSION) {
+                    long savedTime = snapshot.getLong();
+                    int noOfLSAs = snapshot.getInt();
+                    for (int lsaIndex = 0; lsaIndex < noOfLSAs; lsaIndex++) {
+                        LSA lsa = MessageCodec.readLSA(snapshot);
+                        addElapsedAge(lsa, now - savedTime);
+                        lsaMap.put(lsa.linkStateID, lsa);
+                    }
+                } else {
+                    log.error("Ignoring LSD snapshot [" + snapshotPath + "] with an unknown format.");
+                }
+            } catch (BufferUnderflowException e) {
+                log.error("LSD snapshot [" + snapshotPath + "] is truncated. Using the LSAs read so far.");
+            }
+        }
+
+        if (Files.exists(journalPath)) {
+            try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.READ)) {
+                MappedByteBuffer oldJournal = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (oldJournal.remaining() >= JOURNAL_HEADER_SIZE && oldJournal.getInt() == JOURNAL_MAGIC &&
+                        oldJournal.getShort() == FORMAT_VERSION) {
+                    oldJournal.getShort();
+                    replayJournal(oldJournal, lsaMap, now);
+                }
+            }
+        }
+
+        for (LSA lsa : lsaMap.values()) {
+            persistedSeqNumbers.put(lsa.linkStateID, lsa.lsaSeqNumber);
+        }
+        return lsaMap;
+    }
+
+    private void replayJournal(MappedByteBuffer oldJournal, Map<String, LSA> lsaMap, long now) {
+        try {
+            while (oldJournal.remaining() >= RECORD_HEADER_SIZE) {
+                int recordLength = oldJournal.getInt();
+                if (recordLength <= 0 || recordLength > oldJournal.remaining()) {
+                    break;
+                }
+                byte recordType = oldJournal.get();
+                long recordTime = oldJournal.getLong();
+
+                if (recordType == RECORD_PUT) {
+                    LSA lsa = MessageCodec.readLSA(oldJournal);
+                    addElapsedAge(lsa, now - recordTime);
+                    lsaMap.put(lsa.linkStateID, lsa);
+                } else if (recordType == RECORD_REMOVE) {
+                    lsaMap.remove(MessageCodec.readString(oldJournal));
+                } else {
+                    break;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            log.error("LSD journal [" + journalPath + "] ends with a partial record. Ignoring it.");
+        }
+    }
+
+    /**
+     * Writes all LSAs in the given store to a new snapshot and starts a fresh journal.
+     *
+     * @param store the current LSAs of the LinkStateDatabase.
+     */
+    synchronized void writeSnapshot(Map<String, LSA> store) {
+        int snapshotSize = SNAPSHOT_HEADER_SIZE;
+        for (LSA lsa : store.values()) {
+            snapshotSize += MessageCodec.sizeOf(lsa);
+        }
+
+        Path tempPath = snapshotPath.resolveSibling(snapshotPath.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(snapshotPath.getParent() == null ? Paths.get(".") : snapshotPath.getParent());
+            try (FileChannel snapshotChannel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer snapshot = snapshotChannel.map(FileChannel.MapMode.READ_WRITE, 0, snapshotSize);
+                snapshot.putInt(SNAPSHOT_MAGIC);
+                snapshot.putShort(FORMAT_VERSION);
+                snapshot.putLong(System.currentTimeMillis());
+                snapshot.putInt(store.size());
+                for (LSA lsa : store.values()) {
+                    MessageCodec.writeLSA(snapshot, lsa);
+                }
+                snapshot.force();
+            }
+            Files.move(tempPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            resetJournal();
+        } catch (IOException e) {
+            log.error("An error occurred whilst writing the LSD snapshot [" + snapshotPath + "].", e);
+            return;
+        }
+
+        persistedSeqNumbers.clear();
+        for (LSA lsa : store.values()) {
+            persistedSeqNumbers.put(lsa.linkStateID, lsa.lsaSeqNumber);
+        }
+    }
+
+    /**
+     * Appends the changes of the store since the last call to the journal: LSAs whose sequence number changed and
+     * LSAs that were removed. Falls back to writing a new snapshot when the journal is full.
+     *
+     * @param store the current LSAs of the LinkStateDatabase.
+     */
+    synchronized void sync(Map<String, LSA> store) {
+        if (journal == null) {
+            return;
+        }
+
+        List<LSA> changedLSAs = new ArrayList<>();
+        int requiredSpace = 4;
+        for (LSA lsa : store.values()) {
+            Integer persistedSeqNumber = persistedSeqNumbers.get(lsa.linkStateID);
+            if (persistedSeqNumber == null || persistedSeqNumber != lsa.lsaSeqNumber) {
+                changedLSAs.add(lsa);
+                requiredSpace += RECORD_HEADER_SIZE + MessageCodec.sizeOf(lsa);
+            }
+        }
+        List<String> removedLSAs = new ArrayList<>();
+        for (String lsaID : persistedSeqNumbers.keySet()) {
+            if (!store.containsKey(lsaID)) {
+                removedLSAs.add(lsaID);
+                requiredSpace += RECORD_HEADER_SIZE + MessageCodec.sizeOf(lsaID);
+            }
+        }
+
+        if (changedLSAs.isEmpty() && removedLSAs.isEmpty()) {
+            return;
+        }
+        if (requiredSpace > journal.remaining()) {
+            // compact the journal into a new snapshot.
+            writeSnapshot(store);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        for (LSA lsa : changedLSAs) {
+            journal.putInt(1 + 8 + MessageCodec.sizeOf(lsa));
+            journal.put(RECORD_PUT);
+            journal.putLong(now);
+            MessageCodec.writeLSA(journal, lsa);
+            persistedSeqNumbers.put(lsa.linkStateID, lsa.lsaSeqNumber);
+        }
+        for (String lsaID : removedLSAs) {
+            journal.putInt(1 + 8 + MessageCodec.sizeOf(lsaID));
+            journal.put(RECORD_REMOVE);
+            journal.putLong(now);
+            MessageCodec.writeString(journal, lsaID);
+            persistedSeqNumbers.remove(lsaID);
+        }
+        // terminate the journal after the last record without advancing past it.
+        journal.putInt(journal.position(), 0);
+    }
+
+    synchronized void close() {
+        if (journalChannel != null) {
+            try {
+                journal.force();
+                journalChannel.close();
+            } catch (IOException e) {
+                log.error("Error occurred when attempted to close the LSD journal [" + journalPath + "].", e);
+            }
+            journalChannel = null;
+            journal = null;
+        }
+    }
+
+    private void resetJournal() throws IOException {
+        if (journalChannel == null) {
+            journalChannel = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, journalCapacity);
+        }
+        journal.clear();
+        journal.putInt(JOURNAL_MAGIC);
+        journal.putShort(FORMAT_VERSION);
+        journal.putShort((short) 0);
+        journal.putInt(journal.position(), 0);
+    }
+
+    private static void addElapsedAge(LSA lsa, long elapsedMillis) {
+        if (elapsedMillis > 0) {
+            lsa.lsaAge = (int) Math.min(lsa.lsaAge + elapsedMillis / 1000, Integer.MAX_VALUE);
+        }
+    }
+}
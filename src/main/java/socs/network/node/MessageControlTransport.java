@@ -0,0 +1,94 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.RouterConstants;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the control transports that carry self-contained messages instead of connections (UDP datagrams, shared
+ * memory rings). Since the HELLOs of an exchange do not share a connection, each of them carries its stage in the
+ * exchange (see {@link RouterConstants#HELLO_STAGE_FIRST}): replies to the HELLOs sent by this router are handed to
+ * the waiting exchange, every other message is handed to the RouterServer.
+ */
+abstract class MessageControlTransport implements ControlTransport {
+    private final Log log = LogFactory.getLog(MessageControlTransport.class);
+
+    protected final Router myRouter;
+    protected final RouterServer routerServer;
+    // HELLO exchanges initiated by this router waiting for the reply, keyed by the simulated IP of the neighbour.
+    private final ConcurrentHashMap<String, BlockingQueue<SOSPFPacket>> helloExchanges = new ConcurrentHashMap<>();
+
+    /**
+     * @param router       the router whose control messages are carried.
+     * @param routerServer the server to which received messages are handed.
+     */
+    MessageControlTransport(Router router, RouterServer routerServer) {
+        this.myRouter = router;
+        this.routerServer = routerServer;
+    }
+
+    /**
+     * Sends a message to the given router.
+     *
+     * @param destination the router to send the message to.
+     * @param packet      the message; encoded before this returns.
+     * @param packetType  the name of the message type, for logging.
+     * @param isReliable  whether the message must be delivered even if the transport may lose it.
+     */
+    abstract void send(RouterDescription destination, SOSPFPacket packet, String packetType, boolean isReliable);
+
+    @Override
+    public String exchangeHello(Link link, SOSPFPacket hello) {
+        RouterDescription destination = link.getDestinationRouterDesc();
+        BlockingQueue<SOSPFPacket> replyQueue = new LinkedBlockingQueue<>();
+        helloExchanges.put(destination.simulatedIPAddress, replyQueue);
+        try {
+            hello.helloStage = RouterConstants.HELLO_STAGE_FIRST;
+            SOSPFPacket reply = null;
+            for (int attempt = 0; attempt < RouterConstants.HELLO_ATTEMPTS && reply == null; attempt++) {
+                send(destination, hello, RouterConstants.HELLO_STRING, false);
+                reply = replyQueue.poll(RouterConstants.HELLO_REPLY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            if (reply == null) {
+                log.error("[HELLO] No reply to HELLO from router [" + destination.simulatedIPAddress + "] at HOST [" +
+                        destination.processIPAddress + "] on PORT [" + destination.processPortNumber + "]");
+                return null;
+            }
+
+            if (myRouter.helloReplyReceived(link, reply)) {
+                // the confirmation completes the exchange at the other end, so it is sent reliably.
+                hello.helloStage = RouterConstants.HELLO_STAGE_CONFIRM;
+                send(destination, hello, RouterConstants.HELLO_STRING, true);
+            }
+            return reply.srcIP;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            helloExchanges.remove(destination.simulatedIPAddress, replyQueue);
+        }
+    }
+
+    /**
+     * Hands a received message to the HELLO exchange waiting for it or, for any other message, to the RouterServer.
+     *
+     * @param packet the decoded message.
+     */
+    protected void messageReceived(SOSPFPacket packet) {
+        if (packet.sospfType == RouterConstants.HELLO_PACKET &&
+                packet.helloStage == RouterConstants.HELLO_STAGE_REPLY) {
+            BlockingQueue<SOSPFPacket> replyQueue = helloExchanges.get(packet.srcIP);
+            if (replyQueue != null) {
+                replyQueue.add(packet);
+            }
+        } else {
+            routerServer.dispatchMessage(packet, this);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records every control message received by the RouterServer of a router to an append-only binary file, so that the
+ * exact sequence of messages can be replayed later by {@link PacketReplayer}. The file is named after the router and
+ * kept in the configured capture directory; a router that is restarted appends to the capture of its previous run.
+ * <pre>
+ * header: magic(4), version(2), reserved(2)
+ * record: length(4), received-at(8), receiving-router, packet
+ * </pre>
+ * The length counts the bytes after itself. The receiving router is a string and the packet is encoded by
+ * {@link MessageCodec}. Reception times are nanoseconds since the epoch: they come from the monotonic clock of the
+ * process, aligned with the wall clock once, so they are precise within a capture and comparable (to a millisecond or
+ * so) with the captures of routers in other processes.
+ */
+class PacketCapture {
+    private static final Log log = LogFactory.getLog(PacketCapture.class);
+
+    private static final int CAPTURE_MAGIC = 0x53434150; // "SCAP"
+    private static final short FORMAT_VERSION = 1;
+    // magic(4) + version(2) + reserved(2)
+    private static final int HEADER_SIZE = 8;
+    // length(4) + received-at(8)
+    private static final int RECORD_HEADER_SIZE = 12;
+    static final String FILE_EXTENSION = ".capture";
+    // the epoch time (in nanoseconds) at which the monotonic clock of this process read zero.
+    private static final long EPOCH_NANOS_AT_ZERO =
+            TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+    private final Path capturePath;
+    private final String routerId;
+    private FileChannel captureChannel;
+    private long noOfRecords = 0;
+
+    /**
+     * @param captureDirectory the directory in which the capture files of the routers are kept.
+     * @param routerId         the simulated IP of the router; used to name the capture file.
+     */
+    PacketCapture(String captureDirectory, String routerId) {
+        this.capturePath = Paths.get(captureDirectory, routerId.replaceAll("[^A-Za-z0-9._-]", "_") + FILE_EXTENSION);
+        this.routerId = routerId;
+    }
+
+    /**
+     * Opens the capture file for appending, writing its header first if it is new.
+     *
+     * @throws IOException if the file cannot be opened, or is not a capture file.
+     */
+    synchronized void open() throws IOException {
+        Files.createDirectories(capturePath.toAbsolutePath().getParent());
+        if (Files.exists(capturePath) && Files.size(capturePath) > 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            try (FileChannel channel = FileChannel.open(capturePath, StandardOpenOption.READ)) {
+                if (channel.read(header, 0) != HEADER_SIZE || header.getInt(0) != CAPTURE_MAGIC ||
+                        header.getShort(4) != FORMAT_VERSION) {
+                    throw new IOException("[" + capturePath + "] exists and is not a capture file of this version.");
+                }
+            }
+        }
+        captureChannel = FileChannel.open(capturePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (captureChannel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(CAPTURE_MAGIC).putShort(FORMAT_VERSION).putShort((short) 0).flip();
+            writeFully(header);
+        }
+    }
+
+    /**
+     * Appends a received message to the capture. Stops capturing if the file cannot be written.
+     *
+     * @param sospfPacket the message, as it was received and before it is processed.
+     */
+    void record(SOSPFPacket sospfPacket) {
+        long receivedAtNanos = EPOCH_NANOS_AT_ZERO + System.nanoTime();
+        int length = 8 + MessageCodec.sizeOf(routerId) + MessageCodec.sizeOf(sospfPacket);
+        ByteBuffer record = ByteBuffer.allocate(4 + length);
+        record.putInt(length);
+        record.putLong(receivedAtNanos);
+        MessageCodec.writeString(record, routerId);
+        MessageCodec.writePacket(record, sospfPacket);
+        record.flip();
+
+        synchronized (this) {
+            if (captureChannel == null) {
+                return;
+            }
+            try {
+                writeFully(record);
+                noOfRecords++;
+            } catch (IOException e) {
+                log.error("An error occurred whilst writing to the capture [" + capturePath + "]. " +
+                        "Capturing stopped after " + noOfRecords + " messages.", e);
+                close();
+            }
+        }
+    }
+
+    synchronized void close() {
+        if (captureChannel != null) {
+            try {
+                captureChannel.close();
+            } catch (IOException e) {
+                log.error("Error occurred when attempted to close the capture [" + capturePath + "].", e);
+            }
+            captureChannel = null;
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            captureChannel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads all records of a capture file. A record cut short at the end of the file (e.g. by a crash of the router)
+     * is ignored.
+     *
+     * @param capturePath the capture file.
+     * @return the records in the order they were captured.
+     * @throws IOException if the file cannot be read or is not a capture file.
+     */
+    static List<Record> read(Path capturePath) throws IOException {
+        List<Record> records = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(capturePath, StandardOpenOption.READ)) {
+            MappedByteBuffer capture = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (capture.remaining() < HEADER_SIZE || capture.getInt() != CAPTURE_MAGIC ||
+                    capture.getShort() != FORMAT_VERSION) {
+                throw new IOException("[" + capturePath + "] is not a capture file of this version.");
+            }
+            capture.getShort();
+            while (capture.remaining() >= RECORD_HEADER_SIZE) {
+                int length = capture.getInt();
+                if (length < 8 || length > capture.remaining()) {
+                    log.error("Capture [" + capturePath + "] ends with a partial record. Ignoring it.");
+                    break;
+                }
+                ByteBuffer record = capture.slice();
+                record.limit(length);
+                capture.position(capture.position() + length);
+                try {
+                    long receivedAtNanos = record.getLong();
+                    String receivingRouterId = MessageCodec.readString(record);
+                    records.add(new Record(receivedAtNanos, receivingRouterId, MessageCodec.readPacket(record)));
+                } catch (BufferUnderflowException e) {
+                    log.error("Skipping a corrupt record in capture [" + capturePath + "].");
+                }
+            }
+        }
+        return records;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * A message as captured by the router that received it.
+     */
+    static final class Record {
+        final long receivedAtNanos;
+        final String receivingRouterId;
+        final SOSPFPacket sospfPacket;
+
+        Record(long receivedAtNanos, String receivingRouterId, SOSPFPacket sospfPacket) {
+            this.receivedAtNanos = receivedAtNanos;
+            this.receivingRouterId = receivingRouterId;
+            this.sospfPacket = sospfPacket;
+        }
+    }
+}
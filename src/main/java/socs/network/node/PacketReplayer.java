@@ -0,0 +1,237 @@
+package socs.network.node;
+
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+import socs.network.util.RouterConstants;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Replays the messages recorded by {@link PacketCapture} into in-memory routers, so that the processing of a given
+ * sequence of LSUPDATEs (LSD updates and SPF) can be profiled and compared between runs. Every router that received
+ * messages in the capture is re-created from its simulated IP (without a server, neighbors or timers) and gets its
+ * messages in the order they were received, each processed on the replaying thread before the next one is fed, at the
+ * original pace, accelerated by a factor, or as fast as possible. ATTACHes and HELLOs are skipped, since they are
+ * exchanges with a live neighbor; the routers have no neighbors, so nothing is flooded on.
+ * <p/>
+ * The flooding lifetime (TTL) of every message is shifted to the replay, so that messages that expired on their way
+ * in the captured run expire again. At the end the replay time of the messages, the SPF runs and a digest of the
+ * resulting LSD of every router are printed; two replays of the same capture end with the same digests.
+ * <p/>
+ * Usage: PacketReplayer &lt;capture file or directory&gt; [-router &lt;simulated IP&gt;]
+ * [-speed &lt;factor, 0 for as fast as possible; default 1&gt;] [-set key=value ...]
+ */
+public final class PacketReplayer {
+    private final double speed;
+    private final Map<String, ReplayedRouter> routers = new LinkedHashMap<>();
+    // how far the replay fell behind the captured timing at most.
+    private long maxLagNanos = 0;
+
+    private PacketReplayer(double speed) {
+        this.speed = speed;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length % 2 == 0) {
+            System.out.println("Usage: PacketReplayer <capture file or directory> [-router <simulated IP>] " +
+                    "[-speed <factor, 0 for as fast as possible>] [-set key=value ...]");
+            System.exit(1);
+        }
+        String routerId = null;
+        double speed = 1;
+        List<String> extraConfig = new ArrayList<>();
+        for (int argIndex = 1; argIndex + 1 < args.length; argIndex += 2) {
+            switch (args[argIndex]) {
+                case "-router":
+                    routerId = args[argIndex + 1];
+                    break;
+                case "-speed":
+                    speed = Double.parseDouble(args[argIndex + 1]);
+                    break;
+                case "-set":
+                    extraConfig.add(args[argIndex + 1]);
+                    break;
+                default:
+                    System.out.println("Ignoring the unknown option [" + args[argIndex] + "].");
+                    break;
+            }
+        }
+
+        List<PacketCapture.Record> records = readCaptures(Paths.get(args[0]), routerId);
+        if (records.isEmpty()) {
+            System.out.println("No messages to replay.");
+            System.exit(1);
+        }
+
+        // the routers print what they process like a router on its own would; only the result is of interest here.
+        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+        System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "error");
+
+        PacketReplayer replayer = new PacketReplayer(speed);
+        long replayNanos = replayer.replay(records, extraConfig);
+        replayer.printResults(records.size(), replayNanos);
+        System.exit(0);
+    }
+
+    /**
+     * @param capturePath a capture file, or a directory of capture files.
+     * @param routerId    the router whose messages are wanted; null for all routers.
+     * @return the records of the captures, in the order they were received across all captures.
+     */
+    private static List<PacketCapture.Record> readCaptures(Path capturePath, String routerId) throws IOException {
+        List<Path> captureFiles = new ArrayList<>();
+        if (Files.isDirectory(capturePath)) {
+            try (DirectoryStream<Path> directory = Files.newDirectoryStream(capturePath,
+                    "*" + PacketCapture.FILE_EXTENSION)) {
+                for (Path captureFile : directory) {
+                    captureFiles.add(captureFile);
+                }
+            }
+            Collections.sort(captureFiles);
+        } else {
+            captureFiles.add(capturePath);
+        }
+
+        List<PacketCapture.Record> records = new ArrayList<>();
+        for (Path captureFile : captureFiles) {
+            for (PacketCapture.Record record : PacketCapture.read(captureFile)) {
+                if (routerId == null || routerId.equals(record.receivingRouterId)) {
+                    records.add(record);
+                }
+            }
+        }
+        // a stable sort, so messages received at the same time stay in the order they were captured.
+        Collections.sort(records, new Comparator<PacketCapture.Record>() {
+            @Override
+            public int compare(PacketCapture.Record record, PacketCapture.Record otherRecord) {
+                return Long.compare(record.receivedAtNanos, otherRecord.receivedAtNanos);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * Feeds every record to the router that received it.
+     *
+     * @return the time the replay took in nanoseconds.
+     */
+    private long replay(List<PacketCapture.Record> records, List<String> extraConfig)
+            throws IOException, InterruptedException {
+        for (PacketCapture.Record record : records) {
+            if (!routers.containsKey(record.receivingRouterId)) {
+                routers.put(record.receivingRouterId, new ReplayedRouter(record.receivingRouterId, extraConfig));
+            }
+        }
+
+        long firstReceivedAtNanos = records.get(0).receivedAtNanos;
+        long startNanos = System.nanoTime();
+        for (PacketCapture.Record record : records) {
+            if (speed > 0) {
+                long dueNanos = startNanos + (long) ((record.receivedAtNanos - firstReceivedAtNanos) / speed);
+                long waitNanos = dueNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                } else {
+                    maxLagNanos = Math.max(maxLagNanos, -waitNanos);
+                }
+            }
+
+            SOSPFPacket sospfPacket = record.sospfPacket;
+            sospfPacket.timeToLive = System.currentTimeMillis() +
+                    (sospfPacket.timeToLive - TimeUnit.NANOSECONDS.toMillis(record.receivedAtNanos));
+            routers.get(record.receivingRouterId).replay(sospfPacket);
+        }
+        return System.nanoTime() - startNanos;
+    }
+
+    private void printResults(int noOfRecords, long replayNanos) {
+        System.out.println(String.format("%-16s %9s %8s %9s %14s %12s %12s %9s %6s %10s", "router", "replayed",
+                "skipped", "lsupdates", "lsupdate(ms)", "avg(us)", "max(us)", "spf-runs", "LSAs", "LSD-digest"));
+        for (Map.Entry<String, ReplayedRouter> routerEntry : routers.entrySet()) {
+            ReplayedRouter router = routerEntry.getValue();
+            System.out.println(String.format("%-16s %9d %8d %9d %14.2f %12.1f %12.1f %9d %6d %10s",
+                    routerEntry.getKey(), router.noOfReplayed, router.noOfSkipped, router.noOfLSUpdates,
+                    router.lsUpdateNanos / 1e6, router.noOfLSUpdates == 0 ? 0 :
+                            router.lsUpdateNanos / 1e3 / router.noOfLSUpdates, router.maxLSUpdateNanos / 1e3,
+                    router.router.lsd.noOfSpfRuns.get(), router.getNoOfLSAs(), router.getLSDDigest()));
+        }
+        System.out.println(String.format("Replayed %d messages in %.1f ms%s.", noOfRecords, replayNanos / 1e6,
+                speed > 0 ? String.format(" (at %sx; at most %.1f ms behind the captured timing)", speed,
+                        maxLagNanos / 1e6) : ""));
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * An in-memory router and the time it spent processing the replayed messages.
+     */
+    private static final class ReplayedRouter {
+        private final Router router;
+        private long noOfReplayed = 0;
+        private long noOfSkipped = 0;
+        private long noOfLSUpdates = 0;
+        private long lsUpdateNanos = 0;
+        private long maxLSUpdateNanos = 0;
+
+        private ReplayedRouter(String routerId, List<String> extraConfig) throws IOException {
+            Path configPath = Files.createTempFile("replay", ".conf");
+            configPath.toFile().deleteOnExit();
+            List<String> configLines = new ArrayList<>();
+            configLines.add("socs.network.router.ip = \"" + routerId + "\"");
+            configLines.add("socs.network.router.port = 0");
+            configLines.addAll(extraConfig);
+            Files.write(configPath, configLines, StandardCharsets.UTF_8);
+            this.router = new Router(new Configuration(configPath.toString()), "127.0.0.1");
+        }
+
+        private void replay(SOSPFPacket sospfPacket) {
+            long startNanos = System.nanoTime();
+            if (!router.getRouterServer().replayMessage(sospfPacket)) {
+                noOfSkipped++;
+                return;
+            }
+            long processingNanos = System.nanoTime() - startNanos;
+            noOfReplayed++;
+            if (sospfPacket.sospfType == RouterConstants.LSUPDATE_PACKET) {
+                noOfLSUpdates++;
+                lsUpdateNanos += processingNanos;
+                maxLSUpdateNanos = Math.max(maxLSUpdateNanos, processingNanos);
+            }
+        }
+
+        private int getNoOfLSAs() {
+            synchronized (router) {
+                return router.lsd._store.size();
+            }
+        }
+
+        /**
+         * @return a CRC of the IDs and sequence numbers of all LSAs in the LSD, in hex.
+         */
+        private String getLSDDigest() {
+            Map<String, Integer> lsdSummary;
+            synchronized (router) {
+                lsdSummary = new TreeMap<>(router.lsd.getSummary());
+            }
+            CRC32 digest = new CRC32();
+            for (Map.Entry<String, Integer> summaryEntry : lsdSummary.entrySet()) {
+                digest.update((summaryEntry.getKey() + "=" + summaryEntry.getValue() + ";").getBytes(
+                        StandardCharsets.UTF_8));
+            }
+            return Long.toHexString(digest.getValue());
+        }
+    }
+}
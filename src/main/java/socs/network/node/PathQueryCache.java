@@ -0,0 +1,154 @@
+package socs.network.node;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answers k-shortest-paths queries on a snapshot of the LSD and caches the results. Entries are keyed by
+ * (source, destination, k, LSD version), so a result is only ever returned for the version of the database it was
+ * computed on; the entries of older versions are dropped as soon as a newer version is seen. The cache holds at most
+ * the given no of entries and evicts the least recently used one beyond that.
+ * <p/>
+ * The topology snapshot is rebuilt at most once per LSD version and shared by all queries on that version. Queries
+ * may be issued from any no of threads; SPF runs outside of any lock.
+ */
+class PathQueryCache {
+    // the lock under which the LSD is modified.
+    private final Object lsdLock;
+    private final LinkStateDatabase lsd;
+    private final Map<QueryKey, List<RoutePath>> entries;
+    // the latest LSD version for which entries were stored; guarded by entries.
+    private long latestVersion = -1;
+    private long noOfHits;
+    private long noOfMisses;
+    private volatile Snapshot snapshot;
+
+    /**
+     * @param lsdLock    the lock held whilst the LSD is modified.
+     * @param lsd        the database to answer queries on.
+     * @param maxEntries the maximum no of results kept.
+     */
+    PathQueryCache(Object lsdLock, LinkStateDatabase lsd, final int maxEntries) {
+        this.lsdLock = lsdLock;
+        this.lsd = lsd;
+        this.entries = new LinkedHashMap<QueryKey, List<RoutePath>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<QueryKey, List<RoutePath>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param sourceIP      the simulated IP of the router the paths start at.
+     * @param destinationIP the simulated IP of the router the paths end at.
+     * @param k             the maximum no of paths to return.
+     * @return up to k loop-free paths in non-decreasing order of cost; empty if the routers are not connected.
+     * @throws IllegalArgumentException if either router is not in the LSD.
+     */
+    List<RoutePath> getKShortestPaths(String sourceIP, String destinationIP, int k) {
+        List<RoutePath> paths;
+        synchronized (entries) {
+            paths = entries.get(new QueryKey(sourceIP, destinationIP, k, lsd.getVersion()));
+            if (paths != null) {
+                noOfHits++;
+                return paths;
+            }
+            noOfMisses++;
+        }
+
+        Snapshot currentSnapshot = getSnapshot();
+        paths = new KShortestPaths(currentSnapshot.graph).find(sourceIP, destinationIP, k);
+        synchronized (entries) {
+            if (currentSnapshot.version > latestVersion) {
+                removeEntriesBefore(currentSnapshot.version);
+                latestVersion = currentSnapshot.version;
+            }
+            if (currentSnapshot.version == latestVersion) {
+                entries.put(new QueryKey(sourceIP, destinationIP, k, currentSnapshot.version), paths);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * @return the current LSD version, the no of cached results and the no of hits and misses so far.
+     */
+    String getStatistics() {
+        synchronized (entries) {
+            return "LSD version " + lsd.getVersion() + ": " + entries.size() + " cached results, " + noOfHits +
+                    " hits, " + noOfMisses + " misses";
+        }
+    }
+
+    /**
+     * @return the snapshot of the current LSD version, building it if the LSD changed since the last one was built.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot currentSnapshot = snapshot;
+        if (currentSnapshot == null || currentSnapshot.version != lsd.getVersion()) {
+            synchronized (lsdLock) {
+                currentSnapshot = snapshot;
+                if (currentSnapshot == null || currentSnapshot.version != lsd.getVersion()) {
+                    currentSnapshot = new Snapshot(lsd.getVersion(), lsd.buildTopologyGraph());
+                    snapshot = currentSnapshot;
+                }
+            }
+        }
+        return currentSnapshot;
+    }
+
+    private void removeEntriesBefore(long version) {
+        Iterator<QueryKey> keyIterator = entries.keySet().iterator();
+        while (keyIterator.hasNext()) {
+            if (keyIterator.next().version < version) {
+                keyIterator.remove();
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    private static final class Snapshot {
+        private final long version;
+        private final TopologyGraph graph;
+
+        private Snapshot(long version, TopologyGraph graph) {
+            this.version = version;
+            this.graph = graph;
+        }
+    }
+
+    private static final class QueryKey {
+        private final String sourceIP;
+        private final String destinationIP;
+        private final int k;
+        private final long version;
+
+        private QueryKey(String sourceIP, String destinationIP, int k, long version) {
+            this.sourceIP = sourceIP;
+            this.destinationIP = destinationIP;
+            this.k = k;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof QueryKey)) {
+                return false;
+            }
+            QueryKey otherKey = (QueryKey) other;
+            return k == otherKey.k && version == otherKey.version && sourceIP.equals(otherKey.sourceIP) &&
+                    destinationIP.equals(otherKey.destinationIP);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = sourceIP.hashCode();
+            hash = 31 * hash + destinationIP.hashCode();
+            hash = 31 * hash + k;
+            return 31 * hash + (int) (version ^ (version >>> 32));
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package socs.network.node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ports of a router and the links attached to them. A link keeps the port it was attached to until it is
+ * detached, so port numbers are stable; the port of a detached link is reused by the next link attached, lowest
+ * free port first. The table grows as links are attached, up to the configured maximum no of ports.
+ * <p/>
+ * Changes are made under the lock of the table and replace the arrays and lists they affect (copy-on-write), so
+ * lookups by port or by the simulated IP of the neighbor, and iterations over the links, never lock and always see a
+ * consistent table.
+ */
+class PortTable {
+    private final int maxPorts;
+    // the link on every port in use, indexed by port number; null for a free port.
+    private volatile Link[] links = new Link[0];
+    // the links in use in the order of their ports.
+    private volatile List<Link> attachedLinks = Collections.emptyList();
+    // port number of the link to every neighbor, keyed by its simulated IP.
+    private final ConcurrentHashMap<String, Integer> portsBySimIP = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxPorts the maximum no of links that can be attached at a time.
+     */
+    PortTable(int maxPorts) {
+        this.maxPorts = maxPorts;
+    }
+
+    int getMaxPorts() {
+        return maxPorts;
+    }
+
+    /**
+     * @return the no of links attached.
+     */
+    int size() {
+        return attachedLinks.size();
+    }
+
+    boolean isFull() {
+        return size() >= maxPorts;
+    }
+
+    /**
+     * @param portNumber a port of the router.
+     * @return the link on the port; null if the port is free or does not exist.
+     */
+    Link get(int portNumber) {
+        Link[] currentLinks = links;
+        return portNumber >= 0 && portNumber < currentLinks.length ? currentLinks[portNumber] : null;
+    }
+
+    /**
+     * @param simulatedIP the simulated IP of a neighbor.
+     * @return the link to the neighbor; null if there is none.
+     */
+    Link get(String simulatedIP) {
+        return get(indexOf(simulatedIP));
+    }
+
+    /**
+     * @param simulatedIP the simulated IP of a neighbor.
+     * @return the port of the link to the neighbor; -1 if there is none.
+     */
+    int indexOf(String simulatedIP) {
+        Integer portNumber = portsBySimIP.get(simulatedIP);
+        return portNumber == null ? -1 : portNumber;
+    }
+
+    /**
+     * @return the attached links in the order of their ports; the list does not change with the table.
+     */
+    List<Link> links() {
+        return attachedLinks;
+    }
+
+    /**
+     * Attaches a link to the lowest free port.
+     *
+     * @param link the link to a neighbor that has no link yet.
+     * @return the port of the link; -1 if all ports are in use.
+     */
+    synchronized int add(Link link) {
+        if (isFull()) {
+            return -1;
+        }
+        int portNumber = 0;
+        while (portNumber < links.length && links[portNumber] != null) {
+            portNumber++;
+        }
+        Link[] newLinks = new Link[Math.max(links.length, portNumber + 1)];
+        System.arraycopy(links, 0, newLinks, 0, links.length);
+        newLinks[portNumber] = link;
+        publish(newLinks);
+        portsBySimIP.put(link.getDestinationRouterDesc().simulatedIPAddress, portNumber);
+        return portNumber;
+    }
+
+    /**
+     * Replaces the link on a port that is in use.
+     *
+     * @param portNumber the port.
+     * @param link       the new link.
+     */
+    synchronized void set(int portNumber, Link link) {
+        Link oldLink = get(portNumber);
+        if (oldLink == null) {
+            throw new IllegalArgumentException("Port " + portNumber + " is not in use.");
+        }
+        Link[] newLinks = links.clone();
+        newLinks[portNumber] = link;
+        publish(newLinks);
+        portsBySimIP.remove(oldLink.getDestinationRouterDesc().simulatedIPAddress, portNumber);
+        portsBySimIP.put(link.getDestinationRouterDesc().simulatedIPAddress, portNumber);
+    }
+
+    /**
+     * Detaches the link on a port; the other links keep their ports.
+     *
+     * @param portNumber the port.
+     * @return the detached link; null if the port was free or does not exist.
+     */
+    synchronized Link remove(int portNumber) {
+        Link link = get(portNumber);
+        if (link == null) {
+            return null;
+        }
+        // drop the free ports at the end so that the table shrinks again after a burst of links.
+        int newLength = portNumber + 1 == links.length ? portNumber : links.length;
+        while (newLength > 0 && links[newLength - 1] == null) {
+            newLength--;
+        }
+        Link[] newLinks = new Link[newLength];
+        System.arraycopy(links, 0, newLinks, 0, newLength);
+        if (portNumber < newLength) {
+            newLinks[portNumber] = null;
+        }
+        portsBySimIP.remove(link.getDestinationRouterDesc().simulatedIPAddress, portNumber);
+        publish(newLinks);
+        return link;
+    }
+
+    private void publish(Link[] newLinks) {
+        List<Link> newAttachedLinks = new ArrayList<>(newLinks.length);
+        for (Link link : newLinks) {
+            if (link != null) {
+                newAttachedLinks.add(link);
+            }
+        }
+        links = newLinks;
+        attachedLinks = Collections.unmodifiableList(newAttachedLinks);
+    }
+}
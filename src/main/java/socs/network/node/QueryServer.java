@@ -0,0 +1,494 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.MessageCodec;
+import socs.network.util.RouterConstants;
+import socs.network.util.RouterUtils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A request/response query port through which external tools can look up paths, next hops and the LSD summary of a
+ * router without going through its terminal. It listens on TCP at the process port of the router plus a fixed offset.
+ * <p/>
+ * A single selector thread accepts connections and reads/writes frames without blocking; every complete request is
+ * answered on a small worker pool and its response queued back to the selector. Requests on a connection may be
+ * pipelined and their responses may come back in any order; the request ID echoed in every response matches them up.
+ * A connection with {@link #MAX_UNSENT_RESPONSES} responses not written back yet (a client that pipelines requests
+ * without reading the responses) is not read from until it drained half of them, so TCP pushes back on the client
+ * instead of the responses piling up in the server.
+ * <p/>
+ * Frames are length-prefixed, big-endian and use the string encoding of {@link MessageCodec}:
+ * <pre>
+ * request:  length(4), request-id(4), type(1), arguments
+ * response: length(4), request-id(4), status(1), body       (length excludes the length field itself)
+ *
+ * PATHS       (1) args: destination, k(1)  body: lsd-version(8), no-of-paths(1), (cost(4), no-of-routers(1), router*)*
+ * NEXT_HOPS   (2) args: destination        body: lsd-version(8), no-of-next-hops(1), next-hop*, has-backup(1), backup?
+ * LSD_SUMMARY (3) args: none               body: lsd-version(8), no-of-lsas(4), (link-state-id, sequence-no(4))*
+ * STATS       (4) args: none               body: lsd-version(8), no-of-adjacencies(4), lsupdates-sent(8),
+ *                                                lsupdates-received(8), spf-runs(8), heap-used(8), peak-heap-used(8)
+ * </pre>
+ * Response bodies are cached by request (type and arguments) for the current LSD version and the whole cache is
+ * dropped when the version changes, so repeated queries neither run SPF nor take the router lock. STATS responses
+ * change without the LSD and are never cached.
+ */
+class QueryServer {
+    private final Log log = LogFactory.getLog(QueryServer.class);
+
+    static final byte TYPE_PATHS = 1;
+    static final byte TYPE_NEXT_HOPS = 2;
+    static final byte TYPE_LSD_SUMMARY = 3;
+    static final byte TYPE_STATS = 4;
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_UNKNOWN_DESTINATION = 1;
+    static final byte STATUS_BAD_REQUEST = 2;
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // no of requests of a connection that may be answered but not written back yet before the connection is no
+    // longer read from, and the no below which it is read from again.
+    private static final int MAX_UNSENT_RESPONSES = 256;
+    private static final int RESUME_UNSENT_RESPONSES = MAX_UNSENT_RESPONSES / 2;
+
+    private final Router myRouter;
+    private final int portOffset;
+    private final int noOfWorkers;
+    private final int maxCachedResponses;
+    private ServerSocketChannel serverChannel;
+    private Selector selector;
+    private ExecutorService workers;
+    private volatile boolean running = false;
+    // connections with responses waiting to be written; drained by the selector thread.
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private volatile ResponseCache responseCache = new ResponseCache(-1);
+
+    private final AtomicLong noOfRequests = new AtomicLong();
+    private final AtomicLong noOfCacheHits = new AtomicLong();
+
+    /**
+     * @param router             the router the queries are answered for.
+     * @param portOffset         offset added to the process port of the router to get the query port.
+     * @param noOfWorkers        the no of threads answering requests.
+     * @param maxCachedResponses the maximum no of responses cached per LSD version.
+     */
+    QueryServer(Router router, int portOffset, int noOfWorkers, int maxCachedResponses) {
+        this.myRouter = router;
+        this.portOffset = portOffset;
+        this.noOfWorkers = noOfWorkers;
+        this.maxCachedResponses = maxCachedResponses;
+    }
+
+    /**
+     * Binds the query port and starts the selector thread and the workers.
+     *
+     * @return true if the server was started; false if it could not be started.
+     */
+    boolean start() {
+        int queryPort = myRouter.getRd().processPortNumber + portOffset;
+        if (queryPort <= 0 || queryPort > 65535) {
+            log.error("Cannot start the query server on TCP PORT [" + queryPort + "].");
+            return false;
+        }
+
+        try {
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.bind(new InetSocketAddress(queryPort));
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            log.error("Unable to bind the query server on TCP PORT [" + queryPort + "].", e);
+            closeQuietly();
+            return false;
+        }
+
+        running = true;
+        workers = Executors.newFixedThreadPool(noOfWorkers);
+        Thread selectorThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                serve();
+            }
+        }, "query-server");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+        return true;
+    }
+
+    void stop() {
+        running = false;
+        if (selector != null) {
+            selector.wakeup();
+        }
+        if (workers != null) {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the no of requests answered so far and how many of them were answered from the cache.
+     */
+    String getStatistics() {
+        return "Query server: " + noOfRequests.get() + " requests, " + noOfCacheHits.get() + " answered from cache, " +
+                responseCache.responses.size() + " responses cached for LSD version " + responseCache.version;
+    }
+
+    private void serve() {
+        try {
+            while (running) {
+                selector.select();
+                Connection connection;
+                while ((connection = pendingWrites.poll()) != null) {
+                    if (connection.key.isValid()) {
+                        connection.key.interestOps(connection.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+
+                Iterator<SelectionKey> keyIterator = selector.selectedKeys().iterator();
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            ((Connection) key.attachment()).write();
+                        }
+                    } catch (IOException e) {
+                        log.debug("Closing query connection after an I/O error: " + e.getMessage());
+                        closeConnection(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("The query server selector failed.", e);
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel socketChannel = serverChannel.accept();
+        if (socketChannel == null) {
+            return;
+        }
+        socketChannel.configureBlocking(false);
+        socketChannel.socket().setTcpNoDelay(true);
+        SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(key, socketChannel));
+    }
+
+    private void closeConnection(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            log.debug("Error occurred when closing a query connection: " + e.getMessage());
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+        } catch (IOException e) {
+            log.error("Error occurred when attempted to close the query server.", e);
+        }
+    }
+
+    /**
+     * Answers a single request on a worker thread and queues the response on its connection.
+     *
+     * @param connection the connection the request came in on.
+     * @param request    the request frame without its length.
+     */
+    private void answer(Connection connection, ByteBuffer request) {
+        noOfRequests.incrementAndGet();
+        int requestId = request.getInt();
+        ByteBuffer requestKey = request.slice();
+
+        long version = myRouter.lsd.getVersion();
+        ResponseCache cache = responseCache;
+        if (cache.version != version) {
+            cache = new ResponseCache(version);
+            responseCache = cache;
+        }
+        boolean isCacheable = requestKey.remaining() == 0 || requestKey.get(0) != TYPE_STATS;
+        byte[] responseBody = isCacheable ? cache.responses.get(requestKey) : null;
+        if (responseBody != null) {
+            noOfCacheHits.incrementAndGet();
+        } else {
+            responseBody = buildResponse(request, version);
+            if (isCacheable && cache.responses.size() < maxCachedResponses) {
+                cache.responses.put(requestKey, responseBody);
+            }
+        }
+
+        ByteBuffer response = ByteBuffer.allocate(8 + responseBody.length);
+        response.putInt(4 + responseBody.length).putInt(requestId).put(responseBody);
+        response.flip();
+        connection.outbound.add(response);
+        pendingWrites.add(connection);
+        selector.wakeup();
+    }
+
+    /**
+     * @param request the request positioned at its type.
+     * @param version the LSD version the response is computed on.
+     * @return the status followed by the body of the response.
+     */
+    private byte[] buildResponse(ByteBuffer request, long version) {
+        ByteBuffer arguments = request.duplicate();
+        try {
+            byte type = arguments.get();
+            switch (type) {
+                case TYPE_PATHS:
+                    return buildPathsResponse(MessageCodec.readString(arguments), arguments.get() & 0xFF, version);
+                case TYPE_NEXT_HOPS:
+                    return buildNextHopsResponse(MessageCodec.readString(arguments), version);
+                case TYPE_LSD_SUMMARY:
+                    return buildSummaryResponse(version);
+                case TYPE_STATS:
+                    return buildStatsResponse(version);
+                default:
+                    return new byte[]{STATUS_BAD_REQUEST};
+            }
+        } catch (BufferUnderflowException e) {
+            return new byte[]{STATUS_BAD_REQUEST};
+        }
+    }
+
+    private byte[] buildPathsResponse(String destinationIP, int k, long version) {
+        List<RoutePath> paths;
+        if (k < 1 || k > RouterConstants.MAX_KPATHS) {
+            return new byte[]{STATUS_BAD_REQUEST};
+        }
+        try {
+            paths = myRouter.getKShortestPaths(myRouter.getRd().simulatedIPAddress, destinationIP, k);
+        } catch (IllegalArgumentException e) {
+            return new byte[]{STATUS_UNKNOWN_DESTINATION};
+        }
+        int size = 1 + 8 + 1;
+        for (RoutePath path : paths) {
+            size += 4 + 1;
+            for (String routerId : path.getRouterIds()) {
+                size += MessageCodec.sizeOf(routerId);
+            }
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put(STATUS_OK).putLong(version).put((byte) paths.size());
+        for (RoutePath path : paths) {
+            body.putInt(path.getCost()).put((byte) path.getRouterIds().size());
+            for (String routerId : path.getRouterIds()) {
+                MessageCodec.writeString(body, routerId);
+            }
+        }
+        return body.array();
+    }
+
+    private byte[] buildNextHopsResponse(String destinationIP, long version) {
+        ForwardingTable forwardingTable = myRouter.lsd.forwardingTable;
+        String[] nextHops = forwardingTable.getNextHops(destinationIP);
+        String backup = forwardingTable.getBackup(destinationIP);
+        if (nextHops == null || nextHops.length == 0) {
+            return new byte[]{STATUS_UNKNOWN_DESTINATION};
+        }
+        int size = 1 + 8 + 1 + 1 + (backup == null ? 0 : MessageCodec.sizeOf(backup));
+        for (String nextHop : nextHops) {
+            size += MessageCodec.sizeOf(nextHop);
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put(STATUS_OK).putLong(version).put((byte) nextHops.length);
+        for (String nextHop : nextHops) {
+            MessageCodec.writeString(body, nextHop);
+        }
+        body.put((byte) (backup == null ? 0 : 1));
+        if (backup != null) {
+            MessageCodec.writeString(body, backup);
+        }
+        return body.array();
+    }
+
+    private byte[] buildSummaryResponse(long version) {
+        Map<String, Integer> summary;
+        synchronized (myRouter) {
+            summary = myRouter.lsd.getSummary();
+        }
+        int size = 1 + 8 + 4;
+        for (String linkStateId : summary.keySet()) {
+            size += MessageCodec.sizeOf(linkStateId) + 4;
+        }
+        ByteBuffer body = ByteBuffer.allocate(size);
+        body.put(STATUS_OK).putLong(version).putInt(summary.size());
+        for (Map.Entry<String, Integer> summaryEntry : summary.entrySet()) {
+            MessageCodec.writeString(body, summaryEntry.getKey());
+            body.putInt(summaryEntry.getValue());
+        }
+        return body.array();
+    }
+
+    private byte[] buildStatsResponse(long version) {
+        Runtime runtime = Runtime.getRuntime();
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 4 + 8 * 5);
+        body.put(STATUS_OK).putLong(version).putInt(myRouter.getNoOfAdjacencies()).
+                putLong(myRouter.noOfLSUpdatesSent.get()).putLong(myRouter.noOfLSUpdatesReceived.get()).
+                putLong(myRouter.lsd.noOfSpfRuns.get()).putLong(runtime.totalMemory() - runtime.freeMemory()).
+                putLong(RouterUtils.getPeakHeapUsage());
+        return body.array();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The responses cached for a single LSD version, keyed by the type and arguments of their requests.
+     */
+    private static final class ResponseCache {
+        private final long version;
+        private final ConcurrentHashMap<ByteBuffer, byte[]> responses = new ConcurrentHashMap<>();
+
+        private ResponseCache(long version) {
+            this.version = version;
+        }
+    }
+
+    /**
+     * The read and write state of a client connection. Only the selector thread reads or writes the channel; workers
+     * only add to the outbound queue.
+     */
+    private final class Connection {
+        private final SelectionKey key;
+        private final SocketChannel channel;
+        private ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        private final Queue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        // requests handed to the workers whose responses are not completely written yet.
+        private final AtomicInteger noOfUnsent = new AtomicInteger();
+        // whether the connection is not read from until enough responses are written; only used by the selector.
+        private boolean isReadPaused = false;
+
+        private Connection(SelectionKey key, SocketChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+
+        /**
+         * Reads what is available and hands every complete request to the workers.
+         */
+        private void read() throws IOException {
+            if (channel.read(inbound) == -1) {
+                throw new IOException("connection closed by the client");
+            }
+            dispatchRequests();
+        }
+
+        /**
+         * Hands the complete requests in the inbound buffer to the workers, up to the limit of unsent responses; the
+         * connection is no longer read from once the limit is reached.
+         */
+        private void dispatchRequests() throws IOException {
+            inbound.flip();
+            List<ByteBuffer> requests = new ArrayList<>();
+            while (inbound.remaining() >= 4 && noOfUnsent.get() + requests.size() < MAX_UNSENT_RESPONSES) {
+                int length = inbound.getInt(inbound.position());
+                if (length < 5 || length > MAX_FRAME_SIZE) {
+                    throw new IOException("invalid frame length " + length);
+                }
+                if (inbound.remaining() < 4 + length) {
+                    break;
+                }
+                inbound.position(inbound.position() + 4);
+                byte[] request = new byte[length];
+                inbound.get(request);
+                requests.add(ByteBuffer.wrap(request));
+            }
+            // the length of a frame left unread because of the limit has not been validated yet.
+            if (inbound.remaining() >= 4 && inbound.capacity() < 4 + inbound.getInt(inbound.position()) &&
+                    inbound.getInt(inbound.position()) <= MAX_FRAME_SIZE) {
+                ByteBuffer largerBuffer = ByteBuffer.allocate(4 + inbound.getInt(inbound.position()));
+                largerBuffer.put(inbound);
+                inbound = largerBuffer;
+            } else {
+                inbound.compact();
+            }
+
+            noOfUnsent.addAndGet(requests.size());
+            if (noOfUnsent.get() >= MAX_UNSENT_RESPONSES) {
+                isReadPaused = true;
+                updateInterestOps();
+            }
+            for (final ByteBuffer request : requests) {
+                try {
+                    workers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            answer(Connection.this, request);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    // the server is shutting down.
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Writes the queued responses until the socket buffer is full.
+         */
+        private void write() throws IOException {
+            ByteBuffer response;
+            while ((response = outbound.peek()) != null) {
+                channel.write(response);
+                if (response.hasRemaining()) {
+                    break;
+                }
+                outbound.poll();
+                noOfUnsent.decrementAndGet();
+            }
+            if (isReadPaused && noOfUnsent.get() < RESUME_UNSENT_RESPONSES) {
+                isReadPaused = false;
+                // requests read before the connection was paused may still be waiting in the inbound buffer.
+                dispatchRequests();
+            }
+            updateInterestOps();
+        }
+
+        private void updateInterestOps() {
+            // a worker may have queued a response after the queue was found empty.
+            key.interestOps((isReadPaused ? 0 : SelectionKey.OP_READ) |
+                    (outbound.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        }
+    }
+}
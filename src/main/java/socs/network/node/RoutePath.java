@@ -0,0 +1,57 @@
+package socs.network.node;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A loop-free path through the topology, as returned by the k-shortest-paths query: the routers it visits from the
+ * source to the destination (both included), the weight of each of its links and its total cost. Immutable.
+ */
+public final class RoutePath {
+    private final List<String> routerIds;
+    private final int[] linkWeights;
+    private final int cost;
+
+    RoutePath(List<String> routerIds, int[] linkWeights) {
+        int cost = 0;
+        for (int linkWeight : linkWeights) {
+            cost += linkWeight;
+        }
+        this.routerIds = Collections.unmodifiableList(routerIds);
+        this.linkWeights = linkWeights;
+        this.cost = cost;
+    }
+
+    /**
+     * @return the simulated IPs of the routers on the path, starting with the source.
+     */
+    public List<String> getRouterIds() {
+        return routerIds;
+    }
+
+    /**
+     * @return the weight of the link from the router at the given position of the path to the next one.
+     */
+    public int getLinkWeight(int position) {
+        return linkWeights[position];
+    }
+
+    public int getNoOfHops() {
+        return linkWeights.length;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    /**
+     * @return the path in the format used by the detect command, e.g. "A ->(2) B ->(1) C  [COST 3]".
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder(routerIds.get(0));
+        for (int position = 0; position < linkWeights.length; position++) {
+            sb.append(" ->(").append(linkWeights[position]).append(") ").append(routerIds.get(position + 1));
+        }
+        return sb.append("  [COST ").append(cost).append("]").toString();
+    }
+}
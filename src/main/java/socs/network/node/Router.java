@@ -6,15 +6,24 @@ import socs.network.message.LSA;
 import socs.network.message.LinkDescription;
 import socs.network.message.SOSPFPacket;
 import socs.network.util.Configuration;
+import socs.network.util.HierarchicalTimerWheel;
 import socs.network.util.RouterConstants;
 import socs.network.util.RouterUtils;
 
 import java.io.*;
+import java.net.ConnectException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  *
@@ -25,27 +34,292 @@ public class Router {
 
     private RouterDescription rd = new RouterDescription();
     private final ExecutorService executor = Executors.newFixedThreadPool(4);
-    private static boolean WAS_START_CALLED = false;
+    // runs the HELLO exchanges, all ports at once.
+    private final ExecutorService adjacencyExecutor = Executors.newCachedThreadPool();
+    private volatile boolean wasStartCalled = false;
 
-    //assuming that all routers are with 4 ports
     volatile LinkStateDatabase lsd;
-    volatile Link[] ports = new Link[RouterConstants.MAXIMUM_NO_OF_PORTS];
-    volatile int noOfExistingLinks = 0;
-
-    boolean printFlag = false;
+    // the links to the neighbors, on ports that stay the same for as long as the link exists.
+    final PortTable ports;
+
+    // whether the debug events are logged; switched by the [debug] command.
+    volatile boolean printFlag = false;
+
+    // single timer wheel that drives the HELLO keepalives and the dead-interval timers of all neighbors.
+    private final HierarchicalTimerWheel timerWheel = new HierarchicalTimerWheel(
+            RouterConstants.TIMER_WHEEL_TICK_MILLIS, RouterConstants.TIMER_WHEEL_SLOTS_PER_LEVEL,
+            RouterConstants.TIMER_WHEEL_LEVELS, executor);
+    private final long helloIntervalMillis;
+    private final long deadIntervalMillis;
+    // time allowed to open a connection to a neighbor, and to wait for each of its replies in an exchange.
+    private final int connectTimeoutMillis;
+    private final int helloTimeoutMillis;
+    // no of LSUPDATEs sent to and received from neighbors, reported by the STATS query and the scale tests.
+    final AtomicLong noOfLSUpdatesSent = new AtomicLong();
+    final AtomicLong noOfLSUpdatesReceived = new AtomicLong();
+    // links attached at startup, each as "<process IP> <process port> <simulated IP> <weight>", the commands run
+    // once they are attached, and the time for which the attaches are re-tried.
+    private final List<String> bootstrapLinks;
+    private final List<String> startupCommands;
+    private final int bootstrapAttachTimeoutMillis;
+    // optional sub-second liveness detection over UDP; null when disabled in the configuration.
+    private LivenessDetector livenessDetector = null;
+    // optional data plane forwarding packets along the forwarding table; null when disabled in the configuration.
+    private DataPlane dataPlane = null;
+    // optional query port answering path, next-hop and LSD summary requests; null when disabled in the configuration.
+    private QueryServer queryServer = null;
+    // transport over which HELLO, LSUPDATE, EXIT, DISCONNECT and the keepalives are sent.
+    private ControlTransport controlTransport;
+    // compresses large LSUPDATEs to the neighbors that agreed to it; null when disabled in the configuration.
+    private LSUpdateCompressor lsUpdateCompressor = null;
+    // age (in seconds) at which this router re-originates its own LSA.
+    private final int lsaRefreshSeconds;
+    // time at which the LSD was last aged.
+    private long lastAgingNanos;
+    // time for which the LSA of an unreachable router is kept in the LSD.
+    private final long unreachableGraceNanos;
+    // capacity of the links without an explicit capacity in a traffic matrix analysis.
+    private final double defaultLinkCapacity;
+    // cache of the k-shortest-paths query results, invalidated by every change of the LSD.
+    private final PathQueryCache pathQueryCache;
+    // records every message received by the RouterServer for later replay; null when disabled in the configuration.
+    volatile PacketCapture packetCapture = null;
+    // prints the protocol events of this router off the threads that process the control messages.
+    final EventLog eventLog;
 
     Router(Configuration config, String ipAddress) {
         this.routerServer = new RouterServer(this);
         this.rd.processIPAddress = ipAddress;
         this.rd.processPortNumber = Short.parseShort(config.getString("socs.network.router.port"));
         this.rd.simulatedIPAddress = config.getString("socs.network.router.ip");
+        this.rd.areaId = config.hasPath("socs.network.router.area") ?
+                Math.max(RouterConstants.BACKBONE_AREA, config.getInt("socs.network.router.area")) :
+                RouterConstants.BACKBONE_AREA;
         this.lsd = new LinkStateDatabase(rd);
+        this.lsd.summaryListener = new Runnable() {
+            @Override
+            public void run() {
+                // called under the router lock in the middle of an SPF run, so the flood is left to another thread.
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (printFlag) {
+                            eventLog.log(EventLog.EventType.SUMMARY_ORIGINATED);
+                        }
+                        broadcastLSUPDATE();
+                    }
+                });
+            }
+        };
+        int maxPorts = config.hasPath("socs.network.router.maxPorts") ?
+                config.getInt("socs.network.router.maxPorts") : RouterConstants.DEFAULT_MAX_PORTS;
+        this.ports = new PortTable(Math.max(1, maxPorts));
+
+        int helloInterval = config.hasPath("socs.network.router.helloInterval") ?
+                config.getInt("socs.network.router.helloInterval") : RouterConstants.DEFAULT_HELLO_INTERVAL_SECONDS;
+        int deadInterval = config.hasPath("socs.network.router.deadInterval") ?
+                config.getInt("socs.network.router.deadInterval") : RouterConstants.DEFAULT_DEAD_INTERVAL_SECONDS;
+        this.helloIntervalMillis = helloInterval * 1000L;
+        this.deadIntervalMillis = deadInterval * 1000L;
+        this.connectTimeoutMillis = config.hasPath("socs.network.router.connectTimeout") ?
+                config.getInt("socs.network.router.connectTimeout") : RouterConstants.DEFAULT_CONNECT_TIMEOUT_MILLIS;
+        this.helloTimeoutMillis = config.hasPath("socs.network.router.helloTimeout") ?
+                config.getInt("socs.network.router.helloTimeout") : RouterConstants.DEFAULT_HELLO_TIMEOUT_MILLIS;
+        this.bootstrapLinks = config.hasPath("socs.network.router.links") ?
+                config.getStringList("socs.network.router.links") : Collections.<String>emptyList();
+        this.startupCommands = config.hasPath("socs.network.router.startup") ?
+                config.getStringList("socs.network.router.startup") : Collections.<String>emptyList();
+        this.bootstrapAttachTimeoutMillis = config.hasPath("socs.network.router.attachTimeout") ?
+                config.getInt("socs.network.router.attachTimeout") :
+                RouterConstants.DEFAULT_BOOTSTRAP_ATTACH_TIMEOUT_MILLIS;
+
+        if (config.hasPath("socs.network.router.lsaMaxAge")) {
+            this.lsd.maxAgeSeconds = config.getInt("socs.network.router.lsaMaxAge");
+        }
+        if (config.hasPath("socs.network.router.ecmpMaxPaths")) {
+            this.lsd.maxEcmpPaths = Math.max(1, config.getInt("socs.network.router.ecmpMaxPaths"));
+        }
+        this.lsaRefreshSeconds = config.hasPath("socs.network.router.lsaRefreshInterval") ?
+                config.getInt("socs.network.router.lsaRefreshInterval") : RouterConstants.DEFAULT_LSA_REFRESH_SECONDS;
+        int unreachableGrace = config.hasPath("socs.network.router.unreachableGracePeriod") ?
+                config.getInt("socs.network.router.unreachableGracePeriod") :
+                RouterConstants.DEFAULT_UNREACHABLE_GRACE_SECONDS;
+        this.unreachableGraceNanos = TimeUnit.SECONDS.toNanos(unreachableGrace);
+        this.defaultLinkCapacity = config.hasPath("socs.network.router.analysis.linkCapacity") ?
+                config.getDouble("socs.network.router.analysis.linkCapacity") : RouterConstants.DEFAULT_LINK_CAPACITY;
+        int pathCacheEntries = config.hasPath("socs.network.router.pathCache.maxEntries") ?
+                config.getInt("socs.network.router.pathCache.maxEntries") :
+                RouterConstants.DEFAULT_PATH_CACHE_ENTRIES;
+        this.pathQueryCache = new PathQueryCache(this, this.lsd, Math.max(1, pathCacheEntries));
+
+        if (config.hasPath("socs.network.router.liveness.enabled") &&
+                config.getBoolean("socs.network.router.liveness.enabled")) {
+            int txInterval = config.hasPath("socs.network.router.liveness.txInterval") ?
+                    config.getInt("socs.network.router.liveness.txInterval") :
+                    RouterConstants.DEFAULT_LIVENESS_TX_INTERVAL_MILLIS;
+            int detectMultiplier = config.hasPath("socs.network.router.liveness.detectMultiplier") ?
+                    config.getInt("socs.network.router.liveness.detectMultiplier") :
+                    RouterConstants.DEFAULT_LIVENESS_DETECT_MULTIPLIER;
+            this.livenessDetector = new LivenessDetector(this, timerWheel, txInterval, detectMultiplier);
+        }
+
+        if (config.hasPath("socs.network.router.dataPlane.enabled") &&
+                config.getBoolean("socs.network.router.dataPlane.enabled")) {
+            int portOffset = config.hasPath("socs.network.router.dataPlane.portOffset") ?
+                    config.getInt("socs.network.router.dataPlane.portOffset") :
+                    RouterConstants.DEFAULT_DATA_PLANE_PORT_OFFSET;
+            int ttl = config.hasPath("socs.network.router.dataPlane.ttl") ?
+                    config.getInt("socs.network.router.dataPlane.ttl") : RouterConstants.DEFAULT_DATA_PLANE_TTL;
+            this.dataPlane = new DataPlane(this, portOffset, Math.max(1, Math.min(255, ttl)));
+        }
+
+        if (config.hasPath("socs.network.router.query.enabled") &&
+                config.getBoolean("socs.network.router.query.enabled")) {
+            int portOffset = config.hasPath("socs.network.router.query.portOffset") ?
+                    config.getInt("socs.network.router.query.portOffset") :
+                    RouterConstants.DEFAULT_QUERY_PORT_OFFSET;
+            int noOfThreads = config.hasPath("socs.network.router.query.threads") ?
+                    config.getInt("socs.network.router.query.threads") : RouterConstants.DEFAULT_QUERY_THREADS;
+            int cacheEntries = config.hasPath("socs.network.router.query.cacheEntries") ?
+                    config.getInt("socs.network.router.query.cacheEntries") :
+                    RouterConstants.DEFAULT_QUERY_CACHE_ENTRIES;
+            this.queryServer = new QueryServer(this, portOffset, Math.max(1, noOfThreads), cacheEntries);
+        }
+
+        if (config.hasPath("socs.network.router.compression.enabled") &&
+                config.getBoolean("socs.network.router.compression.enabled")) {
+            int thresholdBytes = config.hasPath("socs.network.router.compression.threshold") ?
+                    config.getInt("socs.network.router.compression.threshold") :
+                    RouterConstants.DEFAULT_COMPRESSION_THRESHOLD_BYTES;
+            this.lsUpdateCompressor = new LSUpdateCompressor(thresholdBytes);
+        }
+
+        String controlTransportName = config.hasPath("socs.network.router.controlTransport") ?
+                config.getString("socs.network.router.controlTransport") : RouterConstants.TCP_CONTROL_TRANSPORT;
+        if (controlTransportName.equalsIgnoreCase(RouterConstants.UDP_CONTROL_TRANSPORT)) {
+            int portOffset = config.hasPath("socs.network.router.udpPortOffset") ?
+                    config.getInt("socs.network.router.udpPortOffset") :
+                    RouterConstants.DEFAULT_UDP_CONTROL_PORT_OFFSET;
+            this.controlTransport = new UdpControlTransport(this, routerServer, portOffset, timerWheel);
+        } else if (controlTransportName.equalsIgnoreCase(RouterConstants.SHM_CONTROL_TRANSPORT)) {
+            String ringDirectory = config.hasPath("socs.network.router.shm.dir") ?
+                    config.getString("socs.network.router.shm.dir") :
+                    System.getProperty("java.io.tmpdir") + File.separator + "sospf-rings";
+            int ringBytes = config.hasPath("socs.network.router.shm.ringSize") ?
+                    config.getInt("socs.network.router.shm.ringSize") : RouterConstants.DEFAULT_SHM_RING_BYTES;
+            this.controlTransport = new ShmControlTransport(this, routerServer, Paths.get(ringDirectory),
+                    Math.max(4096, ringBytes));
+        } else {
+            this.controlTransport = new TcpControlTransport(this);
+        }
+        if (config.hasPath("socs.network.router.faults.default") ||
+                config.hasPath("socs.network.router.faults.links")) {
+            initFaultInjection(config);
+        }
+
+        this.eventLog = new EventLog(config.hasPath("socs.network.router.eventLog.size") ?
+                config.getInt("socs.network.router.eventLog.size") : RouterConstants.DEFAULT_EVENT_LOG_SIZE);
+        this.eventLog.start(rd.simulatedIPAddress);
+
+        if (config.hasPath("socs.network.router.capture.dir")) {
+            PacketCapture capture = new PacketCapture(config.getString("socs.network.router.capture.dir"),
+                    rd.simulatedIPAddress);
+            try {
+                capture.open();
+                this.packetCapture = capture;
+            } catch (IOException e) {
+                log.error("An error occurred whilst opening the packet capture. Received messages are not captured.",
+                        e);
+            }
+        }
+
+        if (config.hasPath("socs.network.router.stateDir")) {
+            initPersistence(config.getString("socs.network.router.stateDir"),
+                    config.hasPath("socs.network.router.journalSize") ?
+                            config.getInt("socs.network.router.journalSize") :
+                            RouterConstants.DEFAULT_LSD_JOURNAL_BYTES);
+        }
+    }
+
+    /**
+     * Puts a {@link FaultInjectingTransport} in front of the control transport, with the default faults and the
+     * faults of specific links (each as "&lt;simulated IP of the neighbor&gt; &lt;settings&gt;") in the configuration.
+     * Invalid settings are reported and leave the links they apply to without faults.
+     *
+     * @param config the configuration of this router.
+     */
+    private void initFaultInjection(Configuration config) {
+        FaultInjectingTransport.LinkFaults defaultFaults = FaultInjectingTransport.LinkFaults.NONE;
+        if (config.hasPath("socs.network.router.faults.default")) {
+            try {
+                defaultFaults = defaultFaults.with(config.getString("socs.network.router.faults.default"));
+            } catch (IllegalArgumentException e) {
+                log.error("Ignoring the default link faults: " + e.getMessage());
+            }
+        }
+        Map<String, FaultInjectingTransport.LinkFaults> faultsByNeighbor = new HashMap<>();
+        List<String> linkFaultSpecs = config.hasPath("socs.network.router.faults.links") ?
+                config.getStringList("socs.network.router.faults.links") : Collections.<String>emptyList();
+        for (String linkFaultSpec : linkFaultSpecs) {
+            String[] neighborAndSettings = linkFaultSpec.trim().split("\\s+", 2);
+            try {
+                faultsByNeighbor.put(neighborAndSettings[0],
+                        defaultFaults.with(neighborAndSettings.length > 1 ? neighborAndSettings[1] : ""));
+            } catch (IllegalArgumentException e) {
+                log.error("Ignoring the faults of the link to [" + neighborAndSettings[0] + "]: " + e.getMessage());
+            }
+        }
+        long seed = config.hasPath("socs.network.router.faults.seed") ?
+                config.getInt("socs.network.router.faults.seed") : RouterConstants.DEFAULT_FAULT_SEED;
+        this.controlTransport = new FaultInjectingTransport(this, controlTransport, defaultFaults, faultsByNeighbor,
+                seed);
+    }
+
+    /**
+     * Restores the LSD persisted by the previous run of this router (if any) and starts recording all further
+     * changes to it in the given state directory.
+     *
+     * @param stateDirectory the directory holding the LSD snapshot and journal.
+     * @param journalSize    the size of the memory-mapped journal in bytes.
+     */
+    private void initPersistence(String stateDirectory, int journalSize) {
+        LsdPersistence persistence = new LsdPersistence(stateDirectory, rd.simulatedIPAddress, journalSize);
+        try {
+            int noOfRestoredLSAs = this.lsd.restore(persistence.load());
+            if (noOfRestoredLSAs > 0) {
+                log.info("Warm restart: restored " + noOfRestoredLSAs + " LSAs from [" + stateDirectory + "].");
+            }
+        } catch (IOException e) {
+            log.error("An error occurred whilst restoring the persisted LSD from [" + stateDirectory + "]. " +
+                    "Starting with an empty LSD.", e);
+        }
+        // compact whatever was restored into a fresh snapshot and start a new journal.
+        persistence.writeSnapshot(this.lsd._store);
+        this.lsd.persistence = persistence;
     }
 
     RouterDescription getRd() {
         return rd;
     }
 
+    RouterServer getRouterServer() {
+        return routerServer;
+    }
+
+    /**
+     * @return the time (in milliseconds) allowed to open a TCP connection to a neighbor.
+     */
+    int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return the time (in milliseconds) to wait for each reply of a neighbor in an ATTACH or HELLO exchange.
+     */
+    int getHelloTimeoutMillis() {
+        return helloTimeoutMillis;
+    }
+
     /**
      * attach the link to the remote router, which is identified by the given simulated ip;
      * to establish the connection via socket, you need to indentify the process IP and process Port;
@@ -54,9 +328,20 @@ public class Router {
      * NOTE: this command should not trigger link database synchronization
      */
     private int processAttach(String processIP, short processPort, String simulatedIP, short weight) {
-        if (noOfExistingLinks == RouterConstants.MAXIMUM_NO_OF_PORTS) {
+        return processAttach(processIP, processPort, simulatedIP, weight, 0);
+    }
+
+    /**
+     * attach the link to the remote router as above, re-trying to connect to it while it refuses connections (as it
+     * does before its server is started) until the given deadline.
+     *
+     * @param retryDeadline the time (in milliseconds) after which connecting is not re-tried; 0 to try only once.
+     */
+    private int processAttach(String processIP, short processPort, String simulatedIP, short weight,
+                              long retryDeadline) {
+        if (ports.isFull()) {
             prnt("[WARN] This Router has already reached its maximum link-limit: " +
-                    RouterConstants.MAXIMUM_NO_OF_PORTS + "\nCannot add any more links.\n");
+                    ports.getMaxPorts() + "\nCannot add any more links.\n");
         } else {
             RouterDescription newRouterDescription = new RouterDescription();
             newRouterDescription.processIPAddress = processIP;
@@ -70,7 +355,7 @@ public class Router {
             String packetType = RouterConstants.ATTACH_STRING;
 
             try {
-                attachSocket = new Socket(processIP, processPort);
+                attachSocket = openAttachSocket(processIP, processPort, retryDeadline);
             } catch (IOException e) {
                 log.error("[" + packetType + "] An error occurred whilst trying to establish Socket " +
                         "connection to HOST [" + processIP + "] at PORT [" + processPort + "]", e);
@@ -86,11 +371,12 @@ public class Router {
                 socketWriter.writeObject(sospfPacket);
 
                 if (printFlag) {
-                    prnt("A [" + packetType + "] message sent to router with IP: " + sospfPacket.dstIP);
+                    eventLog.log(EventLog.EventType.MESSAGE_SENT, packetType, sospfPacket.dstIP);
                 }
 
                 SOSPFPacket sospfPacket_2 = (SOSPFPacket) socketReader.readObject();
                 if (sospfPacket_2.sospfType == RouterConstants.ATTACH_PACKET) {
+                    newRouterDescription.areaId = sospfPacket_2.areaId;
                     return addToPorts(newLink);
                 } else {
                     prnt("Attach [" + processIP + "] to this router failed.");
@@ -113,139 +399,229 @@ public class Router {
         return -1;
     }
 
+    private Socket openAttachSocket(String processIP, short processPort, long retryDeadline) throws IOException {
+        long retryDelayMillis = RouterConstants.BOOTSTRAP_MIN_RETRY_MILLIS;
+        while (true) {
+            try {
+                return RouterUtils.openSocket(processIP, processPort, connectTimeoutMillis, helloTimeoutMillis);
+            } catch (ConnectException e) {
+                if (System.currentTimeMillis() + retryDelayMillis > retryDeadline) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(retryDelayMillis);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+                retryDelayMillis = Math.min(retryDelayMillis * 2, RouterConstants.BOOTSTRAP_MAX_RETRY_MILLIS);
+            }
+        }
+    }
+
     /**
-     * broadcast Hello to neighbors
+     * Brings the router up from its configuration without any input on the terminal: attaches the links listed in
+     * it concurrently, re-trying each one until its neighbor is listening or the attach timeout passes, and then runs
+     * the startup commands listed in it (e.g. "start") in order. A link that the neighbor already attached from its
+     * end is not attached again.
      */
-    private synchronized void processStart() {
-        if (!WAS_START_CALLED) {
-            WAS_START_CALLED = true;
+    void bootstrap() {
+        final long retryDeadline = System.currentTimeMillis() + bootstrapAttachTimeoutMillis;
+        List<Future<Integer>> attaches = new ArrayList<>();
+        for (final String linkSpec : bootstrapLinks) {
+            final String[] fields = linkSpec.trim().split("\\s+");
+            final short processPort;
+            final short weight;
+            try {
+                if (fields.length != 4) {
+                    throw new NumberFormatException();
+                }
+                processPort = Short.parseShort(fields[1]);
+                weight = Short.parseShort(fields[3]);
+            } catch (NumberFormatException e) {
+                log.error("Ignoring the link [" + linkSpec + "]; expected \"<process IP> <process port> " +
+                        "<simulated IP> <weight>\".");
+                continue;
+            }
+            attaches.add(adjacencyExecutor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() {
+                    short existingPort = checkIfLinkExists(fields[2]);
+                    if (existingPort != -1) {
+                        return (int) existingPort;
+                    }
+                    // the neighbor rejects the attach if it attached the link from its end in the meantime.
+                    int attachedPort = processAttach(fields[0], processPort, fields[2], weight, retryDeadline);
+                    return attachedPort != -1 ? attachedPort : checkIfLinkExists(fields[2]);
+                }
+            }));
         }
 
-        Future[] arrayOfFuture = new Future[this.noOfExistingLinks];
-        for (int linkIndex = 0; linkIndex < this.noOfExistingLinks; linkIndex++) {
-            arrayOfFuture[linkIndex] = doHELLOExchange(linkIndex);
+        int noOfAttached = 0;
+        for (Future<Integer> attach : attaches) {
+            try {
+                if (attach.get() != -1) {
+                    noOfAttached++;
+                }
+            } catch (ExecutionException e) {
+                log.error("An error occurred whilst attaching a link listed in the configuration.", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
         }
-
-        int count = 0;
-        int futureIndex = -1;
-        Vector<Integer> portsVector = new Vector<>();
-        for (int index = 0; index < this.noOfExistingLinks; index++) {
-            portsVector.add(index);
+        if (!attaches.isEmpty()) {
+            prnt("[BOOTSTRAP] Attached " + noOfAttached + " of " + attaches.size() + " links.");
         }
 
-        try {
-            while (count != this.noOfExistingLinks) {
-                for (int checkIndex = 0; checkIndex < portsVector.size(); checkIndex++) {
-                    futureIndex = portsVector.get(checkIndex);
-                    String routerSimIP = ports[futureIndex].getDestinationRouterDesc().simulatedIPAddress;
-
-                    if (arrayOfFuture[futureIndex].isDone()) {
-                        final String helloFinishedRouterIP = (String) arrayOfFuture[futureIndex].get();
-                        if (helloFinishedRouterIP != null && helloFinishedRouterIP.equals(routerSimIP)) {
-                            prnt("[HELLO EXCHANGE] completed for router with IP: " + helloFinishedRouterIP);
-                        } else {
-                            prnt("[WARN] HELLO to router connected to link-port [" + futureIndex + "] / IP [" +
-                                    routerSimIP + "] failed. Run [connect] to re-connect device.");
-                        }
-                        portsVector.removeElement(futureIndex);
-                        count++;
-                    }
-                }
+        for (String command : startupCommands) {
+            prnt(">> " + command);
+            if (!runCommand(command)) {
+                log.warn("Ignoring the invalid startup command [" + command + "].");
             }
+        }
+    }
 
-            //TODO:: No LSUPDATE if Hello fails
+    /**
+     * broadcast Hello to neighbors. The router is not locked while waiting for the replies, so that a neighbor
+     * starting at the same time can get its own HELLOs answered.
+     */
+    private void processStart() {
+        if (!wasStartCalled) {
+            wasStartCalled = true;
+        }
+
+        if (bringUpAdjacencies(ports.links()) > 0) {
             if (printFlag) {
-                prnt("[LSUPDATE] Sending LSUPDATE to all connected routers.");
+                eventLog.log(EventLog.EventType.LSUPDATE_SENDING);
             }
+            startLSUPDATEBroadcast();
+        }
+    }
 
-            Thread lsupdateThread = new Thread() {
-                public void run() {
-                    broadcastLSUPDATE();
+    /**
+     * Runs the HELLO exchanges over the given links in parallel and handles each of them as soon as it completes.
+     * Exchanges that have not completed within the connect and HELLO timeouts are cancelled and reported as failed.
+     *
+     * @param links the links to the neighbors.
+     * @return the no of exchanges that completed with the router the link was attached to.
+     */
+    private int bringUpAdjacencies(List<Link> links) {
+        CompletionService<String> completionService = new ExecutorCompletionService<>(adjacencyExecutor);
+        Map<Future<String>, Link> pendingExchanges = new HashMap<>();
+        synchronized (this) {
+            for (Link link : links) {
+                pendingExchanges.put(completionService.submit(createHELLOExchange(link)), link);
+            }
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectTimeoutMillis + helloTimeoutMillis);
+        int noOfCompleted = 0;
+        try {
+            while (!pendingExchanges.isEmpty()) {
+                Future<String> exchange = completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (exchange == null) {
+                    break;
+                }
+                Link link = pendingExchanges.remove(exchange);
+                String helloFinishedRouterIP;
+                try {
+                    helloFinishedRouterIP = exchange.get();
+                } catch (ExecutionException e) {
+                    log.error("An error occurred whilst trying to get the return from [HELLO EXCHANGE] to router " +
+                            "with IP: " + link.getDestinationRouterDesc().simulatedIPAddress, e);
+                    helloFinishedRouterIP = null;
+                }
+                if (helloExchangeFinished(link, helloFinishedRouterIP)) {
+                    noOfCompleted++;
                 }
-            };
-            lsupdateThread.start();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
 
-        } catch (InterruptedException | ExecutionException e) {
-            log.error("An error occurred whilst trying to get the return from [HELLO EXCHANGE] to router at PORT " +
-                    "[" + futureIndex + "] with IP: " +
-                    this.ports[futureIndex].getDestinationRouterDesc().simulatedIPAddress);
+        for (Map.Entry<Future<String>, Link> pendingExchange : pendingExchanges.entrySet()) {
+            pendingExchange.getKey().cancel(true);
+            helloExchangeFinished(pendingExchange.getValue(), null);
         }
+        return noOfCompleted;
     }
 
     /**
-     * @param linkIndex
-     * @return
+     * Reports the outcome of the HELLO exchange over a link.
+     *
+     * @param link                  the link to the neighbor.
+     * @param helloFinishedRouterIP the simulated IP of the router that replied to the HELLO; null if none did.
+     * @return true if the router that replied is the one the link was attached to.
+     */
+    private boolean helloExchangeFinished(Link link, String helloFinishedRouterIP) {
+        String routerSimIP = link.getDestinationRouterDesc().simulatedIPAddress;
+        if (helloFinishedRouterIP != null && helloFinishedRouterIP.equals(routerSimIP)) {
+            eventLog.log(EventLog.EventType.HELLO_EXCHANGE_COMPLETED, helloFinishedRouterIP);
+            return true;
+        }
+        eventLog.log(EventLog.EventType.HELLO_EXCHANGE_FAILED, routerSimIP, null, ports.indexOf(routerSimIP));
+        return false;
+    }
+
+    /**
+     * @param newLink the link to the neighbor.
+     * @return the HELLO exchange with the neighbor, returning the simulated IP of the router that replied.
      */
-    private Future<String> doHELLOExchange(int linkIndex) {
-        final int finalLinkIndex = linkIndex;
-        Link newLink = ports[linkIndex];
+    private Callable<String> createHELLOExchange(final Link newLink) {
         RouterDescription destinationRouterDesc = newLink.getDestinationRouterDesc();
-        final String destinationRouterHostIP = destinationRouterDesc.processIPAddress;
-        final short destinationRouterHostPort = destinationRouterDesc.processPortNumber;
         final SOSPFPacket sospfPacket =
                 RouterUtils.createNewPacket(
                         this.rd, destinationRouterDesc.simulatedIPAddress, RouterConstants.HELLO_PACKET);
         Vector<LSA> lsaVector = new Vector<>();
         lsaVector.add(this.lsd._store.get(rd.simulatedIPAddress));
         sospfPacket.lsaArray = lsaVector;
+        sospfPacket.lsdSummary = this.lsd.getSummary();
+        sospfPacket.acceptsCompression = isCompressionEnabled();
 
-        Callable<String> callable = new Callable<String>() {
+        return new Callable<String>() {
             @Override
             public String call() {
-                Socket helloTransferSocket;
-                ObjectOutputStream socketWriter = null;
-                ObjectInputStream socketReader = null;
-                String connectedSimIP;
-
-                try {
-                    helloTransferSocket = new Socket(destinationRouterHostIP, destinationRouterHostPort);
-                } catch (IOException e) {
-                    log.error("[HELLO] An error occurred whilst trying to establish Socket connection to " +
-                            "HOST [" + destinationRouterHostIP + "] at " +
-                            "PORT [" + destinationRouterHostPort + "]", e);
-                    return null;
-                }
+                return controlTransport.exchangeHello(newLink, sospfPacket);
+            }
+        };
+    }
 
-                try {
-                    socketWriter = new ObjectOutputStream(helloTransferSocket.getOutputStream());
-                    socketReader = new ObjectInputStream(helloTransferSocket.getInputStream());
-
-                    socketWriter.writeObject(sospfPacket);
-                    SOSPFPacket sospfPacket_2 = (SOSPFPacket) socketReader.readObject();
-                    connectedSimIP = sospfPacket_2.srcIP;
-                    // TODO:: Check for message type???
-                    prnt("received HELLO from " + connectedSimIP + ";");
-
-                    Link routerLink = ports[finalLinkIndex];
-                    RouterDescription connectedRouterDesc = routerLink.getDestinationRouterDesc();
-                    String incomingSimIP = connectedRouterDesc.simulatedIPAddress;
-                    if (incomingSimIP.equals(connectedSimIP)) {
-                        connectedRouterDesc.status = RouterStatus.TWO_WAY;
-                        prnt("set " + connectedSimIP + " state to TWO_WAY;");
-                        socketWriter.writeObject(sospfPacket);
-                    } else {
-                        prnt("[WARN] HELLO EXCHANGE failed with router: " + incomingSimIP +
-                                ". The Source IP of incoming message was: " + connectedSimIP);
-                    }
-                } catch (IOException e) {
-                    log.error("[HELLO] An error occurred whilst trying to READ/WRITE to Socket connection at " +
-                            "HOST [" + destinationRouterHostIP + "] on " +
-                            "PORT [" + destinationRouterHostPort + "]", e);
-                    return null;
-                } catch (ClassNotFoundException e) {
-                    log.error("[HELLO] An object type other than [SOSPFPacket] was recieved over the socket " +
-                            "connection", e);
-                    return null;
-                } finally {
-                    RouterUtils.releaseSocket(helloTransferSocket);
-                    RouterUtils.releaseWriter(socketWriter);
-                    RouterUtils.releaseReader(socketReader);
-                }
-                return connectedSimIP;
+    private void startLSUPDATEBroadcast() {
+        Thread lsupdateThread = new Thread() {
+            public void run() {
+                broadcastLSUPDATE();
             }
         };
+        lsupdateThread.start();
+    }
 
-        return executor.submit(callable);
+    /**
+     * Handles the reply to a HELLO this router sent over the given link: sets the neighbor to TWO_WAY if the reply
+     * came from the router the link was attached to.
+     *
+     * @param routerLink  the link over which the HELLO exchange runs.
+     * @param helloReply  the HELLO received in reply.
+     * @return true if the neighbor was set to TWO_WAY and the exchange should be confirmed with a second HELLO.
+     */
+    boolean helloReplyReceived(Link routerLink, SOSPFPacket helloReply) {
+        String connectedSimIP = helloReply.srcIP;
+        eventLog.log(EventLog.EventType.HELLO_RECEIVED, connectedSimIP);
+
+        RouterDescription connectedRouterDesc = routerLink.getDestinationRouterDesc();
+        String incomingSimIP = connectedRouterDesc.simulatedIPAddress;
+        if (incomingSimIP.equals(connectedSimIP)) {
+            connectedRouterDesc.areaId = helloReply.areaId;
+            updateAreaBorderRouterStatus();
+            routerLink.setNeighborLSDSummary(helloReply.lsdSummary);
+            routerLink.setCompressionNegotiated(isCompressionEnabled() && helloReply.acceptsCompression);
+            connectedRouterDesc.status = RouterStatus.TWO_WAY;
+            eventLog.log(EventLog.EventType.STATE_TWO_WAY, connectedSimIP);
+            adjacencyUp(routerLink);
+            return true;
+        }
+        eventLog.log(EventLog.EventType.HELLO_SOURCE_MISMATCH, incomingSimIP, connectedSimIP);
+        return false;
     }
 
 
@@ -276,28 +652,145 @@ public class Router {
     }
 
     /**
+     * Sends the given LSUPDATE to all neighbors. Neighbors with which a HELLO exchange has just completed only get
+     * the LSAs that are missing or outdated in the LSD summary they sent during the exchange.
+     *
      * @param lsUpdatePacket
      */
     synchronized void broadcastLSUPDATE(SOSPFPacket lsUpdatePacket) {
         this.lsd.updateTopologyAndRoutingTable();
         String ipOfLsupdater = lsUpdatePacket.srcIP;
 
-        for (short linkIndex = 0; linkIndex < noOfExistingLinks; linkIndex++) {
-            Link link = ports[linkIndex];
+        for (Link link : ports.links()) {
             final String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
             if (!simulatedIP.equals(ipOfLsupdater)) {
                 RouterDescription destRouterDesc = link.getDestinationRouterDesc();
-                final String destinationRouterHostIP = destRouterDesc.processIPAddress;
-                final short destinationRouterHostPort = destRouterDesc.processPortNumber;
-                final SOSPFPacket sospfPacket =
-                        RouterUtils.updatePacket(rd, destRouterDesc.simulatedIPAddress, lsUpdatePacket);
+                SOSPFPacket sospfPacket;
+
+                Map<String, Integer> neighborLSDSummary = link.takeNeighborLSDSummary();
+                if (neighborLSDSummary != null) {
+                    sospfPacket = createDeltaLSUPDATE(lsUpdatePacket, destRouterDesc.simulatedIPAddress,
+                            neighborLSDSummary);
+                    if (sospfPacket.lsaArray.isEmpty()) {
+                        continue;
+                    }
+                } else {
+                    sospfPacket = RouterUtils.updatePacket(rd, destRouterDesc.simulatedIPAddress, lsUpdatePacket);
+                }
+
+                sendLSUPDATE(link, sospfPacket);
+            }
+        }
+    }
+
+    /**
+     * Sends an LSUPDATE to the neighbor on the given link over the control transport of this router. The LSAs are
+     * compressed if the neighbor agreed to it and they are above the compression threshold.
+     *
+     * @param link        the link to the neighbor.
+     * @param sospfPacket the LSUPDATE, addressed to the neighbor.
+     */
+    void sendLSUPDATE(Link link, SOSPFPacket sospfPacket) {
+        RouterDescription destRouterDesc = link.getDestinationRouterDesc();
+        Vector<LSA> lsaArray = sospfPacket.lsaArray;
+        Vector<LSA> scopedLSAs = scopeToArea(lsaArray, link.getAreaId());
+        if (scopedLSAs.isEmpty()) {
+            return;
+        }
+        noOfLSUpdatesSent.incrementAndGet();
+        byte[] compressedLSAs = lsUpdateCompressor == null || !link.isCompressionNegotiated() ? null :
+                lsUpdateCompressor.compress(lsaArray, link.getAreaId(), scopedLSAs);
+        if (compressedLSAs == null && scopedLSAs == lsaArray) {
+            controlTransport.send(destRouterDesc, sospfPacket, RouterConstants.LSUPDATE_STRING);
+            return;
+        }
+
+        // the transport encodes the packet before returning, so the LSAs can be swapped in and out around the send.
+        sospfPacket.lsaArray = compressedLSAs == null ? scopedLSAs : null;
+        sospfPacket.compressedLSAs = compressedLSAs;
+        try {
+            controlTransport.send(destRouterDesc, sospfPacket, RouterConstants.LSUPDATE_STRING);
+        } finally {
+            sospfPacket.lsaArray = lsaArray;
+            sospfPacket.compressedLSAs = null;
+        }
+    }
+
+    /**
+     * @param lsaArray the LSAs of an LSUPDATE.
+     * @param areaId   the area of the link over which the LSUPDATE is to be sent.
+     * @return the LSAs of the given area; the given vector itself if they all are.
+     */
+    private static Vector<LSA> scopeToArea(Vector<LSA> lsaArray, int areaId) {
+        int noOfScopedLSAs = 0;
+        for (LSA lsa : lsaArray) {
+            if (lsa.areaId == areaId) {
+                noOfScopedLSAs++;
+            }
+        }
+        if (noOfScopedLSAs == lsaArray.size()) {
+            return lsaArray;
+        }
+
+        Vector<LSA> scopedLSAs = new Vector<>(noOfScopedLSAs);
+        for (LSA lsa : lsaArray) {
+            if (lsa.areaId == areaId) {
+                scopedLSAs.add(lsa);
+            }
+        }
+        return scopedLSAs;
+    }
+
+    /**
+     * Re-evaluates whether this router is an area border router, i.e. a router outside the backbone with a link to a
+     * backbone router. Called whenever links are attached or removed or the area of a neighbor is learned; the new
+     * status takes effect at the next SPF run.
+     */
+    void updateAreaBorderRouterStatus() {
+        boolean isAreaBorderRouter = false;
+        if (rd.areaId != RouterConstants.BACKBONE_AREA) {
+            for (Link link : ports.links()) {
+                if (link.getDestinationRouterDesc().areaId == RouterConstants.BACKBONE_AREA) {
+                    isAreaBorderRouter = true;
+                    break;
+                }
+            }
+        }
+        lsd.isAreaBorderRouter = isAreaBorderRouter;
+    }
+
+    /**
+     * @return true if this router accepts and sends compressed LSUPDATEs.
+     */
+    boolean isCompressionEnabled() {
+        return lsUpdateCompressor != null;
+    }
 
-                Runnable lsupdateRunnable = getRunnable(destinationRouterHostIP,
-                        destinationRouterHostPort, sospfPacket, RouterConstants.LSUPDATE_STRING);
-                Thread lsupdateThread = new Thread(lsupdateRunnable);
-                lsupdateThread.start();
+    /**
+     * Creates a copy of the given LSUPDATE for a single neighbor that only carries the LSAs the neighbor does not
+     * have or has an older instance of, as per the LSD summary it sent in the HELLO exchange.
+     *
+     * @param lsUpdatePacket     the full LSUPDATE.
+     * @param dstIP              the simulated IP of the neighbor.
+     * @param neighborLSDSummary the LSD summary of the neighbor (linkStateID => lsaSeqNumber).
+     * @return the trimmed LSUPDATE packet.
+     */
+    private SOSPFPacket createDeltaLSUPDATE(SOSPFPacket lsUpdatePacket, String dstIP,
+                                            Map<String, Integer> neighborLSDSummary) {
+        SOSPFPacket deltaPacket = RouterUtils.createNewPacket(this.rd, dstIP, RouterConstants.LSUPDATE_PACKET);
+        deltaPacket.timeToLive = lsUpdatePacket.timeToLive;
+        deltaPacket.routerID = lsUpdatePacket.routerID;
+        deltaPacket.neighborID = this.rd.simulatedIPAddress;
+
+        Vector<LSA> lsaVector = new Vector<>();
+        for (LSA lsa : lsUpdatePacket.lsaArray) {
+            Integer neighborSeqNumber = neighborLSDSummary.get(lsa.linkStateID);
+            if (neighborSeqNumber == null || neighborSeqNumber < lsa.lsaSeqNumber) {
+                lsaVector.add(lsa);
             }
         }
+        deltaPacket.lsaArray = lsaVector;
+        return deltaPacket;
     }
 
     /**
@@ -308,44 +801,15 @@ public class Router {
      * This command does trigger the link database synchronization
      */
     private void processConnect(String processIP, short processPort, String simulatedIP, short weight) {
-        if (WAS_START_CALLED) {
+        if (wasStartCalled) {
             int existingLinkPortNumber = checkIfLinkExists(simulatedIP);
             if (existingLinkPortNumber == -1) {
                 int linkIndex = processAttach(processIP, processPort, simulatedIP, weight);
 
-                // check if attach was successful, if not probably the router has reached max-4 connections
-                if (linkIndex != -1) {
-                    Future<String> exchangeState = doHELLOExchange(linkIndex);
-                    while (true) {
-                        if (exchangeState.isDone()) {
-                            String helloFinishedRouterIP;
-                            try {
-                                helloFinishedRouterIP = exchangeState.get();
-                                if (helloFinishedRouterIP.equals(simulatedIP)) {
-                                    prnt("[HELLO EXCHANGE] completed for router with IP: " + helloFinishedRouterIP);
-                                    prnt("[LSUPDATE] Sending LSUPDATE to all connected routers.");
-
-                                    Thread lsupdateThread = new Thread() {
-                                        public void run() {
-                                            broadcastLSUPDATE();
-                                        }
-                                    };
-                                    lsupdateThread.start();
-                                    break;
-                                } else {
-                                    prnt("[WARN] HELLO EXCHANGE to router connected to link-port " +
-                                            "[" + linkIndex + "] failed. The Source IP [" + helloFinishedRouterIP +
-                                            "] " +
-                                            "of the incoming message is invalid. Re-run [connect] to try again");
-                                }
-
-                            } catch (InterruptedException | ExecutionException e) {
-                                log.error("An error occurred whilst trying to get the return from [HELLO EXCHANGE] " +
-                                        "to router at PORT [" + linkIndex + "] with IP: " +
-                                        this.ports[linkIndex].getDestinationRouterDesc().simulatedIPAddress, e);
-                            }
-                        }
-                    }
+                // check if attach was successful, if not probably the router has reached its maximum no of ports
+                if (linkIndex != -1 && bringUpAdjacencies(Collections.singletonList(ports.get(linkIndex))) > 0) {
+                    prnt("[LSUPDATE] Sending LSUPDATE to all connected routers.");
+                    startLSUPDATEBroadcast();
                 }
             } else {
                 prnt("A link to [ " + processIP + ":" + processPort + " - " + simulatedIP + " ] " +
@@ -362,33 +826,69 @@ public class Router {
      *
      * @param portNumber the port number which the link attaches at
      */
-    private void processDisconnect(short portNumber) {
-        //TODO:: sometimes there is an error
-        Link link = ports[portNumber];
-        final String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
-        final String destinationRouterHostIP = link.getDestinationRouterDesc().processIPAddress;
-        final short destinationRouterHostPort = link.getDestinationRouterDesc().processPortNumber;
-        final SOSPFPacket sospfPacket =
+    private void processDisconnect(String portOrNeighbor) {
+        short portNumber;
+        try {
+            portNumber = Short.parseShort(portOrNeighbor);
+        } catch (NumberFormatException e) {
+            portNumber = checkIfLinkExists(portOrNeighbor);
+        }
+        Link link = ports.get(portNumber);
+        if (link == null) {
+            prnt("Link-port [" + portNumber + "] does not have any device attached to it.");
+            return;
+        }
+        String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
+        SOSPFPacket sospfPacket =
                 RouterUtils.createNewPacket(this.rd, simulatedIP, RouterConstants.DISCONNECT_PACKET);
-
-        Runnable disconnectRunnable = getRunnable(
-                destinationRouterHostIP, destinationRouterHostPort, sospfPacket, RouterConstants.DISCONNECT_STRING);
-        Thread disconnectTriggerThread = new Thread(disconnectRunnable);
-        disconnectTriggerThread.start();
+        controlTransport.send(link.getDestinationRouterDesc(), sospfPacket, RouterConstants.DISCONNECT_STRING);
 
         removeFromPorts(portNumber, !(RouterConstants.QUITTER));
 //        broadcastLSUPDATE();
     }
 
     /**
-     * output the shortest path to the given destination ip
+     * output the shortest path(s) to the given destination ip; every equal-cost path is listed with its cost.
      * <p/>
      * format: source ip address  -> ip address -> ... -> destination ip
      *
      * @param destinationIP the ip adderss of the destination simulated router
      */
     private void processDetect(String destinationIP) {
-        System.out.println(this.lsd.getShortestPath(destinationIP));
+        System.out.println(this.lsd.getEqualCostPaths(destinationIP));
+    }
+
+    /**
+     * Returns the k shortest loop-free paths between two routers of the network, computed on the current LSD. The
+     * result is cached until the LSD changes, so repeated queries are answered without running SPF again.
+     *
+     * @param sourceIP      the simulated IP of the router the paths start at.
+     * @param destinationIP the simulated IP of the router the paths end at.
+     * @param k             the maximum no of paths to return; at most MAX_KPATHS.
+     * @return up to k paths in non-decreasing order of cost; empty if the routers are not connected.
+     * @throws IllegalArgumentException if either router is not known or k is out of range.
+     */
+    public List<RoutePath> getKShortestPaths(String sourceIP, String destinationIP, int k) {
+        if (k < 1 || k > RouterConstants.MAX_KPATHS) {
+            throw new IllegalArgumentException("k must be between 1 and " + RouterConstants.MAX_KPATHS);
+        }
+        return pathQueryCache.getKShortestPaths(sourceIP, destinationIP, k);
+    }
+
+    /**
+     * output the k shortest loop-free paths between the given routers, one per line with its cost.
+     */
+    private void processKPaths(String sourceIP, String destinationIP, int k) {
+        try {
+            List<RoutePath> paths = getKShortestPaths(sourceIP, destinationIP, k);
+            for (RoutePath path : paths) {
+                System.out.println(path);
+            }
+            System.out.println(paths.isEmpty() ? destinationIP + " ->(NULL) A path does not exist" :
+                    paths.size() + " path(s); " + pathQueryCache.getStatistics());
+        } catch (IllegalArgumentException e) {
+            prnt("[KPATHS] " + e.getMessage());
+        }
     }
 
 
@@ -396,13 +896,9 @@ public class Router {
      * output the neighbors of the routers
      */
     private void processNeighbors() {
-        for (int portNo = 0; portNo < 4; portNo++) {
-            Link linkOnPort = ports[portNo];
-            if (linkOnPort != null) {
-                RouterDescription linkedRouter = linkOnPort.getDestinationRouterDesc();
-                String simulatedIPAddress = linkedRouter.simulatedIPAddress;
-                prnt("Neighbour " + portNo + " - " + simulatedIPAddress);
-            }
+        for (Link linkOnPort : ports.links()) {
+            String simulatedIPAddress = linkOnPort.getDestinationRouterDesc().simulatedIPAddress;
+            prnt("Neighbour " + ports.indexOf(simulatedIPAddress) + " - " + simulatedIPAddress);
         }
     }
 
@@ -410,33 +906,61 @@ public class Router {
      * disconnect with all neighbors and quit the program
      */
     private void processQuit() {
-        Thread[] quitThreadArray = new Thread[noOfExistingLinks];
-        for (short linkIndex = 0; linkIndex < noOfExistingLinks; linkIndex++) {
-            Link link = ports[linkIndex];
-            final String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
-            final String destinationRouterHostIP = link.getDestinationRouterDesc().processIPAddress;
-            final short destinationRouterHostPort = link.getDestinationRouterDesc().processPortNumber;
-            final SOSPFPacket sospfPacket =
-                    RouterUtils.createNewPacket(this.rd, simulatedIP, RouterConstants.EXIT_PACKET);
+        shutdown();
+        System.exit(0);
+    }
 
-            Runnable quitRunnable = getRunnable(
-                    destinationRouterHostIP, destinationRouterHostPort, sospfPacket, RouterConstants.EXIT_STRING);
-            Thread quitTriggerThread = new Thread(quitRunnable);
-            quitTriggerThread.setDaemon(true);
-            quitTriggerThread.start();
-            quitThreadArray[linkIndex] = quitTriggerThread;
+    /**
+     * Disconnects from all neighbors and stops every thread, server and timer of this router, without exiting the
+     * process; used by processQuit and to quit routers that share a process with others.
+     */
+    void shutdown() {
+        for (Link link : ports.links()) {
+            String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
+            SOSPFPacket sospfPacket =
+                    RouterUtils.createNewPacket(this.rd, simulatedIP, RouterConstants.EXIT_PACKET);
+            controlTransport.send(link.getDestinationRouterDesc(), sospfPacket, RouterConstants.EXIT_STRING);
         }
+        // wait for the EXIT messages to reach the neighbors (or be given up on) before shutting down.
+        controlTransport.drain(RouterConstants.QUIT_DRAIN_TIMEOUT_MILLIS);
 
-        try {
-            for (Thread quitThread : quitThreadArray) {
-                quitThread.join();
+        timerWheel.stop();
+        controlTransport.stop();
+        if (livenessDetector != null) {
+            livenessDetector.stop();
+        }
+        if (queryServer != null) {
+            queryServer.stop();
+        }
+        if (dataPlane != null) {
+            dataPlane.stop();
+        }
+        synchronized (this) {
+            if (this.lsd.persistence != null) {
+                this.lsd.persistence.writeSnapshot(this.lsd._store);
+                this.lsd.persistence.close();
             }
-        } catch (InterruptedException e) {
-            prnt("[QUIT] An error occurred whilst waiting for a Quit Thread to complete.");
         }
-
+        routerServer.stopRouterServer();
+        if (packetCapture != null) {
+            packetCapture.close();
+        }
+        eventLog.stop();
         executor.shutdown();
-        System.exit(0);
+        adjacencyExecutor.shutdownNow();
+    }
+
+    /**
+     * @return the no of neighbors with which a HELLO exchange completed, i.e. that are in TWO_WAY state.
+     */
+    int getNoOfAdjacencies() {
+        int noOfAdjacencies = 0;
+        for (Link link : ports.links()) {
+            if (link.getDestinationRouterDesc().status == RouterStatus.TWO_WAY) {
+                noOfAdjacencies++;
+            }
+        }
+        return noOfAdjacencies;
     }
 
     /**
@@ -444,12 +968,21 @@ public class Router {
      * @return
      */
     synchronized int addToPorts(Link newLink) {
-        if (!WAS_START_CALLED) {
-            WAS_START_CALLED = true;
+        if (!wasStartCalled) {
+            wasStartCalled = true;
         }
 
-        int linkIndex = noOfExistingLinks;
-        this.ports[noOfExistingLinks++] = newLink;
+        // both ends of a link may attach it at the same time (e.g. when it is listed in both configurations); the
+        // link attached first is kept.
+        short existingIndex = checkIfLinkExists(newLink.getDestinationRouterDesc().simulatedIPAddress);
+        if (existingIndex != -1) {
+            return existingIndex;
+        }
+        int linkIndex = ports.add(newLink);
+        if (linkIndex == -1) {
+            return -1;
+        }
+        updateAreaBorderRouterStatus();
 
         LinkDescription newLinkDescription = new LinkDescription();
         // same as sospfPacket.srcIP
@@ -465,7 +998,8 @@ public class Router {
      * @param portNum
      */
     synchronized void updatePorts(Link newLink, short portNum) {
-        this.ports[portNum] = newLink;
+        this.ports.set(portNum, newLink);
+        updateAreaBorderRouterStatus();
 
         LinkDescription newLinkDescription = new LinkDescription();
         // same as sospfPacket.srcIP
@@ -483,10 +1017,7 @@ public class Router {
     synchronized void removeFromPorts(String connectedSimIP, boolean isQuitter) {
         short portIndex = checkIfLinkExists(connectedSimIP);
         if (portIndex != -1) {
-            Link link = ports[portIndex];
-            if (link.getDestinationRouterDesc().simulatedIPAddress.equals(connectedSimIP)) {
-                removeFromPorts(portIndex, isQuitter);
-            }
+            removeFromPorts(portIndex, isQuitter);
         }
     }
 
@@ -494,17 +1025,20 @@ public class Router {
      * @param portToDetach
      */
     private synchronized void removeFromPorts(short portToDetach, boolean isQuitter) {
-        if (portToDetach < 4) {
-            Link linkToRemove = ports[portToDetach];
+        if (portToDetach >= 0 && portToDetach < ports.getMaxPorts()) {
+            Link linkToRemove = ports.remove(portToDetach);
             if (linkToRemove != null) {
-                ports[portToDetach] = null;
-                noOfExistingLinks--;
-
-                for (int pos = portToDetach; pos < noOfExistingLinks; pos++) {
-                    ports[pos] = ports[pos + 1];
-                    ports[pos + 1] = null;
+                updateAreaBorderRouterStatus();
+                synchronized (linkToRemove) {
+                    timerWheel.cancel(linkToRemove.getDeadTimer());
+                    linkToRemove.setDeadTimer(null);
+                }
+                if (livenessDetector != null) {
+                    livenessDetector.removeSession(linkToRemove.getDestinationRouterDesc().simulatedIPAddress);
+                }
+                if (dataPlane != null) {
+                    dataPlane.removeNeighbor(linkToRemove.getDestinationRouterDesc().simulatedIPAddress);
                 }
-
                 removeLinkDescriptionFromLSD(linkToRemove.getDestinationRouterDesc().simulatedIPAddress, isQuitter);
                 prnt("Link on port " + portToDetach + " was successfully detached.");
 
@@ -512,7 +1046,7 @@ public class Router {
                 log.error("Link-port [" + portToDetach + "] does not have any device attached to it.");
             }
         } else {
-            log.error("Invalid link-port provided. Link-Port must be between 0-3.");
+            log.error("Invalid link-port provided. Link-Port must be between 0-" + (ports.getMaxPorts() - 1) + ".");
         }
     }
 
@@ -527,6 +1061,7 @@ public class Router {
         }
         currentLSA.links.add(newLinkDescription);
         currentLSA.lsaSeqNumber++;
+        currentLSA.updateChecksum();
     }
 
     /**
@@ -538,6 +1073,7 @@ public class Router {
             if (linkDesc.linkID.equals(simIPAddOfLinkDestination)) {
                 currentLSA.links.remove(linkDesc);
                 currentLSA.lsaSeqNumber++;
+                currentLSA.updateChecksum();
                 break;
             }
         }
@@ -546,6 +1082,7 @@ public class Router {
         if (isQuitter) {
             lsaOfRemovedDevice.hasQuitNetwork = true;
             lsaOfRemovedDevice.lsaSeqNumber++;
+            lsaOfRemovedDevice.updateChecksum();
             broadcastLSUPDATE(lsaOfRemovedDevice);
         } else {
             broadcastLSUPDATE();
@@ -553,63 +1090,164 @@ public class Router {
     }
 
     /**
-     * @param connectedSimIP
-     * @return
+     * Schedules the next round of HELLO keepalives on the timer wheel. Each round sends a HELLO to every neighbor
+     * that has reached TWO_WAY and then re-arms itself.
+     */
+    private void scheduleHelloKeepalive() {
+        timerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                sendHelloKeepalives();
+                scheduleHelloKeepalive();
+            }
+        }, helloIntervalMillis);
+    }
+
+    /**
+     * Sends a one-way HELLO keepalive to every TWO_WAY neighbor so that they can re-arm their dead timer for this
+     * router.
      */
-    synchronized short checkIfLinkExists(String connectedSimIP) {
-        for (short linkIndex = 0; linkIndex < noOfExistingLinks; linkIndex++) {
-            Link existingLink = ports[linkIndex];
-            if (existingLink.getDestinationRouterDesc().simulatedIPAddress.equals(connectedSimIP)) {
-                return linkIndex;
+    private synchronized void sendHelloKeepalives() {
+        for (Link link : ports.links()) {
+            RouterDescription destRouterDesc = link.getDestinationRouterDesc();
+            if (destRouterDesc.status == RouterStatus.TWO_WAY) {
+                SOSPFPacket sospfPacket = RouterUtils.createNewPacket(
+                        this.rd, destRouterDesc.simulatedIPAddress, RouterConstants.HELLO_KEEPALIVE_PACKET);
+                controlTransport.send(destRouterDesc, sospfPacket, RouterConstants.HELLO_KEEPALIVE_STRING);
             }
         }
-        return -1;
     }
 
+    /**
+     * Starts monitoring the liveness of a neighbor that has just reached TWO_WAY: arms its dead-interval timer and,
+     * if enabled, starts the fast liveness probes to it. The neighbor also becomes usable as a data plane next hop.
+     *
+     * @param link the link to the neighbor that reached TWO_WAY.
+     */
+    void adjacencyUp(Link link) {
+        resetDeadTimer(link);
+        if (livenessDetector != null) {
+            livenessDetector.addSession(link);
+        }
+        if (dataPlane != null) {
+            dataPlane.addNeighbor(link);
+        }
+    }
 
     /**
-     * @param destinationRouterHostIP
-     * @param destinationRouterHostPort
-     * @param sospfPacket
-     * @param packetType
-     * @return
+     * (Re-)arms the dead-interval timer of the neighbor with the given simulated IP. Invoked whenever the neighbor
+     * reaches TWO_WAY or a HELLO is received from it. The adjacency is torn down if the timer ever expires.
+     *
+     * @param neighborSimIP the simulated IP of the neighbor that was heard from.
+     * @return true if a link to the neighbor exists and its timer was re-armed; else false.
+     */
+    boolean resetDeadTimer(String neighborSimIP) {
+        Link link = ports.get(neighborSimIP);
+        if (link == null) {
+            return false;
+        }
+        resetDeadTimer(link);
+        return true;
+    }
+
+    /**
+     * (Re-)arms the dead-interval timer of the neighbor on the given link. Does not lock the router so that it can
+     * be called from the HELLO exchange threads whilst [start] holds the router lock.
+     *
+     * @param link the link to the neighbor that was heard from.
+     */
+    private void resetDeadTimer(Link link) {
+        final String neighborSimIP = link.getDestinationRouterDesc().simulatedIPAddress;
+        synchronized (link) {
+            timerWheel.cancel(link.getDeadTimer());
+            link.setDeadTimer(timerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    processNeighborDead(neighborSimIP, "No HELLO received from " + neighborSimIP +
+                            " within the dead-interval of " + (deadIntervalMillis / 1000) + "s.");
+                }
+            }, deadIntervalMillis));
+        }
+    }
+
+    /**
+     * Invoked when a neighbor is detected to be dead, either by the expiry of its dead-interval or by the fast
+     * liveness detection. Forwarding is switched to the loop-free alternates right away, without taking the router
+     * lock; tearing down the adjacency then removes the link from this router's LSA, re-runs SPF and floods the new
+     * LSA to all remaining neighbors.
+     *
+     * @param neighborSimIP the simulated IP of the neighbor that is considered dead.
+     * @param reason        the reason for the neighbor being declared dead.
      */
-    private Runnable getRunnable(final String destinationRouterHostIP, final short
-            destinationRouterHostPort, final SOSPFPacket sospfPacket, final String packetType) {
-        return new Runnable() {
+    void processNeighborDead(String neighborSimIP, String reason) {
+        eventLog.log(EventLog.EventType.NEIGHBOR_DEAD, reason);
+        lsd.repairLocalFailure(neighborSimIP);
+        removeFromPorts(neighborSimIP, !(RouterConstants.QUITTER));
+    }
+
+    /**
+     * Schedules the next LSA aging round on the timer wheel. A single timer ages the whole LSD, regardless of the no
+     * of LSAs in it.
+     */
+    private void scheduleLSAAging() {
+        timerWheel.schedule(new Runnable() {
             @Override
             public void run() {
-                Socket aNewSocket;
-                ObjectOutputStream socketWriter = null;
+                ageLinkStateDatabase();
+                scheduleLSAAging();
+            }
+        }, RouterConstants.LSA_AGING_INTERVAL_MILLIS);
+    }
 
-                try {
-                    aNewSocket = new Socket(destinationRouterHostIP, destinationRouterHostPort);
-                } catch (IOException e) {
-                    log.error("[" + packetType + "] An error occurred whilst trying to establish Socket " +
-                            "connection to HOST [" + destinationRouterHostIP + "] at " +
-                            "PORT [" + destinationRouterHostPort + "]", e);
-                    return;
-                }
+    /**
+     * Ages all LSAs in the LSD by the time elapsed since the last round. LSAs of other routers that reach MaxAge are
+     * purged, as are those of routers that stayed unreachable for longer than the grace period. The LSA of this
+     * router is re-originated with a new sequence number and flooded once it is older than the refresh interval, and
+     * so are its summary LSAs.
+     */
+    private synchronized void ageLinkStateDatabase() {
+        List<String> evictedLSAs = this.lsd.evictUnreachableLSAs(unreachableGraceNanos);
+        if (printFlag && !evictedLSAs.isEmpty()) {
+            eventLog.log(EventLog.EventType.LSAS_EVICTED, evictedLSAs);
+        }
 
-                try {
-                    socketWriter = new ObjectOutputStream(aNewSocket.getOutputStream());
-                    socketWriter.writeObject(sospfPacket);
+        long elapsedNanos = System.nanoTime() - lastAgingNanos;
+        int elapsedSeconds = (int) TimeUnit.NANOSECONDS.toSeconds(elapsedNanos);
+        if (elapsedSeconds == 0) {
+            return;
+        }
+        lastAgingNanos += TimeUnit.SECONDS.toNanos(elapsedSeconds);
 
-                    if (printFlag) {
-                        prnt("A [" + packetType + "] message sent to router with IP: " + sospfPacket.dstIP);
-                    }
-                } catch (IOException e) {
-                    log.error("[" + packetType + "] An error occurred whilst trying to READ/WRITE to Socket " +
-                            "connection at HOST [" + destinationRouterHostIP + "] on " +
-                            "PORT [" + destinationRouterHostPort + "]", e);
-                } finally {
-                    RouterUtils.releaseSocket(aNewSocket);
-                    RouterUtils.releaseWriter(socketWriter);
-                }
+        List<String> purgedLSAs = this.lsd.ageLSAs(elapsedSeconds);
+        if (printFlag && !purgedLSAs.isEmpty()) {
+            eventLog.log(EventLog.EventType.LSAS_PURGED, purgedLSAs);
+        }
+
+        LSA myLSA = this.lsd._store.get(rd.simulatedIPAddress);
+        if (myLSA.lsaAge >= lsaRefreshSeconds) {
+            myLSA.lsaSeqNumber++;
+            myLSA.lsaAge = 0;
+            if (printFlag) {
+                eventLog.log(EventLog.EventType.LSA_REFRESHED, null, null, myLSA.lsaSeqNumber);
             }
-        };
+            broadcastLSUPDATE();
+        } else if (this.lsd.refreshSummaryLSAs(lsaRefreshSeconds)) {
+            if (printFlag) {
+                eventLog.log(EventLog.EventType.SUMMARY_LSAS_REFRESHED);
+            }
+            broadcastLSUPDATE();
+        }
+    }
+
+    /**
+     * @param connectedSimIP the simulated IP of a neighbor.
+     * @return the port of the link to the neighbor; -1 if there is none. Does not lock the router.
+     */
+    short checkIfLinkExists(String connectedSimIP) {
+        return (short) ports.indexOf(connectedSimIP);
     }
 
+
     /**
      *
      */
@@ -619,66 +1257,8 @@ public class Router {
             BufferedReader br = new BufferedReader(isReader);
             System.out.print("\n>> ");
             String command = br.readLine();
-            while (true) {
-                if (command.startsWith("attach ")) {
-                    String[] cmdLine = command.split(" ");
-                    processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
-                            cmdLine[3], Short.parseShort(cmdLine[4]));
-
-                } else if (command.equals("start")) {
-                    System.out.println("");
-                    processStart();
-
-                } else if (command.startsWith("connect ")) {
-                    System.out.println("");
-                    String[] cmdLine = command.split(" ");
-                    processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
-                            cmdLine[3], Short.parseShort(cmdLine[4]));
-
-                } else if (command.startsWith("disconnect ")) {
-                    System.out.println("");
-                    String[] cmdLine = command.split(" ");
-                    processDisconnect(Short.parseShort(cmdLine[1]));
-
-                } else if (command.startsWith("detect ")) {
-                    System.out.println("");
-                    String[] cmdLine = command.split(" ");
-                    processDetect(cmdLine[1]);
-
-                } else if (command.equals("neighbors")) {
-                    System.out.println("");
-                    //output neighbors
-                    processNeighbors();
-
-                } else if (command.equals("ports")) {
-                    System.out.println("");
-                    // print information about the ports
-                    printPortInfo();
-
-                } else if (command.equals("topology")) {
-                    System.out.println("");
-                    // print information about the topology
-                    this.lsd.printTopologyAndRoutingTable();
-
-                } else if (command.startsWith("debug")) {
-                    System.out.println("");
-                    // switch on/off debug
-                    String[] cmdLine = command.split(" ");
-                    switchOnDebug(cmdLine[1]);
-
-                } else if (command.startsWith("quit")) {
-                    System.out.println("");
-                    processQuit();
-
-                } else if (command.startsWith("lsd")) {
-                    System.out.println("");
-                    printLSD();
-
-                } else {
-                    System.out.println("Invalid Command.");
-                    //invalid command
-                    break;
-                }
+            // the terminal closes at the end of its input, e.g. when the router is driven by another process.
+            while (command != null && runCommand(command)) {
                 System.out.println("");
                 System.out.print(">> ");
                 command = br.readLine();
@@ -692,6 +1272,118 @@ public class Router {
         }
     }
 
+    /**
+     * Runs a single command, as typed on the terminal or listed as a startup command in the configuration.
+     *
+     * @param command the command line.
+     * @return false if the command is not a valid command.
+     */
+    boolean runCommand(String command) {
+        if (command.startsWith("attach ")) {
+            String[] cmdLine = command.split(" ");
+            processAttach(cmdLine[1], Short.parseShort(cmdLine[2]),
+                    cmdLine[3], Short.parseShort(cmdLine[4]));
+
+        } else if (command.equals("start")) {
+            System.out.println("");
+            processStart();
+
+        } else if (command.startsWith("connect ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processConnect(cmdLine[1], Short.parseShort(cmdLine[2]),
+                    cmdLine[3], Short.parseShort(cmdLine[4]));
+
+        } else if (command.startsWith("disconnect ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processDisconnect(cmdLine[1]);
+
+        } else if (command.startsWith("detect ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processDetect(cmdLine[1]);
+
+        } else if (command.startsWith("kpaths ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processKPaths(cmdLine[1], cmdLine[2], cmdLine.length > 3 ? Integer.parseInt(cmdLine[3]) :
+                    RouterConstants.DEFAULT_KPATHS);
+
+        } else if (command.equals("neighbors")) {
+            System.out.println("");
+            //output neighbors
+            processNeighbors();
+
+        } else if (command.equals("ports")) {
+            System.out.println("");
+            // print information about the ports
+            printPortInfo();
+
+        } else if (command.equals("topology")) {
+            System.out.println("");
+            // print information about the topology
+            this.lsd.printTopologyAndRoutingTable();
+
+        } else if (command.startsWith("debug")) {
+            System.out.println("");
+            // switch on/off debug
+            String[] cmdLine = command.split(" ");
+            switchOnDebug(cmdLine[1]);
+
+        } else if (command.startsWith("quit")) {
+            System.out.println("");
+            processQuit();
+
+        } else if (command.startsWith("lsd")) {
+            System.out.println("");
+            printLSD();
+
+        } else if (command.startsWith("traffic ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processTraffic(cmdLine[1], Integer.parseInt(cmdLine[2]), Integer.parseInt(cmdLine[3]),
+                    cmdLine.length > 4 ? Integer.parseInt(cmdLine[4]) :
+                            RouterConstants.DEFAULT_TRAFFIC_PAYLOAD_BYTES);
+
+        } else if (command.startsWith("ping ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processPing(cmdLine[1], cmdLine.length > 2 ? Integer.parseInt(cmdLine[2]) :
+                    RouterConstants.DEFAULT_PING_COUNT);
+
+        } else if (command.startsWith("traceroute ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processTraceroute(cmdLine[1]);
+
+        } else if (command.startsWith("analyze ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processAnalyze(cmdLine[1], cmdLine.length > 2 ? cmdLine[2] : null);
+
+        } else if (command.startsWith("export ")) {
+            System.out.println("");
+            String[] cmdLine = command.split(" ");
+            processExport(cmdLine[1], cmdLine[2]);
+
+        } else if (command.equals("querystats")) {
+            System.out.println("");
+            prnt(queryServer == null ? "[QUERY] The query server is not enabled on this router." :
+                    queryServer.getStatistics());
+
+        } else if (command.startsWith("dpstats")) {
+            System.out.println("");
+            printDataPlaneStats(command.equals("dpstats reset"));
+
+        } else {
+            System.out.println("Invalid Command.");
+            //invalid command
+            return false;
+        }
+        return true;
+    }
+
     /**
      *
      */
@@ -699,6 +1391,154 @@ public class Router {
 //        short port = nextFreeHostPort(RouterConstants.MIN_PORT_NUMBER, RouterConstants.MAX_PORT_NUMBER);
 //        rd.processPortNumber = port;
         this.routerServer.startRouterServer();
+        this.timerWheel.start();
+        if (!controlTransport.start()) {
+            prnt("[WARN] Falling back to TCP for the control messages.");
+            controlTransport = controlTransport instanceof FaultInjectingTransport ?
+                    ((FaultInjectingTransport) controlTransport).wrap(new TcpControlTransport(this)) :
+                    new TcpControlTransport(this);
+            controlTransport.start();
+        }
+        scheduleHelloKeepalive();
+        this.lastAgingNanos = System.nanoTime();
+        scheduleLSAAging();
+        if (livenessDetector != null && !livenessDetector.start()) {
+            livenessDetector = null;
+        }
+        if (dataPlane != null && !dataPlane.start()) {
+            dataPlane = null;
+        }
+        if (queryServer != null && !queryServer.start()) {
+            queryServer = null;
+        }
+    }
+
+    /**
+     * Starts sending data packets to the given destination through the data plane.
+     *
+     * @param destinationIP   the simulated IP of the destination router.
+     * @param packetsPerSec   the rate at which packets are sent.
+     * @param durationSeconds how long the traffic is sent for.
+     * @param payloadSize     the no of payload bytes per packet.
+     */
+    private void processTraffic(String destinationIP, int packetsPerSec, int durationSeconds, int payloadSize) {
+        if (dataPlane == null) {
+            prnt("[TRAFFIC] The data plane is not enabled on this router.");
+            return;
+        }
+        int flowId = dataPlane.startTraffic(destinationIP, packetsPerSec, durationSeconds, payloadSize);
+        prnt("[TRAFFIC] Started flow " + flowId + " to " + destinationIP + " at " + packetsPerSec + " pkt/s for " +
+                durationSeconds + "s.");
+    }
+
+    /**
+     * Pings the given destination through the data plane and prints the round trip time of every echo request along
+     * with their min/avg/p99.
+     *
+     * @param destinationIP the simulated IP of the destination router.
+     * @param count         the no of echo requests to send.
+     */
+    private void processPing(String destinationIP, int count) {
+        if (dataPlane == null) {
+            prnt("[PING] The data plane is not enabled on this router.");
+            return;
+        }
+        new EchoProber(dataPlane, RouterConstants.PROBE_TIMEOUT_MILLIS).ping(destinationIP, count,
+                RouterConstants.PING_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Traces the hops on the current path to the given destination through the data plane, printing the measured
+     * round trip time to each of them.
+     *
+     * @param destinationIP the simulated IP of the destination router.
+     */
+    private void processTraceroute(String destinationIP) {
+        if (dataPlane == null) {
+            prnt("[TRACEROUTE] The data plane is not enabled on this router.");
+            return;
+        }
+        new EchoProber(dataPlane, RouterConstants.PROBE_TIMEOUT_MILLIS).traceroute(destinationIP,
+                RouterConstants.TRACEROUTE_MAX_HOPS, RouterConstants.TRACEROUTE_PROBES_PER_HOP);
+    }
+
+    /**
+     * Routes the demands in the given file over the current topology and prints the load and utilization of the most
+     * utilized links. SPF runs on a snapshot of the LSD, so the router keeps processing updates meanwhile.
+     *
+     * @param demandFile the file with the traffic matrix (and optional link capacities).
+     * @param outputFile the CSV file to write the load of every link to; null to only print the summary.
+     */
+    private void processAnalyze(String demandFile, String outputFile) {
+        TopologyGraph graph;
+        synchronized (this) {
+            graph = this.lsd.buildTopologyGraph();
+        }
+
+        TrafficMatrixAnalyzer analyzer = new TrafficMatrixAnalyzer(graph, defaultLinkCapacity,
+                this.lsd.maxEcmpPaths);
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            analyzer.loadDemands(Paths.get(demandFile));
+            TrafficMatrixAnalyzer.Result result = analyzer.analyze(pool);
+            System.out.print(result.summarize(RouterConstants.ANALYSIS_REPORTED_LINKS));
+            if (outputFile != null) {
+                result.writeCsv(Paths.get(outputFile));
+                prnt("Link loads written to [" + outputFile + "].");
+            }
+        } catch (IOException e) {
+            log.error("An error occurred whilst reading the demands or writing the link loads.", e);
+        } catch (IllegalArgumentException e) {
+            prnt("[ANALYZE] " + e.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Streams the topology and the routing tables of all routers to files. SPF runs on a snapshot of the LSD, so
+     * the router keeps processing updates meanwhile.
+     *
+     * @param format     "csv" or "bin".
+     * @param pathPrefix the prefix of the files to write; ".topology" and ".routes" plus the format are appended.
+     */
+    private void processExport(String format, String pathPrefix) {
+        if (!format.equals("csv") && !format.equals("bin")) {
+            prnt("[EXPORT] Unknown format [" + format + "]; expected csv or bin.");
+            return;
+        }
+        TopologyGraph graph;
+        synchronized (this) {
+            graph = this.lsd.buildTopologyGraph();
+        }
+
+        RoutingTableExporter exporter = new RoutingTableExporter(graph, format.equals("bin"), this.lsd.maxEcmpPaths);
+        int noOfThreads = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(noOfThreads);
+        try {
+            long startNanos = System.nanoTime();
+            exporter.exportTopology(Paths.get(pathPrefix + ".topology." + format));
+            long noOfRows = exporter.exportRoutes(Paths.get(pathPrefix + ".routes." + format), executor, noOfThreads);
+            prnt("Exported " + graph.getNoOfNodes() + " routers and " + noOfRows + " routes in " +
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos) + " ms.");
+        } catch (IOException e) {
+            log.error("An error occurred whilst exporting the routing tables.", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Prints (or resets) the data plane counters and the statistics of the generated and received flows.
+     */
+    private void printDataPlaneStats(boolean reset) {
+        if (dataPlane == null) {
+            prnt("[TRAFFIC] The data plane is not enabled on this router.");
+        } else if (reset) {
+            dataPlane.resetStatistics();
+        } else {
+            System.out.print(dataPlane.getStatistics());
+        }
     }
 
 
@@ -707,7 +1547,9 @@ public class Router {
             LSA lsa = this.lsd._store.get(lsaEntry);
             System.out.println("--------------------------------------------------");
             System.out.println("       RouterIP      :   " + lsaEntry);
-            System.out.println("       OriginatorIP  :   " + lsa.linkStateID);
+            System.out.println("       OriginatorIP  :   " + lsa.getOriginator());
+            System.out.println("       Area          :   " + lsa.areaId + (lsa.isSummary ? " (summary)" : ""));
+            System.out.println("       Age (seconds) :   " + lsa.lsaAge);
             System.out.println("..................................................");
 
             for (LinkDescription linkDes : lsa.links) {
@@ -736,35 +1578,31 @@ public class Router {
      *
      */
     private void printPortInfo() {
-        for (int portNo = 0; portNo < 4; portNo++) {
-            Link linkOnPort = ports[portNo];
-            if (linkOnPort != null) {
-                RouterDescription linkedRouter = linkOnPort.getDestinationRouterDesc();
-                String processIPAddress = linkedRouter.processIPAddress;
-                short processPortNumber = linkedRouter.processPortNumber;
-                String simulatedIPAddress = linkedRouter.simulatedIPAddress;
-                RouterStatus status = linkedRouter.status;
-                String statusString = "NULL";
-
-                if (status == RouterStatus.INIT) {
-                    statusString = "INIT";
-                } else if (status == RouterStatus.TWO_WAY) {
-                    statusString = "TWO_WAY";
-                }
-                short linkWeight = linkOnPort.getLinkWeight();
-
-                System.out.println("-------------------------------------------");
-                System.out.println("    ON ROUTER PORT: " + portNo);
-                System.out.println("    PROCESS IP: " + processIPAddress);
-                System.out.println("    PROCESS PORT: " + processPortNumber);
-                System.out.println("    SIMULATED IP: " + simulatedIPAddress);
-                System.out.println("    STATUS: " + statusString);
-                System.out.println("    LINK WEIGHT: " + linkWeight);
-                System.out.println("-------------------------------------------");
-            } else {
-                System.out.println("PORT " + portNo + " is free.");
+        for (Link linkOnPort : ports.links()) {
+            RouterDescription linkedRouter = linkOnPort.getDestinationRouterDesc();
+            String processIPAddress = linkedRouter.processIPAddress;
+            short processPortNumber = linkedRouter.processPortNumber;
+            String simulatedIPAddress = linkedRouter.simulatedIPAddress;
+            RouterStatus status = linkedRouter.status;
+            String statusString = "NULL";
+
+            if (status == RouterStatus.INIT) {
+                statusString = "INIT";
+            } else if (status == RouterStatus.TWO_WAY) {
+                statusString = "TWO_WAY";
             }
+            short linkWeight = linkOnPort.getLinkWeight();
+
+            System.out.println("-------------------------------------------");
+            System.out.println("    ON ROUTER PORT: " + ports.indexOf(simulatedIPAddress));
+            System.out.println("    PROCESS IP: " + processIPAddress);
+            System.out.println("    PROCESS PORT: " + processPortNumber);
+            System.out.println("    SIMULATED IP: " + simulatedIPAddress);
+            System.out.println("    STATUS: " + statusString);
+            System.out.println("    LINK WEIGHT: " + linkWeight);
+            System.out.println("-------------------------------------------");
         }
+        System.out.println((ports.getMaxPorts() - ports.size()) + " of " + ports.getMaxPorts() + " PORTS are free.");
     }
 
     /**
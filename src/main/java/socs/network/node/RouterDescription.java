@@ -8,4 +8,6 @@ public class RouterDescription {
   public String simulatedIPAddress;
   //status of the router
   public RouterStatus status;
+  //the area of the router; 0 is the backbone
+  public int areaId;
 }
@@ -33,14 +33,26 @@ public class RouterManager {
         }
 
         try {
-            String routerIP = determineIPAddress();
-
-            Router router = new Router(new Configuration(args[0]), routerIP);
+            // the process IP can be given in the configuration so that the router starts without any input.
+            Configuration config = new Configuration(args[0]);
+            String routerIP = config.hasPath("socs.network.router.processIP") ?
+                    config.getString("socs.network.router.processIP") : determineIPAddress();
+            boolean isHeadless = config.hasPath("socs.network.router.headless") &&
+                    config.getBoolean("socs.network.router.headless");
+
+            Router router = new Router(config, routerIP);
             log.info("The simulated address of this router is: " + router.getRd().simulatedIPAddress);
 
             router.startServer();
             Thread.sleep(1000);
-            router.terminal();
+            router.bootstrap();
+            if (isHeadless) {
+                // a headless router runs until a startup command quits it or the process is killed.
+                log.info("Running headless; the terminal is disabled.");
+                Thread.sleep(Long.MAX_VALUE);
+            } else {
+                router.terminal();
+            }
 
         } catch (SocketException e) {
             log.error("An error occurred whilst trying to get the IP address of the network device.", e);
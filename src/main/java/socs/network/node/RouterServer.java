@@ -3,6 +3,7 @@ package socs.network.node;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import socs.network.message.LSA;
+import socs.network.message.LSACompressor;
 import socs.network.message.LinkDescription;
 import socs.network.message.SOSPFPacket;
 import socs.network.util.RouterUtils;
@@ -17,6 +18,7 @@ import java.util.LinkedList;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Class for Router when acting as server. This class starts the server that listens for all incoming connections.
@@ -29,9 +31,11 @@ class RouterServer {
     // this is essential to access the router attributes like router-description, LSD etc.
     private final Router myRouter;
     // the socket in which this server is listening for incoming connections.
-    private ServerSocket serverSocket;
+    private volatile ServerSocket serverSocket;
     // the port of this ServerSocket.
     private short serverPort;
+    // cleared when the server is stopped, so that the closing of the ServerSocket is not reported as an error.
+    private volatile boolean isRunning = true;
     // executor service with a thread pool to assign each incoming request to.
     private final ExecutorService clientProcessingPool = Executors.
             newFixedThreadPool(RouterConstants.SERVER_THREAD_POOL_COUNT);
@@ -61,13 +65,20 @@ class RouterServer {
 
                     // listen for incoming connection continuously
                     // for every incoming request, create a new socket and assign it to a new thread in the pool.
-                    while (true) {
+                    while (isRunning) {
                         Socket clientSocket = serverSocket.accept();
-                        clientProcessingPool.submit(new ClientRequest(clientSocket));
+                        try {
+                            clientProcessingPool.submit(new ClientRequest(clientSocket));
+                        } catch (RejectedExecutionException e) {
+                            // the server was stopped while the connection was being accepted.
+                            RouterUtils.releaseSocket(clientSocket);
+                        }
                     }
                 } catch (IOException e) {
-                    log.error("Unable to process client request");
-                    e.printStackTrace();
+                    if (isRunning) {
+                        log.error("Unable to process client request");
+                        e.printStackTrace();
+                    }
                 }
             }
         };
@@ -76,11 +87,394 @@ class RouterServer {
     }
 
     /**
-     * Utility method to shorten the code-line length when printing out logs.
-     * @param string the string to be printed/logged.
+     * Stops listening for incoming connections and stops the threads processing them.
+     */
+    void stopRouterServer() {
+        isRunning = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                log.error("An error occurred whilst closing the server socket on PORT: " + serverPort, e);
+            }
+        }
+        clientProcessingPool.shutdownNow();
+    }
+
+    /**
+     * Hands a control message received by a message transport (UDP or shared memory) to the thread pool. One-way
+     * messages are processed as if they were received by the TCP server; HELLOs are processed according to their
+     * stage in the exchange, since the HELLOs of an exchange do not share a connection.
+     *
+     * @param sospfPacket the received message.
+     * @param transport   the transport through which HELLO replies are sent.
+     */
+    void dispatchMessage(final SOSPFPacket sospfPacket, final ControlTransport transport) {
+        capture(sospfPacket);
+        clientProcessingPool.submit(new Runnable() {
+            @Override
+            public void run() {
+                if (sospfPacket.sospfType == RouterConstants.HELLO_PACKET) {
+                    handleStagedHello(sospfPacket, transport);
+                } else {
+                    handleOneWayMessage(sospfPacket);
+                }
+            }
+        });
+    }
+
+    /**
+     * Processes a captured message on the calling thread, as if it had just been received. Only messages that need
+     * no reply are replayed: ATTACH and HELLO are part of an exchange with a live neighbor.
+     *
+     * @param sospfPacket the captured message.
+     * @return false if the message was skipped.
+     */
+    boolean replayMessage(SOSPFPacket sospfPacket) {
+        if (sospfPacket.sospfType == RouterConstants.ATTACH_PACKET ||
+                sospfPacket.sospfType == RouterConstants.HELLO_PACKET) {
+            return false;
+        }
+        handleOneWayMessage(sospfPacket);
+        return true;
+    }
+
+    private void capture(SOSPFPacket sospfPacket) {
+        PacketCapture packetCapture = myRouter.packetCapture;
+        if (packetCapture != null) {
+            packetCapture.record(sospfPacket);
+        }
+    }
+
+    /**
+     * Processes a message that needs no reply, whichever transport it arrived on.
+     *
+     * @param sospfPacket the incoming message.
+     */
+    private void handleOneWayMessage(SOSPFPacket sospfPacket) {
+        switch (sospfPacket.sospfType) {
+            case RouterConstants.LSUPDATE_PACKET:
+                processLSUPDATE(sospfPacket);
+                break;
+            case RouterConstants.DISCONNECT_PACKET:
+            case RouterConstants.EXIT_PACKET:
+                processNodeExitOrDisconnect(sospfPacket);
+                break;
+            case RouterConstants.HELLO_KEEPALIVE_PACKET:
+                handleHelloKeepalive(sospfPacket);
+                break;
+        }
+    }
+
+    /**
+     * Method to handle a HELLO received over a message transport. The first HELLO of an exchange is answered like
+     * on the TCP server; the confirming HELLO completes the exchange and triggers the LSUPDATE. Replies to the HELLOs
+     * this router sent are picked up by the transport itself.
+     *
+     * @param sospfPacket the incoming HELLO.
+     * @param transport   the transport through which the reply is sent.
+     */
+    private void handleStagedHello(SOSPFPacket sospfPacket, ControlTransport transport) {
+        String connectedSimIP = sospfPacket.srcIP;
+        if (!sospfPacket.dstIP.equals(myRouter.getRd().simulatedIPAddress)) {
+            myRouter.eventLog.log(EventLog.EventType.HELLO_WRONG_DESTINATION, sospfPacket.dstIP);
+            return;
+        }
+        Link attachedLink = myRouter.ports.get(connectedSimIP);
+        if (attachedLink == null) {
+            myRouter.eventLog.log(EventLog.EventType.HELLO_NOT_ATTACHED, connectedSimIP);
+            return;
+        }
+
+        if (sospfPacket.helloStage == RouterConstants.HELLO_STAGE_FIRST) {
+            myRouter.eventLog.log(EventLog.EventType.HELLO_RECEIVED, connectedSimIP);
+            SOSPFPacket sospfReplyPacket = acceptFirstHello(sospfPacket, attachedLink);
+            sospfReplyPacket.helloStage = RouterConstants.HELLO_STAGE_REPLY;
+            transport.send(attachedLink.getDestinationRouterDesc(), sospfReplyPacket, RouterConstants.HELLO_STRING);
+        } else if (sospfPacket.helloStage == RouterConstants.HELLO_STAGE_CONFIRM) {
+            handleSecondHello(sospfPacket);
+            myRouter.broadcastLSUPDATE();
+        }
+    }
+
+    /**
+     * Processes the first HELLO of an exchange initiated by a connected router: sets the STATUS of the calling router
+     * to "INIT", takes over the weight it set for the link and keeps its LSD summary for the LSUPDATE that follows.
+     *
+     * @param sospfPacket  the incoming HELLO message packet to be processed.
+     * @param attachedLink the link of this router to the calling router.
+     * @return the HELLO to reply with, carrying the summary of this router's LSD.
+     */
+    private SOSPFPacket acceptFirstHello(SOSPFPacket sospfPacket, Link attachedLink) {
+        String connectedSimIP = sospfPacket.srcIP;
+        RouterDescription myRouterDesc = myRouter.getRd();
+        String mySimulatedIP = myRouterDesc.simulatedIPAddress;
+
+        // set status of the calling router to "INIT" and keep its LSD summary for the LSUPDATE that follows.
+        attachedLink.getDestinationRouterDesc().status = RouterStatus.INIT;
+        attachedLink.getDestinationRouterDesc().areaId = sospfPacket.areaId;
+        myRouter.updateAreaBorderRouterStatus();
+        attachedLink.setNeighborLSDSummary(sospfPacket.lsdSummary);
+        attachedLink.setCompressionNegotiated(myRouter.isCompressionEnabled() && sospfPacket.acceptsCompression);
+        myRouter.eventLog.log(EventLog.EventType.STATE_INIT, connectedSimIP);
+
+        int linkWeight = 0;
+        for (LSA lsaOfConnectingRouter : sospfPacket.lsaArray) {
+            String ipOfLSA = lsaOfConnectingRouter.linkStateID;
+            if (ipOfLSA.equals(connectedSimIP)) {
+                for (LinkDescription linkDes : lsaOfConnectingRouter.links) {
+                    if (linkDes.linkID.equals(mySimulatedIP)) {
+                        linkWeight = linkDes.tosMetrics;
+                    }
+                }
+
+                synchronized (myRouter){
+                    LSA myLSA = myRouter.lsd._store.get(mySimulatedIP);
+                    for (LinkDescription linkDes : myLSA.links) {
+                        if (linkDes.linkID.equals(connectedSimIP)) {
+                            linkDes.tosMetrics = linkWeight;
+                        }
+                    }
+                    myLSA.updateChecksum();
+                    attachedLink.setLinkWeight((short) linkWeight);
+                }
+            }
+        }
+
+        // reply with a HELLO message carrying the summary of this router's LSD.
+        SOSPFPacket sospfReplyPacket =
+                RouterUtils.createNewPacket(myRouterDesc, connectedSimIP, RouterConstants.HELLO_PACKET);
+        synchronized (myRouter) {
+            sospfReplyPacket.lsdSummary = myRouter.lsd.getSummary();
+        }
+        sospfReplyPacket.acceptsCompression = myRouter.isCompressionEnabled();
+        return sospfReplyPacket;
+    }
+
+    /**
+     * Method that handles the second HELLO message in the HELLO_EXCHANGE sequence. Sets the calling router
+     * status to "TWO_WAY".
+     *
+     * @param sospfPacket_2 the incoming packet with the second HELLO message.
+     */
+    private void handleSecondHello(SOSPFPacket sospfPacket_2) {
+        String connectedSimIP = sospfPacket_2.srcIP;
+        myRouter.eventLog.log(EventLog.EventType.HELLO_RECEIVED, connectedSimIP);
+
+        synchronized (myRouter) {
+            Link link = myRouter.ports.get(connectedSimIP);
+            if (link != null) {
+                // set status of the communicating router to TWO_WAY and start watching it for liveness.
+                link.getDestinationRouterDesc().status = RouterStatus.TWO_WAY;
+                myRouter.eventLog.log(EventLog.EventType.STATE_TWO_WAY, connectedSimIP);
+                myRouter.adjacencyUp(link);
+            }
+        }
+    }
+
+    /**
+     * Method to handle a periodic HELLO keepalive from a neighbour. Re-arms the dead-interval timer of the
+     * sending router so that the adjacency is kept alive. Keepalives from routers that are not attached to this
+     * router are ignored.
+     *
+     * @param sospfPacket the incoming HELLO keepalive packet.
+     */
+    private void handleHelloKeepalive(SOSPFPacket sospfPacket) {
+        String connectedSimIP = sospfPacket.srcIP;
+        boolean isNeighbour = myRouter.resetDeadTimer(connectedSimIP);
+        if (myRouter.printFlag) {
+            if (isNeighbour) {
+                myRouter.eventLog.log(EventLog.EventType.HELLO_KEEPALIVE_RECEIVED, connectedSimIP);
+            } else {
+                myRouter.eventLog.log(EventLog.EventType.HELLO_KEEPALIVE_IGNORED, connectedSimIP);
+            }
+        }
+    }
+
+    /**
+     * Method that handles an LSUPDATE (Link-State Update) packet received from any of the connected routers.
+     * Loops through all the Link-State-Advertisements (LSA) in the message. Verifies whether each of them has a
+     * newer sequence-number than what's already held in this router's local Link-State-Database (LSD). If an LSA
+     * with newer sequence-number is found updates LSD else disregards LSA. Also, checks if LSA denotes a node
+     * that EXIT the network. If so, removes LSA of that node from local LSD.
+     *
+     * Updates the local Topology Graph that maintains all connections in the network and runs Djiskstra's Algo
+     * to deduce the new routing table after the LSD updates. Finally forwards the LSUPDATE packet to all
+     * neighbours except the one from which it was received.
+     *
+     * @param sospfPacket the incoming LSUPDATE packet with the list of LSA's to be updated.
+     */
+    private void processLSUPDATE(SOSPFPacket sospfPacket) {
+        myRouter.noOfLSUpdatesReceived.incrementAndGet();
+        String sourceIP = sospfPacket.srcIP;
+        if (myRouter.printFlag) {
+            myRouter.eventLog.log(EventLog.EventType.LSUPDATE_RECEIVED, sourceIP);
+        }
+
+        if (sospfPacket.compressedLSAs != null) {
+            try {
+                sospfPacket.lsaArray = LSACompressor.decompress(sospfPacket.compressedLSAs);
+                sospfPacket.compressedLSAs = null;
+            } catch (IOException e) {
+                log.error("Discarding an LSUPDATE from [" + sourceIP + "] whose LSAs could not be decompressed.", e);
+                return;
+            }
+        }
+
+        Vector<LSA> lsaVector = sospfPacket.lsaArray;
+        String mySimulatedIP = myRouter.getRd().simulatedIPAddress;
+
+        // check if this LSUPDATE packet was one that was initiated by this router itself.
+        if (!sospfPacket.routerID.equals(mySimulatedIP)) {
+            // check if the TTL of this LSUPDATE packet has expired.
+            if (sospfPacket.timeToLive > System.currentTimeMillis()) {
+                // whether any LSA changed the topology, as opposed to only superseding an LSA with the same contents.
+                boolean isTopologyChanged = false;
+                // whether any LSA was installed at all, as opposed to every LSA being stale or a duplicate.
+                boolean isLSAInstalled = false;
+                // LSAs are only flooded within their area, so those of other areas are not accepted from the sender.
+                Link senderLink = myRouter.ports.get(sourceIP);
+                synchronized (myRouter) {
+                    // loop through each LSA in the LSUPDATE packet
+                    for (LSA lsa : lsaVector) {
+                        String lsaLinkID = lsa.linkStateID;
+                        if (senderLink != null && lsa.areaId != senderLink.getAreaId()) {
+                            continue;
+                        }
+                        // check if the LSA in the LSUPDATE was originated by this router; process only if it's not.
+                        // LSAs that already reached MaxAge are on their way out and are never re-installed.
+                        if (!lsa.getOriginator().equals(mySimulatedIP) && myRouter.lsd.isBelowMaxAge(lsa)) {
+                            LSA oldLSA = myRouter.lsd._store.get(lsaLinkID);
+                            // check if the sequence number of current LSA is greater than whats already in the LSD
+                            // update only if sequence number is greater than what's already there.
+                            if (oldLSA == null || oldLSA.lsaSeqNumber < lsa.lsaSeqNumber) {
+                                if (lsa.hasQuitNetwork) {
+                                    // if lsa is marked as that of a node that QUIT the network, then remove its
+                                    // LSA from the local LSD.
+                                    boolean isRemoved = myRouter.lsd._store.remove(lsaLinkID) != null;
+                                    isTopologyChanged |= isRemoved;
+                                    isLSAInstalled |= isRemoved;
+                                } else {
+                                    isTopologyChanged |= oldLSA == null || !oldLSA.hasSameContents(lsa);
+                                    isLSAInstalled = true;
+                                    myRouter.lsd._store.put(lsaLinkID, lsa);
+                                    if (lsa.isSummary) {
+                                        continue;
+                                    }
+
+                                    LSA myLSA = myRouter.lsd._store.get(mySimulatedIP);
+                                    int myIndexInNewLSA = getLinkIndex(lsa.links, mySimulatedIP);
+                                    int hisIndexInMyLSA = getLinkIndex(myLSA.links, lsaLinkID);
+
+                                    if (myIndexInNewLSA != -1 && hisIndexInMyLSA != -1) {
+                                        int linkWeight = lsa.links.get(myIndexInNewLSA).tosMetrics;
+                                        LinkDescription myLinkDesc = myLSA.links.get(hisIndexInMyLSA);
+                                        if (myLinkDesc.tosMetrics != linkWeight) {
+                                            myLinkDesc.tosMetrics = linkWeight;
+                                            myLSA.updateChecksum();
+                                            isTopologyChanged = true;
+                                        }
+
+                                        Link link = myRouter.ports.get(lsaLinkID);
+                                        if (link != null) {
+                                            link.setLinkWeight((short) linkWeight);
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                    }
+
+                    // once the LSUPDATE message is processed, update the Topology Graph with the new updates and run
+                    // Djisktra's algorithm to calculate the shortest path routing table for this router. Updates
+                    // that only superseded LSAs with the same contents (refreshes) leave the topology as it is, so
+                    // the SPF result must never be one computed over an older LSD: it runs under the same lock.
+                    // Updates that installed nothing (stale or duplicate LSAs) leave the LSD and its version alone.
+                    if (isTopologyChanged) {
+                        myRouter.lsd.updateTopologyAndRoutingTable();
+                    } else if (isLSAInstalled) {
+                        myRouter.lsd.lsasRefreshed();
+                    }
+                }
+
+                if (myRouter.printFlag && isLSAInstalled) {
+                    myRouter.eventLog.log(EventLog.EventType.LSD_UPDATED);
+                    if (!isTopologyChanged) {
+                        myRouter.eventLog.log(EventLog.EventType.SPF_SKIPPED);
+                    }
+                }
+                // broadcast LSUPDATE to neighbouring nodes.
+                broadcastLSUPDATE(sospfPacket);
+//                    myRouter.broadcastLSUPDATE(sospfPacket);
+
+            } else {
+                if (myRouter.printFlag) {
+                    myRouter.eventLog.log(EventLog.EventType.LSUPDATE_EXPIRED);
+                }
+            }
+        } else {
+            if (myRouter.printFlag) {
+                myRouter.eventLog.log(EventLog.EventType.LSUPDATE_OWN);
+            }
+        }
+    }
+
+    /**
+     * Method to broadcast the received LSUPDATE message to all the neighbouring nodes except to the one from which
+     * the UPDATE was received.
+     *
+     * @param lsUpdatePacket the received LSUPDATE message that needs to be broadcast.
+     */
+    void broadcastLSUPDATE(SOSPFPacket lsUpdatePacket) {
+        String ipOfLsupdater = lsUpdatePacket.srcIP;
+        for (Link link : myRouter.ports.links()) {
+            final String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
+            if (!simulatedIP.equals(ipOfLsupdater)) {
+                RouterDescription destRouterDesc = link.getDestinationRouterDesc();
+                SOSPFPacket sospfPacket =
+                        RouterUtils.updatePacket(myRouter.getRd(), destRouterDesc.simulatedIPAddress,
+                                lsUpdatePacket);
+
+                myRouter.sendLSUPDATE(link, sospfPacket);
+            }
+        }
+    }
+
+    /**
+     * Method to process an EXIT or DISCONNECT message from a neighbouring node. Calls the corresponding method
+     * to remove the EXIT / DISCONNECTED node from the local ports array.
+     *
+     * @param sospfPacket the incoming EXIT/DISCONNECT message from the communicating device.
+     */
+    private void processNodeExitOrDisconnect(SOSPFPacket sospfPacket) {
+        String nodeSimulatedIP = sospfPacket.srcIP;
+        switch(sospfPacket.sospfType){
+            case RouterConstants.DISCONNECT_PACKET:
+                myRouter.removeFromPorts(nodeSimulatedIP, !(RouterConstants.QUITTER));
+                break;
+
+            case RouterConstants.EXIT_PACKET:
+                myRouter.removeFromPorts(nodeSimulatedIP, RouterConstants.QUITTER);
+                break;
+        }
+        myRouter.eventLog.log(EventLog.EventType.NODE_REMOVED, nodeSimulatedIP);
+    }
+
+    /**
+     * Utility method to get the index of the link-description of a given device in a Linked-List of
+     * link-descriptions.
+     *
+     * @param links Linked-List of LinkDescriptions from which the index of the given device is to be found.
+     * @param ipOfRouter the IP of the device whose index is to be found in the Linked-List.
+     * @return the index of the given device's LinkDescription in the Linked-List.
      */
-    private void prntStr(String string) {
-        System.out.println(string);
+    private int getLinkIndex(LinkedList<LinkDescription> links, String ipOfRouter) {
+        for (int index = 0; index < links.size(); index++) {
+            if (links.get(index).linkID.equals(ipOfRouter)) {
+                return index;
+            }
+        }
+        return -1;
     }
 
     // ---------------------------------------------------------------------------------------------------------------
@@ -113,6 +507,8 @@ class RouterServer {
         @Override
         public void run() {
             try {
+                // a client that stops half-way through an exchange must not hold on to a thread of the pool.
+                clientSocket.setSoTimeout(myRouter.getHelloTimeoutMillis());
                 this.socketWriter = new ObjectOutputStream(clientSocket.getOutputStream());
                 this.socketReader = new ObjectInputStream(clientSocket.getInputStream());
             } catch (IOException e) {
@@ -123,6 +519,7 @@ class RouterServer {
 
             try {
                 SOSPFPacket sospfPacket = (SOSPFPacket) socketReader.readObject();
+                capture(sospfPacket);
                 short messageType = sospfPacket.sospfType;
 
                 switch (messageType) {
@@ -132,14 +529,8 @@ class RouterServer {
                     case RouterConstants.HELLO_PACKET:
                         handleHelloExchange(sospfPacket);
                         break;
-                    case RouterConstants.LSUPDATE_PACKET:
-                        processLSUPDATE(sospfPacket);
-                        break;
-                    case RouterConstants.DISCONNECT_PACKET:
-                        processNodeExitOrDisconnect(sospfPacket);
-                        break;
-                    case RouterConstants.EXIT_PACKET:
-                        processNodeExitOrDisconnect(sospfPacket);
+                    default:
+                        handleOneWayMessage(sospfPacket);
                         break;
                 }
 
@@ -167,13 +558,12 @@ class RouterServer {
             String packetDestIP = sospfPacket.dstIP;
 
             if (myRouter.printFlag) {
-                prntStr("received an ATTACH request from " + connectedSimIP + ";");
+                myRouter.eventLog.log(EventLog.EventType.ATTACH_RECEIVED, connectedSimIP);
             }
 
             // checks if the message was intended for this router by checking the destination IP in the packet.
             if (!packetDestIP.equals(myRouter.getRd().simulatedIPAddress)) {
-                prntStr("[WARN] The destination IP " + packetDestIP + " of incoming HELLO packet " +
-                        "does not match mine.");
+                myRouter.eventLog.log(EventLog.EventType.HELLO_WRONG_DESTINATION, packetDestIP);
                 return;
             }
 
@@ -186,30 +576,27 @@ class RouterServer {
             try {
                 if (linkIndex != -1) {
                     // if a link to the calling router already exists then set PACKET-TYPE to "-1" and reply.
-                    prntStr("\n[WARN] This Router already has a link to router [" + connectedSimIP + "]" +
-                            " on port [" + linkIndex + "]\n");
-                    sospfReplyPacket.sospfType = -1;
-                    socketWriter.writeObject(sospfReplyPacket);
-
-                } else if (myRouter.noOfExistingLinks == RouterConstants.MAXIMUM_NO_OF_PORTS) {
-                    // if this router has already reached its maximum connection count then
-                    // set the PACKET-TYPE to "-1" and reply.
-                    prntStr("\n[WARN] This Router has already reached its maximum link-limit: " +
-                            RouterConstants.MAXIMUM_NO_OF_PORTS + "\nCannot add any more links.\n");
+                    myRouter.eventLog.log(EventLog.EventType.ATTACH_LINK_EXISTS, connectedSimIP, null, linkIndex);
                     sospfReplyPacket.sospfType = -1;
                     socketWriter.writeObject(sospfReplyPacket);
 
                 } else {
                     // If there exists no previous-link to the calling router and there are available ports in this
-                    // router, then create a new link; add it to this router's ports array and reply with PACKET-TYPE
-                    // set to "ATTACH_PACKET"[2].
+                    // router, then create a new link; add it to this router's ports and reply with PACKET-TYPE
+                    // set to "ATTACH_PACKET"[2]. If this router has already reached its maximum connection count
+                    // then set the PACKET-TYPE to "-1" and reply.
                     RouterDescription newRouterDescription = new RouterDescription();
                     newRouterDescription.processIPAddress = sospfPacket.srcProcessIP;
                     newRouterDescription.processPortNumber = sospfPacket.srcProcessPort;
                     newRouterDescription.simulatedIPAddress = connectedSimIP;
+                    newRouterDescription.areaId = sospfPacket.areaId;
                     Link newLink = new Link(myRouterDesc, newRouterDescription);
 
-                    myRouter.addToPorts(newLink);
+                    if (myRouter.addToPorts(newLink) == -1) {
+                        myRouter.eventLog.log(EventLog.EventType.ATTACH_PORTS_FULL, null, null,
+                                myRouter.ports.getMaxPorts());
+                        sospfReplyPacket.sospfType = -1;
+                    }
                     socketWriter.writeObject(sospfReplyPacket);
                 }
             } catch (IOException e) {
@@ -231,23 +618,22 @@ class RouterServer {
 
             // checks if the message was intended for this router by checking the destination IP in the packet.
             if (!packetDestIP.equals(myRouter.getRd().simulatedIPAddress)) {
-                prntStr("[WARN] The destination IP " + packetDestIP + " of incoming HELLO packet " +
-                        "does not match mine.");
+                myRouter.eventLog.log(EventLog.EventType.HELLO_WRONG_DESTINATION, packetDestIP);
                 return;
             }
 
             // print receipt of a "HELLO" message from the sending router.
-            prntStr("received HELLO from " + connectedSimIP + ";");
+            myRouter.eventLog.log(EventLog.EventType.HELLO_RECEIVED, connectedSimIP);
             // check if a link exists to the router who sent the HELLO message.
-            short linkIndex = myRouter.checkIfLinkExists(connectedSimIP);
+            Link attachedLink = myRouter.ports.get(connectedSimIP);
 
             try {
-                if (linkIndex == -1) {
+                if (attachedLink == null) {
                     // if there is no link to the router that sent a HELLO message, then print error and exit.
-                    prntStr("\n[ERROR] This router has not been properly attached to [" + connectedSimIP + "]");
+                    myRouter.eventLog.log(EventLog.EventType.HELLO_NOT_ATTACHED, connectedSimIP);
                 } else {
                     // if a link exists to the sending router, then call method to handle the first HELLO message.
-                    boolean status = handleFirstHello(sospfPacket, linkIndex);
+                    boolean status = handleFirstHello(sospfPacket, attachedLink);
                     if (status) {
                         // if the handling of first HELLO message was successful then read response from other end and
                         // invoke method to handle second HELLO message.
@@ -270,259 +656,21 @@ class RouterServer {
          * Method to handle any initial/first HELLO message from a connected router. Sets the STATUS of the calling
          * router to "INIT" and replies a HELLO packet to the calling router.
          *
-         * @param sospfPacket the incoming HELLO message packet to be processed.
-         * @param portNumber the port of this router on to which the calling router is connected to.
+         * @param sospfPacket  the incoming HELLO message packet to be processed.
+         * @param attachedLink the link of this router to the calling router.
          * @return true, if the successfully replied to calling router with HELLO packet; else false.
          */
-        private boolean handleFirstHello(SOSPFPacket sospfPacket, short portNumber) {
-            String connectedSimIP = sospfPacket.srcIP;
-            RouterDescription myRouterDesc = myRouter.getRd();
-            String mySimulatedIP = myRouterDesc.simulatedIPAddress;
-
-            Link attachedLink = myRouter.ports[portNumber];
-
-            // set status of the calling router to "INIT".
-            attachedLink.getDestinationRouterDesc().status = RouterStatus.INIT;
-            prntStr("set " + connectedSimIP + " state to INIT;");
-
-            int linkWeight = 0;
-            for (LSA lsaOfConnectingRouter : sospfPacket.lsaArray) {
-                String ipOfLSA = lsaOfConnectingRouter.linkStateID;
-                if (ipOfLSA.equals(connectedSimIP)) {
-                    for (LinkDescription linkDes : lsaOfConnectingRouter.links) {
-                        if (linkDes.linkID.equals(mySimulatedIP)) {
-                            linkWeight = linkDes.tosMetrics;
-                        }
-                    }
-
-                    synchronized (myRouter){
-                        LSA myLSA = myRouter.lsd._store.get(mySimulatedIP);
-                        for (LinkDescription linkDes : myLSA.links) {
-                            if (linkDes.linkID.equals(connectedSimIP)) {
-                                linkDes.tosMetrics = linkWeight;
-                            }
-                        }
-                        attachedLink.setLinkWeight((short) linkWeight);
-                    }
-                }
-            }
-
-            // reply with a HELLO message.
-            SOSPFPacket sospfReplyPacket =
-                    RouterUtils.createNewPacket(myRouterDesc, connectedSimIP, RouterConstants.HELLO_PACKET);
-
+        private boolean handleFirstHello(SOSPFPacket sospfPacket, Link attachedLink) {
+            SOSPFPacket sospfReplyPacket = acceptFirstHello(sospfPacket, attachedLink);
             try {
                 socketWriter.writeObject(sospfReplyPacket);
             } catch (IOException e) {
                 log.error("An IO error occurred whilst trying to reply back [HELLO] to HOST " +
-                        "[" + connectedSimIP + "] at PORT [" + sospfPacket.srcProcessPort + "].");
-                myRouter.removeFromPorts(connectedSimIP, false);
+                        "[" + sospfPacket.srcIP + "] at PORT [" + sospfPacket.srcProcessPort + "].");
+                myRouter.removeFromPorts(sospfPacket.srcIP, false);
                 return false;
             }
             return true;
         }
-
-        /**
-         * Method that handles the second HELLO message in the HELLO_EXCHANGE sequence. Sets the calling router
-         * status to "TWO_WAY".
-         *
-         * @param sospfPacket_2 the incoming packet with the second HELLO message.
-         */
-        private void handleSecondHello(SOSPFPacket sospfPacket_2) {
-            String connectedSimIP = sospfPacket_2.srcIP;
-            prntStr("received HELLO from " + connectedSimIP + ";");
-
-            synchronized (myRouter) {
-                Link[] routerPorts = myRouter.ports;
-                int noOfExistingLinks = myRouter.noOfExistingLinks;
-
-                for (short linkIndex = 0; linkIndex < noOfExistingLinks; linkIndex++) {
-                    Link link = routerPorts[linkIndex];
-                    RouterDescription connectingRouter = link.getDestinationRouterDesc();
-
-                    if (connectingRouter.simulatedIPAddress.equals(connectedSimIP)) {
-                        // set status of the communicating router to TWO_WAY.
-                        connectingRouter.status = RouterStatus.TWO_WAY;
-                        System.out.println("set " + connectedSimIP + " state to TWO_WAY;");
-                        break;
-                    }
-                }
-            }
-        }
-
-        /**
-         * Method that handles an LSUPDATE (Link-State Update) packet received from any of the connected routers.
-         * Loops through all the Link-State-Advertisements (LSA) in the message. Verifies whether each of them has a
-         * newer sequence-number than what's already held in this router's local Link-State-Database (LSD). If an LSA
-         * with newer sequence-number is found updates LSD else disregards LSA. Also, checks if LSA denotes a node
-         * that EXIT the network. If so, removes LSA of that node from local LSD.
-         *
-         * Updates the local Topology Graph that maintains all connections in the network and runs Djiskstra's Algo
-         * to deduce the new routing table after the LSD updates. Finally forwards the LSUPDATE packet to all
-         * neighbours except the one from which it was received.
-         *
-         * @param sospfPacket the incoming LSUPDATE packet with the list of LSA's to be updated.
-         */
-        private void processLSUPDATE(SOSPFPacket sospfPacket) {
-            String sourceIP = sospfPacket.srcIP;
-            if (myRouter.printFlag) {
-                prntStr("[LSUPDATE] received lsupdate from: " + sourceIP);
-            }
-
-            Vector<LSA> lsaVector = sospfPacket.lsaArray;
-            String mySimulatedIP = myRouter.getRd().simulatedIPAddress;
-
-            // check if this LSUPDATE packet was one that was initiated by this router itself.
-            if (!sospfPacket.routerID.equals(mySimulatedIP)) {
-                // check if the TTL of this LSUPDATE packet has expired.
-                if (sospfPacket.timeToLive > System.currentTimeMillis()) {
-                    synchronized (myRouter) {
-                        // loop through each LSA in the LSUPDATE packet
-                        for (LSA lsa : lsaVector) {
-                            String lsaLinkID = lsa.linkStateID;
-                            // check if the LSA in the LSUPDATE corresponds this router; process only if it's not.
-                            if (!lsaLinkID.equals(mySimulatedIP)) {
-                                LSA oldLSA = myRouter.lsd._store.get(lsaLinkID);
-                                // check if the sequence number of current LSA is greater than whats already in the LSD
-                                // update only if sequence number is greater than what's already there.
-                                if (oldLSA == null || oldLSA.lsaSeqNumber < lsa.lsaSeqNumber) {
-                                    if (lsa.hasQuitNetwork) {
-                                        // if lsa is marked as that of a node that QUIT the network, then remove its
-                                        // LSA from the local LSD.
-                                        myRouter.lsd._store.remove(lsaLinkID);
-                                    } else {
-                                        myRouter.lsd._store.put(lsaLinkID, lsa);
-
-                                        int myIndexInNewLSA = getLinkIndex(lsa.links, mySimulatedIP);
-                                        int hisIndexInMyLSA =
-                                                getLinkIndex(myRouter.lsd._store.get(mySimulatedIP).links, lsaLinkID);
-
-                                        if (myIndexInNewLSA != -1) {
-                                            int linkWeight = lsa.links.get(myIndexInNewLSA).tosMetrics;
-                                            myRouter.lsd._store.get(mySimulatedIP).
-                                                    links.get(hisIndexInMyLSA).tosMetrics = linkWeight;
-
-                                            int portNumber = myRouter.checkIfLinkExists(lsaLinkID);
-                                            if (portNumber != -1) {
-                                                myRouter.ports[portNumber].setLinkWeight((short) linkWeight);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                    }
-
-                    if (myRouter.printFlag) {
-                        prntStr("updated local LinkStateDatabase;");
-                    }
-
-                    // once the LSUPDATE message is processed, update the Topology Graph with the new updates and run
-                    // Djisktra's algorithm to calculate the shortest path routing table for this router.
-                    myRouter.lsd.updateTopologyAndRoutingTable();
-                    // broadcast LSUPDATE to neighbouring nodes.
-                    broadcastLSUPDATE(sospfPacket);
-//                    myRouter.broadcastLSUPDATE(sospfPacket);
-
-                } else {
-                    if (myRouter.printFlag) {
-                        prntStr("terminating LSUPDATE broadcast [TTL Expired]");
-                    }
-                }
-            } else {
-                if (myRouter.printFlag) {
-                    prntStr("terminating LSUPDATE broadcast [This update packet was initiated by me]");
-                }
-            }
-        }
-
-        /**
-         * Method to broadcast the received LSUPDATE message to all the neighbouring nodes except to the one from which
-         * the UPDATE was received.
-         *
-         * @param lsUpdatePacket the received LSUPDATE message that needs to be broadcast.
-         */
-        void broadcastLSUPDATE(SOSPFPacket lsUpdatePacket) {
-            String ipOfLsupdater = lsUpdatePacket.srcIP;
-            for (short linkIndex = 0; linkIndex < myRouter.noOfExistingLinks; linkIndex++) {
-                Link link = myRouter.ports[linkIndex];
-                final String simulatedIP = link.getDestinationRouterDesc().simulatedIPAddress;
-                if (!simulatedIP.equals(ipOfLsupdater)) {
-                    RouterDescription destRouterDesc = link.getDestinationRouterDesc();
-                    final String destinationRouterHostIP = destRouterDesc.processIPAddress;
-                    final short destinationRouterHostPort = destRouterDesc.processPortNumber;
-                    final SOSPFPacket sospfPacket =
-                            RouterUtils.updatePacket(myRouter.getRd(), destRouterDesc.simulatedIPAddress,
-                                    lsUpdatePacket);
-
-                    Socket aNewSocket;
-                    ObjectOutputStream socketWriter = null;
-                    String packetType = RouterConstants.LSUPDATE_STRING;
-
-                    try {
-                        aNewSocket = new Socket(destinationRouterHostIP, destinationRouterHostPort);
-                    } catch (IOException e) {
-                        log.error("[" + packetType + "] An error occurred whilst trying to establish Socket " +
-                                "connection to HOST [" + destinationRouterHostIP + "] at " +
-                                "PORT [" + destinationRouterHostPort + "]", e);
-                        return;
-                    }
-
-                    try {
-                        socketWriter = new ObjectOutputStream(aNewSocket.getOutputStream());
-                        socketWriter.writeObject(sospfPacket);
-
-                        if (myRouter.printFlag) {
-                            prntStr("A [" + packetType + "] message sent to router with IP: " +
-                                    sospfPacket.dstIP);
-                        }
-                    } catch (IOException e) {
-                        log.error("[" + packetType + "] An error occurred whilst trying to READ/WRITE to Socket " +
-                                "connection at HOST [" + destinationRouterHostIP + "] on " +
-                                "PORT [" + destinationRouterHostPort + "]", e);
-                    } finally {
-                        RouterUtils.releaseSocket(aNewSocket);
-                        RouterUtils.releaseWriter(socketWriter);
-                    }
-                }
-            }
-        }
-
-        /**
-         * Method to process an EXIT or DISCONNECT message from a neighbouring node. Calls the corresponding method
-         * to remove the EXIT / DISCONNECTED node from the local ports array.
-         *
-         * @param sospfPacket the incoming EXIT/DISCONNECT message from the communicating device.
-         */
-        private void processNodeExitOrDisconnect(SOSPFPacket sospfPacket) {
-            String nodeSimulatedIP = sospfPacket.srcIP;
-            switch(sospfPacket.sospfType){
-                case RouterConstants.DISCONNECT_PACKET:
-                    myRouter.removeFromPorts(nodeSimulatedIP, !(RouterConstants.QUITTER));
-                    break;
-
-                case RouterConstants.EXIT_PACKET:
-                    myRouter.removeFromPorts(nodeSimulatedIP, RouterConstants.QUITTER);
-                    break;
-            }
-            prntStr("removed node: " + nodeSimulatedIP + " and updated local LinkStateDatabase;");
-        }
-
-        /**
-         * Utility method to get the index of the link-description of a given device in a Linked-List of
-         * link-descriptions.
-         *
-         * @param links Linked-List of LinkDescriptions from which the index of the given device is to be found.
-         * @param ipOfRouter the IP of the device whose index is to be found in the Linked-List.
-         * @return the index of the given device's LinkDescription in the Linked-List.
-         */
-        private int getLinkIndex(LinkedList<LinkDescription> links, String ipOfRouter) {
-            for (int index = 0; index < links.size(); index++) {
-                if (links.get(index).linkID.equals(ipOfRouter)) {
-                    return index;
-                }
-            }
-            return -1;
-        }
     }
 }
@@ -0,0 +1,287 @@
+package socs.network.node;
+
+import socs.network.message.MessageCodec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Streams the topology and the all-pairs routing tables of a topology snapshot to files, as CSV or in a compact binary
+ * format. The routing table rows of a chunk of sources are computed in parallel and each chunk is written as soon as
+ * it completes (chunks may therefore appear in any order), so only the chunks in flight are ever held in memory and
+ * the n x n matrix is never materialised.
+ * <p/>
+ * CSV files have a header line. The binary formats are:
+ * <pre>
+ * topology: magic "STPB", version(2), no-of-nodes(4), node IDs, no-of-edges(4), (source(4), target(4), weight(4))*
+ * routes:   magic "SRTB", version(2), no-of-nodes(4), node IDs, then per source:
+ *           source(4), (distance(4), no-of-next-hops(1), next-hop(4)*) for every destination in index order
+ * </pre>
+ * Node IDs are encoded as in {@link MessageCodec}; nodes are referred to by their position in the ID table, and the
+ * distance of an unreachable destination is -1.
+ */
+class RoutingTableExporter {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int TOPOLOGY_MAGIC = 0x53545042; // "STPB"
+    private static final int ROUTES_MAGIC = 0x53525442; // "SRTB"
+    private static final short FORMAT_VERSION = 1;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MAX_SOURCES_PER_CHUNK = 64;
+    // rough size of the rows of a chunk; keeps the memory held by the chunks in flight bounded on large topologies.
+    private static final int CHUNK_TARGET_BYTES = 4 * 1024 * 1024;
+    private static final int ESTIMATED_ROW_BYTES = 40;
+
+    private final TopologyGraph graph;
+    private final boolean isBinary;
+    private final int maxNextHops;
+
+    /**
+     * @param graph       the topology snapshot to export.
+     * @param isBinary    true to write the binary format; false to write CSV.
+     * @param maxNextHops the maximum no of equal-cost next hops listed per destination.
+     */
+    RoutingTableExporter(TopologyGraph graph, boolean isBinary, int maxNextHops) {
+        this.graph = graph;
+        this.isBinary = isBinary;
+        this.maxNextHops = Math.min(maxNextHops, Byte.MAX_VALUE);
+    }
+
+    /**
+     * Writes every directed link of the topology with its weight.
+     *
+     * @param file the file to write to; replaced if it exists.
+     * @throws IOException if the file cannot be written.
+     */
+    void exportTopology(Path file) throws IOException {
+        try (FileChannel channel = openForWrite(file)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            if (isBinary) {
+                writeBinaryHeader(channel, buffer, TOPOLOGY_MAGIC);
+                ensureSpace(channel, buffer, 4);
+                buffer.putInt(graph.getNoOfEdges());
+            } else {
+                putString(channel, buffer, "source,target,weight\n");
+            }
+
+            for (int node = 0; node < graph.getNoOfNodes(); node++) {
+                for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    if (isBinary) {
+                        ensureSpace(channel, buffer, 12);
+                        buffer.putInt(node);
+                        buffer.putInt(graph.target(edge));
+                        buffer.putInt(graph.weight(edge));
+                    } else {
+                        putString(channel, buffer, graph.getNodeId(node) + "," +
+                                graph.getNodeId(graph.target(edge)) + "," + graph.weight(edge) + "\n");
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Computes the routing table of every router in the topology and writes one row per (source, destination) pair
+     * with the distance and the equal-cost next hops. The sources are processed in chunks on the given executor;
+     * at most two chunks per thread are in flight at any time.
+     *
+     * @param file        the file to write to; replaced if it exists.
+     * @param executor    the executor to compute the chunks on.
+     * @param noOfThreads the no of threads of the executor.
+     * @return the no of rows written.
+     * @throws IOException if the file cannot be written or a chunk failed.
+     */
+    long exportRoutes(Path file, ExecutorService executor, int noOfThreads) throws IOException {
+        int noOfNodes = graph.getNoOfNodes();
+        int sourcesPerChunk = Math.max(1, Math.min(MAX_SOURCES_PER_CHUNK,
+                CHUNK_TARGET_BYTES / Math.max(1, noOfNodes * ESTIMATED_ROW_BYTES)));
+        int noOfChunks = (noOfNodes + sourcesPerChunk - 1) / sourcesPerChunk;
+        int maxInFlight = Math.max(2, noOfThreads * 2);
+        CompletionService<ByteBuffer> completionService = new ExecutorCompletionService<>(executor);
+
+        try (FileChannel channel = openForWrite(file)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+            if (isBinary) {
+                writeBinaryHeader(channel, buffer, ROUTES_MAGIC);
+            } else {
+                putString(channel, buffer, "source,destination,distance,next_hops\n");
+            }
+            flush(channel, buffer);
+
+            int noOfSubmitted = 0;
+            for (int noOfWritten = 0; noOfWritten < noOfChunks; noOfWritten++) {
+                while (noOfSubmitted < noOfChunks && noOfSubmitted - noOfWritten < maxInFlight) {
+                    final int fromSource = noOfSubmitted * sourcesPerChunk;
+                    final int toSource = Math.min(noOfNodes, fromSource + sourcesPerChunk);
+                    completionService.submit(new Callable<ByteBuffer>() {
+                        @Override
+                        public ByteBuffer call() {
+                            return computeChunk(fromSource, toSource);
+                        }
+                    });
+                    noOfSubmitted++;
+                }
+
+                ByteBuffer chunk = completionService.take().get();
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted whilst exporting the routing tables.", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to compute the routing tables.", e.getCause());
+        }
+        return (long) noOfNodes * noOfNodes;
+    }
+
+    /**
+     * Runs SPF from every source in the given range and encodes their routing table rows.
+     */
+    private ByteBuffer computeChunk(int fromSource, int toSource) {
+        int noOfNodes = graph.getNoOfNodes();
+        TopologyGraph.ShortestPaths spf = new TopologyGraph.ShortestPaths(graph);
+        // next hops of every destination, maxNextHops slots per destination.
+        int[] nextHops = new int[noOfNodes * maxNextHops];
+        int[] noOfNextHops = new int[noOfNodes];
+        StringBuilder csvRows = isBinary ? null : new StringBuilder();
+        ByteBuffer binaryRows = isBinary ?
+                ByteBuffer.allocate((toSource - fromSource) * (4 + noOfNodes * (5 + 4 * maxNextHops))) : null;
+
+        for (int source = fromSource; source < toSource; source++) {
+            spf.run(source);
+            computeNextHops(spf, source, nextHops, noOfNextHops);
+
+            if (isBinary) {
+                binaryRows.putInt(source);
+            }
+            for (int destination = 0; destination < noOfNodes; destination++) {
+                boolean isReachable = spf.settleRank[destination] != -1;
+                int distance = isReachable ? spf.distance[destination] : -1;
+                if (isBinary) {
+                    binaryRows.putInt(distance);
+                    binaryRows.put((byte) noOfNextHops[destination]);
+                    for (int h = 0; h < noOfNextHops[destination]; h++) {
+                        binaryRows.putInt(nextHops[destination * maxNextHops + h]);
+                    }
+                } else {
+                    csvRows.append(graph.getNodeId(source)).append(',').append(graph.getNodeId(destination)).
+                            append(',').append(distance).append(',');
+                    for (int h = 0; h < noOfNextHops[destination]; h++) {
+                        csvRows.append(h == 0 ? "" : ";").
+                                append(graph.getNodeId(nextHops[destination * maxNextHops + h]));
+                    }
+                    csvRows.append('\n');
+                }
+            }
+        }
+
+        if (isBinary) {
+            binaryRows.flip();
+            return binaryRows;
+        }
+        return ByteBuffer.wrap(csvRows.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Derives the equal-cost next hops of every destination from the last SPF run: a neighbour of the source is its
+     * own next hop, any other node inherits the next hops of all its equal-cost predecessors. The next hops of a node
+     * are listed in the order of their IDs.
+     */
+    private void computeNextHops(TopologyGraph.ShortestPaths spf, int source, int[] nextHops, int[] noOfNextHops) {
+        Arrays.fill(noOfNextHops, 0);
+        for (int rank = 1; rank < spf.noOfSettled; rank++) {
+            int node = spf.settleOrder[rank];
+            for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                int predecessor = graph.target(edge);
+                int predecessorRank = spf.settleRank[predecessor];
+                if (predecessorRank == -1 || predecessorRank >= rank ||
+                        (long) spf.distance[predecessor] + graph.weight(edge) != spf.distance[node]) {
+                    continue;
+                }
+                if (predecessor == source) {
+                    addNextHop(nextHops, noOfNextHops, node, node);
+                } else {
+                    for (int h = 0; h < noOfNextHops[predecessor]; h++) {
+                        addNextHop(nextHops, noOfNextHops, node, nextHops[predecessor * maxNextHops + h]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a next hop to those of a node, kept in the order of their IDs. Like the routers, only the maxNextHops next
+     * hops with the lowest IDs are kept; as the IDs kept for the predecessors are the lowest of theirs, so are those
+     * inherited from them.
+     */
+    private void addNextHop(int[] nextHops, int[] noOfNextHops, int node, int nextHop) {
+        int base = node * maxNextHops;
+        String nextHopId = graph.getNodeId(nextHop);
+        int position = noOfNextHops[node];
+        while (position > 0) {
+            int order = nextHopId.compareTo(graph.getNodeId(nextHops[base + position - 1]));
+            if (order == 0) {
+                return;
+            } else if (order > 0) {
+                break;
+            }
+            position--;
+        }
+        if (position == maxNextHops) {
+            return;
+        }
+        int noOfKept = Math.min(noOfNextHops[node], maxNextHops - 1);
+        System.arraycopy(nextHops, base + position, nextHops, base + position + 1, noOfKept - position);
+        nextHops[base + position] = nextHop;
+        noOfNextHops[node] = noOfKept + 1;
+    }
+
+    private void writeBinaryHeader(FileChannel channel, ByteBuffer buffer, int magic) throws IOException {
+        ensureSpace(channel, buffer, 10);
+        buffer.putInt(magic);
+        buffer.putShort(FORMAT_VERSION);
+        buffer.putInt(graph.getNoOfNodes());
+        for (int node = 0; node < graph.getNoOfNodes(); node++) {
+            String nodeId = graph.getNodeId(node);
+            ensureSpace(channel, buffer, MessageCodec.sizeOf(nodeId));
+            MessageCodec.writeString(buffer, nodeId);
+        }
+    }
+
+    private static FileChannel openForWrite(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+    }
+
+    private static void putString(FileChannel channel, ByteBuffer buffer, String string) throws IOException {
+        byte[] bytes = string.getBytes(UTF8);
+        ensureSpace(channel, buffer, bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static void ensureSpace(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+        if (buffer.remaining() < size) {
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,674 @@
+package socs.network.node;
+
+import socs.network.message.MessageCodec;
+import socs.network.util.Configuration;
+import socs.network.util.RouterUtils;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Brings up generated networks ({@link TopologyGenerator}) of increasing size, then injects link failures and router
+ * quits one at a time, and records for every step how long the network took to converge, the no of LSUPDATEs and
+ * SPF runs it took and the peak heap usage.
+ * <p/>
+ * The routers either all run in this process, or each in a process of its own that is driven through its terminal
+ * and observed through its query port. The network counts as converged once every live router has an adjacency
+ * with each of its live neighbours in the plan, the routers that had to re-originate their LSAs did so, and all live
+ * routers hold the same LSD (same LSAs with the same sequence numbers) with an LSA for every live router. Failures
+ * and quits are picked at random (from the seed) among those that do not partition the network.
+ * <p/>
+ * Results are printed as a table and written to "results.csv" in the work directory.
+ * <p/>
+ * Usage: ScaleTestRunner &lt;shape&gt; [-sizes 10,50,100] [-mode inprocess|process] [-seed 1] [-failures 3]
+ * [-quits 1] [-timeout &lt;seconds per step, 120&gt;] [-dir &lt;work directory&gt;] [-basePort 20000]
+ * [-set key=value ...]
+ */
+public final class ScaleTestRunner {
+    private static final long IN_PROCESS_POLL_MILLIS = 20;
+    private static final long PROCESS_POLL_MILLIS = 100;
+    private static final int MAX_BOOTSTRAP_THREADS = 64;
+
+    private final String shape;
+    private final long seed;
+    private final boolean isInProcess;
+    private final int noOfFailures;
+    private final int noOfQuits;
+    private final long timeoutMillis;
+    private final Path workDirectory;
+    private final int basePort;
+    private final List<String> extraConfig;
+    private final PrintStream console;
+    private final List<String> csvRows = new ArrayList<>();
+
+    private ScaleTestRunner(String shape, long seed, boolean isInProcess, int noOfFailures, int noOfQuits,
+                            long timeoutMillis, Path workDirectory, int basePort, List<String> extraConfig,
+                            PrintStream console) {
+        this.shape = shape;
+        this.seed = seed;
+        this.isInProcess = isInProcess;
+        this.noOfFailures = noOfFailures;
+        this.noOfQuits = noOfQuits;
+        this.timeoutMillis = timeoutMillis;
+        this.workDirectory = workDirectory;
+        this.basePort = basePort;
+        this.extraConfig = extraConfig;
+        this.console = console;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || !TopologyGenerator.SHAPES.contains(args[0])) {
+            System.out.println("Usage: ScaleTestRunner <" + TopologyGenerator.SHAPES + "> [-sizes 10,50,100] " +
+                    "[-mode inprocess|process] [-seed 1] [-failures 3] [-quits 1] [-timeout 120] [-dir <path>] " +
+                    "[-basePort 20000] [-set key=value ...]");
+            System.exit(1);
+        }
+        Map<String, String> options = new HashMap<>();
+        List<String> extraConfig = new ArrayList<>();
+        for (int argIndex = 1; argIndex + 1 < args.length; argIndex += 2) {
+            if (args[argIndex].equals("-set")) {
+                extraConfig.add(args[argIndex + 1]);
+            } else {
+                options.put(args[argIndex], args[argIndex + 1]);
+            }
+        }
+        String[] sizes = (options.containsKey("-sizes") ? options.get("-sizes") : "10,50,100").split(",");
+        Path workDirectory = options.containsKey("-dir") ? Paths.get(options.get("-dir")) :
+                Files.createTempDirectory("scale-test");
+
+        // the same logging setup as a router started on its own.
+        System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
+        System.setProperty("org.apache.commons.logging.simplelog.defaultlog", "info");
+        System.setProperty("org.apache.commons.logging.simplelog.showdatetime", "true");
+        System.setProperty("org.apache.commons.logging.simplelog.dateTimeFormat", "HH:mm:ss");
+
+        ScaleTestRunner runner = new ScaleTestRunner(args[0], longOption(options, "-seed", 1),
+                !"process".equals(options.get("-mode")), (int) longOption(options, "-failures", 3),
+                (int) longOption(options, "-quits", 1), longOption(options, "-timeout", 120) * 1000, workDirectory,
+                (int) longOption(options, "-basePort", TopologyGenerator.DEFAULT_BASE_PORT), extraConfig,
+                System.out);
+        runner.console.println(String.format("%8s %8s  %-28s %12s %12s %12s %10s %10s %14s", "routers", "links",
+                "step", "converge(ms)", "lsu-sent", "lsu-recv", "spf-runs", "heap(MB)", "heap/router(KB)"));
+        runner.csvRows.add("routers,links,step,convergence_ms,lsupdates_sent,lsupdates_received,spf_runs," +
+                "peak_heap_bytes");
+
+        // routers running in this process print to its console; their output goes to a log instead.
+        PrintStream routerLog = null;
+        PrintStream originalErr = System.err;
+        if (runner.isInProcess) {
+            Files.createDirectories(workDirectory);
+            routerLog = new PrintStream(workDirectory.resolve("routers.log").toFile(), "UTF-8");
+            System.setOut(routerLog);
+            System.setErr(routerLog);
+        }
+        try {
+            for (String size : sizes) {
+                runner.runStep(Integer.parseInt(size.trim()));
+            }
+            Files.write(workDirectory.resolve("results.csv"), runner.csvRows, StandardCharsets.UTF_8);
+            runner.console.println("Results written to [" + workDirectory.resolve("results.csv") + "].");
+        } finally {
+            if (routerLog != null) {
+                System.setOut(runner.console);
+                System.setErr(originalErr);
+                routerLog.close();
+            }
+        }
+        System.exit(0);
+    }
+
+    private static long longOption(Map<String, String> options, String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    /**
+     * Brings up a network of the given size, injects the failures and quits and tears it down again.
+     */
+    private void runStep(int noOfRouters) throws IOException, InterruptedException {
+        TopologyGenerator.Plan plan = TopologyGenerator.generate(shape, noOfRouters, seed);
+        List<String> stepConfig = new ArrayList<>(extraConfig);
+        if (!isInProcess) {
+            // the query ports follow right after the process ports of all routers.
+            stepConfig.add("socs.network.router.query.enabled=true");
+            stepConfig.add("socs.network.router.query.portOffset=" + plan.noOfRouters);
+        }
+        Path stepDirectory = workDirectory.resolve(shape + "-" + plan.noOfRouters);
+        List<Path> configPaths = TopologyGenerator.writeConfigs(plan, stepDirectory, basePort, stepConfig);
+
+        Set<Integer> liveRouters = new TreeSet<>();
+        for (int router = 0; router < plan.noOfRouters; router++) {
+            liveRouters.add(router);
+        }
+        List<TopologyGenerator.PlannedLink> liveLinks = new ArrayList<>(plan.links);
+        Random random = new Random(seed);
+
+        RouterUtils.resetPeakHeapUsage();
+        Deployment deployment = isInProcess ? new InProcessDeployment(configPaths) :
+                new ProcessDeployment(configPaths, stepDirectory, basePort, plan.noOfRouters);
+        try {
+            RouterStats before = deployment.getTotalStats(liveRouters);
+            long startNanos = System.nanoTime();
+            deployment.start();
+            Map<String, Integer> lsdSummary = awaitConvergence(deployment, liveRouters, liveLinks,
+                    new HashSet<Integer>(), null);
+            report(deployment, plan, "up", startNanos, before, liveRouters, lsdSummary != null);
+
+            for (int failure = 0; failure < noOfFailures && lsdSummary != null; failure++) {
+                TopologyGenerator.PlannedLink link = pickLinkFailure(liveRouters, liveLinks, random);
+                if (link == null) {
+                    break;
+                }
+                before = deployment.getTotalStats(liveRouters);
+                startNanos = System.nanoTime();
+                deployment.disconnect(link.router, TopologyGenerator.routerId(link.otherRouter));
+                liveLinks.remove(link);
+                lsdSummary = awaitConvergence(deployment, liveRouters, liveLinks,
+                        new HashSet<>(Arrays.asList(link.router, link.otherRouter)), lsdSummary);
+                report(deployment, plan, "fail " + TopologyGenerator.routerId(link.router) + "-" +
+                        TopologyGenerator.routerId(link.otherRouter), startNanos, before, liveRouters,
+                        lsdSummary != null);
+            }
+
+            for (int quit = 0; quit < noOfQuits && lsdSummary != null; quit++) {
+                int quitter = pickQuit(liveRouters, liveLinks, random);
+                if (quitter == -1) {
+                    break;
+                }
+                Set<Integer> neighbors = new HashSet<>();
+                for (TopologyGenerator.PlannedLink link : new ArrayList<>(liveLinks)) {
+                    if (link.router == quitter || link.otherRouter == quitter) {
+                        neighbors.add(link.router == quitter ? link.otherRouter : link.router);
+                        liveLinks.remove(link);
+                    }
+                }
+                liveRouters.remove(quitter);
+                before = deployment.getTotalStats(liveRouters);
+                startNanos = System.nanoTime();
+                deployment.quit(quitter);
+                lsdSummary = awaitConvergence(deployment, liveRouters, liveLinks, neighbors, lsdSummary);
+                report(deployment, plan, "quit " + TopologyGenerator.routerId(quitter), startNanos, before,
+                        liveRouters, lsdSummary != null);
+            }
+        } finally {
+            deployment.close();
+        }
+    }
+
+    private void report(Deployment deployment, TopologyGenerator.Plan plan, String step, long startNanos,
+                        RouterStats before, Set<Integer> liveRouters, boolean isConverged) throws IOException {
+        long convergenceMillis = (System.nanoTime() - startNanos) / 1000000;
+        RouterStats after = deployment.getTotalStats(liveRouters);
+        long peakHeapBytes = deployment.getPeakHeapUsage();
+        console.println(String.format("%8d %8d  %-28s %12s %12d %12d %10d %10.1f %14.1f", plan.noOfRouters,
+                plan.links.size(), step, isConverged ? String.valueOf(convergenceMillis) : "timeout",
+                after.noOfLSUpdatesSent - before.noOfLSUpdatesSent,
+                after.noOfLSUpdatesReceived - before.noOfLSUpdatesReceived, after.noOfSpfRuns - before.noOfSpfRuns,
+                peakHeapBytes / 1048576.0, peakHeapBytes / 1024.0 / plan.noOfRouters));
+        csvRows.add(plan.noOfRouters + "," + plan.links.size() + "," + step + "," +
+                (isConverged ? convergenceMillis : -1) + "," + (after.noOfLSUpdatesSent - before.noOfLSUpdatesSent) +
+                "," + (after.noOfLSUpdatesReceived - before.noOfLSUpdatesReceived) + "," +
+                (after.noOfSpfRuns - before.noOfSpfRuns) + "," + peakHeapBytes);
+    }
+
+    /**
+     * Waits until the network converged as described in the class comment.
+     *
+     * @param advancedRouters the routers whose LSAs must have newer sequence numbers than in the previous LSD.
+     * @param previousSummary the LSD the network converged on before the step; null for the first step.
+     * @return the LSD summary the network converged on; null if it did not converge before the timeout.
+     */
+    private Map<String, Integer> awaitConvergence(Deployment deployment, Set<Integer> liveRouters,
+                                                  List<TopologyGenerator.PlannedLink> liveLinks,
+                                                  Set<Integer> advancedRouters, Map<String, Integer> previousSummary)
+            throws InterruptedException {
+        int[] expectedAdjacencies = new int[liveRouters.isEmpty() ? 0 : ((TreeSet<Integer>) liveRouters).last() + 1];
+        for (TopologyGenerator.PlannedLink link : liveLinks) {
+            expectedAdjacencies[link.router]++;
+            expectedAdjacencies[link.otherRouter]++;
+        }
+        Set<String> liveRouterIds = new HashSet<>();
+        for (int router : liveRouters) {
+            liveRouterIds.add(TopologyGenerator.routerId(router));
+        }
+
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            Map<String, Integer> lsdSummary = getConvergedSummary(deployment, liveRouters, expectedAdjacencies,
+                    liveRouterIds, advancedRouters, previousSummary);
+            if (lsdSummary != null) {
+                return lsdSummary;
+            }
+            Thread.sleep(isInProcess ? IN_PROCESS_POLL_MILLIS : PROCESS_POLL_MILLIS);
+        }
+        return null;
+    }
+
+    private Map<String, Integer> getConvergedSummary(Deployment deployment, Set<Integer> liveRouters,
+                                                     int[] expectedAdjacencies, Set<String> liveRouterIds,
+                                                     Set<Integer> advancedRouters,
+                                                     Map<String, Integer> previousSummary) {
+        Map<String, Integer> referenceSummary = null;
+        try {
+            for (int router : liveRouters) {
+                if (deployment.getStats(router).noOfAdjacencies != expectedAdjacencies[router]) {
+                    return null;
+                }
+            }
+            for (int router : liveRouters) {
+                Map<String, Integer> lsdSummary = deployment.getSummary(router);
+                if (referenceSummary == null) {
+                    if (!lsdSummary.keySet().equals(liveRouterIds)) {
+                        return null;
+                    }
+                    for (int advancedRouter : advancedRouters) {
+                        String advancedRouterId = TopologyGenerator.routerId(advancedRouter);
+                        if (previousSummary != null && lsdSummary.get(advancedRouterId) <=
+                                previousSummary.get(advancedRouterId)) {
+                            return null;
+                        }
+                    }
+                    referenceSummary = lsdSummary;
+                } else if (!lsdSummary.equals(referenceSummary)) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            // a router that is not answering yet has not converged either.
+            return null;
+        }
+        return referenceSummary;
+    }
+
+    /**
+     * @return a random live link whose failure leaves the network connected; null if there is none.
+     */
+    private static TopologyGenerator.PlannedLink pickLinkFailure(Set<Integer> liveRouters,
+                                                                 List<TopologyGenerator.PlannedLink> liveLinks,
+                                                                 Random random) {
+        List<TopologyGenerator.PlannedLink> candidates = new ArrayList<>(liveLinks);
+        while (!candidates.isEmpty()) {
+            TopologyGenerator.PlannedLink link = candidates.remove(random.nextInt(candidates.size()));
+            List<TopologyGenerator.PlannedLink> remainingLinks = new ArrayList<>(liveLinks);
+            remainingLinks.remove(link);
+            if (isConnected(liveRouters, remainingLinks)) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a random live router whose quit leaves the other routers connected; -1 if there is none.
+     */
+    private static int pickQuit(Set<Integer> liveRouters, List<TopologyGenerator.PlannedLink> liveLinks,
+                                Random random) {
+        List<Integer> candidates = new ArrayList<>(liveRouters);
+        while (candidates.size() > 1) {
+            int router = candidates.remove(random.nextInt(candidates.size()));
+            Set<Integer> remainingRouters = new HashSet<>(liveRouters);
+            remainingRouters.remove(router);
+            List<TopologyGenerator.PlannedLink> remainingLinks = new ArrayList<>();
+            for (TopologyGenerator.PlannedLink link : liveLinks) {
+                if (link.router != router && link.otherRouter != router) {
+                    remainingLinks.add(link);
+                }
+            }
+            if (isConnected(remainingRouters, remainingLinks)) {
+                return router;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isConnected(Set<Integer> routers, List<TopologyGenerator.PlannedLink> links) {
+        if (routers.isEmpty()) {
+            return true;
+        }
+        Map<Integer, List<Integer>> neighbors = new HashMap<>();
+        for (TopologyGenerator.PlannedLink link : links) {
+            neighborsOf(neighbors, link.router).add(link.otherRouter);
+            neighborsOf(neighbors, link.otherRouter).add(link.router);
+        }
+        Set<Integer> visited = new HashSet<>();
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(routers.iterator().next());
+        visited.add(queue.peek());
+        while (!queue.isEmpty()) {
+            for (int neighbor : neighborsOf(neighbors, queue.poll())) {
+                if (visited.add(neighbor)) {
+                    queue.add(neighbor);
+                }
+            }
+        }
+        return visited.containsAll(routers);
+    }
+
+    private static List<Integer> neighborsOf(Map<Integer, List<Integer>> neighbors, int router) {
+        List<Integer> routerNeighbors = neighbors.get(router);
+        if (routerNeighbors == null) {
+            routerNeighbors = new ArrayList<>();
+            neighbors.put(router, routerNeighbors);
+        }
+        return routerNeighbors;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The counters of a router, or their sums over several routers.
+     */
+    private static final class RouterStats {
+        private int noOfAdjacencies;
+        private long noOfLSUpdatesSent;
+        private long noOfLSUpdatesReceived;
+        private long noOfSpfRuns;
+        private long peakHeapBytes;
+
+        private void add(RouterStats stats) {
+            noOfAdjacencies += stats.noOfAdjacencies;
+            noOfLSUpdatesSent += stats.noOfLSUpdatesSent;
+            noOfLSUpdatesReceived += stats.noOfLSUpdatesReceived;
+            noOfSpfRuns += stats.noOfSpfRuns;
+            peakHeapBytes += stats.peakHeapBytes;
+        }
+    }
+
+    /**
+     * The routers of a network under test, indexed as in its plan.
+     */
+    private abstract static class Deployment implements Closeable {
+        /**
+         * Starts all routers; returns without waiting for the network to come up.
+         */
+        abstract void start() throws IOException;
+
+        abstract RouterStats getStats(int router) throws IOException;
+
+        abstract Map<String, Integer> getSummary(int router) throws IOException;
+
+        abstract void disconnect(int router, String neighborId) throws IOException;
+
+        abstract void quit(int router) throws IOException;
+
+        /**
+         * @return the peak heap usage of all routers since the deployment was created.
+         */
+        abstract long getPeakHeapUsage() throws IOException;
+
+        RouterStats getTotalStats(Set<Integer> routers) throws IOException {
+            RouterStats totalStats = new RouterStats();
+            for (int router : routers) {
+                try {
+                    totalStats.add(getStats(router));
+                } catch (IOException e) {
+                    // not started yet, so nothing to count.
+                }
+            }
+            return totalStats;
+        }
+    }
+
+    /**
+     * Routers that run in this process, bootstrapped concurrently from their configurations.
+     */
+    private static final class InProcessDeployment extends Deployment {
+        private final List<Path> configPaths;
+        private final Router[] routers;
+        private final Set<Integer> quitRouters = new HashSet<>();
+        private ExecutorService bootstrapExecutor;
+
+        private InProcessDeployment(List<Path> configPaths) {
+            this.configPaths = configPaths;
+            this.routers = new Router[configPaths.size()];
+        }
+
+        @Override
+        void start() {
+            for (int router = 0; router < routers.length; router++) {
+                routers[router] = new Router(new Configuration(configPaths.get(router).toString()), "127.0.0.1");
+                routers[router].startServer();
+            }
+            bootstrapExecutor = Executors.newFixedThreadPool(Math.min(routers.length, MAX_BOOTSTRAP_THREADS));
+            for (final Router router : routers) {
+                bootstrapExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        router.bootstrap();
+                    }
+                });
+            }
+        }
+
+        @Override
+        RouterStats getStats(int router) throws IOException {
+            Router myRouter = routers[router];
+            if (myRouter == null) {
+                throw new IOException("Router " + router + " is not started.");
+            }
+            RouterStats stats = new RouterStats();
+            stats.noOfAdjacencies = myRouter.getNoOfAdjacencies();
+            stats.noOfLSUpdatesSent = myRouter.noOfLSUpdatesSent.get();
+            stats.noOfLSUpdatesReceived = myRouter.noOfLSUpdatesReceived.get();
+            stats.noOfSpfRuns = myRouter.lsd.noOfSpfRuns.get();
+            return stats;
+        }
+
+        @Override
+        Map<String, Integer> getSummary(int router) {
+            Router myRouter = routers[router];
+            synchronized (myRouter) {
+                return myRouter.lsd.getSummary();
+            }
+        }
+
+        @Override
+        void disconnect(int router, String neighborId) {
+            routers[router].runCommand("disconnect " + neighborId);
+        }
+
+        @Override
+        void quit(int router) {
+            routers[router].shutdown();
+            quitRouters.add(router);
+        }
+
+        @Override
+        long getPeakHeapUsage() {
+            return RouterUtils.getPeakHeapUsage();
+        }
+
+        @Override
+        public void close() {
+            if (bootstrapExecutor != null) {
+                bootstrapExecutor.shutdownNow();
+            }
+            for (int router = 0; router < routers.length; router++) {
+                if (routers[router] != null && !quitRouters.contains(router)) {
+                    routers[router].shutdown();
+                }
+            }
+        }
+    }
+
+    /**
+     * Routers that run in processes of their own: commands are typed into their terminals and their state is read
+     * through their query ports.
+     */
+    private static final class ProcessDeployment extends Deployment {
+        private final List<Path> configPaths;
+        private final Path outputDirectory;
+        private final int basePort;
+        private final int queryPortOffset;
+        private final Process[] processes;
+        private final Writer[] terminals;
+        private final QueryConnection[] queryConnections;
+        private int nextRequestId = 0;
+
+        private ProcessDeployment(List<Path> configPaths, Path outputDirectory, int basePort, int queryPortOffset) {
+            this.configPaths = configPaths;
+            this.outputDirectory = outputDirectory;
+            this.basePort = basePort;
+            this.queryPortOffset = queryPortOffset;
+            this.processes = new Process[configPaths.size()];
+            this.terminals = new Writer[configPaths.size()];
+            this.queryConnections = new QueryConnection[configPaths.size()];
+        }
+
+        @Override
+        void start() throws IOException {
+            String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            for (int router = 0; router < processes.length; router++) {
+                ProcessBuilder processBuilder = new ProcessBuilder(javaPath, "-cp",
+                        System.getProperty("java.class.path"), "socs.network.Bootstrap",
+                        configPaths.get(router).toString());
+                processBuilder.redirectErrorStream(true);
+                processBuilder.redirectOutput(outputDirectory.resolve("router" + router + ".out").toFile());
+                processes[router] = processBuilder.start();
+                terminals[router] = new BufferedWriter(new OutputStreamWriter(processes[router].getOutputStream(),
+                        StandardCharsets.UTF_8));
+            }
+        }
+
+        @Override
+        RouterStats getStats(int router) throws IOException {
+            ByteBuffer body = query(router, QueryServer.TYPE_STATS);
+            RouterStats stats = new RouterStats();
+            body.getLong();
+            stats.noOfAdjacencies = body.getInt();
+            stats.noOfLSUpdatesSent = body.getLong();
+            stats.noOfLSUpdatesReceived = body.getLong();
+            stats.noOfSpfRuns = body.getLong();
+            body.getLong();
+            stats.peakHeapBytes = body.getLong();
+            return stats;
+        }
+
+        @Override
+        Map<String, Integer> getSummary(int router) throws IOException {
+            ByteBuffer body = query(router, QueryServer.TYPE_LSD_SUMMARY);
+            body.getLong();
+            int noOfLSAs = body.getInt();
+            Map<String, Integer> lsdSummary = new HashMap<>();
+            for (int lsaIndex = 0; lsaIndex < noOfLSAs; lsaIndex++) {
+                lsdSummary.put(MessageCodec.readString(body), body.getInt());
+            }
+            return lsdSummary;
+        }
+
+        @Override
+        void disconnect(int router, String neighborId) throws IOException {
+            typeCommand(router, "disconnect " + neighborId);
+        }
+
+        @Override
+        void quit(int router) throws IOException {
+            typeCommand(router, "quit");
+            closeQueryConnection(router);
+            processes[router] = null;
+        }
+
+        @Override
+        long getPeakHeapUsage() throws IOException {
+            long peakHeapBytes = 0;
+            for (int router = 0; router < processes.length; router++) {
+                if (processes[router] != null) {
+                    peakHeapBytes += getStats(router).peakHeapBytes;
+                }
+            }
+            return peakHeapBytes;
+        }
+
+        @Override
+        public void close() {
+            for (int router = 0; router < processes.length; router++) {
+                closeQueryConnection(router);
+                if (processes[router] != null) {
+                    processes[router].destroy();
+                }
+            }
+        }
+
+        private void typeCommand(int router, String command) throws IOException {
+            terminals[router].write(command + "\n");
+            terminals[router].flush();
+        }
+
+        /**
+         * Sends a request without arguments to the query port of a router.
+         *
+         * @return the body of the response after its status.
+         */
+        private ByteBuffer query(int router, byte type) throws IOException {
+            if (processes[router] == null) {
+                throw new IOException("Router " + router + " is not running.");
+            }
+            QueryConnection connection = queryConnections[router];
+            if (connection == null) {
+                connection = new QueryConnection(new Socket("127.0.0.1", basePort + router + queryPortOffset));
+                queryConnections[router] = connection;
+            }
+            try {
+                int requestId = nextRequestId++;
+                connection.output.writeInt(5);
+                connection.output.writeInt(requestId);
+                connection.output.writeByte(type);
+                connection.output.flush();
+
+                byte[] response = new byte[connection.input.readInt()];
+                connection.input.readFully(response);
+                ByteBuffer body = ByteBuffer.wrap(response);
+                if (body.getInt() != requestId || body.get() != QueryServer.STATUS_OK) {
+                    throw new IOException("Unexpected response from the query port of router " + router + ".");
+                }
+                return body;
+            } catch (IOException e) {
+                closeQueryConnection(router);
+                throw e;
+            }
+        }
+
+        private void closeQueryConnection(int router) {
+            if (queryConnections[router] != null) {
+                RouterUtils.releaseSocket(queryConnections[router].socket);
+                queryConnections[router] = null;
+            }
+        }
+    }
+
+    private static final class QueryConnection {
+        private final Socket socket;
+        private final DataOutputStream output;
+        private final DataInputStream input;
+
+        private QueryConnection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.output = new DataOutputStream(socket.getOutputStream());
+            this.input = new DataInputStream(socket.getInputStream());
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package socs.network.node;
+
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single-producer/single-consumer ring of SOSPFPackets in a memory-mapped file, shared by the process of the router
+ * that sends the packets and the process of the router that receives them. The file is laid out as:
+ * <pre>
+ *   0: magic(4), capacity(4)
+ *  64: tail(8)  - position up to which records are written; only written by the producer
+ * 128: head(8)  - position up to which records are read; only written by the consumer
+ * 192: the records
+ * </pre>
+ * The cursors sit on cache lines of their own and only ever grow; a position maps to offset (position % capacity) of
+ * the record area. A record is its length(4) followed by the packet as encoded by {@link MessageCodec}, padded to 8
+ * bytes. Records never wrap around: if a record does not fit before the end of the record area, a padding marker
+ * fills the rest and the record is written at the start.
+ * <p/>
+ * A cursor is published only after the records it covers are written (or, for the head, read): it is written with a
+ * release store and read with an acquire load on the mapped memory, so that the other process sees the records
+ * written before a cursor once it sees the cursor, whatever the memory model of the hardware. The cursors are in the
+ * native byte order, as both processes run on the same host.
+ * <p/>
+ * {@link #offer(SOSPFPacket)} may only be called by one thread at a time, and so may {@link #poll()}.
+ */
+class SharedMemoryRing {
+    private static final int MAGIC = 0x534F5352; // "SOSR"
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int TAIL_OFFSET = 64;
+    private static final int HEAD_OFFSET = 128;
+    private static final int RECORDS_OFFSET = 192;
+    private static final int RECORD_HEADER_SIZE = 4;
+    private static final int PADDING_MARKER = -1;
+    private static final Unsafe UNSAFE;
+    // the offset of the field of a direct buffer that holds the address of its memory.
+    private static final long BUFFER_ADDRESS_OFFSET;
+
+    static {
+        try {
+            Field unsafeField = Unsafe.class.getDeclaredField("theUnsafe");
+            unsafeField.setAccessible(true);
+            UNSAFE = (Unsafe) unsafeField.get(null);
+            BUFFER_ADDRESS_OFFSET = UNSAFE.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // the address of the mapped file, at which the cursors are accessed with ordered stores and loads.
+    private final long address;
+    // the producer's tail, or the consumer's head.
+    private long position;
+    // the last value read of the cursor owned by the other side.
+    private long otherPosition;
+
+    private SharedMemoryRing(Path path, MappedByteBuffer buffer, int capacity, boolean isProducer) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.address = UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+        this.position = readCursor(isProducer ? TAIL_OFFSET : HEAD_OFFSET);
+        this.otherPosition = readCursor(isProducer ? HEAD_OFFSET : TAIL_OFFSET);
+    }
+
+    /**
+     * Maps the ring at the given path for writing, creating it if it does not exist yet. A new ring is initialized in
+     * a temporary file that is then renamed, so that the consumer never maps a ring that is only partly initialized.
+     *
+     * @param path     the file of the ring.
+     * @param capacity the size of the record area of a new ring, a multiple of 8.
+     * @return the ring, to be written with {@link #offer(SOSPFPacket)}.
+     * @throws IOException if the file can not be created or mapped.
+     */
+    static SharedMemoryRing openProducer(Path path, int capacity) throws IOException {
+        if (!Files.exists(path)) {
+            Path temporaryPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, RECORDS_OFFSET + capacity);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(CAPACITY_OFFSET, capacity);
+                buffer.force();
+            }
+            try {
+                Files.move(temporaryPath, path, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+        return map(path, true);
+    }
+
+    /**
+     * Maps an existing ring for reading.
+     *
+     * @param path the file of the ring.
+     * @return the ring, to be read with {@link #poll()}.
+     * @throws IOException if the file can not be mapped or is not a ring.
+     */
+    static SharedMemoryRing openConsumer(Path path) throws IOException {
+        return map(path, false);
+    }
+
+    private static SharedMemoryRing map(Path path, boolean isProducer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.size() < RECORDS_OFFSET) {
+                throw new IOException("The file [" + path + "] is not a shared memory ring.");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            int capacity = buffer.getInt(CAPACITY_OFFSET);
+            if (buffer.getInt(0) != MAGIC || capacity <= 0 || RECORDS_OFFSET + (long) capacity != channel.size()) {
+                throw new IOException("The file [" + path + "] is not a shared memory ring.");
+            }
+            return new SharedMemoryRing(path, buffer, capacity, isProducer);
+        }
+    }
+
+    /**
+     * @return the size of the largest packet (as encoded) that fits in the ring.
+     */
+    int getMaxPacketSize() {
+        return capacity / 2 - RECORD_HEADER_SIZE;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the packet to the ring, unless there is not enough free space.
+     *
+     * @param packet a packet no larger than {@link #getMaxPacketSize()} once encoded.
+     * @return true if the packet was written; false if the ring is full.
+     */
+    boolean offer(SOSPFPacket packet) {
+        int packetSize = MessageCodec.sizeOf(packet);
+        int recordSize = align(RECORD_HEADER_SIZE + packetSize);
+        int offset = (int) (position % capacity);
+        int paddingSize = capacity - offset < recordSize ? capacity - offset : 0;
+        if (position + paddingSize + recordSize - otherPosition > capacity) {
+            otherPosition = readCursor(HEAD_OFFSET);
+            if (position + paddingSize + recordSize - otherPosition > capacity) {
+                return false;
+            }
+        }
+
+        if (paddingSize > 0) {
+            buffer.putInt(RECORDS_OFFSET + offset, PADDING_MARKER);
+            position += paddingSize;
+            offset = 0;
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.limit(RECORDS_OFFSET + offset + RECORD_HEADER_SIZE + packetSize);
+        record.position(RECORDS_OFFSET + offset + RECORD_HEADER_SIZE);
+        MessageCodec.writePacket(record, packet);
+        buffer.putInt(RECORDS_OFFSET + offset, packetSize);
+        position += recordSize;
+        writeCursor(TAIL_OFFSET, position);
+        return true;
+    }
+
+    /**
+     * @return the next packet in the ring; null if the ring is empty.
+     * @throws java.nio.BufferUnderflowException if the next record does not hold a well-formed packet.
+     */
+    SOSPFPacket poll() {
+        if (position == otherPosition) {
+            otherPosition = readCursor(TAIL_OFFSET);
+            if (position == otherPosition) {
+                return null;
+            }
+        }
+
+        int offset = (int) (position % capacity);
+        int packetSize = buffer.getInt(RECORDS_OFFSET + offset);
+        if (packetSize == PADDING_MARKER) {
+            position += capacity - offset;
+            offset = 0;
+            packetSize = buffer.getInt(RECORDS_OFFSET);
+        }
+        if (packetSize < 0 || packetSize > getMaxPacketSize()) {
+            throw new IllegalStateException("The shared memory ring [" + path + "] is corrupt.");
+        }
+        ByteBuffer record = buffer.duplicate();
+        record.limit(RECORDS_OFFSET + offset + RECORD_HEADER_SIZE + packetSize);
+        record.position(RECORDS_OFFSET + offset + RECORD_HEADER_SIZE);
+        try {
+            return MessageCodec.readPacket(record);
+        } finally {
+            // a malformed record is skipped all the same.
+            position += align(RECORD_HEADER_SIZE + packetSize);
+            writeCursor(HEAD_OFFSET, position);
+        }
+    }
+
+    /**
+     * @return true if the consumer has read every packet written so far.
+     */
+    boolean isDrained() {
+        return readCursor(HEAD_OFFSET) == readCursor(TAIL_OFFSET);
+    }
+
+    /**
+     * Acquire load: the accesses to the mapped buffer that follow are not reordered before it.
+     */
+    private long readCursor(int cursorOffset) {
+        return UNSAFE.getLongVolatile(null, address + cursorOffset);
+    }
+
+    /**
+     * Release store: the accesses to the mapped buffer that precede it are not reordered after it.
+     */
+    private void writeCursor(int cursorOffset, long cursor) {
+        UNSAFE.putOrderedLong(null, address + cursorOffset, cursor);
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+}
@@ -0,0 +1,278 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.RouterConstants;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A control transport for routers running on the same host: every router reads its control messages from one
+ * single-producer/single-consumer {@link SharedMemoryRing} per sending router, in a directory shared by all of them.
+ * The ring from router S to router D is the file "&lt;port of D&gt;-&lt;port of S&gt;.ring"; it is created by S on
+ * its first message to D and picked up by D when it next scans the directory.
+ * <p/>
+ * A single thread reads the rings of a router. While messages keep arriving it spins over the rings, so a flood hop
+ * costs a few microseconds; once idle for {@link RouterConstants#SHM_SPIN_ITERATIONS} polls it parks for
+ * exponentially longer periods up to {@link RouterConstants#SHM_MAX_PARK_NANOS}. A sender whose ring is full waits
+ * in the same way for the reader to catch up.
+ * <p/>
+ * Messages to routers on other hosts go over TCP.
+ */
+class ShmControlTransport extends MessageControlTransport {
+    private final Log log = LogFactory.getLog(ShmControlTransport.class);
+
+    private static final String RING_SUFFIX = ".ring";
+
+    private final Path ringDirectory;
+    private final int ringBytes;
+    private final TcpControlTransport remoteTransport;
+    // rings to the other routers on this host, keyed by their process port; writes to a ring are guarded by the ring.
+    private final ConcurrentHashMap<Integer, SharedMemoryRing> outboundRings = new ConcurrentHashMap<>();
+    // rings from the other routers on this host; only accessed by the reader thread.
+    private final List<SharedMemoryRing> inboundRings = new ArrayList<>();
+    private final Set<Path> inboundRingPaths = new HashSet<>();
+    private volatile boolean running = false;
+    private Thread readerThread;
+
+    /**
+     * @param router        the router whose control messages are carried.
+     * @param routerServer  the server to which received messages are handed.
+     * @param ringDirectory the directory shared by the routers on this host.
+     * @param ringBytes     the size of the record area of the rings this router creates.
+     */
+    ShmControlTransport(Router router, RouterServer routerServer, Path ringDirectory, int ringBytes) {
+        super(router, routerServer);
+        this.ringDirectory = ringDirectory;
+        this.ringBytes = (ringBytes + 7) & ~7;
+        this.remoteTransport = new TcpControlTransport(router);
+    }
+
+    @Override
+    public boolean start() {
+        try {
+            Files.createDirectories(ringDirectory);
+            // rings left over from a previous run of this router hold messages for a router that no longer exists.
+            try (DirectoryStream<Path> stalePaths = Files.newDirectoryStream(ringDirectory, myPort() + "-*" +
+                    RING_SUFFIX)) {
+                for (Path stalePath : stalePaths) {
+                    Files.deleteIfExists(stalePath);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Unable to use the directory [" + ringDirectory + "] for shared memory rings.", e);
+            return false;
+        }
+
+        running = true;
+        remoteTransport.start();
+        readerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                readRings();
+            }
+        }, "shm-control-reader");
+        readerThread.setDaemon(true);
+        readerThread.start();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        remoteTransport.stop();
+        if (readerThread != null) {
+            LockSupport.unpark(readerThread);
+        }
+    }
+
+    @Override
+    public void send(RouterDescription destination, SOSPFPacket packet, String packetType) {
+        send(destination, packet, packetType, true);
+    }
+
+    @Override
+    void send(RouterDescription destination, SOSPFPacket packet, String packetType, boolean isReliable) {
+        if (!isLocal(destination)) {
+            remoteTransport.send(destination, packet, packetType);
+            return;
+        }
+
+        SharedMemoryRing ring;
+        try {
+            ring = outboundRing(destination);
+        } catch (IOException e) {
+            log.error("[" + packetType + "] Unable to open the shared memory ring to router [" + packet.dstIP + "]", e);
+            return;
+        }
+        if (MessageCodec.sizeOf(packet) > ring.getMaxPacketSize()) {
+            log.error("[" + packetType + "] The message to " + packet.dstIP + " is too large for the shared memory " +
+                    "ring; increase socs.network.router.shm.ringSize.");
+            return;
+        }
+
+        boolean isWritten;
+        synchronized (ring) {
+            isWritten = ring.offer(packet);
+            if (!isWritten) {
+                IdleStrategy idleStrategy = new IdleStrategy();
+                long deadline = System.nanoTime() + RouterConstants.SHM_SEND_TIMEOUT_MILLIS * 1000000L;
+                while (!isWritten && running && System.nanoTime() < deadline) {
+                    idleStrategy.idle();
+                    isWritten = ring.offer(packet);
+                }
+            }
+        }
+        if (!isWritten) {
+            log.error("[" + packetType + "] The shared memory ring to router [" + packet.dstIP + "] stayed full; " +
+                    "the message was dropped.");
+        } else if (myRouter.printFlag) {
+            myRouter.eventLog.log(EventLog.EventType.MESSAGE_SENT, packetType, packet.dstIP);
+        }
+    }
+
+    @Override
+    public String exchangeHello(Link link, SOSPFPacket hello) {
+        RouterDescription destination = link.getDestinationRouterDesc();
+        if (!isLocal(destination)) {
+            return remoteTransport.exchangeHello(link, hello);
+        }
+        // the other router may have been restarted since the ring to it was mapped, so map it again.
+        outboundRings.remove(destination.processPortNumber & 0xFFFF);
+        return super.exchangeHello(link, hello);
+    }
+
+    @Override
+    protected void messageReceived(SOSPFPacket packet) {
+        if (packet.sospfType == RouterConstants.HELLO_PACKET &&
+                packet.helloStage == RouterConstants.HELLO_STAGE_FIRST) {
+            outboundRings.remove(packet.srcProcessPort & 0xFFFF);
+        }
+        super.messageReceived(packet);
+    }
+
+    @Override
+    public void drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        IdleStrategy idleStrategy = new IdleStrategy();
+        for (SharedMemoryRing ring : outboundRings.values()) {
+            while (!ring.isDrained() && System.currentTimeMillis() < deadline) {
+                idleStrategy.idle();
+            }
+        }
+        remoteTransport.drain(Math.max(1, deadline - System.currentTimeMillis()));
+    }
+
+    private boolean isLocal(RouterDescription router) {
+        return router.processIPAddress.equals(myRouter.getRd().processIPAddress);
+    }
+
+    private int myPort() {
+        return myRouter.getRd().processPortNumber & 0xFFFF;
+    }
+
+    private SharedMemoryRing outboundRing(RouterDescription destination) throws IOException {
+        int destinationPort = destination.processPortNumber & 0xFFFF;
+        SharedMemoryRing ring = outboundRings.get(destinationPort);
+        if (ring == null) {
+            synchronized (outboundRings) {
+                ring = outboundRings.get(destinationPort);
+                if (ring == null) {
+                    ring = SharedMemoryRing.openProducer(
+                            ringDirectory.resolve(destinationPort + "-" + myPort() + RING_SUFFIX), ringBytes);
+                    outboundRings.put(destinationPort, ring);
+                }
+            }
+        }
+        return ring;
+    }
+
+    private void readRings() {
+        IdleStrategy idleStrategy = new IdleStrategy();
+        long nextScanNanos = 0;
+        while (running) {
+            if (System.nanoTime() >= nextScanNanos) {
+                scanInboundRings();
+                nextScanNanos = System.nanoTime() + RouterConstants.SHM_SCAN_INTERVAL_MILLIS * 1000000L;
+            }
+
+            boolean isReceived = false;
+            for (Iterator<SharedMemoryRing> rings = inboundRings.iterator(); rings.hasNext(); ) {
+                SharedMemoryRing ring = rings.next();
+                try {
+                    SOSPFPacket packet;
+                    while ((packet = ring.poll()) != null) {
+                        messageReceived(packet);
+                        isReceived = true;
+                    }
+                } catch (BufferUnderflowException e) {
+                    log.warn("Discarding a malformed control message from [" + ring.getPath() + "]");
+                } catch (IllegalStateException e) {
+                    // the records that follow can not be found anymore; the path is kept so it is not mapped again.
+                    log.error("No longer reading from a corrupt shared memory ring.", e);
+                    rings.remove();
+                }
+            }
+            if (isReceived) {
+                idleStrategy.reset();
+            } else {
+                idleStrategy.idle();
+            }
+        }
+    }
+
+    /**
+     * Maps the rings that other routers created to this router since the last scan.
+     */
+    private void scanInboundRings() {
+        try (DirectoryStream<Path> ringPaths = Files.newDirectoryStream(ringDirectory, myPort() + "-*" +
+                RING_SUFFIX)) {
+            for (Path ringPath : ringPaths) {
+                if (!inboundRingPaths.contains(ringPath)) {
+                    inboundRings.add(SharedMemoryRing.openConsumer(ringPath));
+                    inboundRingPaths.add(ringPath);
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.error("An error occurred whilst scanning [" + ringDirectory + "] for shared memory rings.", e);
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * Spins for a while, then parks for exponentially longer periods.
+     */
+    private static final class IdleStrategy {
+        private int noOfSpins = 0;
+        private long parkNanos = RouterConstants.SHM_MIN_PARK_NANOS;
+
+        private void idle() {
+            if (noOfSpins < RouterConstants.SHM_SPIN_ITERATIONS) {
+                noOfSpins++;
+            } else {
+                LockSupport.parkNanos(parkNanos);
+                parkNanos = Math.min(parkNanos * 2, RouterConstants.SHM_MAX_PARK_NANOS);
+            }
+        }
+
+        private void reset() {
+            noOfSpins = 0;
+            parkNanos = RouterConstants.SHM_MIN_PARK_NANOS;
+        }
+    }
+}
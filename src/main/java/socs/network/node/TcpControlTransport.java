@@ -0,0 +1,169 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.RouterUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The default control transport: every message is a Java-serialized SOSPFPacket written to a fresh TCP connection to
+ * the RouterServer of the destination, and the three HELLOs of an exchange share one connection. Connecting and
+ * waiting for the HELLO reply are bounded by the connect and HELLO timeouts of the router.
+ */
+class TcpControlTransport implements ControlTransport {
+    private final Log log = LogFactory.getLog(TcpControlTransport.class);
+
+    private final Router myRouter;
+    private final ExecutorService senders = Executors.newCachedThreadPool();
+    // no of messages handed to the senders that are not written yet; guarded by this.
+    private int noOfInFlight = 0;
+
+    TcpControlTransport(Router router) {
+        this.myRouter = router;
+    }
+
+    @Override
+    public boolean start() {
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        senders.shutdown();
+    }
+
+    @Override
+    public void send(final RouterDescription destination, final SOSPFPacket packet, final String packetType) {
+        // serialize right away so that the caller can go on to modify the packet for the next neighbour.
+        final byte[] serializedPacket;
+        try {
+            ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+            ObjectOutputStream objectStream = new ObjectOutputStream(byteStream);
+            objectStream.writeObject(packet);
+            objectStream.close();
+            serializedPacket = byteStream.toByteArray();
+        } catch (IOException e) {
+            log.error("[" + packetType + "] An error occurred whilst serializing the message to " + packet.dstIP, e);
+            return;
+        }
+        final String dstIP = packet.dstIP;
+
+        synchronized (this) {
+            noOfInFlight++;
+        }
+        senders.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    write(destination.processIPAddress, destination.processPortNumber, dstIP, serializedPacket,
+                            packetType);
+                } finally {
+                    synchronized (TcpControlTransport.this) {
+                        noOfInFlight--;
+                        TcpControlTransport.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(String destinationRouterHostIP, short destinationRouterHostPort, String dstIP,
+                       byte[] serializedPacket, String packetType) {
+        Socket aNewSocket;
+        OutputStream socketWriter = null;
+
+        try {
+            aNewSocket = RouterUtils.openSocket(destinationRouterHostIP, destinationRouterHostPort,
+                    myRouter.getConnectTimeoutMillis(), myRouter.getHelloTimeoutMillis());
+        } catch (IOException e) {
+            log.error("[" + packetType + "] An error occurred whilst trying to establish Socket " +
+                    "connection to HOST [" + destinationRouterHostIP + "] at " +
+                    "PORT [" + destinationRouterHostPort + "]", e);
+            return;
+        }
+
+        try {
+            socketWriter = aNewSocket.getOutputStream();
+            socketWriter.write(serializedPacket);
+            socketWriter.flush();
+
+            if (myRouter.printFlag) {
+                myRouter.eventLog.log(EventLog.EventType.MESSAGE_SENT, packetType, dstIP);
+            }
+        } catch (IOException e) {
+            log.error("[" + packetType + "] An error occurred whilst trying to READ/WRITE to Socket " +
+                    "connection at HOST [" + destinationRouterHostIP + "] on " +
+                    "PORT [" + destinationRouterHostPort + "]", e);
+        } finally {
+            RouterUtils.releaseSocket(aNewSocket);
+        }
+    }
+
+    @Override
+    public String exchangeHello(Link link, SOSPFPacket hello) {
+        RouterDescription destinationRouterDesc = link.getDestinationRouterDesc();
+        String destinationRouterHostIP = destinationRouterDesc.processIPAddress;
+        short destinationRouterHostPort = destinationRouterDesc.processPortNumber;
+        Socket helloTransferSocket;
+        ObjectOutputStream socketWriter = null;
+        ObjectInputStream socketReader = null;
+        String connectedSimIP;
+
+        try {
+            helloTransferSocket = RouterUtils.openSocket(destinationRouterHostIP, destinationRouterHostPort,
+                    myRouter.getConnectTimeoutMillis(), myRouter.getHelloTimeoutMillis());
+        } catch (IOException e) {
+            log.error("[HELLO] An error occurred whilst trying to establish Socket connection to " +
+                    "HOST [" + destinationRouterHostIP + "] at " +
+                    "PORT [" + destinationRouterHostPort + "]", e);
+            return null;
+        }
+
+        try {
+            socketWriter = new ObjectOutputStream(helloTransferSocket.getOutputStream());
+            socketReader = new ObjectInputStream(helloTransferSocket.getInputStream());
+
+            socketWriter.writeObject(hello);
+            SOSPFPacket sospfPacket_2 = (SOSPFPacket) socketReader.readObject();
+            connectedSimIP = sospfPacket_2.srcIP;
+            if (myRouter.helloReplyReceived(link, sospfPacket_2)) {
+                socketWriter.writeObject(hello);
+            }
+        } catch (IOException e) {
+            log.error("[HELLO] An error occurred whilst trying to READ/WRITE to Socket connection at " +
+                    "HOST [" + destinationRouterHostIP + "] on " +
+                    "PORT [" + destinationRouterHostPort + "]", e);
+            return null;
+        } catch (ClassNotFoundException e) {
+            log.error("[HELLO] An object type other than [SOSPFPacket] was recieved over the socket " +
+                    "connection", e);
+            return null;
+        } finally {
+            RouterUtils.releaseSocket(helloTransferSocket);
+            RouterUtils.releaseWriter(socketWriter);
+            RouterUtils.releaseReader(socketReader);
+        }
+        return connectedSimIP;
+    }
+
+    @Override
+    public synchronized void drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (noOfInFlight > 0 && System.currentTimeMillis() < deadline) {
+                wait(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
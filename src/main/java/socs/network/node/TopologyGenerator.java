@@ -0,0 +1,389 @@
+package socs.network.node;
+
+import socs.network.util.RouterConstants;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates the router configurations and the link plan of a network of a given shape, for labs and scale tests.
+ * Every router gets a configuration file "router&lt;index&gt;.conf" that lists its links (each link is listed at the
+ * end with the lower index) and runs "start" once they are attached, so the whole network comes up when all routers
+ * are started; the file "links.plan" lists every link as "&lt;simulated IP&gt; &lt;simulated IP&gt; &lt;weight&gt;".
+ * <p/>
+ * Shapes (all connected):
+ * <pre>
+ * ring     routers in a cycle
+ * mesh     a link between every pair of routers
+ * grid     routers in rows of ceil(sqrt(N)), linked to their right and lower neighbours
+ * fattree  a k-ary fat-tree of (k/2)^2 core, k^2/2 aggregation and k^2/2 edge routers, for the largest even k that
+ *          needs no more than N routers
+ * ba       Barabasi-Albert preferential attachment, 2 links per router added
+ * waxman   routers placed at random in the unit square and linked with a probability that decays with distance,
+ *          scaled for a mean degree of about 4; weights grow with distance and components are joined up
+ * </pre>
+ * Weights other than those of waxman are drawn uniformly from 1 to 10. Everything random is drawn from the given
+ * seed, so a plan can be regenerated exactly.
+ * <p/>
+ * Usage: TopologyGenerator &lt;shape&gt; &lt;no of routers&gt; &lt;output directory&gt; [seed] [base port]
+ * [key=value ...] (extra lines for every configuration, e.g. socs.network.router.headless=true)
+ */
+public final class TopologyGenerator {
+    static final List<String> SHAPES = Collections.unmodifiableList(
+            Arrays.asList("ring", "mesh", "grid", "fattree", "ba", "waxman"));
+    static final String PLAN_FILE_NAME = "links.plan";
+    static final int DEFAULT_BASE_PORT = 20000;
+    private static final int MAX_WEIGHT = 10;
+    private static final int BA_LINKS_PER_ROUTER = 2;
+    private static final double WAXMAN_BETA = 0.2;
+    private static final double WAXMAN_MEAN_DEGREE = 4;
+
+    private TopologyGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3 || !SHAPES.contains(args[0])) {
+            System.out.println("Usage: TopologyGenerator <" + join(SHAPES, "|") + "> <no of routers> " +
+                    "<output directory> [seed] [base port] [key=value ...]");
+            System.exit(1);
+        }
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        int basePort = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_BASE_PORT;
+        List<String> extraConfig = args.length > 5 ? Arrays.asList(args).subList(5, args.length) :
+                Collections.<String>emptyList();
+
+        Plan plan = generate(args[0], Integer.parseInt(args[1]), seed);
+        writeConfigs(plan, Paths.get(args[2]), basePort, extraConfig);
+        System.out.println("Generated a " + args[0] + " of " + plan.noOfRouters + " routers and " +
+                plan.links.size() + " links in [" + args[2] + "].");
+    }
+
+    /**
+     * @param shape       one of {@link #SHAPES}.
+     * @param noOfRouters the no of routers; a fat-tree may use fewer.
+     * @param seed        the seed of everything random in the plan.
+     * @return the plan of the network.
+     */
+    static Plan generate(String shape, int noOfRouters, long seed) {
+        if (noOfRouters < 1) {
+            throw new IllegalArgumentException("A network needs at least one router.");
+        }
+        Random random = new Random(seed);
+        switch (shape) {
+            case "ring":
+                return ring(noOfRouters, random);
+            case "mesh":
+                return mesh(noOfRouters, random);
+            case "grid":
+                return grid(noOfRouters, random);
+            case "fattree":
+                return fatTree(noOfRouters, random);
+            case "ba":
+                return barabasiAlbert(noOfRouters, random);
+            case "waxman":
+                return waxman(noOfRouters, random);
+            default:
+                throw new IllegalArgumentException("Unknown shape [" + shape + "]; expected one of " + SHAPES + ".");
+        }
+    }
+
+    private static Plan ring(int noOfRouters, Random random) {
+        Plan plan = new Plan(noOfRouters);
+        for (int router = 0; router + 1 < noOfRouters; router++) {
+            plan.addLink(router, router + 1, randomWeight(random));
+        }
+        if (noOfRouters > 2) {
+            plan.addLink(0, noOfRouters - 1, randomWeight(random));
+        }
+        return plan;
+    }
+
+    private static Plan mesh(int noOfRouters, Random random) {
+        Plan plan = new Plan(noOfRouters);
+        for (int router = 0; router < noOfRouters; router++) {
+            for (int otherRouter = router + 1; otherRouter < noOfRouters; otherRouter++) {
+                plan.addLink(router, otherRouter, randomWeight(random));
+            }
+        }
+        return plan;
+    }
+
+    private static Plan grid(int noOfRouters, Random random) {
+        Plan plan = new Plan(noOfRouters);
+        int noOfColumns = (int) Math.ceil(Math.sqrt(noOfRouters));
+        for (int router = 0; router < noOfRouters; router++) {
+            if (router % noOfColumns != noOfColumns - 1 && router + 1 < noOfRouters) {
+                plan.addLink(router, router + 1, randomWeight(random));
+            }
+            if (router + noOfColumns < noOfRouters) {
+                plan.addLink(router, router + noOfColumns, randomWeight(random));
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Routers [0, (k/2)^2) are the core, followed by the aggregation routers and then the edge routers of every pod;
+     * core router i*(k/2)+j is linked to aggregation router j of every pod.
+     */
+    private static Plan fatTree(int noOfRouters, Random random) {
+        int k = 2;
+        while (5 * (k + 2) * (k + 2) / 4 <= noOfRouters) {
+            k += 2;
+        }
+        int half = k / 2;
+        int noOfCore = half * half;
+        int firstAggregation = noOfCore;
+        int firstEdge = noOfCore + k * half;
+        Plan plan = new Plan(Math.min(noOfRouters, firstEdge + k * half));
+        if (plan.noOfRouters < 5) {
+            // too small for a fat-tree; a star around the first router is the closest.
+            for (int router = 1; router < plan.noOfRouters; router++) {
+                plan.addLink(0, router, randomWeight(random));
+            }
+            return plan;
+        }
+
+        for (int pod = 0; pod < k; pod++) {
+            for (int aggregation = 0; aggregation < half; aggregation++) {
+                int aggregationRouter = firstAggregation + pod * half + aggregation;
+                for (int core = 0; core < half; core++) {
+                    plan.addLink(aggregation * half + core, aggregationRouter, randomWeight(random));
+                }
+                for (int edge = 0; edge < half; edge++) {
+                    plan.addLink(aggregationRouter, firstEdge + pod * half + edge, randomWeight(random));
+                }
+            }
+        }
+        return plan;
+    }
+
+    private static Plan barabasiAlbert(int noOfRouters, Random random) {
+        Plan plan = new Plan(noOfRouters);
+        int linksPerRouter = Math.min(BA_LINKS_PER_ROUTER, noOfRouters - 1);
+        // every router appears once per link end, so drawing from the list picks routers in proportion to degree.
+        List<Integer> linkEnds = new ArrayList<>();
+        for (int router = 0; router <= linksPerRouter; router++) {
+            for (int otherRouter = router + 1; otherRouter <= linksPerRouter; otherRouter++) {
+                plan.addLink(router, otherRouter, randomWeight(random));
+                linkEnds.add(router);
+                linkEnds.add(otherRouter);
+            }
+        }
+        for (int router = linksPerRouter + 1; router < noOfRouters; router++) {
+            Set<Integer> targets = new HashSet<>();
+            while (targets.size() < linksPerRouter) {
+                targets.add(linkEnds.get(random.nextInt(linkEnds.size())));
+            }
+            for (int target : targets) {
+                plan.addLink(target, router, randomWeight(random));
+                linkEnds.add(target);
+                linkEnds.add(router);
+            }
+        }
+        return plan;
+    }
+
+    private static Plan waxman(int noOfRouters, Random random) {
+        Plan plan = new Plan(noOfRouters);
+        double[] x = new double[noOfRouters];
+        double[] y = new double[noOfRouters];
+        for (int router = 0; router < noOfRouters; router++) {
+            x[router] = random.nextDouble();
+            y[router] = random.nextDouble();
+        }
+
+        // P(u, v) = alpha * exp(-d / (beta * L)); alpha is chosen so that the expected no of links gives the mean
+        // degree, since a fixed alpha would make larger networks ever denser.
+        double maxDistance = Math.sqrt(2);
+        double sumOfDecays = 0;
+        for (int router = 0; router < noOfRouters; router++) {
+            for (int otherRouter = router + 1; otherRouter < noOfRouters; otherRouter++) {
+                sumOfDecays += Math.exp(-distance(x, y, router, otherRouter) / (WAXMAN_BETA * maxDistance));
+            }
+        }
+        double alpha = sumOfDecays == 0 ? 1 : Math.min(1, WAXMAN_MEAN_DEGREE * noOfRouters / 2 / sumOfDecays);
+
+        int[] components = new int[noOfRouters];
+        for (int router = 0; router < noOfRouters; router++) {
+            components[router] = router;
+        }
+        for (int router = 0; router < noOfRouters; router++) {
+            for (int otherRouter = router + 1; otherRouter < noOfRouters; otherRouter++) {
+                double distance = distance(x, y, router, otherRouter);
+                if (random.nextDouble() < alpha * Math.exp(-distance / (WAXMAN_BETA * maxDistance))) {
+                    plan.addLink(router, otherRouter, distanceWeight(distance, maxDistance));
+                    union(components, router, otherRouter);
+                }
+            }
+        }
+
+        // join every other component to the one of router 0 through the closest pair of routers.
+        for (int router = 1; router < noOfRouters; router++) {
+            if (find(components, router) == find(components, 0)) {
+                continue;
+            }
+            int closestRouter = -1;
+            int closestOtherRouter = -1;
+            double closestDistance = Double.MAX_VALUE;
+            for (int candidate = 0; candidate < noOfRouters; candidate++) {
+                if (find(components, candidate) != find(components, router)) {
+                    continue;
+                }
+                for (int otherCandidate = 0; otherCandidate < noOfRouters; otherCandidate++) {
+                    double distance = distance(x, y, candidate, otherCandidate);
+                    if (find(components, otherCandidate) == find(components, 0) && distance < closestDistance) {
+                        closestRouter = candidate;
+                        closestOtherRouter = otherCandidate;
+                        closestDistance = distance;
+                    }
+                }
+            }
+            plan.addLink(Math.min(closestRouter, closestOtherRouter), Math.max(closestRouter, closestOtherRouter),
+                    distanceWeight(closestDistance, maxDistance));
+            union(components, closestRouter, closestOtherRouter);
+        }
+        return plan;
+    }
+
+    private static double distance(double[] x, double[] y, int router, int otherRouter) {
+        return Math.hypot(x[router] - x[otherRouter], y[router] - y[otherRouter]);
+    }
+
+    private static int distanceWeight(double distance, double maxDistance) {
+        return 1 + (int) Math.round(distance / maxDistance * (MAX_WEIGHT - 1));
+    }
+
+    private static int randomWeight(Random random) {
+        return 1 + random.nextInt(MAX_WEIGHT);
+    }
+
+    private static int find(int[] components, int router) {
+        while (components[router] != router) {
+            components[router] = components[components[router]];
+            router = components[router];
+        }
+        return router;
+    }
+
+    private static void union(int[] components, int router, int otherRouter) {
+        components[find(components, router)] = find(components, otherRouter);
+    }
+
+    /**
+     * Writes the configuration of every router of the plan and the link plan to the given directory.
+     *
+     * @param plan        the plan of the network.
+     * @param directory   the directory to write to; created if it does not exist.
+     * @param basePort    the process port of router 0; router i listens on basePort + i.
+     * @param extraConfig "key=value" lines added to every configuration.
+     * @return the configuration files, indexed by router.
+     * @throws IOException if a file can not be written.
+     */
+    static List<Path> writeConfigs(Plan plan, Path directory, int basePort, List<String> extraConfig)
+            throws IOException {
+        if (basePort < 1 || basePort + plan.noOfRouters - 1 > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The process ports of " + plan.noOfRouters + " routers from " +
+                    basePort + " do not fit in [1, " + Short.MAX_VALUE + "].");
+        }
+        Files.createDirectories(directory);
+
+        int[] degrees = new int[plan.noOfRouters];
+        List<List<String>> linksByRouter = new ArrayList<>(plan.noOfRouters);
+        for (int router = 0; router < plan.noOfRouters; router++) {
+            linksByRouter.add(new ArrayList<String>());
+        }
+        for (PlannedLink link : plan.links) {
+            degrees[link.router]++;
+            degrees[link.otherRouter]++;
+            linksByRouter.get(link.router).add("\"127.0.0.1 " + (basePort + link.otherRouter) + " " +
+                    routerId(link.otherRouter) + " " + link.weight + "\"");
+        }
+
+        List<Path> configPaths = new ArrayList<>(plan.noOfRouters);
+        for (int router = 0; router < plan.noOfRouters; router++) {
+            Path configPath = directory.resolve("router" + router + ".conf");
+            try (BufferedWriter writer = Files.newBufferedWriter(configPath, StandardCharsets.UTF_8)) {
+                writer.write("socs.network.router.ip = \"" + routerId(router) + "\"\n");
+                writer.write("socs.network.router.port = " + (basePort + router) + "\n");
+                writer.write("socs.network.router.processIP = \"127.0.0.1\"\n");
+                writer.write("socs.network.router.maxPorts = " +
+                        Math.max(RouterConstants.DEFAULT_MAX_PORTS, degrees[router]) + "\n");
+                writer.write("socs.network.router.links = [" + join(linksByRouter.get(router), ", ") + "]\n");
+                writer.write("socs.network.router.startup = [\"start\"]\n");
+                for (String configLine : extraConfig) {
+                    int separatorIndex = configLine.indexOf('=');
+                    writer.write(configLine.substring(0, separatorIndex).trim() + " = " +
+                            configLine.substring(separatorIndex + 1).trim() + "\n");
+                }
+            }
+            configPaths.add(configPath);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(directory.resolve(PLAN_FILE_NAME),
+                StandardCharsets.UTF_8)) {
+            for (PlannedLink link : plan.links) {
+                writer.write(routerId(link.router) + " " + routerId(link.otherRouter) + " " + link.weight + "\n");
+            }
+        }
+        return configPaths;
+    }
+
+    /**
+     * @return the simulated IP of the router with the given index, a dotted quad in 10.0.0.0/8.
+     */
+    static String routerId(int router) {
+        return "10." + (router >> 16 & 0xFF) + "." + (router >> 8 & 0xFF) + "." + (router & 0xFF);
+    }
+
+    private static String join(List<String> strings, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (String string : strings) {
+            sb.append(sb.length() == 0 ? "" : separator).append(string);
+        }
+        return sb.toString();
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The routers and links of a generated network.
+     */
+    static final class Plan {
+        final int noOfRouters;
+        final List<PlannedLink> links = new ArrayList<>();
+
+        private Plan(int noOfRouters) {
+            this.noOfRouters = noOfRouters;
+        }
+
+        private void addLink(int router, int otherRouter, int weight) {
+            links.add(new PlannedLink(router, otherRouter, weight));
+        }
+    }
+
+    /**
+     * A link between two routers of a plan; router is the lower index of the two.
+     */
+    static final class PlannedLink {
+        final int router;
+        final int otherRouter;
+        final int weight;
+
+        private PlannedLink(int router, int otherRouter, int weight) {
+            this.router = Math.min(router, otherRouter);
+            this.otherRouter = Math.max(router, otherRouter);
+            this.weight = weight;
+        }
+    }
+}
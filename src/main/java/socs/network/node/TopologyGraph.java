@@ -0,0 +1,327 @@
+package socs.network.node;
+
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the topology described by the LinkStateDatabase, stored in compressed sparse row (CSR)
+ * form: the edges leaving node u are edges [offsets[u], offsets[u + 1]) of the targets/weights arrays. Unlike the
+ * n x n topology array of the LinkStateDatabase the memory needed grows with the no of links, so the snapshot can hold
+ * topologies of tens of thousands of routers, and it can be shared by any no of threads running SPF over it.
+ * <p/>
+ * The same rules as for the topology array apply: a link is only used if the router at the other end advertises it
+ * back (or has no LSA yet), and both directions of a link get the same weight.
+ */
+class TopologyGraph {
+    static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final String[] nodeIds;
+    private final Map<String, Integer> nodeIndex;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] weights;
+
+    private TopologyGraph(String[] nodeIds, Map<String, Integer> nodeIndex, int[] offsets, int[] targets,
+                          int[] weights) {
+        this.nodeIds = nodeIds;
+        this.nodeIndex = nodeIndex;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+    }
+
+    /**
+     * Builds the graph of the given LSAs.
+     *
+     * @param lsas the LSAs of the LinkStateDatabase; must not be modified while the graph is built.
+     * @return the graph.
+     */
+    static TopologyGraph fromLSAs(Collection<LSA> lsas) {
+        Map<String, LSA> lsaMap = new HashMap<>();
+        Map<String, Integer> nodeIndex = new HashMap<>();
+        for (LSA lsa : lsas) {
+            // summary LSAs list the destinations of other areas, not links of the topology.
+            if (lsa.isSummary) {
+                continue;
+            }
+            lsaMap.put(lsa.linkStateID, lsa);
+            indexOf(nodeIndex, lsa.linkStateID);
+            for (LinkDescription linkDesc : lsa.links) {
+                indexOf(nodeIndex, linkDesc.linkID);
+            }
+        }
+        int noOfNodes = nodeIndex.size();
+        String[] nodeIds = new String[noOfNodes];
+        for (Map.Entry<String, Integer> indexEntry : nodeIndex.entrySet()) {
+            nodeIds[indexEntry.getValue()] = indexEntry.getKey();
+        }
+
+        // undirected links keyed by (lower index, higher index); the last advertised weight wins.
+        Map<Long, Integer> links = new HashMap<>();
+        for (LSA lsa : lsas) {
+            if (lsa.isSummary) {
+                continue;
+            }
+            int routerIndex = nodeIndex.get(lsa.linkStateID);
+            for (LinkDescription linkDesc : lsa.links) {
+                int linkRouterIndex = nodeIndex.get(linkDesc.linkID);
+                LSA linkRouterLSA = lsaMap.get(linkDesc.linkID);
+                if (linkRouterIndex == routerIndex ||
+                        (linkRouterLSA != null && !advertisesLinkTo(linkRouterLSA, lsa.linkStateID))) {
+                    continue;
+                }
+                long linkKey = (long) Math.min(routerIndex, linkRouterIndex) * noOfNodes +
+                        Math.max(routerIndex, linkRouterIndex);
+                links.put(linkKey, linkDesc.tosMetrics);
+            }
+        }
+
+        int[] offsets = new int[noOfNodes + 1];
+        for (long linkKey : links.keySet()) {
+            offsets[(int) (linkKey / noOfNodes) + 1]++;
+            offsets[(int) (linkKey % noOfNodes) + 1]++;
+        }
+        for (int a = 0; a < noOfNodes; a++) {
+            offsets[a + 1] += offsets[a];
+        }
+        int[] targets = new int[offsets[noOfNodes]];
+        int[] weights = new int[offsets[noOfNodes]];
+        int[] fill = Arrays.copyOf(offsets, noOfNodes);
+        for (Map.Entry<Long, Integer> linkEntry : links.entrySet()) {
+            int a = (int) (linkEntry.getKey() / noOfNodes);
+            int b = (int) (linkEntry.getKey() % noOfNodes);
+            targets[fill[a]] = b;
+            weights[fill[a]++] = linkEntry.getValue();
+            targets[fill[b]] = a;
+            weights[fill[b]++] = linkEntry.getValue();
+        }
+        return new TopologyGraph(nodeIds, nodeIndex, offsets, targets, weights);
+    }
+
+    private static int indexOf(Map<String, Integer> nodeIndex, String routerId) {
+        Integer index = nodeIndex.get(routerId);
+        if (index == null) {
+            index = nodeIndex.size();
+            nodeIndex.put(routerId, index);
+        }
+        return index;
+    }
+
+    private static boolean advertisesLinkTo(LSA lsa, String routerId) {
+        for (LinkDescription linkDesc : lsa.links) {
+            if (linkDesc.linkID.equals(routerId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int getNoOfNodes() {
+        return nodeIds.length;
+    }
+
+    /**
+     * @return the no of directed edges, i.e. twice the no of links.
+     */
+    int getNoOfEdges() {
+        return targets.length;
+    }
+
+    String getNodeId(int index) {
+        return nodeIds[index];
+    }
+
+    /**
+     * @return the index of the router with the given ID; -1 if it is not in the graph.
+     */
+    int indexOf(String routerId) {
+        Integer index = nodeIndex.get(routerId);
+        return index == null ? -1 : index;
+    }
+
+    int firstEdge(int node) {
+        return offsets[node];
+    }
+
+    /**
+     * @return the index after the last edge leaving the given node.
+     */
+    int endEdge(int node) {
+        return offsets[node + 1];
+    }
+
+    int target(int edge) {
+        return targets[edge];
+    }
+
+    int weight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * @return the index of the edge from the given node to the given target; -1 if they are not linked.
+     */
+    int edgeBetween(int node, int target) {
+        for (int edge = offsets[node]; edge < offsets[node + 1]; edge++) {
+            if (targets[edge] == target) {
+                return edge;
+            }
+        }
+        return -1;
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * Reusable workspace for running Dijkstra's algorithm over the graph with a binary heap, i.e. in
+     * O((V + E) log V). A workspace must only be used by a single thread; the arrays are reused between runs so
+     * repeated runs do not allocate.
+     */
+    static class ShortestPaths {
+        private final TopologyGraph graph;
+        // distance of every node from the root of the last run.
+        final int[] distance;
+        // nodes in the order they were settled, i.e. in non-decreasing distance.
+        final int[] settleOrder;
+        int noOfSettled;
+        // position of every node in settleOrder; -1 if not settled.
+        final int[] settleRank;
+        // the node through which every node was first reached at its final distance; -1 for the root.
+        final int[] predecessor;
+        private final int[] heap;
+        private final int[] heapPosition;
+        private int heapSize;
+
+        ShortestPaths(TopologyGraph graph) {
+            int noOfNodes = graph.getNoOfNodes();
+            this.graph = graph;
+            this.distance = new int[noOfNodes];
+            this.settleOrder = new int[noOfNodes];
+            this.settleRank = new int[noOfNodes];
+            this.predecessor = new int[noOfNodes];
+            this.heap = new int[noOfNodes];
+            this.heapPosition = new int[noOfNodes];
+        }
+
+        /**
+         * Computes the distances of all nodes from the given root. The graph is symmetric, so these are also the
+         * distances from all nodes to the root.
+         *
+         * @param root the index of the node to run SPF from.
+         */
+        void run(int root) {
+            run(root, -1, null, null);
+        }
+
+        /**
+         * Computes the distances from the given root over the graph without the excluded nodes and edges, stopping
+         * as soon as the target is settled. Nodes that were not settled keep the distance UNREACHABLE.
+         *
+         * @param root          the index of the node to run SPF from.
+         * @param target        the index of the node to stop at; -1 to settle every reachable node.
+         * @param excludedNodes the nodes that must not be visited (indexed by node); null to allow all.
+         * @param excludedEdges the directed edges that must not be used (indexed by edge); null to allow all.
+         */
+        void run(int root, int target, boolean[] excludedNodes, boolean[] excludedEdges) {
+            Arrays.fill(distance, UNREACHABLE);
+            Arrays.fill(settleRank, -1);
+            Arrays.fill(heapPosition, -1);
+            Arrays.fill(predecessor, -1);
+            noOfSettled = 0;
+            heapSize = 0;
+
+            distance[root] = 0;
+            push(root);
+            while (heapSize > 0) {
+                int node = pop();
+                settleRank[node] = noOfSettled;
+                settleOrder[noOfSettled++] = node;
+                if (node == target) {
+                    break;
+                }
+
+                for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    int next = graph.target(edge);
+                    if (settleRank[next] != -1 || (excludedNodes != null && excludedNodes[next]) ||
+                            (excludedEdges != null && excludedEdges[edge])) {
+                        continue;
+                    }
+                    int newDistance = distance[node] + graph.weight(edge);
+                    if (newDistance < distance[next]) {
+                        distance[next] = newDistance;
+                        predecessor[next] = node;
+                        if (heapPosition[next] == -1) {
+                            push(next);
+                        } else {
+                            siftUp(heapPosition[next]);
+                        }
+                    }
+                }
+            }
+            // nodes still queued when stopping early were not settled; their tentative distances are not final.
+            for (int position = 0; position < heapSize; position++) {
+                distance[heap[position]] = UNREACHABLE;
+                heapPosition[heap[position]] = -1;
+            }
+            heapSize = 0;
+        }
+
+        private void push(int node) {
+            heap[heapSize] = node;
+            heapPosition[node] = heapSize;
+            siftUp(heapSize++);
+        }
+
+        private int pop() {
+            int top = heap[0];
+            heapPosition[top] = -1;
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapPosition[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int position) {
+            int node = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >>> 1;
+                if (distance[heap[parent]] <= distance[node]) {
+                    break;
+                }
+                heap[position] = heap[parent];
+                heapPosition[heap[position]] = position;
+                position = parent;
+            }
+            heap[position] = node;
+            heapPosition[node] = position;
+        }
+
+        private void siftDown(int position) {
+            int node = heap[position];
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && distance[heap[child + 1]] < distance[heap[child]]) {
+                    child++;
+                }
+                if (distance[heap[child]] >= distance[node]) {
+                    break;
+                }
+                heap[position] = heap[child];
+                heapPosition[heap[position]] = position;
+                position = child;
+            }
+            heap[position] = node;
+            heapPosition[node] = position;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package socs.network.node;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Routes a traffic matrix over a topology snapshot and computes the load and utilization of every link, for capacity
+ * planning. Demands are forwarded the way the routers forward them: along the shortest paths, split equally over the
+ * equal-cost next hops at every hop (ECMP). Like the routers, every hop uses at most the configured no of next hops,
+ * those with the lowest IDs.
+ * <p/>
+ * The demands are grouped by destination and one SPF is run per destination; since links are symmetric this gives
+ * the distance of every node to the destination and hence its next hops. The loads are then pushed down the
+ * shortest-path DAG from the farthest node towards the destination. Destinations are processed in parallel with
+ * fork/join, each task accumulating the loads of its destinations in an array of its own which are summed up at the
+ * end.
+ * <p/>
+ * The demand file has one entry per line; blank lines and lines starting with '#' are ignored:
+ * <pre>
+ * &lt;source IP&gt; &lt;destination IP&gt; &lt;demand&gt;     demand between two routers
+ * * * &lt;demand&gt;                               the same demand between every pair of routers
+ * capacity &lt;IP&gt; &lt;IP&gt; &lt;capacity&gt;          capacity of the link between two routers (both directions)
+ * </pre>
+ */
+class TrafficMatrixAnalyzer {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final TopologyGraph graph;
+    private final double defaultCapacity;
+    private final int maxNextHops;
+    // destination => (source => demand)
+    private final Map<Integer, Map<Integer, Double>> demandsByDestination = new HashMap<>();
+    // demand between every pair of routers, on top of the explicit demands.
+    private double uniformDemand = 0;
+    // directed edge => capacity, for edges whose capacity differs from the default.
+    private final Map<Integer, Double> edgeCapacities = new HashMap<>();
+
+    /**
+     * @param graph           the topology snapshot to route the demands over.
+     * @param defaultCapacity the capacity of links without an explicit capacity.
+     * @param maxNextHops     the maximum no of equal-cost next hops the load is split over at every hop.
+     */
+    TrafficMatrixAnalyzer(TopologyGraph graph, double defaultCapacity, int maxNextHops) {
+        this.graph = graph;
+        this.defaultCapacity = defaultCapacity;
+        this.maxNextHops = Math.max(1, maxNextHops);
+    }
+
+    /**
+     * Reads the demands and link capacities from the given file.
+     *
+     * @param demandFile the file to read.
+     * @throws IOException              if the file cannot be read.
+     * @throws IllegalArgumentException if a line is malformed or refers to a router that is not in the topology.
+     */
+    void loadDemands(Path demandFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(demandFile, UTF8)) {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                try {
+                    if (fields.length == 4 && fields[0].equals("capacity")) {
+                        setCapacity(fields[1], fields[2], Double.parseDouble(fields[3]));
+                    } else if (fields.length == 3 && fields[0].equals("*") && fields[1].equals("*")) {
+                        uniformDemand += Double.parseDouble(fields[2]);
+                    } else if (fields.length == 3) {
+                        addDemand(fields[0], fields[1], Double.parseDouble(fields[2]));
+                    } else {
+                        throw new IllegalArgumentException("unknown entry");
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalArgumentException("Invalid line " + lineNo + " in [" + demandFile + "]: " +
+                            e.getMessage());
+                }
+            }
+        }
+    }
+
+    void addDemand(String sourceIP, String destinationIP, double demand) {
+        int source = nodeIndex(sourceIP);
+        int destination = nodeIndex(destinationIP);
+        if (source == destination || demand <= 0) {
+            return;
+        }
+        Map<Integer, Double> demands = demandsByDestination.get(destination);
+        if (demands == null) {
+            demands = new HashMap<>();
+            demandsByDestination.put(destination, demands);
+        }
+        Double currentDemand = demands.get(source);
+        demands.put(source, currentDemand == null ? demand : currentDemand + demand);
+    }
+
+    void setCapacity(String routerIP, String otherRouterIP, double capacity) {
+        int router = nodeIndex(routerIP);
+        int otherRouter = nodeIndex(otherRouterIP);
+        boolean isLink = false;
+        for (int edge = graph.firstEdge(router); edge < graph.endEdge(router); edge++) {
+            if (graph.target(edge) == otherRouter) {
+                edgeCapacities.put(edge, capacity);
+                isLink = true;
+            }
+        }
+        for (int edge = graph.firstEdge(otherRouter); edge < graph.endEdge(otherRouter); edge++) {
+            if (graph.target(edge) == router) {
+                edgeCapacities.put(edge, capacity);
+            }
+        }
+        if (!isLink) {
+            throw new IllegalArgumentException("no link between " + routerIP + " and " + otherRouterIP);
+        }
+    }
+
+    private int nodeIndex(String routerIP) {
+        int index = graph.indexOf(routerIP);
+        if (index == -1) {
+            throw new IllegalArgumentException("router " + routerIP + " is not in the topology");
+        }
+        return index;
+    }
+
+    /**
+     * Routes all demands in parallel on the given pool.
+     *
+     * @param pool the pool to run the SPF computations on.
+     * @return the resulting link loads.
+     */
+    Result analyze(ForkJoinPool pool) {
+        int[] destinations;
+        if (uniformDemand > 0) {
+            destinations = new int[graph.getNoOfNodes()];
+            for (int a = 0; a < destinations.length; a++) {
+                destinations[a] = a;
+            }
+        } else {
+            destinations = new int[demandsByDestination.size()];
+            int d = 0;
+            for (int destination : demandsByDestination.keySet()) {
+                destinations[d++] = destination;
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        // a few tasks per worker so that destinations with many demands do not leave the other workers idle.
+        int leafSize = Math.max(1, destinations.length / (pool.getParallelism() * 4));
+        Result result = pool.invoke(new RoutingTask(destinations, 0, destinations.length, leafSize));
+        result.elapsedNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    /**
+     * Routes the demands towards a range of destinations, splitting the range while it is larger than the leaf size.
+     */
+    private class RoutingTask extends RecursiveTask<Result> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] destinations;
+        private final int from;
+        private final int to;
+        private final int leafSize;
+
+        private RoutingTask(int[] destinations, int from, int to, int leafSize) {
+            this.destinations = destinations;
+            this.from = from;
+            this.to = to;
+            this.leafSize = leafSize;
+        }
+
+        @Override
+        protected Result compute() {
+            if (to - from > leafSize) {
+                int middle = (from + to) >>> 1;
+                RoutingTask left = new RoutingTask(destinations, from, middle, leafSize);
+                left.fork();
+                Result result = new RoutingTask(destinations, middle, to, leafSize).compute();
+                result.add(left.join());
+                return result;
+            }
+
+            Result result = new Result(graph.getNoOfEdges());
+            TopologyGraph.ShortestPaths spf = new TopologyGraph.ShortestPaths(graph);
+            double[] nodeLoad = new double[graph.getNoOfNodes()];
+            int[] nextHopEdges = new int[maxNextHops];
+            for (int d = from; d < to; d++) {
+                routeTowards(destinations[d], spf, nodeLoad, nextHopEdges, result);
+            }
+            return result;
+        }
+    }
+
+    private void routeTowards(int destination, TopologyGraph.ShortestPaths spf, double[] nodeLoad, int[] nextHopEdges,
+                              Result result) {
+        spf.run(destination);
+
+        Arrays.fill(nodeLoad, uniformDemand);
+        nodeLoad[destination] = 0;
+        Map<Integer, Double> demands = demandsByDestination.get(destination);
+        if (demands != null) {
+            for (Map.Entry<Integer, Double> demandEntry : demands.entrySet()) {
+                nodeLoad[demandEntry.getKey()] += demandEntry.getValue();
+            }
+        }
+
+        // demand originating at routers that cannot reach the destination.
+        if (spf.noOfSettled < graph.getNoOfNodes()) {
+            for (int node = 0; node < nodeLoad.length; node++) {
+                if (spf.settleRank[node] == -1) {
+                    result.unroutedDemand += nodeLoad[node];
+                }
+            }
+        }
+
+        // push the load from the farthest node towards the destination; the next hops of a node were settled
+        // before it, so their load is complete once it is their turn.
+        for (int rank = spf.noOfSettled - 1; rank > 0; rank--) {
+            int node = spf.settleOrder[rank];
+            double load = nodeLoad[node];
+            if (load == 0) {
+                continue;
+            }
+            int noOfNextHops = selectNextHops(spf, node, rank, nextHopEdges);
+            double share = load / noOfNextHops;
+            for (int h = 0; h < noOfNextHops; h++) {
+                result.edgeLoad[nextHopEdges[h]] += share;
+                nodeLoad[graph.target(nextHopEdges[h])] += share;
+            }
+        }
+        result.routedDemand += nodeLoad[destination];
+    }
+
+    /**
+     * Selects the next hops of a node towards the destination of the last SPF run the way the routers do: the
+     * maxNextHops equal-cost next hops with the lowest IDs.
+     *
+     * @param nextHopEdges receives the edges to the selected next hops, in the order of their IDs.
+     * @return the no of next hops selected.
+     */
+    private int selectNextHops(TopologyGraph.ShortestPaths spf, int node, int rank, int[] nextHopEdges) {
+        int noOfNextHops = 0;
+        for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+            if (!isNextHop(spf, node, edge, rank)) {
+                continue;
+            }
+            String nextHopId = graph.getNodeId(graph.target(edge));
+            int position = noOfNextHops;
+            while (position > 0 && nextHopId.compareTo(graph.getNodeId(graph.target(nextHopEdges[position - 1]))) < 0) {
+                position--;
+            }
+            if (position == maxNextHops) {
+                continue;
+            }
+            int noOfKept = Math.min(noOfNextHops, maxNextHops - 1);
+            System.arraycopy(nextHopEdges, position, nextHopEdges, position + 1, noOfKept - position);
+            nextHopEdges[position] = edge;
+            noOfNextHops = noOfKept + 1;
+        }
+        return noOfNextHops;
+    }
+
+    private boolean isNextHop(TopologyGraph.ShortestPaths spf, int node, int edge, int rank) {
+        int target = graph.target(edge);
+        int targetRank = spf.settleRank[target];
+        return targetRank != -1 && targetRank < rank &&
+                (long) spf.distance[target] + graph.weight(edge) == spf.distance[node];
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * The loads computed by an analysis.
+     */
+    class Result {
+        // load carried by every directed edge of the graph.
+        final double[] edgeLoad;
+        double routedDemand = 0;
+        double unroutedDemand = 0;
+        long elapsedNanos;
+
+        private Result(int noOfEdges) {
+            this.edgeLoad = new double[noOfEdges];
+        }
+
+        private void add(Result other) {
+            for (int edge = 0; edge < edgeLoad.length; edge++) {
+                edgeLoad[edge] += other.edgeLoad[edge];
+            }
+            routedDemand += other.routedDemand;
+            unroutedDemand += other.unroutedDemand;
+        }
+
+        double getCapacity(int edge) {
+            Double capacity = edgeCapacities.get(edge);
+            return capacity == null ? defaultCapacity : capacity;
+        }
+
+        double getUtilization(int edge) {
+            double capacity = getCapacity(edge);
+            return capacity <= 0 ? Double.POSITIVE_INFINITY : edgeLoad[edge] / capacity;
+        }
+
+        /**
+         * @param limit the maximum no of links to list.
+         * @return a summary of the analysis followed by the most utilized links.
+         */
+        String summarize(int limit) {
+            List<Integer> loadedEdges = new ArrayList<>();
+            int[] edgeSources = new int[edgeLoad.length];
+            int noOfOverloaded = 0;
+            for (int node = 0; node < graph.getNoOfNodes(); node++) {
+                for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                    edgeSources[edge] = node;
+                    if (edgeLoad[edge] > 0) {
+                        loadedEdges.add(edge);
+                    }
+                    if (getUtilization(edge) > 1) {
+                        noOfOverloaded++;
+                    }
+                }
+            }
+            Collections.sort(loadedEdges, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer edge, Integer otherEdge) {
+                    return Double.compare(getUtilization(otherEdge), getUtilization(edge));
+                }
+            });
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(graph.getNoOfNodes()).append(" routers, ").append(graph.getNoOfEdges() / 2).
+                    append(" links analysed in ").append(elapsedNanos / 1000000).append(" ms\n");
+            sb.append(String.format("routed demand: %.2f, unroutable demand: %.2f, overloaded links: %d%n",
+                    routedDemand, unroutedDemand, noOfOverloaded));
+            sb.append("link | load | capacity | utilization\n");
+            for (int edge : loadedEdges.subList(0, Math.min(limit, loadedEdges.size()))) {
+                sb.append(String.format("%s -> %s | %.2f | %.2f | %.1f%%%n", graph.getNodeId(edgeSources[edge]),
+                        graph.getNodeId(graph.target(edge)), edgeLoad[edge], getCapacity(edge),
+                        getUtilization(edge) * 100));
+            }
+            return sb.toString();
+        }
+
+        /**
+         * Writes the load and utilization of every directed link to the given file as CSV.
+         */
+        void writeCsv(Path outputFile) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(outputFile, UTF8)) {
+                writer.write("source,target,weight,load,capacity,utilization");
+                writer.newLine();
+                for (int node = 0; node < graph.getNoOfNodes(); node++) {
+                    for (int edge = graph.firstEdge(node); edge < graph.endEdge(node); edge++) {
+                        writer.write(graph.getNodeId(node) + "," + graph.getNodeId(graph.target(edge)) + "," +
+                                graph.weight(edge) + "," + edgeLoad[edge] + "," + getCapacity(edge) + "," +
+                                getUtilization(edge));
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+package socs.network.node;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.HierarchicalTimerWheel;
+import socs.network.util.RouterConstants;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A control transport that sends every message as one or more UDP datagrams over a single DatagramChannel per
+ * router, bound at the process port of the router plus a fixed offset. There are no connections and no handshakes:
+ * flooding an LSUPDATE costs one send per neighbour (per fragment).
+ * <p/>
+ * Messages are encoded with {@link MessageCodec} and split into fragments that fit in a datagram, each with a
+ * 16 byte frame header:
+ * <pre>
+ * magic(2), flags(1), reserved(1), epoch(4), message-id(4), fragment-index(2), no-of-fragments(2), fragment
+ * </pre>
+ * LSUPDATE, EXIT and DISCONNECT are sent reliably: once all fragments of such a message arrived, the receiver answers
+ * with an LSAck frame (the ACK flag, the epoch and the message ID, no payload) and the sender retransmits the whole
+ * message until it is acknowledged or the retransmissions run out. Duplicates caused by retransmissions are
+ * acknowledged again but delivered only once. Message IDs restart at 1 whenever a transport is started, so every
+ * transport picks a random epoch and a message is identified by its sender, epoch and ID: the messages of a router
+ * restarted on the same address are never taken for duplicates of those of its previous run. HELLOs and keepalives
+ * are sent unreliably: a HELLO exchange retries on its own and a lost keepalive is covered by the dead interval.
+ */
+class UdpControlTransport extends MessageControlTransport {
+    private final Log log = LogFactory.getLog(UdpControlTransport.class);
+
+    private static final short FRAME_MAGIC = 0x5343; // "SC"
+    private static final int FLAG_ACK = 1;
+    private static final int FLAG_RELIABLE = 2;
+    private static final int FRAME_HEADER_SIZE = 16;
+    private static final int MAX_DATAGRAM_SIZE = 1472;
+    private static final int MAX_FRAGMENT_SIZE = MAX_DATAGRAM_SIZE - FRAME_HEADER_SIZE;
+    // no of message IDs of every sender remembered to discard retransmitted duplicates.
+    private static final int DELIVERED_HISTORY_SIZE = 4096;
+
+    private final int portOffset;
+    private final HierarchicalTimerWheel timerWheel;
+    private DatagramChannel channel;
+    private volatile boolean running = false;
+    private final AtomicInteger nextMessageId = new AtomicInteger(1);
+    // identifies this run of the transport in the frames it sends.
+    private final int epoch = new SecureRandom().nextInt();
+
+    // reliable messages sent and not acknowledged yet, keyed by message ID.
+    private final ConcurrentHashMap<Integer, PendingMessage> pendingMessages = new ConcurrentHashMap<>();
+    // messages of which only some fragments have arrived, keyed by "<sender address>#<epoch>#<message ID>".
+    private final ConcurrentHashMap<String, Reassembly> reassemblies = new ConcurrentHashMap<>();
+    // keys of the reliable messages delivered most recently; only accessed by the receiver thread.
+    private final Map<String, Boolean> deliveredMessages = new LinkedHashMap<String, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > DELIVERED_HISTORY_SIZE;
+        }
+    };
+
+    /**
+     * @param router       the router whose control messages are carried.
+     * @param routerServer the server to which received messages are handed.
+     * @param portOffset   offset added to the process port numbers of the routers to get their control ports.
+     * @param timerWheel   the wheel on which the retransmission timers are scheduled.
+     */
+    UdpControlTransport(Router router, RouterServer routerServer, int portOffset, HierarchicalTimerWheel timerWheel) {
+        super(router, routerServer);
+        this.portOffset = portOffset;
+        this.timerWheel = timerWheel;
+    }
+
+    @Override
+    public boolean start() {
+        int controlPort = myRouter.getRd().processPortNumber + portOffset;
+        if (controlPort <= 0 || controlPort > 65535) {
+            log.error("Cannot start the UDP control transport on PORT [" + controlPort + "].");
+            return false;
+        }
+
+        try {
+            channel = DatagramChannel.open();
+            channel.socket().setReuseAddress(true);
+            channel.socket().setReceiveBufferSize(1024 * 1024);
+            channel.bind(new InetSocketAddress(controlPort));
+        } catch (IOException e) {
+            log.error("Unable to bind the UDP control channel on PORT [" + controlPort + "].", e);
+            return false;
+        }
+
+        running = true;
+        Thread receiverThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receiveFrames();
+            }
+        }, "udp-control-receiver");
+        receiverThread.setDaemon(true);
+        receiverThread.start();
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        for (PendingMessage pendingMessage : pendingMessages.values()) {
+            timerWheel.cancel(pendingMessage.retransmitTimeout);
+        }
+        pendingMessages.clear();
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            log.error("Error occurred when attempted to close the UDP control channel.", e);
+        }
+    }
+
+    @Override
+    public void send(RouterDescription destination, SOSPFPacket packet, String packetType) {
+        send(destination, packet, packetType, packet.sospfType == RouterConstants.LSUPDATE_PACKET ||
+                packet.sospfType == RouterConstants.EXIT_PACKET ||
+                packet.sospfType == RouterConstants.DISCONNECT_PACKET);
+    }
+
+    @Override
+    void send(RouterDescription destination, SOSPFPacket packet, String packetType, boolean isReliable) {
+        InetSocketAddress address = addressOf(destination);
+        int messageId = nextMessageId.getAndIncrement();
+        ByteBuffer[] fragments = fragment(packet, messageId, isReliable);
+        if (fragments == null) {
+            log.error("[" + packetType + "] The message to " + packet.dstIP + " is too large to be sent.");
+            return;
+        }
+
+        if (isReliable) {
+            PendingMessage pendingMessage = new PendingMessage(address, fragments, packetType);
+            pendingMessages.put(messageId, pendingMessage);
+            scheduleRetransmit(messageId, pendingMessage);
+        }
+        if (sendFragments(address, fragments, packetType) && myRouter.printFlag) {
+            myRouter.eventLog.log(EventLog.EventType.MESSAGE_SENT, packetType, packet.dstIP);
+        }
+    }
+
+    @Override
+    public void drain(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while (!pendingMessages.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(RouterConstants.TIMER_WHEEL_TICK_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private InetSocketAddress addressOf(RouterDescription router) {
+        return new InetSocketAddress(router.processIPAddress, router.processPortNumber + portOffset);
+    }
+
+    /**
+     * Encodes the packet and splits it into framed fragments.
+     *
+     * @return the fragments, ready to be sent; null if the packet needs more fragments than can be numbered.
+     */
+    private ByteBuffer[] fragment(SOSPFPacket packet, int messageId, boolean isReliable) {
+        ByteBuffer message = ByteBuffer.allocate(MessageCodec.sizeOf(packet));
+        MessageCodec.writePacket(message, packet);
+        message.flip();
+
+        int noOfFragments = Math.max(1, (message.remaining() + MAX_FRAGMENT_SIZE - 1) / MAX_FRAGMENT_SIZE);
+        if (noOfFragments > 0xFFFF) {
+            return null;
+        }
+        ByteBuffer[] fragments = new ByteBuffer[noOfFragments];
+        for (int fragmentIndex = 0; fragmentIndex < noOfFragments; fragmentIndex++) {
+            int fragmentSize = Math.min(MAX_FRAGMENT_SIZE, message.remaining());
+            ByteBuffer fragment = ByteBuffer.allocate(FRAME_HEADER_SIZE + fragmentSize);
+            fragment.putShort(FRAME_MAGIC);
+            fragment.put((byte) (isReliable ? FLAG_RELIABLE : 0));
+            fragment.put((byte) 0);
+            fragment.putInt(epoch);
+            fragment.putInt(messageId);
+            fragment.putShort((short) fragmentIndex);
+            fragment.putShort((short) noOfFragments);
+            ByteBuffer fragmentPayload = message.duplicate();
+            fragmentPayload.limit(message.position() + fragmentSize);
+            fragment.put(fragmentPayload);
+            message.position(message.position() + fragmentSize);
+            fragment.flip();
+            fragments[fragmentIndex] = fragment;
+        }
+        return fragments;
+    }
+
+    private boolean sendFragments(SocketAddress address, ByteBuffer[] fragments, String packetType) {
+        try {
+            for (ByteBuffer fragment : fragments) {
+                channel.send(fragment.duplicate(), address);
+            }
+            return true;
+        } catch (IOException e) {
+            if (running) {
+                log.error("[" + packetType + "] An error occurred whilst sending a datagram to [" + address + "]", e);
+            }
+            return false;
+        }
+    }
+
+    private void scheduleRetransmit(final int messageId, final PendingMessage pendingMessage) {
+        pendingMessage.retransmitTimeout = timerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (pendingMessages.get(messageId) != pendingMessage || !running) {
+                    return;
+                }
+                if (pendingMessage.noOfRetransmits == RouterConstants.UDP_MAX_RETRANSMITS) {
+                    pendingMessages.remove(messageId);
+                    log.warn("[" + pendingMessage.packetType + "] Giving up on message " + messageId + " to [" +
+                            pendingMessage.address + "]; it was not acknowledged.");
+                    return;
+                }
+                pendingMessage.noOfRetransmits++;
+                sendFragments(pendingMessage.address, pendingMessage.fragments, pendingMessage.packetType);
+                scheduleRetransmit(messageId, pendingMessage);
+            }
+        }, RouterConstants.UDP_RETRANSMIT_INTERVAL_MILLIS);
+    }
+
+    private void receiveFrames() {
+        ByteBuffer frame = ByteBuffer.allocate(MAX_DATAGRAM_SIZE);
+        while (running) {
+            SocketAddress senderAddress = null;
+            try {
+                frame.clear();
+                senderAddress = channel.receive(frame);
+                frame.flip();
+                if (frame.remaining() < FRAME_HEADER_SIZE || frame.getShort() != FRAME_MAGIC) {
+                    continue;
+                }
+                int flags = frame.get();
+                frame.get();
+                int frameEpoch = frame.getInt();
+                int messageId = frame.getInt();
+                int fragmentIndex = frame.getShort() & 0xFFFF;
+                int noOfFragments = frame.getShort() & 0xFFFF;
+
+                if ((flags & FLAG_ACK) != 0) {
+                    if (frameEpoch != epoch) {
+                        // an acknowledgement of a message sent by a previous run of this router.
+                        continue;
+                    }
+                    PendingMessage pendingMessage = pendingMessages.remove(messageId);
+                    if (pendingMessage != null) {
+                        timerWheel.cancel(pendingMessage.retransmitTimeout);
+                    }
+                } else if (fragmentIndex < noOfFragments) {
+                    fragmentReceived(senderAddress, frameEpoch, messageId, fragmentIndex, noOfFragments,
+                            (flags & FLAG_RELIABLE) != 0, frame);
+                }
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    log.error("An error occurred whilst receiving a control datagram.", e);
+                }
+            } catch (RuntimeException e) {
+                // a datagram that can not be processed must not stop the reception of the others.
+                log.error("Discarding a control datagram from [" + senderAddress + "] that could not be processed.", e);
+            }
+        }
+    }
+
+    private void fragmentReceived(SocketAddress senderAddress, int senderEpoch, int messageId, int fragmentIndex,
+                                  int noOfFragments, boolean isReliable, ByteBuffer frame) throws IOException {
+        String messageKey = senderAddress + "#" + senderEpoch + "#" + messageId;
+        ByteBuffer message;
+        if (noOfFragments == 1) {
+            message = frame;
+        } else {
+            Reassembly reassembly = reassemblies.get(messageKey);
+            if (reassembly == null) {
+                if (deliveredMessages.containsKey(messageKey)) {
+                    sendAck(senderAddress, senderEpoch, messageId);
+                    return;
+                }
+                reassembly = new Reassembly(noOfFragments);
+                reassemblies.put(messageKey, reassembly);
+                scheduleReassemblyExpiry(messageKey, reassembly);
+            }
+            if (!reassembly.add(fragmentIndex, frame)) {
+                return;
+            }
+            reassemblies.remove(messageKey);
+            message = reassembly.join();
+        }
+
+        if (isReliable) {
+            sendAck(senderAddress, senderEpoch, messageId);
+            if (deliveredMessages.put(messageKey, Boolean.TRUE) != null) {
+                return;
+            }
+        }
+
+        SOSPFPacket packet;
+        try {
+            packet = MessageCodec.readPacket(message);
+        } catch (BufferUnderflowException e) {
+            log.warn("Discarding a malformed control message from [" + senderAddress + "]");
+            return;
+        }
+        messageReceived(packet);
+    }
+
+    protected void sendAck(SocketAddress address, int senderEpoch, int messageId) throws IOException {
+        ByteBuffer ack = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+        ack.putShort(FRAME_MAGIC).put((byte) FLAG_ACK).put((byte) 0).putInt(senderEpoch).putInt(messageId).
+                putShort((short) 0).putShort((short) 0);
+        ack.flip();
+        channel.send(ack, address);
+    }
+
+    private void scheduleReassemblyExpiry(final String messageKey, final Reassembly reassembly) {
+        timerWheel.schedule(new Runnable() {
+            @Override
+            public void run() {
+                reassemblies.remove(messageKey, reassembly);
+            }
+        }, RouterConstants.UDP_REASSEMBLY_TIMEOUT_MILLIS);
+    }
+
+    // ---------------------------------------------------------------------------------------------------------------
+    /**
+     * A reliable message waiting for its LSAck.
+     */
+    private static final class PendingMessage {
+        private final InetSocketAddress address;
+        private final ByteBuffer[] fragments;
+        private final String packetType;
+        private int noOfRetransmits = 0;
+        private volatile HierarchicalTimerWheel.Timeout retransmitTimeout;
+
+        private PendingMessage(InetSocketAddress address, ByteBuffer[] fragments, String packetType) {
+            this.address = address;
+            this.fragments = fragments;
+            this.packetType = packetType;
+        }
+    }
+
+    /**
+     * The fragments of a message received so far. Only accessed by the receiver thread.
+     */
+    private static final class Reassembly {
+        private final byte[][] fragments;
+        private int noOfReceived = 0;
+
+        private Reassembly(int noOfFragments) {
+            this.fragments = new byte[noOfFragments][];
+        }
+
+        /**
+         * @return true once all fragments of the message are received.
+         */
+        private boolean add(int fragmentIndex, ByteBuffer frame) {
+            if (fragmentIndex < fragments.length && fragments[fragmentIndex] == null) {
+                fragments[fragmentIndex] = new byte[frame.remaining()];
+                frame.get(fragments[fragmentIndex]);
+                noOfReceived++;
+            }
+            return noOfReceived == fragments.length;
+        }
+
+        private ByteBuffer join() {
+            int size = 0;
+            for (byte[] fragment : fragments) {
+                size += fragment.length;
+            }
+            ByteBuffer message = ByteBuffer.allocate(size);
+            for (byte[] fragment : fragments) {
+                message.put(fragment);
+            }
+            message.flip();
+            return message;
+        }
+    }
+}
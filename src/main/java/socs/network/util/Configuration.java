@@ -5,6 +5,7 @@ import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
 
 import java.io.File;
+import java.util.List;
 
 
 public class Configuration {
@@ -15,6 +16,10 @@ public class Configuration {
     _config = ConfigFactory.parseFile(new File(path));
   }
 
+  public boolean hasPath(String key) {
+    return _config.hasPath(key);
+  }
+
   public String getString(String key) {
     return _config.getString(key);
   }
@@ -31,6 +36,10 @@ public class Configuration {
     return (short) _config.getInt(key);
   }
 
+  public List<String> getStringList(String key) {
+    return _config.getStringList(key);
+  }
+
   public double getDouble(String key) {
     return _config.getDouble(key);
   }
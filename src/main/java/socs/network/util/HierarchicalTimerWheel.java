@@ -0,0 +1,246 @@
+package socs.network.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A hashed and hierarchical timer wheel used to drive all the protocol timers (HELLO intervals, neighbor dead
+ * intervals etc.) of a router from a single ticker thread. Scheduling and cancelling a timer are O(1) operations and
+ * every tick only touches the bucket of timers that expire on that tick, so thousands of timers cost the same per
+ * tick as a handful.
+ * <p/>
+ * The wheel consists of a number of levels each having the same number of slots. Level-0 slots are one tick wide,
+ * level-1 slots are as wide as a full level-0 rotation and so on. Timers that are too far away to fit in the lower
+ * levels are parked in the higher ones and are cascaded down as the wheel turns.
+ */
+public class HierarchicalTimerWheel {
+    private final Log log = LogFactory.getLog(HierarchicalTimerWheel.class);
+
+    // the duration of a single tick of the wheel.
+    private final long tickMillis;
+    // no of bits needed to address a slot in a level (the no of slots per level is always a power of two).
+    private final int slotBits;
+    private final int slotMask;
+    // buckets[level][slot] is the head of a doubly linked list of timeouts.
+    private final Timeout[][] buckets;
+    // the executor on which the expired tasks are run so that a slow task never delays the ticks.
+    private final Executor dispatcher;
+
+    // the tick that is processed next.
+    private long currentTick = 0;
+    private long startTimeMillis;
+    private volatile boolean running = false;
+    private Thread tickerThread;
+
+    /**
+     * Constructor for the timer wheel.
+     *
+     * @param tickMillis    the resolution of the wheel in milliseconds.
+     * @param slotsPerLevel no of slots per level; rounded up to the next power of two.
+     * @param levels        no of levels in the hierarchy.
+     * @param dispatcher    executor to which the expired tasks are handed to.
+     */
+    public HierarchicalTimerWheel(long tickMillis, int slotsPerLevel, int levels, Executor dispatcher) {
+        if (tickMillis <= 0 || slotsPerLevel <= 1 || levels <= 0) {
+            throw new IllegalArgumentException("Invalid timer-wheel dimensions [tick: " + tickMillis + ", slots: " +
+                    slotsPerLevel + ", levels: " + levels + "]");
+        }
+        int bits = 32 - Integer.numberOfLeadingZeros(slotsPerLevel - 1);
+        this.tickMillis = tickMillis;
+        this.slotBits = bits;
+        this.slotMask = (1 << bits) - 1;
+        this.buckets = new Timeout[levels][1 << bits];
+        this.dispatcher = dispatcher;
+    }
+
+    /**
+     * Starts the ticker thread of this wheel. Timers can be scheduled before the wheel is started; they start
+     * counting down only once the wheel starts turning.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        startTimeMillis = System.currentTimeMillis();
+        tickerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                runTicker();
+            }
+        }, "timer-wheel");
+        tickerThread.setDaemon(true);
+        tickerThread.start();
+    }
+
+    /**
+     * Stops the ticker thread. Pending timers are dropped without being run.
+     */
+    public void stop() {
+        running = false;
+        if (tickerThread != null) {
+            tickerThread.interrupt();
+        }
+    }
+
+    /**
+     * Schedules the given task to be run once after the given delay.
+     *
+     * @param task        the task to run on expiry.
+     * @param delayMillis the delay after which the task should run. Rounded up to the resolution of the wheel.
+     * @return a handle that can be used to cancel the timer.
+     */
+    public synchronized Timeout schedule(Runnable task, long delayMillis) {
+        long delayTicks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+        Timeout timeout = new Timeout(task, currentTick + delayTicks);
+        insert(timeout);
+        return timeout;
+    }
+
+    /**
+     * Cancels a pending timer. Has no effect if the timer has already expired or was cancelled earlier.
+     *
+     * @param timeout the handle returned when the timer was scheduled.
+     * @return true if the timer was pending and got cancelled.
+     */
+    public synchronized boolean cancel(Timeout timeout) {
+        if (timeout == null || timeout.level < 0) {
+            return false;
+        }
+        unlink(timeout);
+        return true;
+    }
+
+    private void runTicker() {
+        while (running) {
+            long elapsedTicks = (System.currentTimeMillis() - startTimeMillis) / tickMillis;
+            // catch-up on all the ticks that are due (the thread might have been de-scheduled for a while).
+            while (running && currentTick <= elapsedTicks) {
+                processTick();
+            }
+
+            long sleepMillis = startTimeMillis + (currentTick * tickMillis) - System.currentTimeMillis();
+            if (sleepMillis > 0) {
+                try {
+                    Thread.sleep(sleepMillis);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Processes a single tick: cascades the higher level buckets that line up with this tick and then expires all
+     * timers in the current level-0 bucket.
+     */
+    private void processTick() {
+        Timeout expired;
+        synchronized (this) {
+            // find the highest level that lines up with this tick and cascade top-down so that timers moved down
+            // from a higher level are picked up by the lower level buckets of this very same tick.
+            int alignedLevel = 0;
+            while (alignedLevel < buckets.length - 1 &&
+                    (currentTick & ((1L << (slotBits * (alignedLevel + 1))) - 1)) == 0) {
+                alignedLevel++;
+            }
+            for (int level = alignedLevel; level >= 1; level--) {
+                cascade(level, (int) ((currentTick >>> (slotBits * level)) & slotMask));
+            }
+
+            int slot = (int) (currentTick & slotMask);
+            expired = buckets[0][slot];
+            buckets[0][slot] = null;
+            for (Timeout timeout = expired; timeout != null; timeout = timeout.next) {
+                timeout.level = -1;
+                timeout.prev = null;
+            }
+            currentTick++;
+        }
+
+        Timeout timeout = expired;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            dispatch(timeout.task);
+            timeout = next;
+        }
+    }
+
+    private void cascade(int level, int slot) {
+        Timeout timeout = buckets[level][slot];
+        buckets[level][slot] = null;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+            timeout.prev = null;
+            insert(timeout);
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long deadline = Math.max(timeout.deadlineTick, currentTick);
+        long delta = deadline - currentTick;
+
+        int level = 0;
+        while (level < buckets.length - 1 && delta >= (1L << (slotBits * (level + 1)))) {
+            level++;
+        }
+        int slot = (int) ((deadline >>> (slotBits * level)) & slotMask);
+
+        timeout.level = level;
+        timeout.slot = slot;
+        timeout.prev = null;
+        timeout.next = buckets[level][slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        buckets[level][slot] = timeout;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.level][timeout.slot] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        timeout.level = -1;
+    }
+
+    private void dispatch(Runnable task) {
+        try {
+            dispatcher.execute(task);
+        } catch (RejectedExecutionException e) {
+            log.error("Expired timer could not be dispatched since the executor has been shutdown.", e);
+        }
+    }
+
+    /**
+     * Handle to a scheduled timer. Instances are only created by the wheel.
+     */
+    public static final class Timeout {
+        private final Runnable task;
+        private final long deadlineTick;
+        // position of this timeout in the wheel; level is -1 once it is expired or cancelled.
+        private int level = -1;
+        private int slot;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
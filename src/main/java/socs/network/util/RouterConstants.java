@@ -2,12 +2,97 @@ package socs.network.util;
 
 
 public class RouterConstants {
-    public static final short MAXIMUM_NO_OF_PORTS = 4;
+    // no of links a router can have unless configured otherwise.
+    public static final int DEFAULT_MAX_PORTS = 4;
+    // the backbone area, to which every other area is attached through its area border routers.
+    public static final int BACKBONE_AREA = 0;
+    public static final int NO_AREA = -1;
     public static final short MIN_PORT_NUMBER = 2000;
     public static final short MAX_PORT_NUMBER = Short.MAX_VALUE;
     public static final long TIME_TO_LIVE_MILLIS = 2000;
     public static final int SERVER_THREAD_POOL_COUNT = 100;
 
+    // time (in milliseconds) allowed to open a TCP connection to a neighbor, and to wait for each of its replies in
+    // an ATTACH or HELLO exchange; a HELLO exchange still running after both have passed is abandoned.
+    public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 2000;
+    public static final int DEFAULT_HELLO_TIMEOUT_MILLIS = 5000;
+    // time (in milliseconds) for which the links listed in the configuration are re-tried at startup while their
+    // neighbors are not listening yet, and the bounds of the delay between two tries.
+    public static final int DEFAULT_BOOTSTRAP_ATTACH_TIMEOUT_MILLIS = 30000;
+    public static final int BOOTSTRAP_MIN_RETRY_MILLIS = 50;
+    public static final int BOOTSTRAP_MAX_RETRY_MILLIS = 1000;
+    // seed of the random generators that decide the faults injected on the links, unless one is configured.
+    public static final int DEFAULT_FAULT_SEED = 1;
+    // HELLO keepalive and neighbor dead-interval defaults (in seconds) as in OSPF.
+    public static final int DEFAULT_HELLO_INTERVAL_SECONDS = 10;
+    public static final int DEFAULT_DEAD_INTERVAL_SECONDS = 40;
+    // resolution and dimensions of the timer wheel that drives all protocol timers.
+    public static final long TIMER_WHEEL_TICK_MILLIS = 10;
+    public static final int TIMER_WHEEL_SLOTS_PER_LEVEL = 256;
+    public static final int TIMER_WHEEL_LEVELS = 4;
+    // defaults of the BFD style fast liveness detection over UDP.
+    public static final int DEFAULT_LIVENESS_TX_INTERVAL_MILLIS = 50;
+    public static final int DEFAULT_LIVENESS_DETECT_MULTIPLIER = 3;
+    // LSA aging defaults (in seconds) as in OSPF; the own LSA is re-originated every refresh interval.
+    public static final int DEFAULT_LSA_MAX_AGE_SECONDS = 3600;
+    public static final int DEFAULT_LSA_REFRESH_SECONDS = 1800;
+    public static final long LSA_AGING_INTERVAL_MILLIS = 1000;
+    // time (in seconds) an LSA of an unreachable router is kept before it is evicted from the LSD.
+    public static final int DEFAULT_UNREACHABLE_GRACE_SECONDS = 60;
+    // size of the memory-mapped journal in which the LSD changes are recorded for warm restarts.
+    public static final int DEFAULT_LSD_JOURNAL_BYTES = 4 * 1024 * 1024;
+    // maximum no of equal-cost next hops kept per destination.
+    public static final int DEFAULT_ECMP_MAX_PATHS = 4;
+    // the data plane of a router listens on UDP at its process port plus this offset.
+    public static final int DEFAULT_DATA_PLANE_PORT_OFFSET = 1000;
+    public static final int DEFAULT_DATA_PLANE_TTL = 64;
+    public static final int DEFAULT_TRAFFIC_PAYLOAD_BYTES = 64;
+    // ping and traceroute over the data plane.
+    public static final int DEFAULT_PING_COUNT = 4;
+    public static final long PING_INTERVAL_MILLIS = 1000;
+    public static final int PROBE_TIMEOUT_MILLIS = 2000;
+    public static final int TRACEROUTE_MAX_HOPS = 30;
+    public static final int TRACEROUTE_PROBES_PER_HOP = 3;
+    // capacity of the links without an explicit capacity in a traffic matrix analysis.
+    public static final double DEFAULT_LINK_CAPACITY = 1000;
+    // no of most utilized links printed by the analyze command.
+    public static final int ANALYSIS_REPORTED_LINKS = 20;
+    // k-shortest-paths queries.
+    public static final int DEFAULT_KPATHS = 3;
+    public static final int MAX_KPATHS = 64;
+    public static final int DEFAULT_PATH_CACHE_ENTRIES = 1024;
+    // query server.
+    public static final int DEFAULT_QUERY_PORT_OFFSET = 2000;
+    public static final int DEFAULT_QUERY_THREADS = 2;
+    public static final int DEFAULT_QUERY_CACHE_ENTRIES = 4096;
+    // LSAs of an LSUPDATE are compressed from this encoded size on, if enabled.
+    public static final int DEFAULT_COMPRESSION_THRESHOLD_BYTES = 4096;
+    // control transport; the UDP transport listens at the process port plus this offset.
+    public static final String TCP_CONTROL_TRANSPORT = "tcp";
+    public static final String UDP_CONTROL_TRANSPORT = "udp";
+    public static final String SHM_CONTROL_TRANSPORT = "shm";
+    // HELLO exchanges over the UDP and shared memory transports.
+    public static final int HELLO_ATTEMPTS = 3;
+    public static final long HELLO_REPLY_TIMEOUT_MILLIS = 1000;
+    public static final int DEFAULT_UDP_CONTROL_PORT_OFFSET = 3000;
+    public static final long UDP_RETRANSMIT_INTERVAL_MILLIS = 200;
+    public static final int UDP_MAX_RETRANSMITS = 5;
+    public static final long UDP_REASSEMBLY_TIMEOUT_MILLIS = 2000;
+    // shared memory transport: size of the ring of every sender-receiver pair and the spin-then-park idle strategy.
+    public static final int DEFAULT_SHM_RING_BYTES = 1024 * 1024;
+    public static final int SHM_SPIN_ITERATIONS = 20000;
+    public static final long SHM_MIN_PARK_NANOS = 10000;
+    public static final long SHM_MAX_PARK_NANOS = 1000000;
+    public static final long SHM_SEND_TIMEOUT_MILLIS = 2000;
+    public static final long SHM_SCAN_INTERVAL_MILLIS = 50;
+    // no of events the event log of a router holds before it drops them, and the idle strategy of its writer.
+    public static final int DEFAULT_EVENT_LOG_SIZE = 4096;
+    public static final long EVENT_LOG_MIN_PARK_NANOS = 100000;
+    public static final long EVENT_LOG_MAX_PARK_NANOS = 20000000;
+    public static final long EVENT_LOG_STOP_TIMEOUT_MILLIS = 1000;
+    // time for which a quitting router waits for its EXIT messages to be delivered.
+    public static final long QUIT_DRAIN_TIMEOUT_MILLIS = 2000;
+
     public static final boolean QUITTER = true;
 
     public static final short HELLO_PACKET = 0;
@@ -15,10 +100,17 @@ public class RouterConstants {
     public static final short ATTACH_PACKET = 2;
     public static final short DISCONNECT_PACKET = 3;
     public static final short EXIT_PACKET = 4;
+    public static final short HELLO_KEEPALIVE_PACKET = 5;
+
+    // stage of a HELLO in the exchange, needed by the UDP transport where the HELLOs do not share a connection.
+    public static final short HELLO_STAGE_FIRST = 0;
+    public static final short HELLO_STAGE_REPLY = 1;
+    public static final short HELLO_STAGE_CONFIRM = 2;
 
     public static final String EXIT_STRING = "EXIT";
     public static final String DISCONNECT_STRING = "DISCONNECT";
     public static final String LSUPDATE_STRING = "LSUPDATE";
     public static final String HELLO_STRING = "HELLO";
     public static final String ATTACH_STRING = "ATTACH";
+    public static final String HELLO_KEEPALIVE_STRING = "HELLO-KEEPALIVE";
 }
@@ -8,6 +8,10 @@ import socs.network.node.Link;
 import socs.network.node.RouterDescription;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.sql.Time;
 
@@ -20,6 +24,7 @@ public class RouterUtils {
         sospfPacket.srcProcessIP = rd.processIPAddress;
         sospfPacket.srcProcessPort = rd.processPortNumber;
         sospfPacket.srcIP = rd.simulatedIPAddress;
+        sospfPacket.areaId = rd.areaId;
 
         sospfPacket.dstIP = dstIP;
         sospfPacket.sospfType = packetType;
@@ -39,11 +44,36 @@ public class RouterUtils {
         sospfPacket.srcProcessIP = rd.processIPAddress;
         sospfPacket.srcProcessPort = rd.processPortNumber;
         sospfPacket.srcIP = rd.simulatedIPAddress;
+        sospfPacket.areaId = rd.areaId;
         sospfPacket.dstIP = dstIP;
         sospfPacket.neighborID = rd.simulatedIPAddress;
         return sospfPacket;
     }
 
+    /**
+     * Opens a TCP connection that fails instead of blocking for the OS timeouts when the other end is unreachable or
+     * stops responding.
+     *
+     * @param host                 the host to connect to.
+     * @param port                 the port to connect to.
+     * @param connectTimeoutMillis the time allowed to establish the connection.
+     * @param readTimeoutMillis    the time a read on the connection may block.
+     * @return the connected socket.
+     * @throws IOException if the connection could not be established within the timeout.
+     */
+    public static Socket openSocket(String host, int port, int connectTimeoutMillis, int readTimeoutMillis)
+            throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+        } catch (IOException e) {
+            releaseSocket(socket);
+            throw e;
+        }
+        return socket;
+    }
+
     public static void releaseSocket(Socket socket) {
         if (socket != null) {
             try {
@@ -95,4 +125,29 @@ public class RouterUtils {
         }
 
     }
+
+    /**
+     * @return the sum of the peak usages of the heap memory pools of this JVM since it started or since the peaks were
+     * last reset; an upper bound of the peak heap usage, since the pools may have peaked at different times.
+     */
+    public static long getPeakHeapUsage() {
+        long peakBytes = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                peakBytes += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        return peakBytes;
+    }
+
+    /**
+     * Resets the peak usages of the heap memory pools of this JVM to their current usages.
+     */
+    public static void resetPeakHeapUsage() {
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP) {
+                memoryPool.resetPeakUsage();
+            }
+        }
+    }
 }
@@ -0,0 +1,95 @@
+package socs.network.message;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+import java.util.zip.DeflaterOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LSACompressorTest {
+    // the bits ending the last Deflate block and the Adler-32 checksum.
+    private static final int ZLIB_TRAILER_SIZE = 5;
+
+    @Test
+    public void lsasRoundTrip() throws IOException {
+        List<LSA> lsaArray = new ArrayList<>();
+        for (int routerNo = 1; routerNo <= 50; routerNo++) {
+            lsaArray.add(MessageCodecTest.createLSA("10.0.0." + routerNo, routerNo % 10 - 3));
+        }
+        LSA summary = MessageCodecTest.createLSA(LSA.summaryID("10.0.0.1", 2), -1);
+        // varints of negative values take all five bytes.
+        summary.links.getFirst().portNum = -1;
+        summary.updateChecksum();
+        lsaArray.add(summary);
+
+        byte[] compressedLSAs = LSACompressor.compress(lsaArray);
+        Vector<LSA> decompressed = LSACompressor.decompress(compressedLSAs);
+
+        assertTrue(compressedLSAs.length < LSACompressor.uncompressedSizeOf(lsaArray));
+        assertEquals(lsaArray.size(), decompressed.size());
+        for (int lsaIndex = 0; lsaIndex < lsaArray.size(); lsaIndex++) {
+            MessageCodecTest.assertLSAEquals(lsaArray.get(lsaIndex), decompressed.get(lsaIndex));
+        }
+    }
+
+    @Test
+    public void emptyArrayRoundTrips() throws IOException {
+        assertTrue(LSACompressor.decompress(LSACompressor.compress(new ArrayList<LSA>())).isEmpty());
+    }
+
+    @Test
+    public void truncatedInputIsRejected() {
+        byte[] compressedLSAs = LSACompressor.compress(Arrays.asList(MessageCodecTest.createLSA("10.0.0.1", 1)));
+        // the last bytes end the Deflate stream and hold its checksum, which are not needed to read the LSAs.
+        for (int length = 0; length < compressedLSAs.length - ZLIB_TRAILER_SIZE; length++) {
+            try {
+                LSACompressor.decompress(Arrays.copyOf(compressedLSAs, length));
+                throw new AssertionError("Input truncated to " + length + " bytes was decompressed.");
+            } catch (IOException e) {
+                // expected.
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void stringIndexOutOfTheTableIsRejected() throws IOException {
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(compressedBytes))) {
+            // one string, one LSA whose ID is the second string.
+            output.writeByte(1);
+            output.writeUTF("10.0.0.1");
+            output.writeByte(1);
+            output.writeByte(1);
+        }
+        LSACompressor.decompress(compressedBytes.toByteArray());
+    }
+
+    @Test
+    public void countBeyondWhatTheInputCanHoldIsRejected() throws IOException {
+        ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(compressedBytes))) {
+            // a string table of 2^21 - 1 entries, as a varint, in a payload of a few bytes.
+            output.write(new byte[]{(byte) 0xFF, (byte) 0xFF, 0x7F});
+        }
+        try {
+            LSACompressor.decompress(compressedBytes.toByteArray());
+            throw new AssertionError("The string table was read.");
+        } catch (IOException e) {
+            // rejected for its count rather than for running out of input.
+            assertEquals("Invalid no of entries: " + ((1 << 21) - 1), e.getMessage());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void inputThatIsNotDeflatedIsRejected() throws IOException {
+        LSACompressor.decompress(new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+}
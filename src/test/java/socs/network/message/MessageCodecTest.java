@@ -0,0 +1,138 @@
+package socs.network.message;
+
+import org.junit.Test;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCodecTest {
+
+    @Test
+    public void packetWithAllFieldsRoundTrips() {
+        SOSPFPacket packet = createPacket();
+        packet.routerID = "10.0.0.1";
+        packet.neighborID = "10.0.0.1";
+        packet.lsaArray = new Vector<>(Arrays.asList(createLSA("10.0.0.1", 7), createLSA("10.0.0.2", -3)));
+        packet.lsdSummary = new HashMap<>();
+        packet.lsdSummary.put("10.0.0.1", 7);
+        packet.lsdSummary.put("10.0.0.2", Integer.MIN_VALUE);
+        packet.compressedLSAs = new byte[]{1, 2, 3};
+        packet.acceptsCompression = true;
+
+        SOSPFPacket decoded = MessageCodec.readPacket(encode(packet));
+
+        assertEquals(packet.timeToLive, decoded.timeToLive);
+        assertEquals(packet.srcProcessIP, decoded.srcProcessIP);
+        assertEquals(packet.srcProcessPort, decoded.srcProcessPort);
+        assertEquals(packet.srcIP, decoded.srcIP);
+        assertEquals(packet.dstIP, decoded.dstIP);
+        assertEquals(packet.sospfType, decoded.sospfType);
+        assertEquals(packet.helloStage, decoded.helloStage);
+        assertEquals(packet.areaId, decoded.areaId);
+        assertEquals(packet.routerID, decoded.routerID);
+        assertEquals(packet.neighborID, decoded.neighborID);
+        assertEquals(2, decoded.lsaArray.size());
+        for (int lsaIndex = 0; lsaIndex < 2; lsaIndex++) {
+            assertLSAEquals(packet.lsaArray.get(lsaIndex), decoded.lsaArray.get(lsaIndex));
+        }
+        assertEquals(packet.lsdSummary, decoded.lsdSummary);
+        assertArrayEquals(packet.compressedLSAs, decoded.compressedLSAs);
+        assertTrue(decoded.acceptsCompression);
+    }
+
+    @Test
+    public void absentFieldsStayAbsent() {
+        SOSPFPacket decoded = MessageCodec.readPacket(encode(createPacket()));
+
+        assertNull(decoded.routerID);
+        assertNull(decoded.neighborID);
+        assertNull(decoded.lsaArray);
+        assertNull(decoded.lsdSummary);
+        assertNull(decoded.compressedLSAs);
+        assertFalse(decoded.acceptsCompression);
+    }
+
+    @Test
+    public void truncatedPacketIsRejected() {
+        SOSPFPacket packet = createPacket();
+        packet.lsaArray = new Vector<>(Arrays.asList(createLSA("10.0.0.1", 1)));
+        ByteBuffer buffer = encode(packet);
+        for (int length = 0; length < buffer.limit(); length++) {
+            ByteBuffer truncated = buffer.duplicate();
+            truncated.limit(length);
+            try {
+                MessageCodec.readPacket(truncated);
+                throw new AssertionError("A packet truncated to " + length + " bytes was decoded.");
+            } catch (BufferUnderflowException e) {
+                // expected.
+            }
+        }
+    }
+
+    @Test(expected = BufferUnderflowException.class)
+    public void negativeNoOfLinksIsRejected() {
+        LSA lsa = createLSA("10.0.0.1", 1);
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.sizeOf(lsa));
+        MessageCodec.writeLSA(buffer, lsa);
+        // the no of links follows the ID, the four ints and the flags.
+        buffer.putInt(MessageCodec.sizeOf(lsa.linkStateID) + 17, -1);
+        buffer.flip();
+        MessageCodec.readLSA(buffer);
+    }
+
+    private static ByteBuffer encode(SOSPFPacket packet) {
+        ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.sizeOf(packet));
+        MessageCodec.writePacket(buffer, packet);
+        assertFalse("sizeOf does not match the encoded size", buffer.hasRemaining());
+        buffer.flip();
+        return buffer;
+    }
+
+    private static SOSPFPacket createPacket() {
+        SOSPFPacket packet = new SOSPFPacket();
+        packet.timeToLive = 1234567890123L;
+        packet.srcProcessIP = "127.0.0.1";
+        packet.srcProcessPort = (short) 50000;
+        packet.srcIP = "10.0.0.1";
+        packet.dstIP = "10.0.0.2";
+        packet.sospfType = 1;
+        packet.helloStage = 2;
+        packet.areaId = 3;
+        return packet;
+    }
+
+    static LSA createLSA(String routerIP, int seqNumber) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = routerIP;
+        lsa.lsaSeqNumber = seqNumber;
+        lsa.lsaAge = 42;
+        lsa.areaId = 1;
+        lsa.isSummary = seqNumber < 0;
+        lsa.hasQuitNetwork = seqNumber > 5;
+        for (int linkNo = 1; linkNo <= 3; linkNo++) {
+            LinkDescription linkDesc = new LinkDescription();
+            linkDesc.linkID = "10.0.1." + linkNo;
+            linkDesc.portNum = linkNo - 1;
+            linkDesc.tosMetrics = linkNo * 100;
+            lsa.links.add(linkDesc);
+        }
+        lsa.updateChecksum();
+        return lsa;
+    }
+
+    static void assertLSAEquals(LSA expected, LSA actual) {
+        assertEquals(expected.linkStateID, actual.linkStateID);
+        assertEquals(expected.lsaSeqNumber, actual.lsaSeqNumber);
+        assertEquals(expected.lsaAge, actual.lsaAge);
+        assertTrue(expected.hasSameContents(actual));
+    }
+}
@@ -0,0 +1,57 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventLogTest {
+    private final PrintStream systemOut = System.out;
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+    @Before
+    public void setUp() {
+        System.setOut(new PrintStream(output, true));
+    }
+
+    @After
+    public void tearDown() {
+        System.setOut(systemOut);
+    }
+
+    @Test
+    public void eventsLoggedWhileTheRingIsFullAreCounted() {
+        EventLog eventLog = new EventLog(2);
+        // without the writer thread, nothing is consumed.
+        for (int eventNo = 1; eventNo <= 5; eventNo++) {
+            eventLog.log(EventLog.EventType.HELLO_RECEIVED, "10.0.0." + eventNo);
+        }
+        assertEquals(3, eventLog.getNoOfDropped());
+
+        eventLog.start("10.0.0.1");
+        eventLog.stop();
+        assertEquals("[EVENTLOG] dropped 3 events;\n" +
+                "received HELLO from 10.0.0.1;\n" +
+                "received HELLO from 10.0.0.2;\n", output.toString());
+    }
+
+    @Test
+    public void ringIsReusedOnceConsumed() {
+        EventLog eventLog = new EventLog(2);
+        eventLog.start("10.0.0.1");
+        for (int eventNo = 0; eventNo < 10; eventNo++) {
+            eventLog.log(EventLog.EventType.LSA_REFRESHED, null, null, eventNo);
+            // wait for the writer rather than have the event dropped.
+            while (eventLog.getNoOfDropped() == 0 && !output.toString().contains("number " + eventNo + ".")) {
+                Thread.yield();
+            }
+        }
+        eventLog.stop();
+        assertEquals(0, eventLog.getNoOfDropped());
+        assertEquals(10, output.toString().split("\n").length);
+    }
+}
@@ -0,0 +1,96 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class KShortestPathsTest {
+    private static final String A = "10.0.0.1";
+    private static final String B = "10.0.0.2";
+    private static final String C = "10.0.0.3";
+    private static final String D = "10.0.0.4";
+    private static final String E = "10.0.0.5";
+
+    /**
+     * A -1- B -3- D, A -2- C -1- D and B -1- C; E is not connected. The loop-free paths from A to D are, by cost:
+     * A C D (3), A B C D (3), A B D (4) and A C B D (6).
+     */
+    private static TopologyGraph createGraph() {
+        LSA a = createLSA(A);
+        LSA b = createLSA(B);
+        LSA c = createLSA(C);
+        LSA d = createLSA(D);
+        LSA e = createLSA(E);
+        link(a, b, 1);
+        link(a, c, 2);
+        link(b, c, 1);
+        link(b, d, 3);
+        link(c, d, 1);
+        return TopologyGraph.fromLSAs(Arrays.asList(a, b, c, d, e));
+    }
+
+    @Test
+    public void pathsAreFoundInOrderOfCostThenNoOfHops() {
+        List<RoutePath> paths = new KShortestPaths(createGraph()).find(A, D, 10);
+
+        assertEquals(4, paths.size());
+        assertPath(paths.get(0), 3, A, C, D);
+        assertPath(paths.get(1), 3, A, B, C, D);
+        assertPath(paths.get(2), 4, A, B, D);
+        assertPath(paths.get(3), 6, A, C, B, D);
+        assertEquals(A + " ->(2) " + C + " ->(1) " + B + " ->(3) " + D + "  [COST 6]", paths.get(3).toString());
+    }
+
+    @Test
+    public void pathsForSmallerKArePrefixOfPathsForLargerK() {
+        TopologyGraph graph = createGraph();
+        List<RoutePath> allPaths = new KShortestPaths(graph).find(A, D, 4);
+        for (int k = 1; k <= 4; k++) {
+            List<RoutePath> paths = new KShortestPaths(graph).find(A, D, k);
+            assertEquals(k, paths.size());
+            for (int position = 0; position < k; position++) {
+                assertEquals(allPaths.get(position).getRouterIds(), paths.get(position).getRouterIds());
+            }
+        }
+    }
+
+    @Test
+    public void noPathsToDisconnectedRouter() {
+        assertTrue(new KShortestPaths(createGraph()).find(A, E, 3).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownRouterIsRejected() {
+        new KShortestPaths(createGraph()).find(A, "10.0.0.6", 3);
+    }
+
+    private static void assertPath(RoutePath path, int cost, String... routerIds) {
+        assertEquals(Arrays.asList(routerIds), path.getRouterIds());
+        assertEquals(cost, path.getCost());
+        assertEquals(routerIds.length - 1, path.getNoOfHops());
+    }
+
+    private static LSA createLSA(String routerIP) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = routerIP;
+        return lsa;
+    }
+
+    private static void link(LSA lsa, LSA otherLSA, int weight) {
+        lsa.links.add(createLinkDescription(otherLSA.linkStateID, weight));
+        otherLSA.links.add(createLinkDescription(lsa.linkStateID, weight));
+    }
+
+    private static LinkDescription createLinkDescription(String linkID, int weight) {
+        LinkDescription linkDesc = new LinkDescription();
+        linkDesc.linkID = linkID;
+        linkDesc.tosMetrics = weight;
+        return linkDesc;
+    }
+}
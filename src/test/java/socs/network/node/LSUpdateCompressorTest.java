@@ -0,0 +1,65 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.Vector;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class LSUpdateCompressorTest {
+
+    @Test
+    public void floodIsCompressedOncePerArea() {
+        LSUpdateCompressor compressor = new LSUpdateCompressor(0);
+        Vector<LSA> lsaArray = createLSAArray();
+
+        // every neighbor gets its own scoped vector, with the same LSAs for the links of the same area.
+        byte[] backboneLSAs = compressor.compress(lsaArray, 0, scopeToArea(lsaArray, 0));
+        byte[] areaLSAs = compressor.compress(lsaArray, 1, scopeToArea(lsaArray, 1));
+        assertNotNull(backboneLSAs);
+        assertNotSame(backboneLSAs, areaLSAs);
+        assertSame(backboneLSAs, compressor.compress(lsaArray, 0, scopeToArea(lsaArray, 0)));
+        assertSame(areaLSAs, compressor.compress(lsaArray, 1, scopeToArea(lsaArray, 1)));
+
+        // the next flood is compressed again.
+        Vector<LSA> nextLSAArray = createLSAArray();
+        assertNotSame(backboneLSAs, compressor.compress(nextLSAArray, 0, scopeToArea(nextLSAArray, 0)));
+    }
+
+    @Test
+    public void lsasBelowTheThresholdAreNotCompressed() {
+        LSUpdateCompressor compressor = new LSUpdateCompressor(1024 * 1024);
+        Vector<LSA> lsaArray = createLSAArray();
+        assertNull(compressor.compress(lsaArray, 0, scopeToArea(lsaArray, 0)));
+    }
+
+    private static Vector<LSA> createLSAArray() {
+        Vector<LSA> lsaArray = new Vector<>();
+        for (int routerNo = 1; routerNo <= 20; routerNo++) {
+            LSA lsa = new LSA();
+            lsa.linkStateID = "10.0.0." + routerNo;
+            lsa.areaId = routerNo % 2;
+            LinkDescription linkDesc = new LinkDescription();
+            linkDesc.linkID = "10.0.0." + (routerNo + 1);
+            linkDesc.tosMetrics = 1;
+            lsa.links.add(linkDesc);
+            lsaArray.add(lsa);
+        }
+        return lsaArray;
+    }
+
+    private static Vector<LSA> scopeToArea(Vector<LSA> lsaArray, int areaId) {
+        Vector<LSA> scopedLSAs = new Vector<>();
+        for (LSA lsa : lsaArray) {
+            if (lsa.areaId == areaId) {
+                scopedLSAs.add(lsa);
+            }
+        }
+        return scopedLSAs;
+    }
+}
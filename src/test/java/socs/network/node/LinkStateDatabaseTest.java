@@ -0,0 +1,89 @@
+package socs.network.node;
+
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LinkStateDatabaseTest {
+    private static final String MY_IP = "10.0.0.1";
+
+    private LinkStateDatabase lsd;
+
+    @Before
+    public void setUp() {
+        RouterDescription rd = new RouterDescription();
+        rd.simulatedIPAddress = MY_IP;
+        lsd = new LinkStateDatabase(rd);
+    }
+
+    @Test
+    public void maxAgePurgeChangesTheVersion() {
+        // 10.0.0.1 -(1)- 10.0.0.2 -(1)- 10.0.0.3
+        addLink(MY_IP, "10.0.0.2", 1);
+        addLSA("10.0.0.2", 0, "10.0.0.1", 1, "10.0.0.3", 1);
+        addLSA("10.0.0.3", 0, "10.0.0.2", 1);
+        lsd.maxAgeSeconds = 10;
+        lsd._store.get("10.0.0.3").lsaAge = 9;
+        lsd.updateTopologyAndRoutingTable();
+        long version = lsd.getVersion();
+
+        assertEquals("[10.0.0.3]", lsd.ageLSAs(1).toString());
+        assertTrue("The version must change when LSAs are purged.", lsd.getVersion() != version);
+        assertFalse(lsd.getSummary().containsKey("10.0.0.3"));
+    }
+
+    @Test
+    public void agingWithoutPurgeKeepsTheVersion() {
+        addLink(MY_IP, "10.0.0.2", 1);
+        addLSA("10.0.0.2", 0, "10.0.0.1", 1);
+        lsd.updateTopologyAndRoutingTable();
+        long version = lsd.getVersion();
+
+        assertTrue(lsd.ageLSAs(1).isEmpty());
+        assertEquals(version, lsd.getVersion());
+    }
+
+    @Test
+    public void pathsOverZeroWeightLinksStartAtThisRouter() {
+        // 10.0.0.1 -(0)- 10.0.0.2 -(2)- 10.0.0.3, e.g. right after an attach that has not been confirmed by a HELLO.
+        addLink(MY_IP, "10.0.0.2", 0);
+        addLSA("10.0.0.2", 0, "10.0.0.1", 0, "10.0.0.3", 2);
+        addLSA("10.0.0.3", 0, "10.0.0.2", 2);
+        lsd.updateTopologyAndRoutingTable();
+
+        assertEquals("10.0.0.1 ->(0) 10.0.0.2", lsd.getShortestPath("10.0.0.2"));
+        assertEquals("10.0.0.1 ->(0) 10.0.0.2 ->(2) 10.0.0.3", lsd.getShortestPath("10.0.0.3"));
+        assertTrue(lsd.getEqualCostPaths("10.0.0.3").startsWith("10.0.0.1 ->(0) 10.0.0.2 ->(2) 10.0.0.3  [COST 2]"));
+        assertEquals("10.0.0.1 ->(0) It's the node itself", lsd.getShortestPath(MY_IP));
+    }
+
+    /**
+     * Adds a link to the LSA of the given router, which must already be in the database.
+     */
+    private void addLink(String routerIP, String linkID, int weight) {
+        LinkDescription linkDesc = new LinkDescription();
+        linkDesc.linkID = linkID;
+        linkDesc.tosMetrics = weight;
+        LSA lsa = lsd._store.get(routerIP);
+        lsa.links.add(linkDesc);
+        lsa.updateChecksum();
+    }
+
+    /**
+     * Adds the LSA of a router with the given links, as pairs of the neighbor IP and the weight of the link.
+     */
+    private void addLSA(String routerIP, int lsaSeqNumber, Object... links) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = routerIP;
+        lsa.lsaSeqNumber = lsaSeqNumber;
+        lsd._store.put(routerIP, lsa);
+        for (int l = 0; l < links.length; l += 2) {
+            addLink(routerIP, (String) links[l], (Integer) links[l + 1]);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+import socs.network.util.RouterConstants;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Vector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RouterServerTest {
+    private static final String SENDER_IP = "10.0.0.2";
+
+    private Router router;
+
+    @Before
+    public void setUp() throws IOException {
+        Path configPath = Files.createTempFile("router-server", ".conf");
+        configPath.toFile().deleteOnExit();
+        Files.write(configPath, Arrays.asList("socs.network.router.ip = \"10.0.0.1\"",
+                "socs.network.router.port = 27121"), StandardCharsets.UTF_8);
+        router = new Router(new Configuration(configPath.toString()), "127.0.0.1");
+    }
+
+    @After
+    public void tearDown() {
+        router.shutdown();
+    }
+
+    @Test
+    public void onlyInstalledLSAsChangeTheVersion() {
+        long version = router.lsd.getVersion();
+        receiveLSUpdate(createLSA(1, 5));
+        assertTrue("A new LSA must change the version.", router.lsd.getVersion() != version);
+
+        version = router.lsd.getVersion();
+        receiveLSUpdate(createLSA(1, 5));
+        assertEquals("A duplicate LSA must not change the version.", version, router.lsd.getVersion());
+
+        receiveLSUpdate(createLSA(0, 5));
+        assertEquals("A stale LSA must not change the version.", version, router.lsd.getVersion());
+
+        receiveLSUpdate(createLSA(2, 5));
+        assertTrue("A refreshed LSA must change the version.", router.lsd.getVersion() != version);
+        assertEquals(2, router.lsd._store.get(SENDER_IP).lsaSeqNumber);
+    }
+
+    private void receiveLSUpdate(LSA lsa) {
+        SOSPFPacket packet = new SOSPFPacket();
+        packet.timeToLive = System.currentTimeMillis() + RouterConstants.TIME_TO_LIVE_MILLIS;
+        packet.srcProcessIP = "127.0.0.1";
+        packet.srcProcessPort = (short) 27122;
+        packet.srcIP = SENDER_IP;
+        packet.dstIP = router.getRd().simulatedIPAddress;
+        packet.routerID = SENDER_IP;
+        packet.sospfType = RouterConstants.LSUPDATE_PACKET;
+        packet.lsaArray = new Vector<>(Arrays.asList(lsa));
+        assertTrue(router.getRouterServer().replayMessage(packet));
+    }
+
+    private static LSA createLSA(int seqNumber, int weight) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = SENDER_IP;
+        lsa.lsaSeqNumber = seqNumber;
+        LinkDescription linkDesc = new LinkDescription();
+        linkDesc.linkID = "10.0.0.3";
+        linkDesc.tosMetrics = weight;
+        lsa.links.add(linkDesc);
+        lsa.updateChecksum();
+        return lsa;
+    }
+}
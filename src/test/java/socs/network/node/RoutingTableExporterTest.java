@@ -0,0 +1,86 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertTrue;
+
+public class RoutingTableExporterTest {
+
+    /**
+     * 10.0.0.1 reaches 10.0.0.8 over six equal-cost paths, one through each of 10.0.0.2 ... 10.0.0.7, and 10.0.1.1
+     * behind it. The middle routers are linked in descending order of their IDs.
+     */
+    private static TopologyGraph createFanOut() {
+        List<LSA> lsas = new ArrayList<>();
+        LSA source = createLSA("10.0.0.1");
+        LSA destination = createLSA("10.0.0.8");
+        for (int m = 7; m >= 2; m--) {
+            LSA middle = createLSA("10.0.0." + m);
+            link(source, middle, 1);
+            link(middle, destination, 1);
+            lsas.add(middle);
+        }
+        LSA behindDestination = createLSA("10.0.1.1");
+        link(destination, behindDestination, 1);
+        lsas.add(source);
+        lsas.add(destination);
+        lsas.add(behindDestination);
+        return TopologyGraph.fromLSAs(lsas);
+    }
+
+    @Test
+    public void exportedNextHopsAreThoseWithTheLowestIDs() throws IOException {
+        List<String> rows = exportRoutes(3);
+        // the routers keep the three next hops with the lowest IDs.
+        assertTrue(rows.contains("10.0.0.1,10.0.0.8,2,10.0.0.2;10.0.0.3;10.0.0.4"));
+        assertTrue(rows.contains("10.0.0.1,10.0.1.1,3,10.0.0.2;10.0.0.3;10.0.0.4"));
+        assertTrue(rows.contains("10.0.1.1,10.0.0.1,3,10.0.0.8"));
+    }
+
+    @Test
+    public void allNextHopsWithinTheLimitAreExported() throws IOException {
+        List<String> rows = exportRoutes(8);
+        assertTrue(rows.contains("10.0.0.1,10.0.1.1,3,10.0.0.2;10.0.0.3;10.0.0.4;10.0.0.5;10.0.0.6;10.0.0.7"));
+    }
+
+    private static List<String> exportRoutes(int maxNextHops) throws IOException {
+        Path file = Files.createTempFile("routes", ".csv");
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            new RoutingTableExporter(createFanOut(), false, maxNextHops).exportRoutes(file, executor, 2);
+            return Files.readAllLines(file, StandardCharsets.UTF_8);
+        } finally {
+            executor.shutdown();
+            Files.delete(file);
+        }
+    }
+
+    private static LSA createLSA(String routerIP) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = routerIP;
+        return lsa;
+    }
+
+    private static void link(LSA lsa, LSA otherLSA, int weight) {
+        lsa.links.add(createLinkDescription(otherLSA.linkStateID, weight));
+        otherLSA.links.add(createLinkDescription(lsa.linkStateID, weight));
+    }
+
+    private static LinkDescription createLinkDescription(String linkID, int weight) {
+        LinkDescription linkDesc = new LinkDescription();
+        linkDesc.linkID = linkID;
+        linkDesc.tosMetrics = weight;
+        return linkDesc;
+    }
+}
@@ -0,0 +1,133 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.MessageCodec;
+import socs.network.message.SOSPFPacket;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedMemoryRingTest {
+    // room for four records of the packets below (56 bytes each) and 32 bytes that only fit a padding marker.
+    private static final int CAPACITY = 256;
+    private static final int RECORD_SIZE = 56;
+    // the size of the header of a ring.
+    private static final int HEADER_SIZE = 192;
+
+    private Path directory;
+    private Path ringPath;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("shm-ring");
+        ringPath = directory.resolve("ring");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void recordsAreSizedAsAssumed() {
+        assertEquals(RECORD_SIZE, (4 + MessageCodec.sizeOf(createPacket(0)) + 7) & ~7);
+    }
+
+    @Test
+    public void offerFailsWhileTheRingIsFull() throws IOException {
+        SharedMemoryRing producer = SharedMemoryRing.openProducer(ringPath, CAPACITY);
+        SharedMemoryRing consumer = SharedMemoryRing.openConsumer(ringPath);
+        for (int packetNo = 0; packetNo < 4; packetNo++) {
+            assertTrue(producer.offer(createPacket(packetNo)));
+        }
+        // the fifth record would have to wrap around, over the record not read yet at the start.
+        assertFalse(producer.offer(createPacket(4)));
+
+        assertPacket(0, consumer.poll());
+        assertTrue(producer.offer(createPacket(4)));
+        assertFalse(producer.offer(createPacket(5)));
+    }
+
+    @Test
+    public void recordsWrapAroundPastThePaddingMarker() throws IOException {
+        SharedMemoryRing producer = SharedMemoryRing.openProducer(ringPath, CAPACITY);
+        SharedMemoryRing consumer = SharedMemoryRing.openConsumer(ringPath);
+        int nextOffered = 0;
+        int nextPolled = 0;
+        // every lap ends with a padding marker, which the consumer reaches with the producer at a different record.
+        for (int round = 0; round < 20; round++) {
+            while (producer.offer(createPacket(nextOffered))) {
+                nextOffered++;
+            }
+            for (int polls = 0; polls < 1 + round % 3; polls++) {
+                assertPacket(nextPolled++, consumer.poll());
+            }
+        }
+        while (nextPolled < nextOffered) {
+            assertPacket(nextPolled++, consumer.poll());
+        }
+        assertNull(consumer.poll());
+        assertTrue(consumer.isDrained());
+        assertTrue(nextOffered > 20 * CAPACITY / RECORD_SIZE / 4);
+    }
+
+    @Test
+    public void reopenedRingResumesAtTheCursors() throws IOException {
+        SharedMemoryRing producer = SharedMemoryRing.openProducer(ringPath, CAPACITY);
+        SharedMemoryRing consumer = SharedMemoryRing.openConsumer(ringPath);
+        for (int packetNo = 0; packetNo < 3; packetNo++) {
+            assertTrue(producer.offer(createPacket(packetNo)));
+        }
+        assertPacket(0, consumer.poll());
+
+        // an existing ring is not re-initialized: both sides carry on from where the previous ones stopped.
+        producer = SharedMemoryRing.openProducer(ringPath, CAPACITY);
+        consumer = SharedMemoryRing.openConsumer(ringPath);
+        assertFalse(consumer.isDrained());
+        // the second of these wraps around, over the record the previous consumer read.
+        for (int packetNo = 3; packetNo < 5; packetNo++) {
+            assertTrue(producer.offer(createPacket(packetNo)));
+        }
+        assertFalse(producer.offer(createPacket(5)));
+        for (int packetNo = 1; packetNo < 5; packetNo++) {
+            assertPacket(packetNo, consumer.poll());
+        }
+        assertNull(consumer.poll());
+    }
+
+    @Test(expected = IOException.class)
+    public void fileThatIsNotARingIsRejected() throws IOException {
+        Files.write(ringPath, new byte[HEADER_SIZE + CAPACITY]);
+        SharedMemoryRing.openConsumer(ringPath);
+    }
+
+    private static SOSPFPacket createPacket(int packetNo) {
+        SOSPFPacket packet = new SOSPFPacket();
+        packet.srcProcessIP = "127.0.0.1";
+        packet.srcProcessPort = 5000;
+        packet.srcIP = "10.0.0.1";
+        packet.dstIP = "10.0.0.2";
+        packet.timeToLive = packetNo;
+        return packet;
+    }
+
+    private static void assertPacket(int packetNo, SOSPFPacket packet) {
+        assertEquals(packetNo, packet.timeToLive);
+        assertEquals("10.0.0.1", packet.srcIP);
+        assertEquals("10.0.0.2", packet.dstIP);
+    }
+}
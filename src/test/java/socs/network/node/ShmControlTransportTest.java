@@ -0,0 +1,113 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+import socs.network.util.RouterConstants;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShmControlTransportTest {
+    private static final int PORT = 27111;
+    private static final int RING_BYTES = 4096;
+    // the offset of the first record in a ring file.
+    private static final int RECORDS_OFFSET = 192;
+    private static final long RECEIVE_TIMEOUT_MILLIS = 2000;
+
+    private Path ringDirectory;
+    private Router router;
+    private RecordingTransport transport;
+
+    @Before
+    public void setUp() throws IOException {
+        ringDirectory = Files.createTempDirectory("shm-transport");
+        Path configPath = Files.createTempFile("shm-transport", ".conf");
+        configPath.toFile().deleteOnExit();
+        Files.write(configPath, Arrays.asList("socs.network.router.ip = \"10.0.0.1\"",
+                "socs.network.router.port = " + PORT), StandardCharsets.UTF_8);
+        router = new Router(new Configuration(configPath.toString()), "127.0.0.1");
+        transport = new RecordingTransport(router);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        transport.stop();
+        router.shutdown();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(ringDirectory)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(ringDirectory);
+    }
+
+    @Test
+    public void corruptRingDoesNotStopTheOtherRings() throws IOException, InterruptedException {
+        // started first, as it deletes the rings to it that it finds.
+        assertTrue(transport.start());
+        SharedMemoryRing corruptRing = SharedMemoryRing.openProducer(ringDirectory.resolve(PORT + "-27112.ring"),
+                RING_BYTES);
+        assertTrue(corruptRing.offer(createPacket("10.0.0.2", 1)));
+        try (RandomAccessFile ringFile = new RandomAccessFile(corruptRing.getPath().toFile(), "rw")) {
+            ringFile.seek(RECORDS_OFFSET);
+            ringFile.writeInt(Integer.MAX_VALUE);
+        }
+        // let the reader map the corrupt ring and fail to read it before the other ring exists.
+        Thread.sleep(4 * RouterConstants.SHM_SCAN_INTERVAL_MILLIS);
+        SharedMemoryRing ring = SharedMemoryRing.openProducer(ringDirectory.resolve(PORT + "-27113.ring"), RING_BYTES);
+        assertTrue(ring.offer(createPacket("10.0.0.3", 1)));
+
+        assertEquals(1, receive().timeToLive);
+                assertTrue(ring.offer(createPacket("10.0.0.3", 2)));
+        assertEquals(2, receive().timeToLive);
+    }
+
+    private SOSPFPacket receive() throws InterruptedException {
+        SOSPFPacket packet = transport.received.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("The message was not delivered.", packet);
+        assertEquals("10.0.0.3", packet.srcIP);
+        return packet;
+    }
+
+    private static SOSPFPacket createPacket(String srcIP, long timeToLive) {
+        SOSPFPacket packet = new SOSPFPacket();
+        packet.srcProcessIP = "127.0.0.1";
+        packet.srcProcessPort = (short) 27113;
+        packet.srcIP = srcIP;
+        packet.dstIP = "10.0.0.1";
+        packet.sospfType = RouterConstants.LSUPDATE_PACKET;
+        packet.timeToLive = timeToLive;
+        return packet;
+    }
+
+    /**
+     * A shared memory transport that keeps the messages it receives instead of handing them to the router.
+     */
+    private final class RecordingTransport extends ShmControlTransport {
+        private final BlockingQueue<SOSPFPacket> received = new LinkedBlockingQueue<>();
+
+        private RecordingTransport(Router router) {
+            super(router, router.getRouterServer(), ringDirectory, RING_BYTES);
+        }
+
+        @Override
+        protected void messageReceived(SOSPFPacket packet) {
+            received.add(packet);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package socs.network.node;
+
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.LinkDescription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrafficMatrixAnalyzerTest {
+    private static final double DELTA = 1e-9;
+
+    /**
+     * 10.0.0.1 reaches 10.0.0.9 over six equal-cost paths, one through each of 10.0.0.2 ... 10.0.0.7.
+     */
+    private static TopologyGraph createFanOut() {
+        List<LSA> lsas = new ArrayList<>();
+        LSA source = createLSA("10.0.0.1");
+        LSA destination = createLSA("10.0.0.9");
+        for (int m = 2; m <= 7; m++) {
+            LSA middle = createLSA("10.0.0." + m);
+            link(source, middle, 1);
+            link(middle, destination, 1);
+            lsas.add(middle);
+        }
+        lsas.add(source);
+        lsas.add(destination);
+        return TopologyGraph.fromLSAs(lsas);
+    }
+
+    @Test
+    public void loadIsSplitOverTheNextHopsTheRoutersKeep() {
+        TopologyGraph graph = createFanOut();
+        TrafficMatrixAnalyzer analyzer = new TrafficMatrixAnalyzer(graph, 10, 4);
+        analyzer.addDemand("10.0.0.1", "10.0.0.9", 8);
+        TrafficMatrixAnalyzer.Result result = analyzer.analyze(new ForkJoinPool(2));
+
+        int source = graph.indexOf("10.0.0.1");
+        for (int m = 2; m <= 7; m++) {
+            int edge = graph.edgeBetween(source, graph.indexOf("10.0.0." + m));
+            // the routers keep the four next hops with the lowest IDs.
+            assertEquals("load towards 10.0.0." + m, m <= 5 ? 2.0 : 0.0, result.edgeLoad[edge], DELTA);
+        }
+        assertEquals(8, result.routedDemand, DELTA);
+    }
+
+    @Test
+    public void loadIsSplitOverAllNextHopsWithinTheLimit() {
+        TopologyGraph graph = createFanOut();
+        TrafficMatrixAnalyzer analyzer = new TrafficMatrixAnalyzer(graph, 10, 8);
+        analyzer.addDemand("10.0.0.1", "10.0.0.9", 6);
+        TrafficMatrixAnalyzer.Result result = analyzer.analyze(new ForkJoinPool(2));
+
+        int source = graph.indexOf("10.0.0.1");
+        for (int m = 2; m <= 7; m++) {
+            int edge = graph.edgeBetween(source, graph.indexOf("10.0.0." + m));
+            assertEquals(1.0, result.edgeLoad[edge], DELTA);
+            assertEquals(0.1, result.getUtilization(edge), DELTA);
+        }
+    }
+
+    private static LSA createLSA(String routerIP) {
+        LSA lsa = new LSA();
+        lsa.linkStateID = routerIP;
+        return lsa;
+    }
+
+    private static void link(LSA lsa, LSA otherLSA, int weight) {
+        lsa.links.add(createLinkDescription(otherLSA.linkStateID, weight));
+        otherLSA.links.add(createLinkDescription(lsa.linkStateID, weight));
+    }
+
+    private static LinkDescription createLinkDescription(String linkID, int weight) {
+        LinkDescription linkDesc = new LinkDescription();
+        linkDesc.linkID = linkID;
+        linkDesc.tosMetrics = weight;
+        return linkDesc;
+    }
+}
@@ -0,0 +1,169 @@
+package socs.network.node;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import socs.network.message.LSA;
+import socs.network.message.SOSPFPacket;
+import socs.network.util.Configuration;
+import socs.network.util.HierarchicalTimerWheel;
+import socs.network.util.RouterConstants;
+import socs.network.util.RouterUtils;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UdpControlTransportTest {
+    private static final int PORT_OFFSET = 3000;
+    private static final long RECEIVE_TIMEOUT_MILLIS = 2000;
+    // the sequence number of the LSA of the messages the receiver fails to process.
+    private static final int FAILING_SEQ_NUMBER = -1;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HierarchicalTimerWheel timerWheel = new HierarchicalTimerWheel(
+            RouterConstants.TIMER_WHEEL_TICK_MILLIS, RouterConstants.TIMER_WHEEL_SLOTS_PER_LEVEL,
+            RouterConstants.TIMER_WHEEL_LEVELS, executor);
+    private Router receivingRouter;
+    private Router sendingRouter;
+    private RecordingTransport receiver;
+    private UdpControlTransport sender;
+
+    @Before
+    public void setUp() throws IOException {
+        timerWheel.start();
+        receivingRouter = createRouter("10.0.0.1", 27101);
+        sendingRouter = createRouter("10.0.0.2", 27102);
+        receiver = new RecordingTransport(receivingRouter);
+        receiver.start();
+    }
+
+    @After
+    public void tearDown() {
+        if (sender != null) {
+            sender.stop();
+        }
+        receiver.stop();
+        receivingRouter.shutdown();
+        sendingRouter.shutdown();
+        timerWheel.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void retransmittedMessageIsDeliveredOnce() throws InterruptedException {
+        receiver.isFirstAckDropped = true;
+        sender = startSender();
+        sender.send(receivingRouter.getRd(), createLSUpdate(1), RouterConstants.LSUPDATE_STRING);
+        assertEquals(1, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+
+        // the first LSAck was lost, so the sender retransmits the message, which is acknowledged again.
+        assertTrue("The message was not retransmitted.", receiver.noOfAcks.tryAcquire(2, RECEIVE_TIMEOUT_MILLIS,
+                TimeUnit.MILLISECONDS));
+        assertNull(receiver.received.poll(2 * RouterConstants.UDP_RETRANSMIT_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void messageThatFailsToBeProcessedDoesNotStopTheReceiver() throws InterruptedException {
+        sender = startSender();
+        sender.send(receivingRouter.getRd(), createLSUpdate(FAILING_SEQ_NUMBER), RouterConstants.LSUPDATE_STRING);
+        sender.send(receivingRouter.getRd(), createLSUpdate(1), RouterConstants.LSUPDATE_STRING);
+        assertEquals(1, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+    }
+
+    @Test
+    public void messagesOfRestartedSenderAreNotTakenForDuplicates() throws InterruptedException {
+        sender = startSender();
+        sender.send(receivingRouter.getRd(), createLSUpdate(1), RouterConstants.LSUPDATE_STRING);
+        sender.send(receivingRouter.getRd(), createLSUpdate(2), RouterConstants.LSUPDATE_STRING);
+        assertEquals(1, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+        assertEquals(2, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+
+        // restart the sender on the same address: its message IDs start at 1 again.
+        sender.stop();
+        sender = startSender();
+        sender.send(receivingRouter.getRd(), createLSUpdate(3), RouterConstants.LSUPDATE_STRING);
+        sender.send(receivingRouter.getRd(), createLSUpdate(4), RouterConstants.LSUPDATE_STRING);
+        assertEquals(3, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+        assertEquals(4, receiveLSUpdate().lsaArray.get(0).lsaSeqNumber);
+    }
+
+    private UdpControlTransport startSender() {
+        UdpControlTransport transport = new UdpControlTransport(sendingRouter, sendingRouter.getRouterServer(),
+                PORT_OFFSET, timerWheel);
+        assertEquals(true, transport.start());
+        return transport;
+    }
+
+    private SOSPFPacket receiveLSUpdate() throws InterruptedException {
+        SOSPFPacket packet = receiver.received.poll(RECEIVE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull("The LSUPDATE was not delivered.", packet);
+        return packet;
+    }
+
+    private SOSPFPacket createLSUpdate(int lsaSeqNumber) {
+        SOSPFPacket packet = RouterUtils.createNewPacket(sendingRouter.getRd(),
+                receivingRouter.getRd().simulatedIPAddress, RouterConstants.LSUPDATE_PACKET);
+        LSA lsa = new LSA();
+        lsa.linkStateID = sendingRouter.getRd().simulatedIPAddress;
+        lsa.lsaSeqNumber = lsaSeqNumber;
+        lsa.updateChecksum();
+        packet.lsaArray = new Vector<>(Arrays.asList(lsa));
+        return packet;
+    }
+
+    private static Router createRouter(String simulatedIP, int port) throws IOException {
+        Path configPath = Files.createTempFile("udp-transport", ".conf");
+        configPath.toFile().deleteOnExit();
+        Files.write(configPath, Arrays.asList("socs.network.router.ip = \"" + simulatedIP + "\"",
+                "socs.network.router.port = " + port), StandardCharsets.UTF_8);
+        return new Router(new Configuration(configPath.toString()), "127.0.0.1");
+    }
+
+    /**
+     * A UDP transport that keeps the messages it delivers instead of handing them to the router.
+     */
+    private final class RecordingTransport extends UdpControlTransport {
+        private final BlockingQueue<SOSPFPacket> received = new LinkedBlockingQueue<>();
+        // a permit per LSAck sent or dropped.
+        private final Semaphore noOfAcks = new Semaphore(0);
+        private volatile boolean isFirstAckDropped = false;
+
+        private RecordingTransport(Router router) {
+            super(router, router.getRouterServer(), PORT_OFFSET, timerWheel);
+        }
+
+        @Override
+        protected void messageReceived(SOSPFPacket packet) {
+            if (packet.lsaArray.get(0).lsaSeqNumber == FAILING_SEQ_NUMBER) {
+                throw new IllegalStateException("Failed to process the message.");
+            }
+            received.add(packet);
+        }
+
+        @Override
+        protected void sendAck(SocketAddress address, int senderEpoch, int messageId) throws IOException {
+            boolean isDropped = isFirstAckDropped && noOfAcks.availablePermits() == 0;
+            noOfAcks.release();
+            if (!isDropped) {
+                super.sendAck(address, senderEpoch, messageId);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package socs.network.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalTimerWheelTest {
+    private static final long TICK_MILLIS = 5;
+
+    // runs the expired tasks on the ticker thread, so they run in the order they expire.
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable task) {
+            task.run();
+        }
+    };
+
+    private final List<Long> expiredDelays = Collections.synchronizedList(new ArrayList<Long>());
+    // 4 slots of 1, 4 and 16 ticks: timers beyond 16 ticks are cascaded down twice.
+    private final HierarchicalTimerWheel timerWheel = new HierarchicalTimerWheel(TICK_MILLIS, 4, 3, SAME_THREAD);
+
+    @After
+    public void tearDown() {
+        timerWheel.stop();
+    }
+
+    @Test
+    public void timersExpireInTheOrderOfTheirDeadlinesAcrossCascades() throws InterruptedException {
+        long[] delayTicks = {40, 3, 17, 1, 63, 4, 16, 5, 64, 2, 90};
+        CountDownLatch allExpired = new CountDownLatch(delayTicks.length);
+        for (long delay : delayTicks) {
+            timerWheel.schedule(recordExpiry(delay * TICK_MILLIS, allExpired), delay * TICK_MILLIS);
+        }
+        timerWheel.start();
+
+        assertTrue("Not all timers expired.", allExpired.await(5, TimeUnit.SECONDS));
+        long[] sortedDelays = delayTicks.clone();
+        Arrays.sort(sortedDelays);
+        for (int t = 0; t < sortedDelays.length; t++) {
+            assertEquals(sortedDelays[t] * TICK_MILLIS, (long) expiredDelays.get(t));
+        }
+    }
+
+    @Test
+    public void timersNeverExpireBeforeTheirDelay() throws InterruptedException {
+        final CountDownLatch allExpired = new CountDownLatch(3);
+        timerWheel.start();
+        final long[] expiredAfterMillis = new long[3];
+        long[] delays = {7, 83, 260};
+        for (int t = 0; t < delays.length; t++) {
+            final int timer = t;
+            final long scheduledMillis = System.currentTimeMillis();
+            timerWheel.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    expiredAfterMillis[timer] = System.currentTimeMillis() - scheduledMillis;
+                    allExpired.countDown();
+                }
+            }, delays[t]);
+        }
+
+        assertTrue("Not all timers expired.", allExpired.await(5, TimeUnit.SECONDS));
+        for (int t = 0; t < delays.length; t++) {
+            // the wheel only knows whole ticks: a timer may start counting down up to a tick late or early.
+            assertTrue("Timer of " + delays[t] + " ms expired after " + expiredAfterMillis[t] + " ms.",
+                    expiredAfterMillis[t] >= delays[t] - TICK_MILLIS);
+        }
+    }
+
+    @Test
+    public void cancelledTimersDoNotExpire() throws InterruptedException {
+        CountDownLatch expired = new CountDownLatch(2);
+        HierarchicalTimerWheel.Timeout nearTimeout = timerWheel.schedule(recordExpiry(10, expired), 10);
+        HierarchicalTimerWheel.Timeout farTimeout = timerWheel.schedule(recordExpiry(200, expired), 200);
+        timerWheel.schedule(recordExpiry(250, expired), 250);
+
+        assertTrue(timerWheel.cancel(nearTimeout));
+        assertTrue(timerWheel.cancel(farTimeout));
+        assertFalse("A timer can only be cancelled once.", timerWheel.cancel(farTimeout));
+        timerWheel.start();
+
+        assertFalse(expired.await(500, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList(250L), new ArrayList<>(expiredDelays));
+    }
+
+    private Runnable recordExpiry(final long delayMillis, final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                expiredDelays.add(delayMillis);
+                latch.countDown();
+            }
+        };
+    }
+}